@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.encoding.ElementListener;
+import net.named_data.jndn.transport.TcpTransport;
+import net.named_data.jndn.transport.Transport;
+import net.named_data.jndn.transport.UnixTransport;
+import net.named_data.jndn.util.Blob;
+
+/**
+ * Compare the throughput of UnixTransport and TcpTransport to a local echo
+ * server which stands in for NFD. The client sends Data packets through the
+ * transport and uses processEvents to receive and frame the echoed packets.
+ */
+public class TestUnixTransportBenchmark {
+  private static double
+  getNowSeconds()
+  {
+    return System.currentTimeMillis() / 1000.0;
+  }
+
+  /**
+   * Start a thread which accepts one connection and echoes everything it reads.
+   */
+  private static void
+  startEchoServer(final ServerSocketChannel server)
+  {
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          SocketChannel channel = server.accept();
+          ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+          while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining())
+              channel.write(buffer);
+            buffer.clear();
+          }
+          channel.close();
+        } catch (IOException ex) {
+          // The client closed the connection.
+        }
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Send nPackets, keeping at most window packets in flight, and receive the
+   * echoed packets.
+   * @return The number of seconds.
+   */
+  private static double
+  benchmark
+    (Transport transport, Transport.ConnectionInfo connectionInfo,
+     int nPackets, int window, ByteBuffer packet)
+    throws Exception
+  {
+    final int[] nReceived = new int[] { 0 };
+    transport.connect(connectionInfo, new ElementListener() {
+      public void onReceivedElement(ByteBuffer element) { ++nReceived[0]; }
+    }, null);
+
+    double start = getNowSeconds();
+    int nSent = 0;
+    while (nReceived[0] < nPackets) {
+      while (nSent < nPackets && nSent - nReceived[0] < window) {
+        transport.send(packet);
+        ++nSent;
+      }
+      transport.processEvents();
+    }
+    double finish = getNowSeconds();
+
+    transport.close();
+    return finish - start;
+  }
+
+  private static void
+  printResult(String label, int nPackets, int packetSize, double duration)
+  {
+    System.out.println
+      (label + ": " + nPackets + " packets of " + packetSize + " bytes in " +
+       duration + " seconds, " + (int)(nPackets / duration) + " packets/s, " +
+       (int)(nPackets * (double)packetSize / duration / 1e6) + " MB/s");
+  }
+
+  public static void
+  main(String[] args)
+  {
+    try {
+      int nPackets = 200000;
+      int window = 32;
+      int[] contentSizes = new int[] { 100, 1000, 8000 };
+
+      for (int i = 0; i < contentSizes.length; ++i) {
+        Data data = new Data(new Name("/benchmark/data").appendSegment(i));
+        data.setContent(new Blob(new byte[contentSizes[i]]));
+        ByteBuffer packet = data.wireEncode().buf();
+        int packetSize = packet.remaining();
+
+        // Loopback TCP.
+        ServerSocketChannel tcpServer = ServerSocketChannel.open();
+        tcpServer.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        startEchoServer(tcpServer);
+        double tcpDuration = benchmark
+          (new TcpTransport(), new TcpTransport.ConnectionInfo
+            ("127.0.0.1", tcpServer.socket().getLocalPort()),
+           nPackets, window, packet);
+        tcpServer.close();
+        printResult("TCP ", nPackets, packetSize, tcpDuration);
+
+        if (!UnixTransport.isSupported()) {
+          System.out.println
+            ("Unix domain sockets require Java 16 or later. Skipping.");
+          continue;
+        }
+
+        // Unix domain socket. The API is Java 16 or later, so use reflection.
+        File socketFile = File.createTempFile("jndn-benchmark", ".sock");
+        socketFile.delete();
+        SocketAddress address = (SocketAddress)Class.forName
+          ("java.net.UnixDomainSocketAddress").getMethod("of", String.class)
+          .invoke(null, socketFile.getAbsolutePath());
+        ServerSocketChannel unixServer =
+          (ServerSocketChannel)ServerSocketChannel.class.getMethod
+          ("open", ProtocolFamily.class).invoke
+          (null, StandardProtocolFamily.valueOf("UNIX"));
+        unixServer.bind(address);
+        startEchoServer(unixServer);
+        double unixDuration = benchmark
+          (new UnixTransport(),
+           new UnixTransport.ConnectionInfo(socketFile.getAbsolutePath()),
+           nPackets, window, packet);
+        unixServer.close();
+        socketFile.delete();
+        printResult("Unix", nPackets, packetSize, unixDuration);
+      }
+    } catch (Exception ex) {
+      System.out.println("Exception: " + ex);
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests;
+
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.X509EncodedKeySpec;
+import net.named_data.jndn.security.CryptoEngine;
+import net.named_data.jndn.security.KeyType;
+import net.named_data.jndn.security.VerificationHelpers;
+import net.named_data.jndn.security.certificate.PublicKey;
+import net.named_data.jndn.util.Blob;
+
+/**
+ * Compare the time to verify signatures when the public key DER is decoded
+ * and the JCA objects are created for each verification (as VerificationHelpers
+ * did before CryptoEngine), to VerificationHelpers with the CryptoEngine
+ * caches.
+ */
+public class TestVerifyBenchmark {
+  private static double
+  getNowSeconds()
+  {
+    return System.currentTimeMillis() / 1000.0;
+  }
+
+  /**
+   * Verify without caching, the same as VerificationHelpers did before
+   * CryptoEngine.
+   */
+  private static boolean
+  verifyUncached(ByteBuffer buffer, byte[] signature, Blob publicKeyDer)
+    throws Exception
+  {
+    PublicKey publicKey = new PublicKey(publicKeyDer);
+    String keyAlgorithm = publicKey.getKeyType() == KeyType.RSA ? "RSA" : "EC";
+    String signatureAlgorithm = publicKey.getKeyType() == KeyType.RSA ?
+      "SHA256withRSA" : "SHA256withECDSA";
+
+    java.security.PublicKey securityPublicKey = KeyFactory.getInstance
+      (keyAlgorithm).generatePublic
+      (new X509EncodedKeySpec(publicKey.getKeyDer().getImmutableArray()));
+    java.security.Signature verifier =
+      java.security.Signature.getInstance(signatureAlgorithm);
+    verifier.initVerify(securityPublicKey);
+    verifier.update(buffer);
+    return verifier.verify(signature);
+  }
+
+  /**
+   * Verify nIterations times and return the number of seconds.
+   */
+  private static double
+  benchmark
+    (boolean useCache, int nIterations, ByteBuffer buffer, byte[] signature,
+     Blob publicKeyDer)
+    throws Exception
+  {
+    double start = getNowSeconds();
+    for (int i = 0; i < nIterations; ++i) {
+      boolean verified;
+      if (useCache)
+        verified = VerificationHelpers.verifySignature
+          (buffer.duplicate(), signature, publicKeyDer);
+      else
+        verified = verifyUncached(buffer.duplicate(), signature, publicKeyDer);
+
+      if (!verified)
+        throw new Error("Signature verification failed");
+    }
+    return getNowSeconds() - start;
+  }
+
+  private static void
+  run(String keyAlgorithm, int keySize, String signatureAlgorithm,
+      int nIterations) throws Exception
+  {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance(keyAlgorithm);
+    generator.initialize(keySize);
+    KeyPair keyPair = generator.generateKeyPair();
+    Blob publicKeyDer = new Blob(keyPair.getPublic().getEncoded(), false);
+
+    // A typical signed portion of a Data packet.
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[300]);
+    java.security.Signature signer =
+      java.security.Signature.getInstance(signatureAlgorithm);
+    signer.initSign(keyPair.getPrivate());
+    signer.update(buffer.duplicate());
+    byte[] signature = signer.sign();
+
+    // Warm up the JIT.
+    benchmark(false, nIterations / 10, buffer, signature, publicKeyDer);
+    benchmark(true, nIterations / 10, buffer, signature, publicKeyDer);
+
+    double uncachedDuration = benchmark
+      (false, nIterations, buffer, signature, publicKeyDer);
+    double cachedDuration = benchmark
+      (true, nIterations, buffer, signature, publicKeyDer);
+
+    String label = keyAlgorithm + " " + keySize;
+    System.out.println
+      (label + " uncached: " + nIterations + " verifications in " +
+       uncachedDuration + " seconds, " +
+       (int)(nIterations / uncachedDuration) + " per second");
+    System.out.println
+      (label + " cached:   " + nIterations + " verifications in " +
+       cachedDuration + " seconds, " +
+       (int)(nIterations / cachedDuration) + " per second");
+  }
+
+  public static void
+  main(String[] args)
+  {
+    try {
+      run("EC", 256, "SHA256withECDSA", 2000);
+      run("RSA", 2048, "SHA256withRSA", 50000);
+      System.out.println
+        ("Public key cache hits " + CryptoEngine.getPublicKeyCacheHits() +
+         ", misses " + CryptoEngine.getPublicKeyCacheMisses());
+    } catch (Exception ex) {
+      System.out.println("Exception: " + ex);
+    }
+  }
+}
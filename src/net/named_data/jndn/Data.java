@@ -19,10 +19,14 @@
 
 package net.named_data.jndn;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.encoding.TlvWireFormat;
 import net.named_data.jndn.encoding.WireFormat;
 import net.named_data.jndn.encoding.SignatureHolder;
+import net.named_data.jndn.encoding.tlv.Tlv;
+import net.named_data.jndn.encoding.tlv.TlvDecoder;
 import net.named_data.jndn.lp.CongestionMark;
 import net.named_data.jndn.lp.IncomingFaceId;
 import net.named_data.jndn.lp.LpPacket;
@@ -70,9 +74,10 @@ public class Data implements ChangeCountable, SignatureHolder {
 
     name_.set(new Name(data.getName()));
     metaInfo_.set(new MetaInfo(data.getMetaInfo()));
-    content_ = data.content_;
+    content_ = data.getContent();
     setDefaultWireEncoding(data.getDefaultWireEncoding(), null);
     defaultFullName_ = new Name(data.defaultFullName_);
+    encodingSizeHint_ = data.encodingSizeHint_;
   }
 
   /**
@@ -99,6 +104,8 @@ public class Data implements ChangeCountable, SignatureHolder {
     if (wireFormat == WireFormat.getDefaultWireFormat())
       // This is the default wire encoding.
       setDefaultWireEncoding(wireEncoding, WireFormat.getDefaultWireFormat());
+    else
+      encodingSizeHint_ = wireEncoding.size();
 
     return wireEncoding;
   }
@@ -114,6 +121,51 @@ public class Data implements ChangeCountable, SignatureHolder {
     return wireEncode(WireFormat.getDefaultWireFormat());
   }
 
+  /**
+   * Encode this Data for a particular wire format directly into the output
+   * buffer, for example a transport send buffer. If this Data already has a
+   * default wire encoding in the wire format, copy it. Otherwise encode
+   * without making an intermediate Blob. Unlike wireEncode(wireFormat), this
+   * does not set the defaultWireEncoding field.
+   * @param output The caller's buffer. This copies the encoding at
+   * output.position() and advances the position.
+   * @param wireFormat A WireFormat object used to encode this Data.
+   * @return The length of the encoding.
+   * @throws BufferOverflowException If output.remaining() is less
+   * than the length of the encoding. In this case, output is not changed.
+   */
+  public final int
+  wireEncode(ByteBuffer output, WireFormat wireFormat)
+  {
+    SignedBlob defaultWireEncoding = getDefaultWireEncoding();
+    if (!defaultWireEncoding.isNull() &&
+        getDefaultWireEncodingFormat() == wireFormat) {
+      if (output.remaining() < defaultWireEncoding.size())
+        throw new BufferOverflowException();
+      output.put(defaultWireEncoding.buf());
+      return defaultWireEncoding.size();
+    }
+
+    int length = wireFormat.encodeData(this, output);
+    encodingSizeHint_ = length;
+    return length;
+  }
+
+  /**
+   * Encode this Data for the default wire format
+   * WireFormat.getDefaultWireFormat() directly into the output buffer.
+   * @param output The caller's buffer. This copies the encoding at
+   * output.position() and advances the position.
+   * @return The length of the encoding.
+   * @throws BufferOverflowException If output.remaining() is less
+   * than the length of the encoding. In this case, output is not changed.
+   */
+  public final int
+  wireEncode(ByteBuffer output)
+  {
+    return wireEncode(output, WireFormat.getDefaultWireFormat());
+  }
+
   /**
    * Decode the input using a particular wire format and update this Data. If
    * wireFormat is the default wire format, also set the defaultWireEncoding
@@ -126,6 +178,9 @@ public class Data implements ChangeCountable, SignatureHolder {
   public void
   wireDecode(Blob input, WireFormat wireFormat) throws EncodingException
   {
+    // The decoder sets all the fields, so any pending lazy decoding is obsolete.
+    clearLazyDecoding();
+
     int[] signedPortionBeginOffset = new int[1];
     int[] signedPortionEndOffset = new int[1];
     wireFormat.decodeData
@@ -185,17 +240,133 @@ public class Data implements ChangeCountable, SignatureHolder {
     wireDecode(input, WireFormat.getDefaultWireFormat());
   }
 
+  /**
+   * Decode the input lazily using TlvWireFormat and update this Data. This only
+   * scans the input for the offsets of the top-level fields and checks the
+   * structure of the Name. The name, content, and the MetaInfo and signature
+   * are decoded the first time that getName(), getContent(), getMetaInfo() or
+   * getSignature() is called, and the name components and content point into
+   * the input without a copy. If TlvWireFormat is the default wire format, this
+   * also sets the defaultWireEncoding field to the input so that wireEncode()
+   * and getFullName() use it without decoding. This is useful for a relay or
+   * cache which mostly looks at the name or forwards the wire encoding.
+   * The MetaInfo and SignatureInfo are decoded later from their own TLVs at the
+   * offsets saved by this method, so if their encoding is invalid then this
+   * does not throw an EncodingException. Instead, the first call to
+   * getMetaInfo(), getSignature(), setMetaInfo() or setSignature() throws an
+   * Error with the message of the EncodingException. Use wireDecode if an
+   * invalid MetaInfo or SignatureInfo must be reported by the decode call.
+   * @param input The input Blob to decode. This keeps a pointer to the Blob
+   * which must remain unchanged while this Data is used.
+   * @throws EncodingException For invalid encoding of the Data TLV structure or
+   * the Name.
+   */
+  public final void
+  wireDecodeLazy(Blob input) throws EncodingException
+  {
+    ByteBuffer buffer = input.buf();
+    TlvDecoder decoder = new TlvDecoder(buffer);
+
+    // Imitate Tlv0_3WireFormat.decodeData, but only save the offsets.
+    int endOffset = decoder.readNestedTlvsStart(Tlv.Data);
+    int signedPortionBeginOffset = decoder.getOffset();
+
+    int nameBeginOffset = decoder.getOffset();
+    int nameEndOffset = decoder.readNestedTlvsStart(Tlv.Name);
+    // Check the structure of each component so that getName() won't fail.
+    while (decoder.getOffset() < nameEndOffset) {
+      decoder.readVarNumber();
+      int length = decoder.readVarNumber();
+      if (decoder.getOffset() + length > nameEndOffset)
+        throw new EncodingException
+          ("TLV length exceeds the Name length");
+      decoder.seek(decoder.getOffset() + length);
+    }
+    decoder.finishNestedTlvs(nameEndOffset);
+
+    int metaInfoBeginOffset = -1;
+    int metaInfoEndOffset = -1;
+    if (decoder.peekType(Tlv.MetaInfo, endOffset)) {
+      metaInfoBeginOffset = decoder.getOffset();
+      decoder.skipTlv(Tlv.MetaInfo);
+      metaInfoEndOffset = decoder.getOffset();
+    }
+
+    int contentBeginOffset = -1;
+    int contentEndOffset = -1;
+    if (decoder.peekType(Tlv.Content, endOffset)) {
+      int contentLength = decoder.readTypeAndLength(Tlv.Content);
+      contentBeginOffset = decoder.getOffset();
+      contentEndOffset = contentBeginOffset + contentLength;
+      decoder.seek(contentEndOffset);
+    }
+
+    int signatureInfoBeginOffset = decoder.getOffset();
+    decoder.skipTlv(Tlv.SignatureInfo);
+    int signedPortionEndOffset = decoder.getOffset();
+    decoder.skipTlv(Tlv.SignatureValue);
+    int signatureValueEndOffset = decoder.getOffset();
+    decoder.finishNestedTlvs(endOffset);
+
+    // Reset the fields and save the offsets for lazy decoding. Use set so that
+    // the change count is not incremented.
+    name_.set(new Name());
+    metaInfo_.set(new MetaInfo());
+    signature_.set(new Sha256WithRsaSignature());
+    content_ = new Blob();
+    lazyNameBeginOffset_ = nameBeginOffset;
+    lazyNameEndOffset_ = nameEndOffset;
+    lazyContentBeginOffset_ = contentBeginOffset;
+    lazyContentEndOffset_ = contentEndOffset;
+    lazyMetaInfoBeginOffset_ = metaInfoBeginOffset;
+    lazyMetaInfoEndOffset_ = metaInfoEndOffset;
+    lazySignatureInfoBeginOffset_ = signatureInfoBeginOffset;
+    lazySignatureInfoEndOffset_ = signedPortionEndOffset;
+    lazySignatureValueEndOffset_ = signatureValueEndOffset;
+    lazyIsNameDecoded_ = false;
+    lazyIsContentDecoded_ = false;
+    lazyIsOtherDecoded_ = false;
+    lazyWireEncoding_ = input;
+
+    if (TlvWireFormat.get() == WireFormat.getDefaultWireFormat())
+      setDefaultWireEncoding
+        (new SignedBlob(input, signedPortionBeginOffset, signedPortionEndOffset),
+         WireFormat.getDefaultWireFormat());
+    else
+      setDefaultWireEncoding(new SignedBlob(), null);
+  }
+
   public final Signature
-  getSignature() { return (Signature)signature_.get(); }
+  getSignature()
+  {
+    if (lazyWireEncoding_ != null)
+      decodeLazyOther();
+    return (Signature)signature_.get();
+  }
 
   public final Name
-  getName() { return (Name)name_.get(); }
+  getName()
+  {
+    if (lazyWireEncoding_ != null)
+      decodeLazyName();
+    return (Name)name_.get();
+  }
 
   public final MetaInfo
-  getMetaInfo() { return (MetaInfo)metaInfo_.get(); }
+  getMetaInfo()
+  {
+    if (lazyWireEncoding_ != null)
+      decodeLazyOther();
+    return (MetaInfo)metaInfo_.get();
+  }
 
   public final Blob
-  getContent() { return content_; }
+  getContent()
+  {
+    if (lazyWireEncoding_ != null)
+      decodeLazyContent();
+    return content_;
+  }
 
   /**
    * Get the incoming face ID according to the incoming packet header.
@@ -287,6 +458,17 @@ public class Data implements ChangeCountable, SignatureHolder {
     return defaultWireEncoding_;
   }
 
+  /**
+   * Get the size of the most recent wire encoding of this Data from
+   * wireEncode or wireDecode. This stays the same after this Data is changed,
+   * so that a WireFormat can use it to pre-size its buffer when encoding this
+   * Data again, for example after changing the content of a reused Data.
+   * @return The size in bytes, or 0 if this Data has not been encoded or
+   * decoded.
+   */
+  public final int
+  getEncodingSizeHint() { return encodingSizeHint_; }
+
   /**
    * Get the WireFormat which is used by getDefaultWireEncoding().
    * @return The WireFormat, which is only meaningful if the
@@ -303,6 +485,10 @@ public class Data implements ChangeCountable, SignatureHolder {
   public final Data
   setSignature(Signature signature)
   {
+    if (lazyWireEncoding_ != null)
+      // Decode the MetaInfo which is decoded together with the signature.
+      decodeLazyOther();
+
     try {
       signature_.set(signature == null ?
         new Sha256WithRsaSignature() : (Signature)signature.clone());
@@ -327,6 +513,7 @@ public class Data implements ChangeCountable, SignatureHolder {
   public Data
   setName(Name name)
   {
+    lazyIsNameDecoded_ = true;
     name_.set(name == null ? new Name() : new Name(name));
     ++changeCount_;
     return this;
@@ -340,6 +527,10 @@ public class Data implements ChangeCountable, SignatureHolder {
   public final Data
   setMetaInfo(MetaInfo metaInfo)
   {
+    if (lazyWireEncoding_ != null)
+      // Decode the signature which is decoded together with the MetaInfo.
+      decodeLazyOther();
+
     metaInfo_.set(metaInfo == null ? new MetaInfo() : new MetaInfo(metaInfo));
     ++changeCount_;
     return this;
@@ -348,6 +539,7 @@ public class Data implements ChangeCountable, SignatureHolder {
   public final Data
   setContent(Blob content)
   {
+    lazyIsContentDecoded_ = true;
     content_ = (content == null ? new Blob() : content);
     ++changeCount_;
     return this;
@@ -393,11 +585,121 @@ public class Data implements ChangeCountable, SignatureHolder {
   {
     defaultWireEncoding_ = defaultWireEncoding;
     defaultWireEncodingFormat_ = defaultWireEncodingFormat;
+    if (!defaultWireEncoding.isNull())
+      encodingSizeHint_ = defaultWireEncoding.size();
     // Set getDefaultWireEncodingChangeCount_ so that the next call to
     //   getDefaultWireEncoding() won't clear defaultWireEncoding_.
     getDefaultWireEncodingChangeCount_ = getChangeCount();
   }
 
+  /**
+   * Decode the name from lazyWireEncoding_ if not already decoded. This uses
+   * name_.set so that the change count is not incremented and the default wire
+   * encoding is still valid.
+   */
+  private synchronized void
+  decodeLazyName()
+  {
+    if (lazyIsNameDecoded_)
+      return;
+
+    Name name = new Name();
+    try {
+      TlvWireFormat.get().decodeName
+        (name, new TlvDecoder(lazyWireEncoding_.buf()).getSlice
+         (lazyNameBeginOffset_, lazyNameEndOffset_), false);
+    } catch (EncodingException ex) {
+      // We don't expect this since wireDecodeLazy checked the Name structure.
+      throw new Error("Data: Error decoding the lazy Name: " + ex.getMessage());
+    }
+    name_.set(name);
+    lazyIsNameDecoded_ = true;
+    checkLazyDecodingFinished();
+  }
+
+  /**
+   * Set the content from lazyWireEncoding_ if not already set. This does not
+   * copy the bytes.
+   */
+  private synchronized void
+  decodeLazyContent()
+  {
+    if (lazyIsContentDecoded_)
+      return;
+
+    if (lazyContentBeginOffset_ >= 0)
+      content_ = new Blob
+        (new TlvDecoder(lazyWireEncoding_.buf()).getSlice
+         (lazyContentBeginOffset_, lazyContentEndOffset_), false);
+    else
+      content_ = new Blob();
+    lazyIsContentDecoded_ = true;
+    checkLazyDecodingFinished();
+  }
+
+  /**
+   * Decode the MetaInfo and signature from lazyWireEncoding_ if not already
+   * decoded. This only decodes the MetaInfo, SignatureInfo and SignatureValue
+   * TLVs at the offsets saved by wireDecodeLazy. This uses set so that the
+   * change count is not incremented and the default wire encoding is still
+   * valid.
+   * @throws Error for an invalid MetaInfo or SignatureInfo encoding, since the
+   * getters can't throw EncodingException. (See wireDecodeLazy.)
+   */
+  private synchronized void
+  decodeLazyOther()
+  {
+    if (lazyIsOtherDecoded_)
+      return;
+
+    MetaInfo metaInfo = new MetaInfo();
+    Signature signature;
+    try {
+      TlvDecoder decoder = new TlvDecoder(lazyWireEncoding_.buf());
+      if (lazyMetaInfoBeginOffset_ >= 0)
+        TlvWireFormat.get().decodeMetaInfo
+          (metaInfo, decoder.getSlice
+           (lazyMetaInfoBeginOffset_, lazyMetaInfoEndOffset_), false);
+      signature = TlvWireFormat.get().decodeSignatureInfoAndValue
+        (decoder.getSlice
+         (lazySignatureInfoBeginOffset_, lazySignatureInfoEndOffset_),
+         decoder.getSlice
+         (lazySignatureInfoEndOffset_, lazySignatureValueEndOffset_), false);
+    } catch (EncodingException ex) {
+      throw new Error
+        ("Data: Error decoding the lazy MetaInfo or SignatureInfo: " +
+         ex.getMessage());
+    }
+    metaInfo_.set(metaInfo);
+    signature_.set(signature);
+    lazyIsOtherDecoded_ = true;
+    checkLazyDecodingFinished();
+  }
+
+  /**
+   * If all the lazy fields are decoded, release lazyWireEncoding_ so that the
+   * getters don't need to check. (The default wire encoding still points to
+   * the same Blob.)
+   */
+  private void
+  checkLazyDecodingFinished()
+  {
+    if (lazyIsNameDecoded_ && lazyIsContentDecoded_ && lazyIsOtherDecoded_)
+      lazyWireEncoding_ = null;
+  }
+
+  /**
+   * Cancel any pending lazy decoding from wireDecodeLazy.
+   */
+  private synchronized void
+  clearLazyDecoding()
+  {
+    lazyWireEncoding_ = null;
+    lazyIsNameDecoded_ = true;
+    lazyIsContentDecoded_ = true;
+    lazyIsOtherDecoded_ = true;
+  }
+
   private final ChangeCounter signature_ =
     new ChangeCounter(new Sha256WithRsaSignature());
   private final ChangeCounter name_ = new ChangeCounter(new Name());
@@ -409,5 +711,21 @@ public class Data implements ChangeCountable, SignatureHolder {
   private Name defaultFullName_ = new Name();
   private WireFormat defaultWireEncodingFormat_;
   private long getDefaultWireEncodingChangeCount_ = 0;
+  private int encodingSizeHint_ = 0;
   private long changeCount_ = 0;
+  // The wire encoding from wireDecodeLazy, or null if there are no fields
+  // waiting to be decoded.
+  private volatile Blob lazyWireEncoding_ = null;
+  private boolean lazyIsNameDecoded_ = true;
+  private boolean lazyIsContentDecoded_ = true;
+  private boolean lazyIsOtherDecoded_ = true;
+  private int lazyNameBeginOffset_;
+  private int lazyNameEndOffset_;
+  private int lazyContentBeginOffset_;
+  private int lazyContentEndOffset_;
+  private int lazyMetaInfoBeginOffset_;
+  private int lazyMetaInfoEndOffset_;
+  private int lazySignatureInfoBeginOffset_;
+  private int lazySignatureInfoEndOffset_;
+  private int lazySignatureValueEndOffset_;
 }
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import net.named_data.jndn.encoding.EncodingException;
 import net.named_data.jndn.encoding.WireFormat;
+import net.named_data.jndn.impl.CancelableCall;
 import net.named_data.jndn.security.KeyChain;
 import net.named_data.jndn.security.SecurityException;
 import net.named_data.jndn.transport.TcpTransport;
@@ -96,6 +97,23 @@ public class Face {
     node_.setInterestLoopbackEnabled(interestLoopbackEnabled);
   }
 
+  /**
+   * Enable or disable lazy decoding of incoming Data packets. If enabled, the
+   * Data packet given to the OnData callback is decoded with
+   * Data.wireDecodeLazy so that the MetaInfo, content and signature are only
+   * decoded if the application accesses them. This reduces the CPU and memory
+   * for each packet in an application like a relay or cache which mostly looks
+   * at the name or forwards the wire encoding. Lazy decoding is disabled by
+   * default.
+   * @param lazyDataDecodingEnabled If true, enable lazy decoding of Data
+   * packets, otherwise disable it.
+   */
+  public final void
+  setLazyDataDecodingEnabled(boolean lazyDataDecodingEnabled)
+  {
+    node_.setLazyDataDecodingEnabled(lazyDataDecodingEnabled);
+  }
+
   /**
    * Send the Interest through the transport, read the entire response and call
    * onData, onTimeout or onNetworkNack as described below.
@@ -1425,14 +1443,31 @@ public class Face {
   /**
    * Call callback.run() after the given delay. Even though this is public,
    * it is not part of the public API of Face. This default implementation just
-   * calls Node.callLater, but a subclass can override.
+   * calls callLaterCancelable. A subclass which uses a different mechanism for
+   * delayed calls should override callLaterCancelable so that the interest
+   * timeouts also use it.
    * @param delayMilliseconds The delay in milliseconds.
    * @param callback This calls callback.run() after the delay.
    */
   public void
   callLater(double delayMilliseconds, Runnable callback)
   {
-    node_.callLater(delayMilliseconds, callback);
+    callLaterCancelable(delayMilliseconds, callback);
+  }
+
+  /**
+   * Call callback.run() after the given delay and return a CancelableCall
+   * which can cancel it. This is used by callLater and for interest timeouts,
+   * which are cancelled when the interest is satisfied or removed. This default
+   * implementation calls Node.callLater, but a subclass can override.
+   * @param delayMilliseconds The delay in milliseconds.
+   * @param callback This calls callback.run() after the delay.
+   * @return The CancelableCall to cancel the call. This must not be null.
+   */
+  protected CancelableCall
+  callLaterCancelable(double delayMilliseconds, Runnable callback)
+  {
+    return node_.callLater(delayMilliseconds, callback);
   }
 
   /**
@@ -31,12 +31,12 @@ import net.named_data.jndn.encoding.EncodingException;
 import net.named_data.jndn.encoding.TlvWireFormat;
 import net.named_data.jndn.encoding.WireFormat;
 import net.named_data.jndn.encoding.tlv.Tlv;
-import net.named_data.jndn.encoding.tlv.TlvDecoder;
 import net.named_data.jndn.encoding.tlv.TlvEncoder;
 import net.named_data.jndn.impl.DelayedCallTable;
 import net.named_data.jndn.impl.InterestFilterTable;
 import net.named_data.jndn.impl.PendingInterestTable;
 import net.named_data.jndn.impl.RegisteredPrefixTable;
+import net.named_data.jndn.impl.ShardedElementDispatcher;
 import net.named_data.jndn.lp.LpPacket;
 import net.named_data.jndn.security.KeyChain;
 import net.named_data.jndn.security.SecurityException;
@@ -73,6 +73,18 @@ public class Node implements ElementListener {
     interestLoopbackEnabled_ = interestLoopbackEnabled;
   }
 
+  /**
+   * Enable or disable lazy decoding of incoming Data packets with
+   * Data.wireDecodeLazy.
+   * @param lazyDataDecodingEnabled If True, enable lazy decoding, otherwise
+   * disable it.
+   */
+  public final void
+  setLazyDataDecodingEnabled(boolean lazyDataDecodingEnabled)
+  {
+    lazyDataDecodingEnabled_ = lazyDataDecodingEnabled;
+  }
+
   /**
    * Send the Interest through the transport, read the entire response and call
    * onData, onTimeout or onNetworkNack as described below.
@@ -94,8 +106,9 @@ public class Node implements ElementListener {
    * onTimeout. However, if a network Nack is received and onNetworkNack is null,
    * do nothing and wait for the interest to time out.
    * @param wireFormat A WireFormat object used to encode the message.
-   * @param face The face which has the callLater method, used for interest
-   * timeouts. The callLater method may be overridden in a subclass of Face.
+   * @param face The face which has the callLaterCancelable method, used for
+   * interest timeouts. The callLaterCancelable method may be overridden in a
+   * subclass of Face.
    * @throws IOException For I/O error in sending the interest.
    * @throws Error If the encoded interest size exceeds getMaxNdnPacketSize().
    */
@@ -357,7 +370,7 @@ public class Node implements ElementListener {
       throw new Error
         ("The encoded Data packet size exceeds the maximum limit getMaxNdnPacketSize()");
 
-    transport_.send(encoding.buf());
+    sendToTransport(encoding.buf());
   }
 
   /**
@@ -373,7 +386,7 @@ public class Node implements ElementListener {
       throw new Error
         ("The encoded packet size exceeds the maximum limit getMaxNdnPacketSize()");
 
-    transport_.send(encoding);
+    sendToTransport(encoding);
   }
 
   /**
@@ -392,7 +405,7 @@ public class Node implements ElementListener {
       throw new Error
         ("The encoded Nack packet size exceeds the maximum limit getMaxNdnPacketSize()");
 
-    transport_.send(encoding.buf());
+    sendToTransport(encoding.buf());
   }
 
   /**
@@ -424,7 +437,64 @@ public class Node implements ElementListener {
   public final Transport.ConnectionInfo
   getConnectionInfo() { return connectionInfo_; }
 
+  /**
+   * Process the received element, or if startShardedDispatch was called, give
+   * it to the ShardedElementDispatcher to process on a worker thread.
+   * @param element The received element.
+   * @throws EncodingException For invalid encoding.
+   */
   public final void onReceivedElement(ByteBuffer element) throws EncodingException
+  {
+    if (dispatcher_ != null) {
+      try {
+        dispatcher_.dispatch(element);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        logger_.log(Level.WARNING, "Interrupted while dispatching an element");
+      }
+      return;
+    }
+
+    processElement(element);
+  }
+
+  /**
+   * Start processing received elements on nShards worker threads instead of
+   * the thread which calls processEvents. Decoding, matching the pending
+   * interest table and interest filter table, and calling the OnData,
+   * OnNetworkNack and OnInterest callbacks are done on the worker thread. An
+   * element is assigned to a worker by a hash of the first nPrefixComponents of
+   * its name, so that packets with the same name prefix are processed in order.
+   * After this is called, sending through the transport is synchronized since
+   * the callbacks on different worker threads can send.
+   * @param nShards The number of worker threads.
+   * @param nPrefixComponents The number of name components used to choose the
+   * worker thread.
+   * @param queueCapacity The maximum number of elements waiting for each worker
+   * thread. If the queue is full, the thread calling processEvents waits.
+   */
+  public final void
+  startShardedDispatch(int nShards, int nPrefixComponents, int queueCapacity)
+  {
+    if (dispatcher_ != null)
+      throw new Error("Node: startShardedDispatch has already been called");
+
+    dispatcher_ = new ShardedElementDispatcher
+      (new ElementListener() {
+        public void onReceivedElement(ByteBuffer element)
+          throws EncodingException {
+          processElement(element);
+        }
+      }, nShards, nPrefixComponents, queueCapacity);
+  }
+
+  /**
+   * Decode the received element as an Interest, Data or Nack and process it.
+   * @param element The received element.
+   * @throws EncodingException For invalid encoding.
+   */
+  private void
+  processElement(ByteBuffer element) throws EncodingException
   {
     LpPacket lpPacket = null;
     if (element.get(0) == Tlv.LpPacket_LpPacket) {
@@ -439,18 +509,23 @@ public class Node implements ElementListener {
     // First, decode as Interest or Data.
     Interest interest = null;
     Data data = null;
-    if (element.get(0) == Tlv.Interest || element.get(0) == Tlv.Data) {
-      TlvDecoder decoder = new TlvDecoder(element);
-      if (decoder.peekType(Tlv.Interest, element.remaining())) {
+    // The Interest and Data types are encoded in one byte, so we don't need a
+    // TlvDecoder to check the type.
+    if (element.remaining() > 0) {
+      if (element.get(0) == Tlv.Interest) {
         interest = new Interest();
         interest.wireDecode(element, TlvWireFormat.get());
 
         if (lpPacket != null)
           interest.setLpPacket(lpPacket);
       }
-      else if (decoder.peekType(Tlv.Data, element.remaining())) {
+      else if (element.get(0) == Tlv.Data) {
         data = new Data();
-        data.wireDecode(element, TlvWireFormat.get());
+        if (lazyDataDecodingEnabled_)
+          // The element is only valid during this call, so copy it.
+          data.wireDecodeLazy(new Blob(element, true));
+        else
+          data.wireDecode(element, TlvWireFormat.get());
 
         if (lpPacket != null)
           data.setLpPacket(lpPacket);
@@ -508,6 +583,9 @@ public class Node implements ElementListener {
   public final void
   shutdown()
   {
+    if (dispatcher_ != null)
+      dispatcher_.shutdown();
+
     try {
       transport_.close();
     }
@@ -527,13 +605,46 @@ public class Node implements ElementListener {
    * delayedCallTable_ which is used by processEvents().
    * @param delayMilliseconds The delay in milliseconds.
    * @param callback This calls callback.run() after the delay.
+   * @return The DelayedCallTable.Entry, which can be used to cancel the call.
    */
-  public final void
+  public final DelayedCallTable.Entry
   callLater(double delayMilliseconds, Runnable callback)
   {
-    delayedCallTable_.callLater(delayMilliseconds, callback);
+    DelayedCallTable.Entry entry =
+      delayedCallTable_.callLater(delayMilliseconds, callback);
+    notifyWorkAdded();
+    return entry;
+  }
+
+  /**
+   * Get the earliest time when processEvents needs to be called to call a
+   * delayed call or to let the transport flush queued packets, even if no
+   * data is received. This is used by SelectorEventLoop.
+   * @return The time in milliseconds, similar to Common.getNowMilliseconds(),
+   * or -1 if there is nothing to wait for.
+   */
+  public final double
+  getNextProcessEventsTime()
+  {
+    double callTime = delayedCallTable_.getNextCallTime();
+    double transportTime = transport_.getNextProcessEventsTime();
+    if (callTime < 0)
+      return transportTime;
+    if (transportTime < 0)
+      return callTime;
+    return Math.min(callTime, transportTime);
   }
 
+  /**
+   * Set the Runnable which is called after a delayed call or a send may have
+   * made getNextProcessEventsTime() earlier. SelectorEventLoop uses this to
+   * wake up its selector when another thread adds work.
+   * @param onWorkAdded This calls onWorkAdded.run(), or null for none. This
+   * may be called from any thread.
+   */
+  public final void
+  setOnWorkAdded(Runnable onWorkAdded) { onWorkAdded_ = onWorkAdded; }
+
   /**
    * Get the next unique entry ID for the pending interest table, interest
    * filter table, etc. This uses a synchronized to be thread safe. Most entry
@@ -550,6 +661,35 @@ public class Node implements ElementListener {
     }
   }
 
+  /**
+   * Send the encoding through the transport. If startShardedDispatch was
+   * called, synchronize so that encodings sent from different worker threads
+   * are not interleaved.
+   * @param encoding The encoding to send.
+   * @throws IOException For I/O error.
+   */
+  private void
+  sendToTransport(ByteBuffer encoding) throws IOException
+  {
+    if (dispatcher_ != null) {
+      synchronized(sendLock_) {
+        transport_.send(encoding);
+      }
+    }
+    else
+      transport_.send(encoding);
+
+    notifyWorkAdded();
+  }
+
+  private void
+  notifyWorkAdded()
+  {
+    Runnable onWorkAdded = onWorkAdded_;
+    if (onWorkAdded != null)
+      onWorkAdded.run();
+  }
+
   /**
    * This is used in callLater for when the pending interest expires. If the
    * pendingInterest is still in the pendingInterestTable_, remove it and call
@@ -578,8 +718,9 @@ public class Node implements ElementListener {
    * @param onNetworkNack This calls onNetworkNack.onNetworkNack when a network
    * Nack packet is received. If onNetworkNack is null, this does not use it.
    * @param wireFormat A WireFormat object used to encode the message.
-   * @param face The face which has the callLater method, used for interest
-   * timeouts. The callLater method may be overridden in a subclass of Face.
+   * @param face The face which has the callLaterCancelable method, used for
+   * interest timeouts. The callLaterCancelable method may be overridden in a
+   * subclass of Face.
    * @throws IOException For I/O error in sending the interest.
    * @throws Error If the encoded interest size exceeds getMaxNdnPacketSize().
    */
@@ -603,11 +744,14 @@ public class Node implements ElementListener {
         // Use a default timeout delay.
         delayMilliseconds = 4000.0;
 
-      face.callLater
-        (delayMilliseconds,
-         new Runnable() {
-           public void run() { processInterestTimeout(pendingInterest); }
-         });
+      Runnable timeoutCallback = new Runnable() {
+        public void run() { processInterestTimeout(pendingInterest); }
+      };
+      // Keep the delayed call so that it is cancelled when the interest is
+      // satisfied or removed.
+      pendingInterestTable_.setTimeoutCall
+        (pendingInterest,
+         face.callLaterCancelable(delayMilliseconds, timeoutCallback));
     }
 
     // Special case: For timeoutPrefix_ we don't actually send the interest.
@@ -616,7 +760,7 @@ public class Node implements ElementListener {
       if (encoding.size() > getMaxNdnPacketSize())
         throw new Error
           ("The encoded interest size exceeds the maximum limit getMaxNdnPacketSize()");
-      transport_.send(encoding.buf());
+      sendToTransport(encoding.buf());
 
       if (interestLoopbackEnabled_)
         dispatchInterest(interestCopy);
@@ -963,6 +1107,9 @@ public class Node implements ElementListener {
   private final RegisteredPrefixTable registeredPrefixTable_ =
     new RegisteredPrefixTable(interestFilterTable_);
   private final DelayedCallTable delayedCallTable_ = new DelayedCallTable();
+  private volatile ShardedElementDispatcher dispatcher_ = null;
+  private final Object sendLock_ = new Object();
+  private volatile Runnable onWorkAdded_ = null;
   // Use ArrayList without generics so it works with older Java compilers.
   private final List onConnectedCallbacks_ =
     Collections.synchronizedList(new ArrayList()); // Runnable
@@ -973,6 +1120,7 @@ public class Node implements ElementListener {
   private final Object lastEntryIdLock_ = new Object();
   private ConnectStatus connectStatus_ = ConnectStatus.UNCONNECTED;
   boolean interestLoopbackEnabled_ = false;
+  private boolean lazyDataDecodingEnabled_ = false;
   private static Blob nonceTemplate_ = new Blob(new byte[] { 0, 0, 0, 0 });
   private static final Logger logger_ = Logger.getLogger(Node.class.getName());
 }
@@ -0,0 +1,368 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.named_data.jndn.transport.Transport;
+import net.named_data.jndn.util.Common;
+
+/**
+ * A SelectorEventLoop lets one thread call processEvents for many Face objects
+ * by waiting on a single java.nio.channels.Selector instead of polling each
+ * Face. Each Face whose transport has a selectable channel (TcpTransport,
+ * UnixTransport or UdpTransport) is registered with the selector, and the
+ * selector timeout is the earliest time when a Face needs processEvents for an
+ * Interest timeout, a callLater callback or a send flush. The loop calls
+ * processEvents for a Face only when its channel is readable or its deadline
+ * has passed. A Face whose transport is async (such as AsyncTcpTransport) is
+ * only processed for its deadlines since its transport receives on its own
+ * threads. If a transport has packets waiting because its channel can't accept
+ * them (see Transport.getIsWritePending), its channel is also selected for
+ * writing so that processEvents is called when it is writable.
+ *
+ * A Face may connect or reconnect at any time, so each iteration checks if the
+ * transport's channel has changed and registers the new channel. When another
+ * thread calls expressInterest, callLater or putData for a Face in the loop,
+ * the selector is woken up so that the new deadline or channel is used.
+ */
+public class SelectorEventLoop {
+  /**
+   * Create a SelectorEventLoop with a new Selector.
+   * @throws IOException If the Selector can't be opened.
+   */
+  public SelectorEventLoop() throws IOException
+  {
+    selector_ = Selector.open();
+  }
+
+  /**
+   * Add the Face to this event loop. The Face's processEvents will be called by
+   * the thread which calls run or processEvents of this event loop, so the
+   * application should not call face.processEvents directly.
+   * @param face The Face to add. If it is already added, do nothing.
+   */
+  public final void
+  addFace(Face face)
+  {
+    synchronized (registrations_) {
+      for (int i = 0; i < registrations_.size(); ++i) {
+        if (registrations_.get(i).face_ == face)
+          return;
+      }
+
+      registrations_.add(new Registration(face));
+      isRegistrationsChanged_ = true;
+    }
+
+    face.node_.setOnWorkAdded(wakeup_);
+    selector_.wakeup();
+  }
+
+  /**
+   * Remove the Face from this event loop. This does not close the Face.
+   * @param face The Face to remove. If it is not in the loop, do nothing.
+   * @return True if the Face was removed, false if it was not in the loop.
+   */
+  public final boolean
+  removeFace(Face face)
+  {
+    Registration registration = null;
+    synchronized (registrations_) {
+      for (int i = 0; i < registrations_.size(); ++i) {
+        if (registrations_.get(i).face_ == face) {
+          registration = registrations_.remove(i);
+          isRegistrationsChanged_ = true;
+          break;
+        }
+      }
+    }
+    if (registration == null)
+      return false;
+
+    face.node_.setOnWorkAdded(null);
+    // The loop thread cancels the selection key.
+    selector_.wakeup();
+    return true;
+  }
+
+  /**
+   * Get the number of Face objects in this event loop.
+   * @return The number of Face objects.
+   */
+  public final int
+  size()
+  {
+    synchronized (registrations_) {
+      return registrations_.size();
+    }
+  }
+
+  /**
+   * Wait until a Face has data to receive or reaches a deadline, or until
+   * maxWaitMilliseconds, then call processEvents for each such Face. An
+   * exception from a Face's processEvents is logged and does not stop the
+   * processing of the other Face objects.
+   * @param maxWaitMilliseconds The maximum time to wait. If this is 0, don't
+   * wait. If this is negative, wait until there is an event or a deadline.
+   * @throws IOException For an I/O error from the Selector.
+   */
+  public final void
+  processEvents(double maxWaitMilliseconds) throws IOException
+  {
+    loopThread_ = Thread.currentThread();
+
+    Registration[] registrations = updateRegistrations();
+
+    // Find the earliest deadline. Save each Face's time so that it is only
+    // read once per iteration. (If another thread adds earlier work during the
+    // select, it wakes up the selector and the next iteration reads it.)
+    double deadline = -1;
+    for (int i = 0; i < registrations.length; ++i) {
+      double time = registrations[i].face_.node_.getNextProcessEventsTime();
+      registrations[i].nextProcessEventsTime_ = time;
+      if (time >= 0 && (deadline < 0 || time < deadline))
+        deadline = time;
+    }
+
+    double now = Common.getNowMilliseconds();
+    double waitMilliseconds = maxWaitMilliseconds;
+    if (isRegisterPending_)
+      // Don't wait so that the next iteration can register the channel.
+      waitMilliseconds = 0;
+    if (deadline >= 0) {
+      double untilDeadline = Math.max(0, deadline - now);
+      if (waitMilliseconds < 0 || untilDeadline < waitMilliseconds)
+        waitMilliseconds = untilDeadline;
+    }
+
+    if (waitMilliseconds == 0)
+      selector_.selectNow();
+    else if (waitMilliseconds < 0)
+      selector_.select();
+    else
+      // Round up so that the deadline has passed when select returns.
+      selector_.select((long)Math.ceil(waitMilliseconds));
+
+    // Mark the Face objects which have data to receive.
+    Iterator<SelectionKey> keys = selector_.selectedKeys().iterator();
+    while (keys.hasNext()) {
+      SelectionKey key = keys.next();
+      keys.remove();
+      ((Registration)key.attachment()).isReady_ = true;
+    }
+
+    now = Common.getNowMilliseconds();
+    for (int i = 0; i < registrations.length; ++i) {
+      Registration registration = registrations[i];
+      if (!registration.isReady_) {
+        double time = registration.nextProcessEventsTime_;
+        if (time < 0 || time > now)
+          continue;
+      }
+      registration.isReady_ = false;
+
+      // Need to catch and log exceptions at this entry point.
+      try {
+        registration.face_.processEvents();
+      } catch (Throwable ex) {
+        logger_.log(Level.SEVERE, "Error in Face.processEvents", ex);
+      }
+    }
+  }
+
+  /**
+   * Repeatedly call processEvents(-1) until stop() is called.
+   * @throws IOException For an I/O error from the Selector.
+   */
+  public final void
+  run() throws IOException
+  {
+    isStopped_ = false;
+    while (!isStopped_)
+      processEvents(-1);
+  }
+
+  /**
+   * Make run() return after the current iteration. This may be called from any
+   * thread.
+   */
+  public final void
+  stop()
+  {
+    isStopped_ = true;
+    selector_.wakeup();
+  }
+
+  /**
+   * Remove all Face objects and close the Selector. This does not close the
+   * Face objects.
+   * @throws IOException For an I/O error from the Selector.
+   */
+  public final void
+  close() throws IOException
+  {
+    synchronized (registrations_) {
+      for (int i = 0; i < registrations_.size(); ++i)
+        registrations_.get(i).face_.node_.setOnWorkAdded(null);
+      registrations_.clear();
+      isRegistrationsChanged_ = true;
+    }
+
+    selector_.close();
+  }
+
+  /**
+   * Update the array of registrations if Face objects were added or removed,
+   * and register each transport channel which has changed since the previous
+   * call. This is called by the loop thread.
+   * @return The current registrations.
+   */
+  private Registration[]
+  updateRegistrations()
+  {
+    synchronized (registrations_) {
+      if (isRegistrationsChanged_) {
+        // Cancel the keys of removed Face objects.
+        for (int i = 0; i < registrationsArray_.length; ++i) {
+          if (!registrations_.contains(registrationsArray_[i]))
+            registrationsArray_[i].setChannel(null, selector_);
+        }
+
+        registrationsArray_ = registrations_.toArray
+          (new Registration[registrations_.size()]);
+        isRegistrationsChanged_ = false;
+      }
+    }
+
+    isRegisterPending_ = false;
+    for (int i = 0; i < registrationsArray_.length; ++i) {
+      Registration registration = registrationsArray_[i];
+      Transport transport = registration.face_.node_.getTransport();
+      if (!registration.setChannel
+          (transport.getSelectableChannel(), selector_))
+        isRegisterPending_ = true;
+      registration.setWriteInterest(transport.getIsWritePending());
+    }
+
+    return registrationsArray_;
+  }
+
+  /**
+   * A Registration holds a Face in the loop and the selection key of its
+   * transport's channel.
+   */
+  private static class Registration {
+    public Registration(Face face)
+    {
+      face_ = face;
+    }
+
+    /**
+     * If the channel is different from the registered channel, cancel the
+     * selection key and register the new channel.
+     * @param channel The transport's channel, or null if none.
+     * @param selector The Selector for registering.
+     * @return False if the channel couldn't be registered because its previous
+     * key is cancelled but the selector hasn't removed it yet, so this should
+     * be called again after the next select. Otherwise true.
+     */
+    public final boolean
+    setChannel(SelectableChannel channel, Selector selector)
+    {
+      if (channel == channel_)
+        return true;
+
+      if (key_ != null) {
+        key_.cancel();
+        key_ = null;
+      }
+      channel_ = channel;
+
+      if (channel != null) {
+        try {
+          key_ = channel.register(selector, SelectionKey.OP_READ, this);
+        } catch (ClosedChannelException ex) {
+          // The transport closed the channel. Check again next time.
+          channel_ = null;
+        } catch (CancelledKeyException ex) {
+          channel_ = null;
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    /**
+     * Set the interest operations of the selection key to also select writable
+     * if the transport has a write waiting for the channel.
+     * @param isWritePending The value of transport.getIsWritePending().
+     */
+    public final void
+    setWriteInterest(boolean isWritePending)
+    {
+      if (key_ == null)
+        return;
+
+      int interestOps = isWritePending ?
+        SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+      try {
+        if (key_.interestOps() != interestOps)
+          key_.interestOps(interestOps);
+      } catch (CancelledKeyException ex) {
+        // The channel was closed. setChannel will update the key.
+      }
+    }
+
+    public final Face face_;
+    public SelectableChannel channel_ = null;
+    public SelectionKey key_ = null;
+    public boolean isReady_ = false;
+    // The time from node_.getNextProcessEventsTime() in this iteration.
+    public double nextProcessEventsTime_ = -1;
+  }
+
+  private final Selector selector_;
+  private final ArrayList<Registration> registrations_ =
+    new ArrayList<Registration>();
+  private Registration[] registrationsArray_ = new Registration[0];
+  private boolean isRegistrationsChanged_ = false;
+  private boolean isRegisterPending_ = false;
+  private volatile Thread loopThread_ = null;
+  private volatile boolean isStopped_ = false;
+  // Wake up the selector when another thread adds work for a Face.
+  private final Runnable wakeup_ = new Runnable() {
+    public void run() {
+      if (Thread.currentThread() != loopThread_)
+        selector_.wakeup();
+    }
+  };
+  private static final Logger logger_ = Logger.getLogger
+    (SelectorEventLoop.class.getName());
+}
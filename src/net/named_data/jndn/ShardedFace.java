@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn;
+
+import net.named_data.jndn.transport.Transport;
+
+/**
+ * ShardedFace extends Face to decode and dispatch received packets on a number
+ * of worker threads. The thread which calls processEvents only reads from the
+ * transport and assigns each packet to a worker by a hash of the first
+ * components of its name, read from the wire encoding. Each worker decodes its
+ * packets, matches them against the pending interest table and interest filter
+ * table, and calls the OnData, OnNetworkNack and OnInterest callbacks directly
+ * on the worker thread. Packets with the same name prefix always go to the
+ * same worker, so their order is preserved. Callbacks for different prefixes
+ * can run at the same time, so they must be thread safe. Interest timeouts and
+ * callLater are still processed by processEvents.
+ */
+public class ShardedFace extends Face {
+  /**
+   * Create a new ShardedFace for communication with an NDN hub with the given
+   * Transport object and connectionInfo.
+   * @param transport A Transport object used for communication.
+   * @param connectionInfo A Transport.ConnectionInfo to be used to connect to
+   * the transport.
+   * @param nThreads The number of worker threads.
+   * @param nPrefixComponents The number of name components used to choose the
+   * worker thread for a packet. For example, if this is 2 then all packets
+   * under /a/b are processed in order by the same worker thread.
+   */
+  public ShardedFace
+    (Transport transport, Transport.ConnectionInfo connectionInfo, int nThreads,
+     int nPrefixComponents)
+  {
+    super(transport, connectionInfo);
+    node_.startShardedDispatch
+      (nThreads, nPrefixComponents, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Create a new ShardedFace for communication with an NDN hub with the given
+   * Transport object and connectionInfo, using one worker thread for each
+   * available processor and choosing the worker by the first name component.
+   * @param transport A Transport object used for communication.
+   * @param connectionInfo A Transport.ConnectionInfo to be used to connect to
+   * the transport.
+   */
+  public ShardedFace
+    (Transport transport, Transport.ConnectionInfo connectionInfo)
+  {
+    this(transport, connectionInfo,
+         Runtime.getRuntime().availableProcessors(), 1);
+  }
+
+  /**
+   * The maximum number of received packets waiting for each worker thread.
+   */
+  public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+}
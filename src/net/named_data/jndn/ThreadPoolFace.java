@@ -21,10 +21,12 @@ package net.named_data.jndn;
 
 import java.io.IOException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.named_data.jndn.encoding.WireFormat;
+import net.named_data.jndn.impl.CancelableCall;
 import net.named_data.jndn.transport.Transport;
 
 /**
@@ -407,15 +409,15 @@ public class ThreadPoolFace extends Face {
 
   /**
    * Override to schedule in the thread pool to call callback.run() after the
-   * given delay. Even though this is public, it is not part of the public API
-   * of Face.
+   * given delay. This is used by callLater and for interest timeouts.
    * @param delayMilliseconds The delay in milliseconds.
    * @param callback This calls callback.run() after the delay.
+   * @return The CancelableCall which cancels the scheduled task.
    */
-  public void
-  callLater(double delayMilliseconds, final Runnable callback)
+  protected CancelableCall
+  callLaterCancelable(double delayMilliseconds, final Runnable callback)
   {
-    threadPool_.schedule
+    final ScheduledFuture<?> future = threadPool_.schedule
       (new Runnable() {
         public void run() {
           // Need to catch and log exceptions at this async entry point.
@@ -427,6 +429,10 @@ public class ThreadPoolFace extends Face {
         }
        },
        (long)delayMilliseconds, TimeUnit.MILLISECONDS);
+
+    return new CancelableCall() {
+      public boolean cancel() { return future.cancel(false); }
+    };
   }
 
   private final ScheduledExecutorService threadPool_;
@@ -46,15 +46,25 @@ public class ElementReader {
    * elementListener.onReceivedElement(element ). The buffer passed to
    * onReceivedElement is only valid during this call.  If you need the data
    * later, you must copy.
+   * At steady state this does not allocate memory for each element. The
+   * element passed to onReceivedElement starts at index 0 of its buffer (as
+   * needed by the decoders). If an element starts at index 0 of data, this
+   * temporarily sets the limit of data and passes it directly. Otherwise this
+   * copies the element into a reusable buffer. The allocation budget for
+   * framing is ALLOCATION_BUDGET_PER_ELEMENT bytes per element.
    * @param data The input data containing bytes of the element to read.
-   * This reads from position() to limit(), but does not change the position.
+   * This reads from position() to limit(), but does not change the position
+   * or limit when this returns.
    * @throws EncodingException For invalid encoding.
    */
   public void
   onReceivedData(ByteBuffer data) throws EncodingException
   {
-    // We may repeatedly set data to a slice as we read elements.
-    data = data.slice();
+    int savePosition = data.position();
+    int saveLimit = data.limit();
+    // The offset in data of the beginning of the next element (or the rest of
+    // a partial element). We update this instead of taking a slice of data.
+    int start = savePosition;
 
     // Process multiple objects in the data.
     while(true) {
@@ -64,48 +74,64 @@ public class ElementReader {
       try {
         if (!usePartialData_) {
           // This is the beginning of an element.
-          if (data.remaining() <= 0)
+          if (start >= saveLimit)
             // Wait for more data.
             return;
         }
 
         // Scan the input to check if a whole TLV object has been read.
-        tlvStructureDecoder_.seek(0);
+        tlvStructureDecoder_.seek(start);
         gotElementEnd = tlvStructureDecoder_.findElementEnd(data);
         offset = tlvStructureDecoder_.getOffset();
       } catch (EncodingException ex) {
         // Reset to read a new element on the next call.
         usePartialData_ = false;
-        tlvStructureDecoder_ = new TlvStructureDecoder();
+        tlvStructureDecoder_.reset();
 
         throw ex;
       }
 
       if (gotElementEnd) {
         // Got the remainder of an element.  Report to the caller.
-        ByteBuffer element;
-        if (usePartialData_) {
-          // We have partial data from a previous call, so append this data and point to partialData.
-          partialData_.ensuredPut(data, 0, offset);
+        // Reset to read a new object. Do this before calling onReceivedElement
+        // in case it throws an exception.
+        tlvStructureDecoder_.reset();
+        int elementStart = start;
+        start = offset;
 
-          element = partialData_.flippedBuffer();
+        if (usePartialData_) {
+          // We have partial data from a previous call, so append this data and
+          // point to partialData. The next ensuredPut into partialData resets
+          // its limit.
+          partialData_.ensuredPut(data, elementStart, offset);
           // Assume we don't need to use partialData anymore until needed.
           usePartialData_ = false;
+
+          ByteBuffer element = partialData_.buffer();
+          element.flip();
+          elementListener_.onReceivedElement(element);
+        }
+        else if (elementStart == 0) {
+          // The element is already at index 0 of the input data buffer, so
+          // just point to it.
+          try {
+            data.limit(offset);
+            elementListener_.onReceivedElement(data);
+          } finally {
+            data.limit(saveLimit);
+            data.position(savePosition);
+          }
         }
         else {
-          // We are not using partialData, so just point to the input data buffer.
-          element = data.duplicate();
-          element.limit(offset);
+          // Copy into elementBuffer_ so that the element is at index 0.
+          elementBuffer_.position(0);
+          elementBuffer_.ensuredPut(data, elementStart, offset);
+          ByteBuffer element = elementBuffer_.buffer();
+          element.flip();
+          elementListener_.onReceivedElement(element);
         }
 
-        // Reset to read a new object. Do this before calling onReceivedElement
-        // in case it throws an exception.
-        data.position(offset);
-        data = data.slice();
-        tlvStructureDecoder_ = new TlvStructureDecoder();
-
-        elementListener_.onReceivedElement(element);
-        if (data.remaining() <= 0)
+        if (start >= saveLimit)
           // No more data in the packet.
           return;
 
@@ -118,24 +144,33 @@ public class ElementReader {
           partialData_.position(0);
         }
 
-        if (partialData_.buffer().position() + data.remaining() >
+        if (partialData_.buffer().position() + (saveLimit - start) >
             Common.MAX_NDN_PACKET_SIZE) {
           // Reset to read a new element on the next call.
           usePartialData_ = false;
-          tlvStructureDecoder_ = new TlvStructureDecoder();
+          tlvStructureDecoder_.reset();
 
           throw new EncodingException
             ("The incoming packet exceeds the maximum limit Face.getMaxNdnPacketSize()");
         }
 
-        partialData_.ensuredPut(data);
+        partialData_.ensuredPut(data, start, saveLimit);
         return;
       }
     }
   }
 
+  /**
+   * The number of bytes that onReceivedData is expected to allocate for each
+   * element at steady state, after the reusable buffers have grown to the
+   * size of the largest element.
+   */
+  public static final int ALLOCATION_BUDGET_PER_ELEMENT = 0;
+
   private final ElementListener elementListener_;
-  private TlvStructureDecoder tlvStructureDecoder_ = new TlvStructureDecoder();
+  private final TlvStructureDecoder tlvStructureDecoder_ =
+    new TlvStructureDecoder();
   private boolean usePartialData_;
   private final DynamicByteBuffer partialData_ = new DynamicByteBuffer(1000);
+  private final DynamicByteBuffer elementBuffer_ = new DynamicByteBuffer(1000);
 }
@@ -19,6 +19,7 @@
 
 package net.named_data.jndn.encoding;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.Random;
 import net.named_data.jndn.ComponentType;
@@ -66,9 +67,13 @@ public class Tlv0_3WireFormat extends WireFormat {
   public Blob
   encodeName(Name name)
   {
-    TlvEncoder encoder = new TlvEncoder(256);
-    encodeName(name, new int[1], new int[1], encoder);
-    return new Blob(encoder.getOutput(), false);
+    TlvEncoder encoder = TlvEncoder.acquireReusable(256);
+    try {
+      encodeName(name, new int[1], new int[1], encoder);
+      return new Blob(encoder.getOutputCopy(), false);
+    } finally {
+      encoder.release();
+    }
   }
 
   /**
@@ -238,7 +243,49 @@ public class Tlv0_3WireFormat extends WireFormat {
   encodeData
     (Data data, int[] signedPortionBeginOffset, int[] signedPortionEndOffset)
   {
-    TlvEncoder encoder = new TlvEncoder(1500);
+    TlvEncoder encoder = TlvEncoder.acquireReusable
+      (Math.max(1500, data.getEncodingSizeHint()));
+    try {
+      encodeData(data, signedPortionBeginOffset, signedPortionEndOffset, encoder);
+      return new Blob(encoder.getOutputCopy(), false);
+    } finally {
+      encoder.release();
+    }
+  }
+
+  /**
+   * Encode data in NDN-TLV and copy the encoding to the output buffer. This
+   * encodes with the reusable TlvEncoder of the current thread, pre-sized from
+   * data.getEncodingSizeHint(), so that the only copy is to the output.
+   * @param data The Data object to encode.
+   * @param output The caller's buffer, for example a transport send buffer.
+   * This copies the encoding at output.position() and advances the position.
+   * @return The length of the encoding.
+   * @throws BufferOverflowException If output.remaining() is less than the
+   * length of the encoding. In this case, output is not changed.
+   */
+  public int
+  encodeData(Data data, ByteBuffer output)
+  {
+    TlvEncoder encoder = TlvEncoder.acquireReusable
+      (Math.max(1500, data.getEncodingSizeHint()));
+    try {
+      encodeData(data, new int[1], new int[1], encoder);
+      encoder.copyOutputTo(output);
+      return encoder.getLength();
+    } finally {
+      encoder.release();
+    }
+  }
+
+  /**
+   * Encode data in NDN-TLV to the encoder, which must be empty.
+   */
+  private static void
+  encodeData
+    (Data data, int[] signedPortionBeginOffset, int[] signedPortionEndOffset,
+     TlvEncoder encoder)
+  {
     int saveLength = encoder.getLength();
 
     // Encode backwards.
@@ -258,7 +305,6 @@ public class Tlv0_3WireFormat extends WireFormat {
       encoder.getLength() - signedPortionBeginOffsetFromBack;
     signedPortionEndOffset[0] =
       encoder.getLength() - signedPortionEndOffsetFromBack;
-    return new Blob(encoder.getOutput(), false);
   }
 
   /**
@@ -306,6 +352,24 @@ public class Tlv0_3WireFormat extends WireFormat {
     decoder.finishNestedTlvs(endOffset);
   }
 
+  /**
+   * Decode input as an NDN-TLV MetaInfo and set the fields of the metaInfo
+   * object. This is used to decode only the MetaInfo of a Data packet.
+   * @param metaInfo The MetaInfo object whose fields are updated.
+   * @param input The input buffer with the MetaInfo TLV to decode. This reads
+   * from position() to limit(), but does not change the position.
+   * @param copy If true, copy from the input when making new Blob values. If
+   * false, then Blob values share memory with the input, which must remain
+   * unchanged while the Blob values are used.
+   * @throws EncodingException For invalid encoding.
+   */
+  public void
+  decodeMetaInfo(MetaInfo metaInfo, ByteBuffer input, boolean copy)
+    throws EncodingException
+  {
+    decodeMetaInfo(metaInfo, new TlvDecoder(input), copy);
+  }
+
   /**
    * Encode controlParameters in NDN-TLV and return the encoding.
    * @param controlParameters The ControlParameters object to encode.
@@ -419,10 +483,13 @@ public class Tlv0_3WireFormat extends WireFormat {
   public Blob
   encodeSignatureInfo(Signature signature)
   {
-    TlvEncoder encoder = new TlvEncoder(256);
-    encodeSignatureInfo(signature, encoder);
-
-    return new Blob(encoder.getOutput(), false);
+    TlvEncoder encoder = TlvEncoder.acquireReusable(256);
+    try {
+      encodeSignatureInfo(signature, encoder);
+      return new Blob(encoder.getOutputCopy(), false);
+    } finally {
+      encoder.release();
+    }
   }
 
   private static class SimpleSignatureHolder implements SignatureHolder {
@@ -481,10 +548,13 @@ public class Tlv0_3WireFormat extends WireFormat {
   public Blob
   encodeSignatureValue(Signature signature)
   {
-    TlvEncoder encoder = new TlvEncoder(256);
-    encoder.writeBlobTlv(Tlv.SignatureValue, signature.getSignature().buf());
-
-    return new Blob(encoder.getOutput(), false);
+    TlvEncoder encoder = TlvEncoder.acquireReusable(256);
+    try {
+      encoder.writeBlobTlv(Tlv.SignatureValue, signature.getSignature().buf());
+      return new Blob(encoder.getOutputCopy(), false);
+    } finally {
+      encoder.release();
+    }
   }
 
   /**
@@ -1497,7 +1567,24 @@ public class Tlv0_3WireFormat extends WireFormat {
   {
     // TODO: Throw an exception if the interest speficies V02 fields.
 
-    TlvEncoder encoder = new TlvEncoder(256);
+    TlvEncoder encoder = TlvEncoder.acquireReusable(256);
+    try {
+      encodeInterestV03
+        (interest, signedPortionBeginOffset, signedPortionEndOffset, encoder);
+      return new Blob(encoder.getOutputCopy(), false);
+    } finally {
+      encoder.release();
+    }
+  }
+
+  /**
+   * Encode interest in NDN-TLV format v0.3 to the encoder, which must be empty.
+   */
+  private static void
+  encodeInterestV03
+    (Interest interest, int[] signedPortionBeginOffset,
+     int[] signedPortionEndOffset, TlvEncoder encoder)
+  {
     int saveLength = encoder.getLength();
 
     // Encode backwards.
@@ -1573,8 +1660,6 @@ public class Tlv0_3WireFormat extends WireFormat {
       encoder.getLength() - signedPortionBeginOffsetFromBack;
     signedPortionEndOffset[0] =
       encoder.getLength() - signedPortionEndOffsetFromBack;
-
-    return new Blob(encoder.getOutput(), false);
   }
 
   /**
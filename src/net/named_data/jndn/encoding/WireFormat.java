@@ -19,6 +19,7 @@
 
 package net.named_data.jndn.encoding;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import net.named_data.jndn.ControlParameters;
 import net.named_data.jndn.ControlResponse;
@@ -261,6 +262,30 @@ public class WireFormat {
     return encodeData(data, new int[1], new int[1]);
   }
 
+  /**
+   * Encode data and copy the encoding to the output buffer. This base class
+   * implementation calls encodeData(data) and copies the result. Your derived
+   * class may override to encode without the intermediate Blob.
+   * @param data The Data object to encode.
+   * @param output The caller's buffer, for example a transport send buffer.
+   * This copies the encoding at output.position() and advances the position.
+   * @return The length of the encoding.
+   * @throws BufferOverflowException If output.remaining() is less than the
+   * length of the encoding. In this case, output is not changed.
+   * @throws UnsupportedOperationException for unimplemented if the derived
+   * class does not override encodeData.
+   */
+  public int
+  encodeData(Data data, ByteBuffer output)
+  {
+    Blob encoding = encodeData(data);
+    if (output.remaining() < encoding.size())
+      throw new BufferOverflowException();
+
+    output.put(encoding.buf());
+    return encoding.size();
+  }
+
   /**
    * Decode input as a data packet and set the fields in the data object.  Your
    * derived class should override.
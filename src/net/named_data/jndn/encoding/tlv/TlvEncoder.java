@@ -19,7 +19,9 @@
 
 package net.named_data.jndn.encoding.tlv;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import net.named_data.jndn.util.Common;
 import net.named_data.jndn.util.DynamicByteBuffer;
 
 /**
@@ -51,6 +53,65 @@ public class TlvEncoder {
     output_.position(output_.limit());
   }
 
+  /**
+   * Get the reusable TlvEncoder for the current thread, reset to an empty
+   * output. Its output buffer keeps the capacity of previous encodings on this
+   * thread (up to MAX_REUSABLE_CAPACITY), so that encoding an object of the
+   * same size as before does not reallocate and copy. Since the next encoding
+   * on this thread overwrites the output buffer, get the result with
+   * getOutputCopy() or copyOutputTo() instead of getOutput(). When done, you
+   * must call release(), normally in a finally block.
+   * @param initialCapacity The expected size of the encoding, for example
+   * from Data.getEncodingSizeHint(). If the output buffer of the thread's
+   * reusable TlvEncoder is smaller, this grows it once before encoding so that
+   * the encoding doesn't grow it by reallocating and copying. If the thread's
+   * reusable TlvEncoder is already acquired (because an encoding method calls
+   * another encoding method which also calls acquireReusable), this returns a
+   * new TlvEncoder with this initial capacity.
+   * @return The TlvEncoder.
+   */
+  public static TlvEncoder
+  acquireReusable(int initialCapacity)
+  {
+    TlvEncoder encoder = threadEncoder_.get();
+    if (encoder.isAcquired_)
+      return new TlvEncoder(initialCapacity);
+
+    encoder.isAcquired_ = true;
+    encoder.reset();
+    // The output is empty, so this doesn't copy.
+    encoder.output_.ensureCapacityFromBack(initialCapacity);
+    return encoder;
+  }
+
+  /**
+   * If this is the reusable TlvEncoder from acquireReusable, let the current
+   * thread use it again. If its output buffer has grown larger than
+   * MAX_REUSABLE_CAPACITY, replace the buffer so that the thread doesn't keep
+   * the memory. If this is not a reusable TlvEncoder, do nothing.
+   */
+  public final void
+  release()
+  {
+    if (!isReusable_)
+      return;
+
+    if (output_.buffer().capacity() > MAX_REUSABLE_CAPACITY)
+      output_ = new DynamicByteBuffer(Common.MAX_NDN_PACKET_SIZE);
+    isAcquired_ = false;
+  }
+
+  /**
+   * Clear the output so that getLength() is 0, keeping the capacity of the
+   * output buffer.
+   */
+  public final void
+  reset()
+  {
+    output_.buffer().limit(output_.buffer().capacity());
+    output_.position(output_.limit());
+  }
+
   /**
    * Get the number of bytes that have been written to the output.  You can
    * save this number, write sub TLVs, then subtract the new length from this
@@ -279,5 +340,53 @@ public class TlvEncoder {
     return output_.buffer().slice();
   }
 
-  private final DynamicByteBuffer output_;
+  /**
+   * Return a copy of the output encoding in a new buffer of exactly
+   * getLength() bytes. Use this instead of getOutput() for a TlvEncoder from
+   * acquireReusable.
+   * @return A new ByteBuffer with the encoding, with position 0.
+   */
+  public final ByteBuffer
+  getOutputCopy()
+  {
+    ByteBuffer result = ByteBuffer.allocate(output_.remaining());
+    result.put(output_.buffer().duplicate());
+    result.flip();
+    return result;
+  }
+
+  /**
+   * Copy the output encoding to the output buffer at its position, and advance
+   * its position by getLength().
+   * @param output The caller's buffer, for example a transport send buffer.
+   * @throws BufferOverflowException If output.remaining() is less than
+   * getLength(). In this case, output is not changed.
+   */
+  public final void
+  copyOutputTo(ByteBuffer output)
+  {
+    if (output.remaining() < output_.remaining())
+      throw new BufferOverflowException();
+
+    output.put(output_.buffer().duplicate());
+  }
+
+  /**
+   * The maximum capacity of a reusable output buffer which is kept by
+   * release().
+   */
+  public static final int MAX_REUSABLE_CAPACITY = 65536;
+
+  private DynamicByteBuffer output_;
+  private boolean isReusable_ = false;
+  private boolean isAcquired_ = false;
+
+  private static final ThreadLocal<TlvEncoder> threadEncoder_ =
+    new ThreadLocal<TlvEncoder>() {
+      protected TlvEncoder initialValue() {
+        TlvEncoder encoder = new TlvEncoder(Common.MAX_NDN_PACKET_SIZE);
+        encoder.isReusable_ = true;
+        return encoder;
+      }
+    };
 }
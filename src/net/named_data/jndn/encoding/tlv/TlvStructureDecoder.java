@@ -41,8 +41,6 @@ public class TlvStructureDecoder {
       // Someone is calling when we already got the end.
       return true;
 
-    TlvDecoder decoder = new TlvDecoder(input);
-
     while (true) {
       if (offset_ >= input.limit())
         // All the cases assume we have some input. Return and wait for more.
@@ -115,11 +113,9 @@ public class TlvStructureDecoder {
         int nRemainingBytes = input.limit() - offset_;
         if (!useHeaderBuffer_ && nRemainingBytes >= nBytesToRead_) {
           // We don't have to use the headerBuffer. Set nBytesToRead.
-          decoder.seek(offset_);
-
-          nBytesToRead_ = decoder.readExtendedVarNumber(firstOctet_);
-          // Update offset_ to the decoder's offset after reading.
-          offset_ = decoder.getOffset();
+          int nLengthBytes = nBytesToRead_;
+          nBytesToRead_ = readExtendedVarNumber(input, offset_, firstOctet_);
+          offset_ += nLengthBytes;
         }
         else {
           useHeaderBuffer_ = true;
@@ -153,11 +149,8 @@ public class TlvStructureDecoder {
           headerBuffer_.put(remainingLengthBytes);
           offset_ += nNeededBytes;
 
-          // Use a local decoder just for the headerBuffer.
-          headerBuffer_.flip();
-          TlvDecoder bufferDecoder = new TlvDecoder(headerBuffer_);
           // Replace nBytesToRead with the length of the value.
-          nBytesToRead_ = bufferDecoder.readExtendedVarNumber(firstOctet_);
+          nBytesToRead_ = readExtendedVarNumber(headerBuffer_, 0, firstOctet_);
         }
 
         if (nBytesToRead_ == 0) {
@@ -189,6 +182,22 @@ public class TlvStructureDecoder {
     }
   }
 
+  /**
+   * Reset this to the initial state so that it can be used to find the end of
+   * a new element. This lets the caller reuse the same TlvStructureDecoder
+   * instead of allocating a new one for each element.
+   */
+  public final void
+  reset()
+  {
+    gotElementEnd_ = false;
+    offset_ = 0;
+    state_ = READ_TYPE;
+    useHeaderBuffer_ = false;
+    headerBuffer_.clear();
+    nBytesToRead_ = 0;
+  }
+
   /**
    * Get the current offset into the input buffer.
    * @return The offset.
@@ -203,6 +212,34 @@ public class TlvStructureDecoder {
   public final void
   seek(int offset) { offset_ = offset; }
 
+  /**
+   * Decode the bytes of an extended VAR-NUMBER at the given absolute offset in
+   * the input, without changing the input position. This is the same as
+   * TlvDecoder.readExtendedVarNumber, but does not need a TlvDecoder.
+   * @param input The input buffer.
+   * @param offset The offset in input of the bytes after the first octet.
+   * @param firstOctet The first octet which is greater than or equal to 253.
+   * @return The decoded VAR-NUMBER as a Java 32-bit int.
+   * @throws EncodingException if the VAR-NUMBER is 64-bit.
+   */
+  private static int
+  readExtendedVarNumber(ByteBuffer input, int offset, int firstOctet)
+    throws EncodingException
+  {
+    if (firstOctet == 253)
+      return (((int)input.get(offset) & 0xff) << 8) +
+              ((int)input.get(offset + 1) & 0xff);
+    else if (firstOctet == 254)
+      return (((int)input.get(offset) & 0xff) << 24) +
+             (((int)input.get(offset + 1) & 0xff) << 16) +
+             (((int)input.get(offset + 2) & 0xff) << 8) +
+              ((int)input.get(offset + 3) & 0xff);
+    else
+      // we are returning a 32-bit int, so can't handle 64-bit.
+      throw new EncodingException
+        ("Decoding a 64-bit VAR-NUMBER is not supported");
+  }
+
   private static int READ_TYPE =         0;
   private static int READ_TYPE_BYTES =   1;
   private static int READ_LENGTH =       2;
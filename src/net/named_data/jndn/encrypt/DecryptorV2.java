@@ -37,6 +37,7 @@ import net.named_data.jndn.NetworkNack;
 import net.named_data.jndn.OnData;
 import net.named_data.jndn.OnNetworkNack;
 import net.named_data.jndn.OnTimeout;
+import net.named_data.jndn.security.CryptoEngine;
 import net.named_data.jndn.security.KeyChain;
 import net.named_data.jndn.security.SafeBag;
 import net.named_data.jndn.security.pib.Pib;
@@ -421,7 +422,7 @@ public class DecryptorV2 {
 
     Blob plainData;
     try {
-      Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+      Cipher cipher = CryptoEngine.getCipher("AES/CBC/PKCS5PADDING");
       cipher.init
         (Cipher.DECRYPT_MODE,
          new SecretKeySpec(ckBits.getImmutableArray(), "AES"),
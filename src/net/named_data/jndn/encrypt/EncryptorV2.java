@@ -44,6 +44,7 @@ import net.named_data.jndn.OnInterestCallback;
 import net.named_data.jndn.OnNetworkNack;
 import net.named_data.jndn.OnRegisterFailed;
 import net.named_data.jndn.OnTimeout;
+import net.named_data.jndn.security.CryptoEngine;
 import net.named_data.jndn.security.KeyChain;
 import net.named_data.jndn.security.SigningInfo;
 import net.named_data.jndn.security.v2.Validator;
@@ -153,7 +154,7 @@ public class EncryptorV2 {
     byte[] initialVector = new byte[AES_IV_SIZE];
     Common.getRandom().nextBytes(initialVector);
 
-    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+    Cipher cipher = CryptoEngine.getCipher("AES/CBC/PKCS5PADDING");
     try {
       cipher.init
         (Cipher.ENCRYPT_MODE, new SecretKeySpec(ckBits_, "AES"),
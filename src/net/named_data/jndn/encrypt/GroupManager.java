@@ -24,9 +24,14 @@ import net.named_data.jndn.encrypt.algo.Encryptor;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import net.named_data.jndn.Data;
 import net.named_data.jndn.Name;
 import net.named_data.jndn.encoding.der.DerDecodingException;
@@ -93,20 +98,102 @@ public class GroupManager {
   getGroupKey(double timeSlot, boolean needRegenerate)
     throws GroupManagerDb.Error, SecurityException, TpmBackEnd.Error,
       PibImpl.Error, KeyChain.Error
+  {
+    return makeGroupKey(timeSlot, needRegenerate, null, false);
+  }
+
+  /**
+   * Create a group key for the interval into which timeSlot falls, the same as
+   * getGroupKey(timeSlot, needRegenerate), except that the D-KEY data packets
+   * are created in parallel by tasks submitted to the executor. Each task
+   * encrypts the group private key for one member and signs the D-KEY data
+   * packet, so the keyChain given to the constructor must allow concurrent
+   * calls to sign. (The E-KEY data packet is signed first on the calling
+   * thread so that the signing key is already looked up.) This waits for all
+   * the tasks to finish.
+   * @param timeSlot The time slot to cover as milliseconds since Jan 1, 1970 UTC.
+   * @param needRegenerate See getGroupKey(timeSlot, needRegenerate).
+   * @param executor The ExecutorService for the tasks. If null, create the
+   * D-KEY data packets on the calling thread.
+   * @return A List of Data packets in the same order as
+   * getGroupKey(timeSlot, needRegenerate).
+   * @throws GroupManagerDb.Error for a database error.
+   * @throws SecurityException for an error using the security KeyChain, or if
+   * the calling thread is interrupted while waiting for the tasks.
+   */
+  public final List
+  getGroupKey
+    (double timeSlot, boolean needRegenerate, ExecutorService executor)
+    throws GroupManagerDb.Error, SecurityException, TpmBackEnd.Error,
+      PibImpl.Error, KeyChain.Error
+  {
+    return makeGroupKey(timeSlot, needRegenerate, executor, false);
+  }
+
+  /**
+   * Get the group key for the interval into which timeSlot falls, with D-KEY
+   * data packets only for the members which were added since the last call to
+   * getGroupKey or getGroupKeyForNewMembers for the same group key. This does
+   * not regenerate the group key, so it should be called after members are
+   * added, not removed. If the group key for the interval doesn't exist yet
+   * (for example, the time slot is in a new interval), this creates it and
+   * returns D-KEY data packets for all members.
+   * @param timeSlot The time slot to cover as milliseconds since Jan 1, 1970 UTC.
+   * @param executor The ExecutorService to create the D-KEY data packets in
+   * parallel as in getGroupKey(timeSlot, needRegenerate, executor). If null,
+   * create them on the calling thread.
+   * @return A List of Data packets where the first is the E-KEY data packet
+   * and the rest are the D-KEY data packets for the new members, or an empty
+   * List if no member has an interval covering the time slot.
+   * @throws GroupManagerDb.Error for a database error.
+   * @throws SecurityException for an error using the security KeyChain.
+   */
+  public final List
+  getGroupKeyForNewMembers(double timeSlot, ExecutorService executor)
+    throws GroupManagerDb.Error, SecurityException, TpmBackEnd.Error,
+      PibImpl.Error, KeyChain.Error
+  {
+    return makeGroupKey(timeSlot, false, executor, true);
+  }
+
+  /**
+   * Call the main getGroupKey where needRegenerate is default true.
+   */
+  public final List
+  getGroupKey(double timeSlot)
+    throws GroupManagerDb.Error, SecurityException, TpmBackEnd.Error,
+      PibImpl.Error, KeyChain.Error
+  {
+    return getGroupKey(timeSlot, true);
+  }
+
+  /**
+   * This is the implementation of getGroupKey and getGroupKeyForNewMembers.
+   * @param executor If not null, create the D-KEY data packets in parallel.
+   * @param onlyNewMembers If true, only create D-KEY data packets for members
+   * which are not in distributedMemberKeys_ for the E-KEY.
+   */
+  private List<Data>
+  makeGroupKey
+    (double timeSlot, boolean needRegenerate, ExecutorService executor,
+     boolean onlyNewMembers)
+    throws GroupManagerDb.Error, SecurityException, TpmBackEnd.Error,
+      PibImpl.Error, KeyChain.Error
   {
     Map memberKeys = new TreeMap();
-    List result = new ArrayList();
+    List<Data> result = new ArrayList<Data>();
 
     // Get the time interval.
     Interval finalInterval = calculateInterval(timeSlot, memberKeys);
     if (finalInterval.isValid() == false)
       return result;
 
-    String startTimeStamp = Schedule.toIsoString(finalInterval.getStartTime());
-    String endTimeStamp = Schedule.toIsoString(finalInterval.getEndTime());
+    final String startTimeStamp = Schedule.toIsoString
+      (finalInterval.getStartTime());
+    final String endTimeStamp = Schedule.toIsoString(finalInterval.getEndTime());
 
     // Generate the private and public keys.
-    Blob[] privateKeyBlob = { null };
+    final Blob[] privateKeyBlob = { null };
     Blob[] publicKeyBlob = { null };
     Name eKeyName = new Name(namespace_);
     eKeyName.append(Encryptor.NAME_COMPONENT_E_KEY).append(startTimeStamp)
@@ -119,6 +206,13 @@ public class GroupManager {
       if (database_.hasEKey(eKeyName))
         deleteEKey(eKeyName);
       addEKey(eKeyName, publicKeyBlob[0], privateKeyBlob[0]);
+      // No member has the new group key.
+      distributedMemberKeys_.clear();
+    }
+
+    if (distributedEKeyName_ == null || !eKeyName.equals(distributedEKeyName_)) {
+      distributedEKeyName_ = eKeyName;
+      distributedMemberKeys_.clear();
     }
 
     // Add the first element to the result.
@@ -127,32 +221,71 @@ public class GroupManager {
     Data data = createEKeyData(startTimeStamp, endTimeStamp, publicKeyBlob[0]);
     result.add(data);
 
-    // Encrypt the private key with the public key from each member's certificate.
+    // Get the members to encrypt the private key for.
+    final ArrayList<Name> keyNames = new ArrayList<Name>();
+    final ArrayList<Blob> certificateKeys = new ArrayList<Blob>();
     for (Object entryObj : memberKeys.entrySet()) {
       Map.Entry entry = (Map.Entry)entryObj;
       Name keyName = (Name)entry.getKey();
-      Blob certificateKey = (Blob)entry.getValue();
-
-      // Generate the name of the packet.
-      // The D-KEY (private key) data packet name convention is:
-      // /<data_type>/D-KEY/[start-ts]/[end-ts]/[member-name]
-      data = createDKeyData
-        (startTimeStamp, endTimeStamp, keyName, privateKeyBlob[0], certificateKey);
-      result.add(data);
+      if (onlyNewMembers && distributedMemberKeys_.contains(keyName))
+        continue;
+
+      keyNames.add(keyName);
+      certificateKeys.add((Blob)entry.getValue());
     }
 
-    return result;
-  }
+    // Encrypt the private key with the public key from each member's certificate.
+    // Generate the name of the packet.
+    // The D-KEY (private key) data packet name convention is:
+    // /<data_type>/D-KEY/[start-ts]/[end-ts]/[member-name]
+    if (executor == null) {
+      for (int i = 0; i < keyNames.size(); ++i)
+        result.add(createDKeyData
+          (startTimeStamp, endTimeStamp, keyNames.get(i), privateKeyBlob[0],
+           certificateKeys.get(i)));
+    }
+    else {
+      ArrayList<Future<Data>> futures = new ArrayList<Future<Data>>();
+      try {
+        for (int i = 0; i < keyNames.size(); ++i) {
+          final int index = i;
+          futures.add(executor.submit(new Callable<Data>() {
+            public Data call() throws Exception {
+              return createDKeyData
+                (startTimeStamp, endTimeStamp, keyNames.get(index),
+                 privateKeyBlob[0], certificateKeys.get(index));
+            }
+          }));
+        }
+
+        // Wait for the results in order.
+        for (int i = 0; i < futures.size(); ++i)
+          result.add(futures.get(i).get());
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new SecurityException
+          ("getGroupKey: Interrupted while creating D-KEY data packets");
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof SecurityException)
+          throw (SecurityException)cause;
+        if (cause instanceof TpmBackEnd.Error)
+          throw (TpmBackEnd.Error)cause;
+        if (cause instanceof PibImpl.Error)
+          throw (PibImpl.Error)cause;
+        if (cause instanceof KeyChain.Error)
+          throw (KeyChain.Error)cause;
+        throw new SecurityException
+          ("getGroupKey: Error creating D-KEY data packets: " + cause);
+      } finally {
+        // Don't leave tasks running after an error.
+        for (int i = 0; i < futures.size(); ++i)
+          futures.get(i).cancel(true);
+      }
+    }
 
-  /**
-   * Call the main getGroupKey where needRegenerate is default true.
-   */
-  public final List
-  getGroupKey(double timeSlot)
-    throws GroupManagerDb.Error, SecurityException, TpmBackEnd.Error,
-      PibImpl.Error, KeyChain.Error
-  {
-    return getGroupKey(timeSlot, true);
+    distributedMemberKeys_.addAll(keyNames);
+    return result;
   }
 
   /**
@@ -516,6 +649,9 @@ public class GroupManager {
   private final int keySize_;
   private final int freshnessHours_;
   private final KeyChain keyChain_;
+  // The key names of members which were given a D-KEY for distributedEKeyName_.
+  private Name distributedEKeyName_ = null;
+  private final HashSet<Name> distributedMemberKeys_ = new HashSet<Name>();
 
   private static final long MILLISECONDS_IN_HOUR = 3600 * 1000;
 }
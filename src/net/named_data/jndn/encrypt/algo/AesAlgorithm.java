@@ -37,6 +37,7 @@ import net.named_data.jndn.encrypt.DecryptKey;
 import net.named_data.jndn.encrypt.EncryptKey;
 import net.named_data.jndn.util.Blob;
 import net.named_data.jndn.security.AesKeyParams;
+import net.named_data.jndn.security.CryptoEngine;
 import net.named_data.jndn.util.Common;
 
 /**
@@ -86,7 +87,7 @@ public class AesAlgorithm {
            IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
   {
     if (params.getAlgorithmType() == EncryptAlgorithmType.AesEcb) {
-      Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5PADDING");
+      Cipher cipher = CryptoEngine.getCipher("AES/ECB/PKCS5PADDING");
       cipher.init
         (Cipher.DECRYPT_MODE,
          new SecretKeySpec(keyBits.getImmutableArray(), "AES"));
@@ -96,7 +97,7 @@ public class AesAlgorithm {
       if (params.getInitialVector().size() != BLOCK_SIZE)
         throw new Error("incorrect initial vector size");
 
-      Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+      Cipher cipher = CryptoEngine.getCipher("AES/CBC/PKCS5PADDING");
       cipher.init
         (Cipher.DECRYPT_MODE,
          new SecretKeySpec(keyBits.getImmutableArray(), "AES"),
@@ -121,7 +122,7 @@ public class AesAlgorithm {
            IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
   {
     if (params.getAlgorithmType() == EncryptAlgorithmType.AesEcb) {
-      Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5PADDING");
+      Cipher cipher = CryptoEngine.getCipher("AES/ECB/PKCS5PADDING");
       cipher.init
         (Cipher.ENCRYPT_MODE,
          new SecretKeySpec(keyBits.getImmutableArray(), "AES"));
@@ -131,7 +132,7 @@ public class AesAlgorithm {
       if (params.getInitialVector().size() != BLOCK_SIZE)
         throw new Error("incorrect initial vector size");
 
-      Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+      Cipher cipher = CryptoEngine.getCipher("AES/CBC/PKCS5PADDING");
       cipher.init
         (Cipher.ENCRYPT_MODE,
          new SecretKeySpec(keyBits.getImmutableArray(), "AES"),
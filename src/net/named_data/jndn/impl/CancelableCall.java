@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.impl;
+
+/**
+ * A CancelableCall is returned by Face.callLaterCancelable for a delayed call
+ * so that the call can be cancelled, for example when the pending interest
+ * which it times out is satisfied or removed.
+ */
+public interface CancelableCall {
+  /**
+   * Cancel the delayed call so that the callback is not called. If the
+   * callback has already been called or cancelled, do nothing.
+   * @return True if the call was cancelled, false if it was already called or
+   * cancelled.
+   */
+  boolean cancel();
+}
@@ -20,91 +20,75 @@
 package net.named_data.jndn.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import net.named_data.jndn.util.Common;
 
 /**
  * DelayedCallTable is an internal class used by the Node implementation of
- * callLater to store callbacks and call them when they time out.
+ * callLater to store callbacks and call them when they time out. The entries
+ * are kept in a hashed timer wheel: each slot holds a doubly-linked list of the
+ * entries whose call time falls in a tick which maps to the slot, so that
+ * callLater and cancel are O(1) and callTimedOut only visits the slots for the
+ * ticks which have passed since the last call. The earliest call time is kept
+ * up to date when entries are added or removed, so that getNextCallTime is a
+ * read of a field.
  */
 public class DelayedCallTable {
   /**
-   * Call callback.run() after the given delay. This adds to the delayed call
-   * table which is used by callTimedOut().
-   * @param delayMilliseconds The delay in milliseconds.
-   * @param callback This calls callback.run() after the delay.
+   * Create a DelayedCallTable with the given timer wheel parameters.
+   * @param tickMilliseconds The duration of one tick (one slot) of the timer
+   * wheel in milliseconds.
+   * @param nSlots The number of slots in the timer wheel. This is rounded up to
+   * a power of 2. An entry whose delay is longer than
+   * tickMilliseconds * nSlots stays in its slot for more than one rotation.
    */
-  public synchronized final void
-  callLater(double delayMilliseconds, Runnable callback)
+  public DelayedCallTable(double tickMilliseconds, int nSlots)
   {
-    Entry entry = new Entry(delayMilliseconds, callback);
-    // Insert into table_, sorted on getCallTime().
-    // Search from the back since we expect it to go there.
-    int i = table_.size() - 1;
-    while (i >= 0) {
-      if ((table_.get(i)).getCallTime() <= entry.getCallTime())
-        break;
-      --i;
-    }
-    // Element i is the greatest less than or equal to
-    // entry.getCallTime(), so insert after it.
-    table_.add(i + 1, entry);
-  }
+    if (!(tickMilliseconds > 0))
+      throw new IllegalArgumentException
+        ("DelayedCallTable: tickMilliseconds must be positive");
+    if (nSlots <= 0)
+      throw new IllegalArgumentException
+        ("DelayedCallTable: nSlots must be positive");
 
-  /**
-   * Call and remove timed-out callback entries. Since callLater does a sorted
-   * insert into the delayed call table, the check for timed-out entries is
-   * quick and does not require searching the entire table. This synchronizes on
-   * the delayed call table when checking it, but not when calling the callback.
-   */
-  public final void
-  callTimedOut()
-  {
-    // nowOffsetMilliseconds_ is only used for testing.
-    double now = Common.getNowMilliseconds() + nowOffsetMilliseconds_;
-    // table_ is sorted on _callTime, so we only need to process the timed-out
-    // entries at the front, then quit.
-    while (true) {
-      Entry entry;
-      // Lock while we check and maybe pop the element at the front.
-      synchronized(this) {
-        if (table_.isEmpty())
-          break;
-        entry = table_.get(0);
-        if (entry.getCallTime() > now)
-          // It is not time to call the entry at the front of the list, so finish.
-          break;
-        table_.remove(0);
-      }
+    int size = 1;
+    while (size < nSlots)
+      size <<= 1;
 
-      // The lock on table_ is removed, so call the callback.
-      entry.callCallback();
-    }
+    tickMilliseconds_ = tickMilliseconds;
+    slots_ = new Entry[size];
+    slotTails_ = new Entry[size];
+    mask_ = size - 1;
+    nextTick_ = getTick(Common.getNowMilliseconds());
   }
 
   /**
-   * Set the offset for when prepareCommandInterestName() gets the current time,
-   * which should only be used for testing.
-   * @param nowOffsetMilliseconds The offset in milliseconds.
+   * Create a DelayedCallTable with a default tick of 10 milliseconds and 512
+   * slots, so that one rotation of the wheel covers the default Interest
+   * lifetime.
    */
-  public final void
-  setNowOffsetMilliseconds_(double nowOffsetMilliseconds)
+  public DelayedCallTable()
   {
-    nowOffsetMilliseconds_ = nowOffsetMilliseconds;
+    this(10.0, 512);
   }
 
   /**
    * Entry holds the callback and other fields for an entry in the delayed call
-   * table.
+   * table. It is returned by callLater so that the call can be cancelled.
    */
-  private static class Entry {
+  public static class Entry implements CancelableCall {
     /**
      * Create a new DelayedCallTable.Entry and set the call time based on the
      * current time and the delayMilliseconds.
+     * @param table The DelayedCallTable which holds this entry.
      * @param delayMilliseconds The delay in milliseconds.
      * @param callback This calls callback.run() after the delay.
      */
-    public Entry(double delayMilliseconds, Runnable callback)
+    private Entry
+      (DelayedCallTable table, double delayMilliseconds, Runnable callback)
     {
+      table_ = table;
       callback_ = callback;
       callTime_ = Common.getNowMilliseconds() + delayMilliseconds;
     }
@@ -117,18 +101,277 @@ public class DelayedCallTable {
     public final double
     getCallTime() { return callTime_; }
 
+    /**
+     * Cancel this delayed call so that the callback is not called. If the
+     * callback has already been called or cancelled, do nothing.
+     * @return True if the call was cancelled, false if it was already called or
+     * cancelled.
+     */
+    public final boolean
+    cancel() { return table_.cancel(this); }
+
     /**
      * Call the callback given to the constructor. This does not catch
      * exceptions.
      */
-    public final void
+    private void
     callCallback() { callback_.run(); }
 
+    private final DelayedCallTable table_;
     private final Runnable callback_;
     private final double callTime_;
+    private int slot_ = -1; /**< The slot index, or -1 if not in the wheel */
+    private Entry previous_ = null;
+    private Entry next_ = null;
+    private boolean isDone_ = false; /**< True if called or cancelled */
   }
 
-  private final ArrayList<Entry> table_ = new ArrayList<Entry>();
+  /**
+   * Call callback.run() after the given delay. This adds to the delayed call
+   * table which is used by callTimedOut().
+   * @param delayMilliseconds The delay in milliseconds.
+   * @param callback This calls callback.run() after the delay.
+   * @return The new Entry, which can be used to cancel the call.
+   */
+  public synchronized final Entry
+  callLater(double delayMilliseconds, Runnable callback)
+  {
+    Entry entry = new Entry(this, delayMilliseconds, callback);
+    // An entry which is already due goes in the next slot to be checked.
+    long tick = Math.max(getTick(entry.getCallTime()), nextTick_);
+    link(entry, (int)(tick & mask_));
+    ++size_;
+    if (nextCallTime_ < 0 || entry.getCallTime() < nextCallTime_)
+      nextCallTime_ = entry.getCallTime();
+
+    return entry;
+  }
+
+  /**
+   * Remove the entry from the delayed call table so that its callback is not
+   * called. This is the same as entry.cancel().
+   * @param entry The Entry returned by callLater.
+   * @return True if the call was cancelled, false if it was already called or
+   * cancelled.
+   */
+  public synchronized final boolean
+  cancel(Entry entry)
+  {
+    if (entry.table_ != this || entry.isDone_)
+      return false;
+
+    entry.isDone_ = true;
+    if (entry.slot_ >= 0) {
+      unlink(entry);
+      --size_;
+      if (entry.getCallTime() <= nextCallTime_)
+        // This may have been the earliest entry.
+        nextCallTime_ = findNextCallTime();
+    }
+    // Otherwise, callTimedOut has removed the entry but not yet called it, and
+    // will skip it.
+    return true;
+  }
+
+  /**
+   * Call and remove timed-out callback entries. This only checks the slots of
+   * the timer wheel for the ticks since the previous call, so the check for
+   * timed-out entries does not require searching the entire table. This
+   * synchronizes on the delayed call table when checking it, but not when
+   * calling the callbacks. The callbacks are called in order of their call time.
+   */
+  public final void
+  callTimedOut()
+  {
+    // nowOffsetMilliseconds_ is only used for testing.
+    double now = Common.getNowMilliseconds() + nowOffsetMilliseconds_;
+    ArrayList<Entry> timedOut;
+
+    synchronized(this) {
+      if (size_ == 0) {
+        nextTick_ = Math.max(nextTick_, getTick(now));
+        return;
+      }
+
+      long nowTick = getTick(now);
+      if (nowTick < nextTick_)
+        return;
+
+      timedOut = new ArrayList<Entry>();
+      // If more than one rotation has passed, each slot only needs checking once.
+      long nTicks = Math.min(nowTick - nextTick_ + 1, slots_.length);
+      for (long i = 0; i < nTicks; ++i) {
+        int slot = (int)((nextTick_ + i) & mask_);
+        Entry entry = slots_[slot];
+        while (entry != null) {
+          Entry next = entry.next_;
+          if (entry.getCallTime() <= now) {
+            unlink(entry);
+            --size_;
+            timedOut.add(entry);
+          }
+          entry = next;
+        }
+      }
+      // Check the slot for nowTick again next time since it may have entries
+      // with a call time later in the same tick.
+      nextTick_ = nowTick;
+      if (timedOut.size() > 0)
+        // The earliest entry was removed.
+        nextCallTime_ = findNextCallTime();
+
+      if (timedOut.size() > 1)
+        // Entries from different ticks or rotations may be out of order. The
+        // sort is stable, so entries with the same call time stay in the order
+        // they were added.
+        Collections.sort(timedOut, callTimeComparator_);
+    }
+
+    // The lock is removed, so call the callbacks.
+    for (int i = 0; i < timedOut.size(); ++i) {
+      Entry entry = timedOut.get(i);
+      synchronized(this) {
+        // A previous callback may have cancelled this entry.
+        if (entry.isDone_)
+          continue;
+        entry.isDone_ = true;
+      }
+
+      entry.callCallback();
+    }
+  }
+
+  /**
+   * Get the earliest call time of the entries waiting to be called, so that an
+   * event loop can wait until then. This does not lock or search the table
+   * since the earliest call time is updated by callLater, cancel and
+   * callTimedOut.
+   * @return The earliest call time in milliseconds, similar to
+   * Common.getNowMilliseconds(), or -1 if there are no entries.
+   */
+  public final double
+  getNextCallTime() { return nextCallTime_; }
+
+  /**
+   * Get the number of entries waiting to be called.
+   * @return The number of entries.
+   */
+  public synchronized final int
+  size() { return size_; }
+
+  /**
+   * Set the offset for when prepareCommandInterestName() gets the current time,
+   * which should only be used for testing.
+   * @param nowOffsetMilliseconds The offset in milliseconds.
+   */
+  public final void
+  setNowOffsetMilliseconds_(double nowOffsetMilliseconds)
+  {
+    nowOffsetMilliseconds_ = nowOffsetMilliseconds;
+  }
+
+  /**
+   * Find the earliest call time of the entries. This checks the slots of the
+   * timer wheel in tick order starting from the next tick, so it usually stops
+   * at the first non-empty slot. Only if no entry is due within one rotation
+   * does this search the entire table. This assumes the caller holds the lock.
+   * @return The earliest call time, or -1 if there are no entries.
+   */
+  private double
+  findNextCallTime()
+  {
+    if (size_ == 0)
+      return -1;
+
+    for (long i = 0; i < slots_.length; ++i) {
+      long tick = nextTick_ + i;
+      // Entries in the slot for a later rotation have a later call time.
+      double tickEndTime = (tick + 1) * tickMilliseconds_;
+      double result = -1;
+      for (Entry entry = slots_[(int)(tick & mask_)]; entry != null;
+           entry = entry.next_) {
+        if (entry.getCallTime() < tickEndTime &&
+            (result < 0 || entry.getCallTime() < result))
+          result = entry.getCallTime();
+      }
+
+      if (result >= 0)
+        return result;
+    }
+
+    // All entries are more than one rotation away.
+    double result = -1;
+    for (int i = 0; i < slots_.length; ++i) {
+      for (Entry entry = slots_[i]; entry != null; entry = entry.next_) {
+        if (result < 0 || entry.getCallTime() < result)
+          result = entry.getCallTime();
+      }
+    }
+
+    return result;
+  }
+
+  private long
+  getTick(double timeMilliseconds)
+  {
+    return (long)Math.floor(timeMilliseconds / tickMilliseconds_);
+  }
+
+  /**
+   * Add the entry to the back of the list for the slot. This assumes the
+   * caller holds the lock.
+   */
+  private void
+  link(Entry entry, int slot)
+  {
+    entry.slot_ = slot;
+    entry.next_ = null;
+    entry.previous_ = slotTails_[slot];
+    if (entry.previous_ != null)
+      entry.previous_.next_ = entry;
+    else
+      slots_[slot] = entry;
+    slotTails_[slot] = entry;
+  }
+
+  /**
+   * Remove the entry from the list for its slot. This assumes the caller holds
+   * the lock.
+   */
+  private void
+  unlink(Entry entry)
+  {
+    if (entry.previous_ != null)
+      entry.previous_.next_ = entry.next_;
+    else
+      slots_[entry.slot_] = entry.next_;
+    if (entry.next_ != null)
+      entry.next_.previous_ = entry.previous_;
+    else
+      slotTails_[entry.slot_] = entry.previous_;
+
+    entry.slot_ = -1;
+    entry.previous_ = null;
+    entry.next_ = null;
+  }
+
+  private static final Comparator<Entry> callTimeComparator_ =
+    new Comparator<Entry>() {
+      public int compare(Entry entry1, Entry entry2) {
+        return Double.compare(entry1.getCallTime(), entry2.getCallTime());
+      }
+    };
+
+  private final double tickMilliseconds_;
+  private final Entry[] slots_;
+  private final Entry[] slotTails_;
+  private final int mask_;
+  private long nextTick_; /**< The next tick whose slot callTimedOut checks */
+  private int size_ = 0;
+  // nextCallTime_ is the earliest call time of the entries, or -1 if none. It
+  // is only changed while holding the lock, and is volatile so that
+  // getNextCallTime can read it without the lock.
+  private volatile double nextCallTime_ = -1;
   private double nowOffsetMilliseconds_ = 0;
   // This is to force an import of net.named_data.jndn.util.
   private static Common dummyCommon_ = new Common();
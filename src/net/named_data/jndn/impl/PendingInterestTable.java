@@ -20,10 +20,13 @@
 package net.named_data.jndn.impl;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.named_data.jndn.Interest;
 import net.named_data.jndn.Data;
+import net.named_data.jndn.Name;
 import net.named_data.jndn.OnData;
 import net.named_data.jndn.OnNetworkNack;
 import net.named_data.jndn.OnTimeout;
@@ -33,7 +36,10 @@ import net.named_data.jndn.util.SignedBlob;
 
 /**
  * A PendingInterestTable is an internal class to hold a list of pending
- * interests with their callbacks.
+ * interests with their callbacks. The entries are indexed by a trie of the
+ * Interest name components so that finding the entries for an incoming Data
+ * packet depends on the length of the Data name and not on the number of
+ * pending interests. The entries are also indexed by pendingInterestId.
  */
 public class PendingInterestTable {
   /**
@@ -120,6 +126,8 @@ public class PendingInterestTable {
     private final OnTimeout onTimeout_;
     private final OnNetworkNack onNetworkNack_;
     private boolean isRemoved_ = false;
+    private NameNode node_ = null; /**< The node in the name index holding this entry */
+    private CancelableCall timeoutCall_ = null;
   }
 
   /**
@@ -143,24 +151,39 @@ public class PendingInterestTable {
   add(long pendingInterestId, Interest interestCopy, OnData onData,
        OnTimeout onTimeout, OnNetworkNack onNetworkNack)
   {
-    int removeRequestIndex = removeRequests_.indexOf(pendingInterestId);
-    if (removeRequestIndex >= 0) {
+    if (removeRequests_.remove(pendingInterestId))
       // removePendingInterest was called with the pendingInterestId returned by
       //   expressInterest before we got here, so don't add a PIT entry.
-      removeRequests_.remove(removeRequestIndex);
       return null;
-    }
 
     Entry entry = new Entry
       (pendingInterestId, interestCopy, onData, onTimeout, onNetworkNack);
-    table_.add(entry);
+
+    // Find or create the node for the Interest name.
+    Name name = interestCopy.getName();
+    NameNode node = root_;
+    for (int i = 0; i < name.size(); ++i)
+      node = node.getOrCreateChild(name.get(i));
+    node.entries_.add(entry);
+    entry.node_ = node;
+
+    ArrayList<Entry> idEntries = idIndex_.get(pendingInterestId);
+    if (idEntries == null) {
+      idEntries = new ArrayList<Entry>(1);
+      idIndex_.put(pendingInterestId, idEntries);
+    }
+    idEntries.add(entry);
+    ++size_;
+
     return entry;
   }
 
   /**
    * Find all entries from the pending interest table where data conforms to
    * the entry's interest selectors, remove the entries from the table, set each
-   * entry's isRemoved flag, and add to the entries list.
+   * entry's isRemoved flag, and add to the entries list. This only checks the
+   * entries whose Interest name is a prefix of the Data full name, so the cost
+   * depends on the length of the Data name and not on the size of the table.
    * @param data The incoming Data packet to find the interest for.
    * @param entries Add matching PendingInterestTable.Entry from the pending
    * interest table.  The caller should pass in an empty ArrayList.
@@ -168,16 +191,41 @@ public class PendingInterestTable {
   public synchronized final void
   extractEntriesForExpressedInterest(Data data, ArrayList<Entry> entries)
   {
-    // Go backwards through the list so we can remove entries.
-    for (int i = table_.size() - 1; i >= 0; --i) {
-      Entry pendingInterest = table_.get(i);
+    Name dataName = data.getName();
 
-      if (pendingInterest.getInterest().matchesData(data)) {
-        entries.add(table_.get(i));
-        // We let the callback from callLater call _processInterestTimeout, but
-        // for efficiency, mark this as removed so that it returns right away.
-        table_.remove(i);
-        pendingInterest.setIsRemoved();
+    // Collect the nodes first since removing entries may prune the trie.
+    ArrayList<NameNode> nodes = new ArrayList<NameNode>();
+    NameNode node = root_;
+    nodes.add(node);
+    for (int i = 0; i < dataName.size(); ++i) {
+      node = node.getChild(dataName.get(i));
+      if (node == null)
+        break;
+      nodes.add(node);
+    }
+
+    if (node != null && node.children_ != null) {
+      // An Interest name can also have the implicit digest of the Data as its
+      // last component, so check the children which are digest components.
+      // matchesData below will compare the actual digest.
+      for (NameNode child : node.children_.values()) {
+        if (child.component_.isImplicitSha256Digest())
+          nodes.add(child);
+      }
+    }
+
+    for (int iNode = nodes.size() - 1; iNode >= 0; --iNode) {
+      NameNode candidateNode = nodes.get(iNode);
+      // Go backwards through the list so we can remove entries.
+      for (int i = candidateNode.entries_.size() - 1; i >= 0; --i) {
+        Entry pendingInterest = candidateNode.entries_.get(i);
+
+        if (pendingInterest.getInterest().matchesData(data)) {
+          entries.add(pendingInterest);
+          // We let the callback from callLater call _processInterestTimeout, but
+          // for efficiency, mark this as removed so that it returns right away.
+          removeFromIndex(pendingInterest);
+        }
       }
     }
   }
@@ -190,6 +238,8 @@ public class PendingInterestTable {
    * OnNetworkNack callback is null so that OnTimeout will be called later.) The
    * interests are the same if their default wire encoding is the same (which
    * has everything including the name, nonce, link object and selectors).
+   * Since the names must be equal, this only checks the entries with the same
+   * Interest name.
    * @param interest The Interest to search for (typically from a Nack packet).
    * @param entries Add matching PendingInterestTable.Entry from the pending
    * interest table. The caller should pass in an empty ArrayList.
@@ -197,22 +247,29 @@ public class PendingInterestTable {
   public synchronized final void
   extractEntriesForNackInterest(Interest interest, ArrayList<Entry> entries)
   {
+    Name name = interest.getName();
+    NameNode node = root_;
+    for (int i = 0; i < name.size(); ++i) {
+      node = node.getChild(name.get(i));
+      if (node == null)
+        return;
+    }
+
     SignedBlob encoding = interest.wireEncode();
 
     // Go backwards through the list so we can remove entries.
-    for (int i = table_.size() - 1; i >= 0; --i) {
-      Entry pendingInterest = table_.get(i);
+    for (int i = node.entries_.size() - 1; i >= 0; --i) {
+      Entry pendingInterest = node.entries_.get(i);
       if (pendingInterest.getOnNetworkNack() == null)
         continue;
 
       // wireEncode returns the encoding cached when the interest was sent (if
       // it was the default wire encoding).
       if (pendingInterest.getInterest().wireEncode().equals(encoding)) {
-        entries.add(table_.get(i));
+        entries.add(pendingInterest);
         // We let the callback from callLater call _processInterestTimeout, but
         // for efficiency, mark this as removed so that it returns right away.
-        table_.remove(i);
-        pendingInterest.setIsRemoved();
+        removeFromIndex(pendingInterest);
       }
     }
   }
@@ -228,31 +285,28 @@ public class PendingInterestTable {
   public synchronized final void
   removePendingInterest(long pendingInterestId)
   {
-    int count = 0;
-    // Go backwards through the list so we can remove entries.
     // Remove all entries even though pendingInterestId should be unique.
-    for (int i = table_.size() - 1; i >= 0; --i) {
-      if ((table_.get(i)).getPendingInterestId() == pendingInterestId) {
+    ArrayList<Entry> idEntries = idIndex_.get(pendingInterestId);
+    int count = 0;
+    if (idEntries != null) {
+      // Go backwards through the list since removeFromIndex modifies it.
+      for (int i = idEntries.size() - 1; i >= 0; --i) {
         ++count;
         // For efficiency, mark this as removed so that
         // processInterestTimeout doesn't look for it.
-        (table_.get(i)).setIsRemoved();
-        table_.remove(i);
+        removeFromIndex(idEntries.get(i));
       }
     }
 
-    if (count == 0)
+    if (count == 0) {
       logger_.log
         (Level.WARNING, "removePendingInterest: Didn't find pendingInterestId {0}",
          pendingInterestId);
 
-    if (count == 0) {
       // The pendingInterestId was not found. Perhaps this has been called before
       //   the callback in expressInterest can add to the PIT. Add this
       //   removal request which will be checked before adding to the PIT.
-      if (removeRequests_.indexOf(pendingInterestId) < 0)
-        // Not already requested, so add the request.
-        removeRequests_.add(pendingInterestId);
+      removeRequests_.add(pendingInterestId);
     }
   }
 
@@ -272,16 +326,123 @@ public class PendingInterestTable {
       // Do nothing.
       return false;
 
-    if (table_.remove(pendingInterest)) {
-      pendingInterest.setIsRemoved();
-      return true;
-    }
+    return removeFromIndex(pendingInterest);
+  }
+
+  /**
+   * Set the delayed call for the timeout of the pending interest entry so that
+   * it is cancelled when the entry is removed from the table, instead of
+   * leaving a dead timer in the DelayedCallTable or thread pool. If the entry
+   * has already been removed, cancel the delayed call now.
+   * @param pendingInterest The Entry from the pending interest table.
+   * @param timeoutCall The CancelableCall returned by Face.callLaterCancelable.
+   */
+  public synchronized final void
+  setTimeoutCall(Entry pendingInterest, CancelableCall timeoutCall)
+  {
+    if (pendingInterest.getIsRemoved())
+      timeoutCall.cancel();
     else
+      pendingInterest.timeoutCall_ = timeoutCall;
+  }
+
+  /**
+   * Get the number of entries in the pending interest table.
+   * @return The number of entries.
+   */
+  public synchronized final int
+  size() { return size_; }
+
+  /**
+   * Remove the entry from its name node and from idIndex_, prune name nodes
+   * which are now empty, set the entry's isRemoved flag and cancel its timeout
+   * call. This assumes the caller holds the lock.
+   * @param entry The Entry to remove.
+   * @return True if the entry was in the table, false if not.
+   */
+  private boolean
+  removeFromIndex(Entry entry)
+  {
+    NameNode node = entry.node_;
+    if (node == null || !node.entries_.remove(entry))
       return false;
+    entry.node_ = null;
+    entry.setIsRemoved();
+    if (entry.timeoutCall_ != null) {
+      // This does nothing if the timeout call is what is removing the entry.
+      entry.timeoutCall_.cancel();
+      entry.timeoutCall_ = null;
+    }
+
+    ArrayList<Entry> idEntries = idIndex_.get(entry.getPendingInterestId());
+    if (idEntries != null) {
+      idEntries.remove(entry);
+      if (idEntries.size() == 0)
+        idIndex_.remove(entry.getPendingInterestId());
+    }
+    --size_;
+
+    // Prune nodes which no longer hold entries or children.
+    while (node.parent_ != null && node.isEmpty()) {
+      node.parent_.children_.remove(node.component_);
+      node = node.parent_;
+    }
+
+    return true;
+  }
+
+  /**
+   * A NameNode is a node in the name trie which indexes the entries by their
+   * Interest name. The path from the root to a node is the Interest name.
+   */
+  private static class NameNode {
+    public NameNode(NameNode parent, Name.Component component)
+    {
+      parent_ = parent;
+      component_ = component;
+    }
+
+    public final NameNode
+    getChild(Name.Component component)
+    {
+      if (children_ == null)
+        return null;
+      return children_.get(component);
+    }
+
+    public final NameNode
+    getOrCreateChild(Name.Component component)
+    {
+      if (children_ == null)
+        children_ = new HashMap<Name.Component, NameNode>();
+
+      NameNode child = children_.get(component);
+      if (child == null) {
+        child = new NameNode(this, component);
+        children_.put(component, child);
+      }
+
+      return child;
+    }
+
+    public final boolean
+    isEmpty()
+    {
+      return entries_.size() == 0 &&
+        (children_ == null || children_.size() == 0);
+    }
+
+    public final NameNode parent_;
+    public final Name.Component component_;
+    public HashMap<Name.Component, NameNode> children_ = null;
+    public final ArrayList<Entry> entries_ = new ArrayList<Entry>(1);
   }
 
-  private final ArrayList<Entry> table_ = new ArrayList<Entry>();
-  private final ArrayList<Long> removeRequests_ = new ArrayList<Long>();
+  private final NameNode root_ = new NameNode(null, null);
+  private final HashMap<Long, ArrayList<Entry>> idIndex_ =
+    new HashMap<Long, ArrayList<Entry>>();
+  private final HashSet<Long> removeRequests_ = new HashSet<Long>();
+  private int size_ = 0;
   private static final Logger logger_ = Logger.getLogger
     (PendingInterestTable.class.getName());
   // This is to force an import of net.named_data.jndn.util.
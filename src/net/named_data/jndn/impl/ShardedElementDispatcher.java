@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.impl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.named_data.jndn.encoding.ElementListener;
+import net.named_data.jndn.encoding.tlv.Tlv;
+import net.named_data.jndn.util.Common;
+
+/**
+ * ShardedElementDispatcher is an internal class used by Node to process
+ * received elements on a number of worker threads. Each element is assigned to
+ * a shard by a hash of the first components of the Interest or Data name, which
+ * is read directly from the wire encoding without decoding the packet. Each
+ * shard has one worker thread which processes its elements in the order they
+ * were received, so the order is preserved for packets with the same name
+ * prefix.
+ */
+public class ShardedElementDispatcher {
+  /**
+   * Create a ShardedElementDispatcher and start its worker threads.
+   * @param processor The ElementListener whose onReceivedElement is called on
+   * the worker thread to decode and process each element.
+   * @param nShards The number of shards, each with its own worker thread.
+   * @param nPrefixComponents The number of name components used to compute the
+   * shard. Packets whose names have the same first nPrefixComponents are
+   * processed in order by the same worker thread.
+   * @param queueCapacity The maximum number of elements waiting in each shard.
+   * If a shard's queue is full, dispatch blocks until there is room.
+   */
+  public ShardedElementDispatcher
+    (ElementListener processor, int nShards, int nPrefixComponents,
+     int queueCapacity)
+  {
+    if (nShards <= 0)
+      throw new IllegalArgumentException
+        ("ShardedElementDispatcher: nShards must be positive");
+    if (nPrefixComponents < 0)
+      throw new IllegalArgumentException
+        ("ShardedElementDispatcher: nPrefixComponents must not be negative");
+
+    processor_ = processor;
+    nPrefixComponents_ = nPrefixComponents;
+    shards_ = new Shard[nShards];
+    threads_ = new Thread[nShards];
+    for (int i = 0; i < nShards; ++i) {
+      shards_[i] = new Shard(queueCapacity);
+      threads_[i] = new Thread(shards_[i], "ShardedElementDispatcher-" + i);
+      threads_[i].setDaemon(true);
+      threads_[i].start();
+    }
+  }
+
+  /**
+   * Copy the element and add it to the queue of its shard. This is called on
+   * the transport thread. After shutdown, this does nothing.
+   * @param element The received element. This copies it since the buffer is
+   * only valid during the call.
+   * @throws InterruptedException If interrupted while waiting for room in the
+   * shard's queue.
+   */
+  public final void
+  dispatch(ByteBuffer element) throws InterruptedException
+  {
+    if (isShutdown_)
+      return;
+
+    int shard = (getPrefixHash(element, nPrefixComponents_) & 0x7fffffff) %
+      shards_.length;
+
+    ByteBuffer copy = ByteBuffer.allocate(element.remaining());
+    copy.put(element.duplicate());
+    copy.flip();
+    shards_[shard].queue_.put(copy);
+  }
+
+  /**
+   * Stop the worker threads. Elements which are still in the queues, or which
+   * are added by a concurrent call to dispatch, are not processed.
+   */
+  public final void
+  shutdown()
+  {
+    // Set the flag first so that a worker which takes an element added by a
+    // concurrent dispatch doesn't process it.
+    isShutdown_ = true;
+    for (int i = 0; i < shards_.length; ++i) {
+      // Interrupt the worker if it is waiting in take().
+      threads_[i].interrupt();
+      // Make room for a dispatch which is blocked on a full queue.
+      shards_[i].queue_.clear();
+    }
+  }
+
+  /**
+   * Get the number of shards.
+   * @return The number of shards.
+   */
+  public final int
+  getNShards() { return shards_.length; }
+
+  /**
+   * Compute a hash of the first nPrefixComponents components of the name of
+   * the Interest or Data in the element, reading the wire encoding directly. If
+   * the element is an LpPacket, use the packet in its fragment. If the name has
+   * fewer components, hash all of them.
+   * @param element The encoded element, starting at index 0.
+   * @param nPrefixComponents The number of name components to hash.
+   * @return The hash, or 0 if the element can't be parsed.
+   */
+  public static int
+  getPrefixHash(ByteBuffer element, int nPrefixComponents)
+  {
+    int limit = element.limit();
+    int[] offset = new int[] { 0 };
+
+    try {
+      int type = readVarNumber(element, offset);
+      int length = readVarNumber(element, offset);
+      if (type == Tlv.LpPacket_LpPacket) {
+        // Find the fragment.
+        int endOffset = Math.min(offset[0] + length, limit);
+        while (true) {
+          if (offset[0] >= endOffset)
+            return 0;
+          type = readVarNumber(element, offset);
+          length = readVarNumber(element, offset);
+          if (type == Tlv.LpPacket_Fragment)
+            break;
+          offset[0] += length;
+        }
+
+        // Read the header of the fragment packet.
+        type = readVarNumber(element, offset);
+        readVarNumber(element, offset);
+      }
+
+      if (type != Tlv.Interest && type != Tlv.Data)
+        return 0;
+      if (readVarNumber(element, offset) != Tlv.Name)
+        return 0;
+      int nameEndOffset = Math.min
+        (readVarNumber(element, offset) + offset[0], limit);
+
+      int hash = 1;
+      for (int i = 0; i < nPrefixComponents && offset[0] < nameEndOffset; ++i) {
+        int componentBegin = offset[0];
+        readVarNumber(element, offset);
+        int componentLength = readVarNumber(element, offset);
+        int componentEnd = Math.min(offset[0] + componentLength, nameEndOffset);
+        for (int j = componentBegin; j < componentEnd; ++j)
+          hash = 31 * hash + element.get(j);
+        offset[0] = componentEnd;
+      }
+
+      return hash;
+    } catch (IndexOutOfBoundsException ex) {
+      // The element is truncated. The worker will report the decoding error.
+      return 0;
+    }
+  }
+
+  /**
+   * Read a VAR-NUMBER at offset[0] using absolute gets and update offset[0].
+   * A 64-bit number is returned as -1, which doesn't match any type used here.
+   */
+  private static int
+  readVarNumber(ByteBuffer input, int[] offset)
+  {
+    int firstOctet = (int)input.get(offset[0]++) & 0xff;
+    if (firstOctet < 253)
+      return firstOctet;
+    else if (firstOctet == 253) {
+      int result = (((int)input.get(offset[0]) & 0xff) << 8) +
+                    ((int)input.get(offset[0] + 1) & 0xff);
+      offset[0] += 2;
+      return result;
+    }
+    else if (firstOctet == 254) {
+      int result = (((int)input.get(offset[0]) & 0xff) << 24) +
+                   (((int)input.get(offset[0] + 1) & 0xff) << 16) +
+                   (((int)input.get(offset[0] + 2) & 0xff) << 8) +
+                    ((int)input.get(offset[0] + 3) & 0xff);
+      offset[0] += 4;
+      return result;
+    }
+    else {
+      offset[0] += 8;
+      return -1;
+    }
+  }
+
+  /**
+   * A Shard has the queue of elements for one worker thread, and runs the
+   * worker loop.
+   */
+  private class Shard implements Runnable {
+    public Shard(int queueCapacity)
+    {
+      queue_ = new ArrayBlockingQueue<ByteBuffer>(queueCapacity);
+    }
+
+    public void
+    run()
+    {
+      while (!isShutdown_) {
+        ByteBuffer element;
+        try {
+          element = queue_.take();
+        } catch (InterruptedException ex) {
+          return;
+        }
+        if (isShutdown_)
+          return;
+
+        // Need to catch and log exceptions at this async entry point.
+        try {
+          processor_.onReceivedElement(element);
+        } catch (Throwable ex) {
+          logger_.log(Level.SEVERE, "Error processing a received element", ex);
+        }
+      }
+    }
+
+    public final BlockingQueue<ByteBuffer> queue_;
+  }
+
+  private final ElementListener processor_;
+  private final int nPrefixComponents_;
+  private final Shard[] shards_;
+  private final Thread[] threads_;
+  private volatile boolean isShutdown_ = false;
+  private static final Logger logger_ = Logger.getLogger
+    (ShardedElementDispatcher.class.getName());
+  // This is to force an import of net.named_data.jndn.util.
+  private static Common dummyCommon_ = new Common();
+}
@@ -20,9 +20,11 @@
 
 package net.named_data.jndn.in_memory_storage;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import net.named_data.jndn.Data;
 import net.named_data.jndn.Interest;
 import net.named_data.jndn.Name;
@@ -31,11 +33,41 @@ import net.named_data.jndn.encoding.EncodingException;
 /**
  * InMemoryStorageRetaining provides an application cache with in-memory 
  * storage, of which no eviction policy will be employed. Entries will only be
- * evicted by explicit application control.
+ * evicted by explicit application control, or if a capacity is given to the
+ * constructor, by removing the oldest inserted entries when the capacity is
+ * exceeded.
+ * The entries are kept in a concurrent skip list sorted on the Data packet
+ * full Name. All the names with a given prefix are in a contiguous range, so
+ * that find and remove by prefix don't need to check every entry. The methods
+ * of this class are thread safe, so that it can be used from Face callbacks
+ * on different threads.
  * Note: In ndn-cxx, this class is called InMemoryStoragePersistent, but
  * "persistent" misleadingly sounds like persistent on-disk storage.
  */
 public class InMemoryStorageRetaining {
+  /**
+   * Create an InMemoryStorageRetaining with no limit on the number of entries.
+   */
+  public InMemoryStorageRetaining()
+  {
+    capacity_ = 0;
+  }
+
+  /**
+   * Create an InMemoryStorageRetaining which holds at most capacity entries.
+   * @param capacity The maximum number of entries. When insert exceeds this,
+   * it removes the entries which were inserted first. If this is 0, there is
+   * no limit.
+   */
+  public InMemoryStorageRetaining(int capacity)
+  {
+    if (capacity < 0)
+      throw new IllegalArgumentException
+        ("InMemoryStorageRetaining: capacity must not be negative");
+
+    capacity_ = capacity;
+  }
+
   /**
    * Insert a Data packet. If a Data packet with the same name, including the
    * implicit digest, already exists, replace it. 
@@ -47,7 +79,30 @@ public class InMemoryStorageRetaining {
   insert(Data data)
     throws EncodingException
   {
-    cache_.put(data.getFullName(), new Data(data));
+    Name fullName = data.getFullName();
+    Entry entry = new Entry
+      (fullName, new Data(data), nextSequenceNo_.getAndIncrement());
+
+    Entry oldEntry = cache_.put(fullName, entry);
+    if (capacity_ > 0)
+      insertionOrder_.put(entry.sequenceNo_, entry);
+    if (oldEntry != null) {
+      if (capacity_ > 0)
+        insertionOrder_.remove(oldEntry.sequenceNo_);
+    }
+    else
+      size_.incrementAndGet();
+
+    if (capacity_ > 0) {
+      while (size_.get() > capacity_) {
+        Map.Entry<Long, Entry> oldest = insertionOrder_.pollFirstEntry();
+        if (oldest == null)
+          break;
+        // Only remove the entry if it wasn't already replaced or removed.
+        if (cache_.remove(oldest.getValue().name_, oldest.getValue()))
+          size_.decrementAndGet();
+      }
+    }
   }
 
   /** 
@@ -59,11 +114,12 @@ public class InMemoryStorageRetaining {
   public Data
   find(Interest interest)
   {
-    for (Object entry : cache_.entrySet()) {
-      // Debug: Check selectors, especially CanBePrefix.
-      if (interest.getName().isPrefixOf((Name)((Map.Entry)entry).getKey()))
-        return (Data)((Map.Entry)entry).getValue();
-    }
+    // The first name at or after the Interest name is the first one which can
+    // have it as a prefix.
+    Map.Entry<Name, Entry> entry = cache_.ceilingEntry(interest.getName());
+    // Debug: Check selectors, especially CanBePrefix.
+    if (entry != null && interest.getName().isPrefixOf(entry.getKey()))
+      return entry.getValue().data_;
 
     return null;
   }
@@ -75,15 +131,18 @@ public class InMemoryStorageRetaining {
   public final void
   remove(Name prefix)
   {
-    // First get the keys to delete, to not change the HashMap while iterating.
-    ArrayList keys = new ArrayList();
-    for (Object key : cache_.keySet()) {
-      if (prefix.isPrefixOf((Name)key))
-        keys.add(key);
-    }
+    // The names with the prefix are a contiguous range starting at the prefix.
+    for (Map.Entry<Name, Entry> entry :
+         cache_.tailMap(prefix, true).entrySet()) {
+      if (!prefix.isPrefixOf(entry.getKey()))
+        break;
 
-    for (Object key : keys)
-      cache_.remove(key);
+      if (cache_.remove(entry.getKey(), entry.getValue())) {
+        size_.decrementAndGet();
+        if (capacity_ > 0)
+          insertionOrder_.remove(entry.getValue().sequenceNo_);
+      }
+    }
   }
 
   /**
@@ -91,16 +150,55 @@ public class InMemoryStorageRetaining {
    * @return The number of packets.
    */
   public int
-  size() { return cache_.size(); }
+  size() { return size_.get(); }
+
+  /**
+   * Get the maximum number of entries, as given to the constructor.
+   * @return The capacity, or 0 if there is no limit.
+   */
+  public final int
+  getCapacity() { return capacity_; }
 
   /**
-   * Get the the storage cache, which should only be used for testing.
-   * @return The storage cache.
+   * Get a copy of the the storage cache, which should only be used for testing.
+   * @return A new HashMap where the key is the Data packet full Name and the
+   * value is the Data.
    */
   public final HashMap
-  getCache_() { return cache_; }
+  getCache_()
+  {
+    HashMap result = new HashMap();
+    for (Map.Entry<Name, Entry> entry : cache_.entrySet())
+      result.put(entry.getKey(), entry.getValue().data_);
+
+    return result;
+  }
+
+  /**
+   * An Entry holds the Data packet and the sequence number of its insertion.
+   * Entry objects are compared by identity, so that a conditional remove
+   * doesn't remove a newer entry with the same name.
+   */
+  private static class Entry {
+    public Entry(Name name, Data data, long sequenceNo)
+    {
+      name_ = name;
+      data_ = data;
+      sequenceNo_ = sequenceNo;
+    }
+
+    public final Name name_;
+    public final Data data_;
+    public final long sequenceNo_;
+  }
 
-  // Use HashMap without generics so it works with older Java compilers.
-  private final HashMap cache_ = 
-    new HashMap(); /**< The map key is the Data packet Name. The value is a Data. */
+  private final ConcurrentSkipListMap<Name, Entry> cache_ =
+    new ConcurrentSkipListMap<Name, Entry>(); /**< The map key is the Data
+    * packet full Name. */
+  private final ConcurrentSkipListMap<Long, Entry> insertionOrder_ =
+    new ConcurrentSkipListMap<Long, Entry>(); /**< The key is the insertion
+    * sequence number. This is only used if capacity_ is not 0. */
+  private final AtomicInteger size_ = new AtomicInteger();
+  private final AtomicLong nextSequenceNo_ = new AtomicLong();
+  private final int capacity_;
 }
@@ -0,0 +1,316 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.security;
+
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import net.named_data.jndn.security.certificate.PublicKey;
+import net.named_data.jndn.util.Blob;
+
+/**
+ * CryptoEngine has static methods to get the JCA objects used to sign, verify,
+ * encrypt and decrypt without the cost of a provider lookup or key parsing
+ * for each operation. Signature, Cipher and KeyFactory instances are kept per
+ * thread and per algorithm, so the caller must initialize the instance (for
+ * example with initVerify or init) each time it is used, and must not use it
+ * after calling another method of CryptoEngine for the same algorithm.
+ * Decoded public keys are kept in a cache shared by all threads, keyed by the
+ * bytes of the public key DER.
+ */
+public class CryptoEngine {
+  /**
+   * Get the Signature for the algorithm, reused by the current thread.
+   * @param algorithm The algorithm such as "SHA256withECDSA".
+   * @return The Signature, which the caller must initialize.
+   * @throws NoSuchAlgorithmException if the algorithm is not supported.
+   */
+  public static java.security.Signature
+  getSignature(String algorithm) throws NoSuchAlgorithmException
+  {
+    HashMap<String, java.security.Signature> signatures =
+      threadSignatures_.get();
+    java.security.Signature signature = signatures.get(algorithm);
+    if (signature == null) {
+      signature = java.security.Signature.getInstance(algorithm);
+      signatures.put(algorithm, signature);
+    }
+
+    return signature;
+  }
+
+  /**
+   * Get the Cipher for the transformation, reused by the current thread.
+   * @param transformation The transformation such as "AES/CBC/PKCS5PADDING".
+   * @return The Cipher, which the caller must initialize.
+   * @throws NoSuchAlgorithmException if the algorithm is not supported.
+   * @throws NoSuchPaddingException if the padding is not supported.
+   */
+  public static Cipher
+  getCipher(String transformation)
+    throws NoSuchAlgorithmException, NoSuchPaddingException
+  {
+    HashMap<String, Cipher> ciphers = threadCiphers_.get();
+    Cipher cipher = ciphers.get(transformation);
+    if (cipher == null) {
+      cipher = Cipher.getInstance(transformation);
+      ciphers.put(transformation, cipher);
+    }
+
+    return cipher;
+  }
+
+  /**
+   * Get the KeyFactory for the algorithm, reused by the current thread.
+   * @param algorithm The algorithm such as "RSA" or "EC".
+   * @return The KeyFactory.
+   * @throws NoSuchAlgorithmException if the algorithm is not supported.
+   */
+  public static KeyFactory
+  getKeyFactory(String algorithm) throws NoSuchAlgorithmException
+  {
+    HashMap<String, KeyFactory> keyFactories = threadKeyFactories_.get();
+    KeyFactory keyFactory = keyFactories.get(algorithm);
+    if (keyFactory == null) {
+      keyFactory = KeyFactory.getInstance(algorithm);
+      keyFactories.put(algorithm, keyFactory);
+    }
+
+    return keyFactory;
+  }
+
+  /**
+   * Get the decoded PublicKey for the DER, from the cache if possible.
+   * @param keyDer The SubjectPublicKeyInfo DER.
+   * @return The PublicKey. Don't modify it since it is shared.
+   * @throws UnrecognizedKeyFormatException if can't decode the key DER.
+   */
+  public static PublicKey
+  getPublicKey(Blob keyDer) throws UnrecognizedKeyFormatException
+  {
+    CachedKey cachedKey = publicKeyCache_.get(keyDer);
+    if (cachedKey != null) {
+      publicKeyCacheHits_.incrementAndGet();
+      return cachedKey.publicKey_;
+    }
+
+    // Only get the key type from the OID, then decode the key once.
+    KeyType keyType = PublicKey.decodeKeyType(keyDer);
+    java.security.PublicKey jcaPublicKey;
+    try {
+      jcaPublicKey = decodeJcaPublicKey(keyType, keyDer);
+    } catch (Exception ex) {
+      throw new UnrecognizedKeyFormatException
+        ("getPublicKey: Error decoding the public key: " + ex);
+    }
+    PublicKey publicKey = new PublicKey(copy(keyDer), jcaPublicKey);
+
+    addToCache(new CachedKey(publicKey, jcaPublicKey));
+    return publicKey;
+  }
+
+  /**
+   * Get the JCA PublicKey for the DER, from the cache if possible.
+   * @param keyType The key type of the DER, such as KeyType.RSA.
+   * @param keyDer The SubjectPublicKeyInfo DER.
+   * @return The JCA PublicKey.
+   * @throws NoSuchAlgorithmException if the key type is not supported.
+   * @throws InvalidKeySpecException if can't decode the key DER.
+   */
+  public static java.security.PublicKey
+  getJcaPublicKey(KeyType keyType, Blob keyDer)
+    throws NoSuchAlgorithmException, InvalidKeySpecException
+  {
+    CachedKey cachedKey = publicKeyCache_.get(keyDer);
+    if (cachedKey != null && cachedKey.publicKey_.getKeyType() == keyType) {
+      publicKeyCacheHits_.incrementAndGet();
+      return cachedKey.jcaPublicKey_;
+    }
+
+    java.security.PublicKey jcaPublicKey = decodeJcaPublicKey(keyType, keyDer);
+    try {
+      addToCache(new CachedKey
+        (new PublicKey(copy(keyDer), jcaPublicKey), jcaPublicKey));
+    } catch (UnrecognizedKeyFormatException ex) {
+      // The JCA key algorithm is not one of our key types, so don't cache it.
+    }
+    return jcaPublicKey;
+  }
+
+  /**
+   * Set the maximum number of decoded public keys in the cache. If the cache
+   * has more, it is cleared.
+   * @param capacity The maximum number of public keys.
+   */
+  public static void
+  setPublicKeyCacheCapacity(int capacity)
+  {
+    if (capacity < 0)
+      throw new IllegalArgumentException
+        ("setPublicKeyCacheCapacity: The capacity must not be negative");
+
+    publicKeyCacheCapacity_ = capacity;
+    trimCache();
+  }
+
+  /**
+   * Get the maximum number of decoded public keys in the cache.
+   * @return The maximum number of public keys.
+   */
+  public static int
+  getPublicKeyCacheCapacity() { return publicKeyCacheCapacity_; }
+
+  /**
+   * Get the number of decoded public keys in the cache.
+   * @return The number of public keys.
+   */
+  public static int
+  getPublicKeyCacheSize() { return publicKeyCache_.size(); }
+
+  /**
+   * Get the number of times that getPublicKey or getJcaPublicKey found the
+   * key in the cache.
+   * @return The number of cache hits.
+   */
+  public static long
+  getPublicKeyCacheHits() { return publicKeyCacheHits_.get(); }
+
+  /**
+   * Get the number of times that getPublicKey or getJcaPublicKey decoded the
+   * key.
+   * @return The number of cache misses.
+   */
+  public static long
+  getPublicKeyCacheMisses() { return publicKeyCacheMisses_.get(); }
+
+  /**
+   * Remove all public keys from the cache and reset the hit and miss counts.
+   */
+  public static void
+  clearPublicKeyCache()
+  {
+    publicKeyCache_.clear();
+    publicKeyCacheHits_.set(0);
+    publicKeyCacheMisses_.set(0);
+  }
+
+  /**
+   * CachedKey holds the decoded PublicKey and JCA PublicKey for a DER.
+   */
+  private static class CachedKey {
+    public CachedKey(PublicKey publicKey, java.security.PublicKey jcaPublicKey)
+    {
+      publicKey_ = publicKey;
+      jcaPublicKey_ = jcaPublicKey;
+    }
+
+    public final PublicKey publicKey_;
+    public final java.security.PublicKey jcaPublicKey_;
+  }
+
+  private static java.security.PublicKey
+  decodeJcaPublicKey(KeyType keyType, Blob keyDer)
+    throws NoSuchAlgorithmException, InvalidKeySpecException
+  {
+    publicKeyCacheMisses_.incrementAndGet();
+
+    String algorithm;
+    if (keyType == KeyType.RSA)
+      algorithm = "RSA";
+    else if (keyType == KeyType.EC)
+      algorithm = "EC";
+    else
+      throw new NoSuchAlgorithmException
+        ("decodeJcaPublicKey: Unsupported key type " + keyType);
+
+    return getKeyFactory(algorithm).generatePublic
+      (new X509EncodedKeySpec(keyDer.getImmutableArray()));
+  }
+
+  /**
+   * Copy the keyDer so that the cache doesn't keep a larger buffer which it
+   * may be a slice of.
+   */
+  private static Blob
+  copy(Blob keyDer) { return new Blob(keyDer.getImmutableArray(), false); }
+
+  private static void
+  addToCache(CachedKey cachedKey)
+  {
+    if (publicKeyCacheCapacity_ == 0)
+      return;
+
+    if (publicKeyCache_.size() >= publicKeyCacheCapacity_)
+      // Make room for the new key.
+      publicKeyCache_.clear();
+    publicKeyCache_.put(cachedKey.publicKey_.getKeyDer(), cachedKey);
+    trimCache();
+  }
+
+  /**
+   * If the cache is over its capacity, clear it. The keys are usually for a
+   * small set of certificates, so clearing when full is simpler than an LRU
+   * order which would need locking on each lookup, and it always leaves the
+   * cache in the same state for the same sequence of keys.
+   */
+  private static void
+  trimCache()
+  {
+    if (publicKeyCache_.size() > publicKeyCacheCapacity_)
+      publicKeyCache_.clear();
+  }
+
+  /**
+   * The default maximum number of decoded public keys in the cache.
+   */
+  public static final int DEFAULT_PUBLIC_KEY_CACHE_CAPACITY = 1000;
+
+  private static final ThreadLocal<HashMap<String, java.security.Signature>>
+    threadSignatures_ =
+      new ThreadLocal<HashMap<String, java.security.Signature>>() {
+        protected HashMap<String, java.security.Signature> initialValue() {
+          return new HashMap<String, java.security.Signature>();
+        }
+      };
+  private static final ThreadLocal<HashMap<String, Cipher>> threadCiphers_ =
+    new ThreadLocal<HashMap<String, Cipher>>() {
+      protected HashMap<String, Cipher> initialValue() {
+        return new HashMap<String, Cipher>();
+      }
+    };
+  private static final ThreadLocal<HashMap<String, KeyFactory>>
+    threadKeyFactories_ = new ThreadLocal<HashMap<String, KeyFactory>>() {
+      protected HashMap<String, KeyFactory> initialValue() {
+        return new HashMap<String, KeyFactory>();
+      }
+    };
+  private static final ConcurrentHashMap<Blob, CachedKey> publicKeyCache_ =
+    new ConcurrentHashMap<Blob, CachedKey>();
+  private static volatile int publicKeyCacheCapacity_ =
+    DEFAULT_PUBLIC_KEY_CACHE_CAPACITY;
+  private static final AtomicLong publicKeyCacheHits_ = new AtomicLong();
+  private static final AtomicLong publicKeyCacheMisses_ = new AtomicLong();
+}
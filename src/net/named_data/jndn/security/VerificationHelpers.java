@@ -21,8 +21,6 @@
 package net.named_data.jndn.security;
 
 import java.nio.ByteBuffer;
-import java.security.KeyFactory;
-import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
 import net.named_data.jndn.Data;
 import net.named_data.jndn.Interest;
@@ -58,12 +56,11 @@ public class VerificationHelpers {
     if (digestAlgorithm == DigestAlgorithm.SHA256) {
       if (publicKey.getKeyType() == KeyType.RSA) {
         try {
-          KeyFactory keyFactory = KeyFactory.getInstance("RSA");
-          java.security.PublicKey securityPublicKey = keyFactory.generatePublic
-            (new X509EncodedKeySpec(publicKey.getKeyDer().getImmutableArray()));
+          java.security.PublicKey securityPublicKey =
+            CryptoEngine.getJcaPublicKey(KeyType.RSA, publicKey.getKeyDer());
 
           java.security.Signature rsaSignature =
-            java.security.Signature.getInstance("SHA256withRSA");
+            CryptoEngine.getSignature("SHA256withRSA");
           rsaSignature.initVerify(securityPublicKey);
           rsaSignature.update(buffer);
           return rsaSignature.verify(signature);
@@ -74,12 +71,11 @@ public class VerificationHelpers {
       }
       else if (publicKey.getKeyType() == KeyType.EC) {
         try {
-          KeyFactory keyFactory = KeyFactory.getInstance("EC");
-          java.security.PublicKey securityPublicKey = keyFactory.generatePublic
-            (new X509EncodedKeySpec(publicKey.getKeyDer().getImmutableArray()));
+          java.security.PublicKey securityPublicKey =
+            CryptoEngine.getJcaPublicKey(KeyType.EC, publicKey.getKeyDer());
 
           java.security.Signature ecdsaSignature =
-            java.security.Signature.getInstance("SHA256withECDSA");
+            CryptoEngine.getSignature("SHA256withECDSA");
           ecdsaSignature.initVerify(securityPublicKey);
           ecdsaSignature.update(buffer);
           return ecdsaSignature.verify(signature);
@@ -204,7 +200,8 @@ public class VerificationHelpers {
   {
     try {
       return verifySignature
-        (buffer, signature, new PublicKey(publicKeyDer), digestAlgorithm);
+        (buffer, signature, CryptoEngine.getPublicKey(publicKeyDer),
+         digestAlgorithm);
     } catch (UnrecognizedKeyFormatException ex) {
       return false;
     }
@@ -407,7 +404,7 @@ public class VerificationHelpers {
   {
     try {
       return verifyDataSignature
-        (data, new PublicKey(publicKeyDer), digestAlgorithm);
+        (data, CryptoEngine.getPublicKey(publicKeyDer), digestAlgorithm);
     } catch (UnrecognizedKeyFormatException ex) {
       return false;
     }
@@ -626,7 +623,7 @@ public class VerificationHelpers {
   {
     try {
       return verifyInterestSignature
-        (interest, new PublicKey(publicKeyDer), digestAlgorithm);
+        (interest, CryptoEngine.getPublicKey(publicKeyDer), digestAlgorithm);
     } catch (UnrecognizedKeyFormatException ex) {
       return false;
     }
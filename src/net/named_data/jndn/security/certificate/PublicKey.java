@@ -26,8 +26,6 @@ import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
@@ -35,6 +33,7 @@ import javax.crypto.NoSuchPaddingException;
 import net.named_data.jndn.encoding.der.DerDecodingException;
 import net.named_data.jndn.encoding.der.DerNode;
 import net.named_data.jndn.encrypt.algo.EncryptAlgorithmType;
+import net.named_data.jndn.security.CryptoEngine;
 import net.named_data.jndn.security.DigestAlgorithm;
 import net.named_data.jndn.security.KeyType;
 import net.named_data.jndn.security.UnrecognizedDigestAlgorithmException;
@@ -43,14 +42,6 @@ import net.named_data.jndn.util.Blob;
 import net.named_data.jndn.util.Common;
 
 public class PublicKey {
-  static {
-    try {
-      keyFactory_ = KeyFactory.getInstance("RSA");
-    } catch (NoSuchAlgorithmException ex) {
-      Logger.getLogger(PublicKey.class.getName()).log(Level.SEVERE, null, ex);
-    }
-  }
-
   public PublicKey()
   {
     keyType_ = null;
@@ -66,7 +57,67 @@ public class PublicKey {
   public PublicKey(Blob keyDer) throws UnrecognizedKeyFormatException
   {
     keyDer_ = keyDer;
+    keyType_ = decodeKeyType(keyDer);
+
+    // Verify that the we can decode.
+    String algorithm = keyType_ == KeyType.RSA ? "RSA" : "EC";
+    KeyFactory keyFactory = null;
+    try {
+      keyFactory = CryptoEngine.getKeyFactory(algorithm);
+    }
+    catch (NoSuchAlgorithmException exception) {
+      // Don't expect this to happen.
+      throw new UnrecognizedKeyFormatException
+        (algorithm + " is not supported: " + exception.getMessage());
+    }
 
+    try {
+      keyFactory.generatePublic
+        (new X509EncodedKeySpec(keyDer.getImmutableArray()));
+    }
+    catch (InvalidKeySpecException exception) {
+      // Don't expect this to happen.
+      throw new UnrecognizedKeyFormatException
+        ("X509EncodedKeySpec is not supported for " + algorithm + ": " +
+         exception.getMessage());
+    }
+  }
+
+  /**
+   * Create a new PublicKey for the keyDer which the caller has already decoded
+   * as jcaPublicKey, so that this doesn't decode it again. Set the key type
+   * from the algorithm of jcaPublicKey.
+   * @param keyDer The blob of the SubjectPublicKeyInfo DER.
+   * @param jcaPublicKey The JCA PublicKey decoded from keyDer.
+   * @throws UnrecognizedKeyFormatException if the algorithm of jcaPublicKey is
+   * not RSA or EC.
+   */
+  public PublicKey(Blob keyDer, java.security.PublicKey jcaPublicKey)
+    throws UnrecognizedKeyFormatException
+  {
+    keyDer_ = keyDer;
+
+    String algorithm = jcaPublicKey.getAlgorithm();
+    if (algorithm.equals("RSA"))
+      keyType_ = KeyType.RSA;
+    else if (algorithm.equals("EC"))
+      keyType_ = KeyType.EC;
+    else
+      throw new UnrecognizedKeyFormatException
+        ("PublicKey: Unrecognized algorithm " + algorithm);
+  }
+
+  /**
+   * Get the key type from the algorithm OID in the keyDer, without decoding
+   * the key itself.
+   * @param keyDer The blob of the SubjectPublicKeyInfo DER.
+   * @return The key type, KeyType.RSA or KeyType.EC.
+   * @throws UnrecognizedKeyFormatException if can't decode the DER or the OID
+   * is not for RSA or EC.
+   */
+  public static KeyType
+  decodeKeyType(Blob keyDer) throws UnrecognizedKeyFormatException
+  {
     // Get the public key OID.
     String oidString = null;
     try {
@@ -82,53 +133,10 @@ public class PublicKey {
          ex.getMessage());
     }
 
-    // Verify that the we can decode.
-    if (oidString.equals(RSA_ENCRYPTION_OID)) {
-      keyType_ = KeyType.RSA;
-
-      KeyFactory keyFactory = null;
-      try {
-        keyFactory = KeyFactory.getInstance("RSA");
-      }
-      catch (NoSuchAlgorithmException exception) {
-        // Don't expect this to happen.
-        throw new UnrecognizedKeyFormatException
-          ("RSA is not supported: " + exception.getMessage());
-      }
-
-      try {
-        keyFactory.generatePublic
-          (new X509EncodedKeySpec(keyDer.getImmutableArray()));
-      }
-      catch (InvalidKeySpecException exception) {
-        // Don't expect this to happen.
-        throw new UnrecognizedKeyFormatException
-          ("X509EncodedKeySpec is not supported for RSA: " + exception.getMessage());
-      }
-    }
-    else if (oidString.equals(EC_ENCRYPTION_OID)) {
-      keyType_ = KeyType.EC;
-
-      KeyFactory keyFactory = null;
-      try {
-        keyFactory = KeyFactory.getInstance("EC");
-      }
-      catch (NoSuchAlgorithmException exception) {
-        // Don't expect this to happen.
-        throw new UnrecognizedKeyFormatException
-          ("EC is not supported: " + exception.getMessage());
-      }
-
-      try {
-        keyFactory.generatePublic
-          (new X509EncodedKeySpec(keyDer.getImmutableArray()));
-      }
-      catch (InvalidKeySpecException exception) {
-        // Don't expect this to happen.
-        throw new UnrecognizedKeyFormatException
-          ("X509EncodedKeySpec is not supported for EC: " + exception.getMessage());
-      }
-    }
+    if (oidString.equals(RSA_ENCRYPTION_OID))
+      return KeyType.RSA;
+    else if (oidString.equals(EC_ENCRYPTION_OID))
+      return KeyType.EC;
     else
       throw new UnrecognizedKeyFormatException(
         "PublicKey: Unrecognized OID " + oidString);
@@ -195,8 +203,8 @@ public class PublicKey {
            NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException,
            BadPaddingException
   {
-    java.security.PublicKey publicKey = keyFactory_.generatePublic
-      (new X509EncodedKeySpec(keyDer_.getImmutableArray()));
+    java.security.PublicKey publicKey = CryptoEngine.getJcaPublicKey
+      (keyType_, keyDer_);
 
     String transformation;
     if (algorithmType == EncryptAlgorithmType.RsaPkcs) {
@@ -214,7 +222,7 @@ public class PublicKey {
     else
       throw new Error("unsupported padding scheme");
 
-    Cipher cipher = Cipher.getInstance(transformation);
+    Cipher cipher = CryptoEngine.getCipher(transformation);
     cipher.init(Cipher.ENCRYPT_MODE, publicKey);
     return new Blob(cipher.doFinal(plainData), false);
   }
@@ -240,5 +248,4 @@ public class PublicKey {
 
   private final KeyType keyType_;
   private final Blob keyDer_;   /**< PublicKeyInfo in DER */
-  private static KeyFactory keyFactory_;
 }
@@ -41,6 +41,7 @@ import net.named_data.jndn.encoding.der.DerEncodingException;
 import net.named_data.jndn.encoding.der.DerNode;
 import net.named_data.jndn.encoding.der.DerNode.DerSequence;
 import net.named_data.jndn.encrypt.algo.EncryptAlgorithmType;
+import net.named_data.jndn.security.CryptoEngine;
 import net.named_data.jndn.security.DigestAlgorithm;
 import net.named_data.jndn.security.EcKeyParams;
 import net.named_data.jndn.security.KeyParams;
@@ -439,7 +440,7 @@ public class TpmPrivateKey {
       throw new TpmPrivateKey.Error("unsupported padding scheme");
 
     try {
-      Cipher cipher = Cipher.getInstance(transformation);
+      Cipher cipher = CryptoEngine.getCipher(transformation);
       cipher.init(Cipher.DECRYPT_MODE, privateKey_);
       // Use Blob to get the byte array.
       byte[] cipherByteArray = new Blob(cipherText, false).getImmutableArray();
@@ -479,7 +480,7 @@ public class TpmPrivateKey {
     java.security.Signature signature = null;
     if (keyType_ == KeyType.EC) {
       try {
-        signature = java.security.Signature.getInstance("SHA256withECDSA");
+        signature = CryptoEngine.getSignature("SHA256withECDSA");
       }
       catch (NoSuchAlgorithmException e) {
         // Don't expect this to happen.
@@ -489,7 +490,7 @@ public class TpmPrivateKey {
     }
     else if (keyType_ == KeyType.RSA) {
       try {
-        signature = java.security.Signature.getInstance("SHA256withRSA");
+        signature = CryptoEngine.getSignature("SHA256withRSA");
       }
       catch (NoSuchAlgorithmException e) {
         // Don't expect this to happen.
@@ -55,6 +55,32 @@ public class CertificateCacheV2 {
     maxLifetimeMilliseconds_ = getDefaultLifetime();
   }
 
+  /**
+   * An OnCertificateRemoved is called when a certificate is removed from the
+   * cache, because it expired, was deleted, was replaced by a certificate with
+   * the same name or the cache was cleared.
+   */
+  public interface OnCertificateRemoved {
+    /**
+     * @param certificateName The name of the removed certificate. You should
+     * not modify this object.
+     */
+    void
+    onCertificateRemoved(Name certificateName);
+  }
+
+  /**
+   * Add a callback to call when a certificate is removed from the cache.
+   * @param onCertificateRemoved This calls
+   * onCertificateRemoved.onCertificateRemoved(certificateName). If it throws
+   * an exception, this logs the exception and continues.
+   */
+  public final void
+  addOnCertificateRemoved(OnCertificateRemoved onCertificateRemoved)
+  {
+    onCertificateRemoved_.add(onCertificateRemoved);
+  }
+
   /**
    * Insert the certificate into the cache. The inserted certificate will be
    * removed no later than its NotAfter time, or maxLifetimeMilliseconds given
@@ -84,8 +110,9 @@ public class CertificateCacheV2 {
     logger_.log(Level.FINE, "Adding {0}, will remove in {1} hours",
       new Object[] {certificate.getName().toUri(), removalHours});
     CertificateV2 certificateCopy = new CertificateV2(certificate);
-    certificatesByName_.put
-      (certificateCopy.getName(), new Entry(certificateCopy, removalTime));
+    if (certificatesByName_.put
+        (certificateCopy.getName(), new Entry(certificateCopy, removalTime)) != null)
+      notifyRemoved(certificateCopy.getName());
   }
 
   /**
@@ -163,7 +190,8 @@ public class CertificateCacheV2 {
   public final void
   deleteCertificate(Name certificateName)
   {
-    certificatesByName_.remove(certificateName);
+    if (certificatesByName_.remove(certificateName) != null)
+      notifyRemoved(certificateName);
     // This may be the certificate to be removed at nextRefreshTime_ by refresh(),
     // but just allow refresh() to run instead of update nextRefreshTime_ now.
   }
@@ -174,7 +202,14 @@ public class CertificateCacheV2 {
   public final void
   clear()
   {
+    ArrayList<Name> names = new ArrayList<Name>();
+    if (onCertificateRemoved_.size() > 0) {
+      for (Object key : certificatesByName_.keySet())
+        names.add((Name)key);
+    }
     certificatesByName_.clear();
+    for (int i = 0; i < names.size(); ++i)
+      notifyRemoved(names.get(i));
     nextRefreshTime_ = Double.MAX_VALUE;
   }
 
@@ -243,13 +278,33 @@ public class CertificateCacheV2 {
 
     nextRefreshTime_ = nextRefreshTime;
     // Now actually erase.
-    for (int i = 0; i < namesToErase.size(); ++i)
+    for (int i = 0; i < namesToErase.size(); ++i) {
       certificatesByName_.remove(namesToErase.get(i));
+      notifyRemoved(namesToErase.get(i));
+    }
+  }
+
+  /**
+   * Call each OnCertificateRemoved callback with the certificate name.
+   * @param certificateName The name of the removed certificate.
+   */
+  private void
+  notifyRemoved(Name certificateName)
+  {
+    for (int i = 0; i < onCertificateRemoved_.size(); ++i) {
+      try {
+        onCertificateRemoved_.get(i).onCertificateRemoved(certificateName);
+      } catch (Throwable ex) {
+        logger_.log(Level.SEVERE, "Error in onCertificateRemoved", ex);
+      }
+    }
   }
 
   // Name => CertificateCacheV2.Entry..
   private final TreeMap certificatesByName_ = new TreeMap();
   private double nextRefreshTime_ = Double.MAX_VALUE;
+  private final ArrayList<OnCertificateRemoved> onCertificateRemoved_ =
+    new ArrayList<OnCertificateRemoved>();
   private final double maxLifetimeMilliseconds_;
   private static final Logger logger_ =
     Logger.getLogger(CertificateCacheV2.class.getName());
@@ -23,7 +23,6 @@ package net.named_data.jndn.security.v2;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.named_data.jndn.Data;
-import net.named_data.jndn.security.VerificationHelpers;
 
 /**
  * The DataValidationState class extends ValidationState to hold the validation
@@ -79,7 +78,7 @@ public class DataValidationState extends ValidationState {
   public void
   verifyOriginalPacket_(CertificateV2 trustedCertificate)
   {
-    if (VerificationHelpers.verifyDataSignature(data_, trustedCertificate)) {
+    if (verifyDataSignature_(data_, trustedCertificate)) {
       logger_.log(Level.FINE,
         "OK signature for data `{0}`", data_.getName().toUri());
       try {
@@ -23,7 +23,6 @@ import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.named_data.jndn.Interest;
-import net.named_data.jndn.security.VerificationHelpers;
 import net.named_data.jndn.util.Common;
 
 /**
@@ -87,7 +86,7 @@ public class InterestValidationState extends ValidationState {
   public void
   verifyOriginalPacket_(CertificateV2 trustedCertificate)
   {
-    if (VerificationHelpers.verifyInterestSignature(interest_, trustedCertificate)) {
+    if (verifyInterestSignature_(interest_, trustedCertificate)) {
       logger_.log(Level.FINE,
         "OK signature for interest `{0}`", interest_.getName().toUri());
       for (int i = 0; i < successCallbacks_.size(); ++i) {
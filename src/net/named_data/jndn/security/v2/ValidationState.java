@@ -22,8 +22,11 @@ package net.named_data.jndn.security.v2;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Interest;
 import net.named_data.jndn.Name;
 import net.named_data.jndn.security.VerificationHelpers;
 import net.named_data.jndn.util.Common;
@@ -131,6 +134,7 @@ public abstract class ValidationState {
 
     hasOutcome_ = true;
     outcome_ = outcome;
+    certificateResolved_();
   }
 
   /**
@@ -168,8 +172,7 @@ public abstract class ValidationState {
     for (int i = 0; i < certificateChain_.size(); ++i) {
       CertificateV2 certificateToValidate = certificateChain_.get(i);
 
-      if (!VerificationHelpers.verifyDataSignature
-          (certificateToValidate, validatedCertificate)) {
+      if (!verifyDataSignature_(certificateToValidate, validatedCertificate)) {
         fail(new ValidationError(ValidationError.INVALID_SIGNATURE,
              "Invalid signature of certificate `" +
              certificateToValidate.getName().toUri() + "`"));
@@ -197,6 +200,96 @@ public abstract class ValidationState {
   public final ArrayList<CertificateV2>
   getCertificateChain_() { return certificateChain_; }
 
+  /**
+   * Set the cache of verified signatures. This is only called by the Validator
+   * class.
+   * @param verifiedSignatureCache The VerifiedSignatureCache, or null to always
+   * verify signatures with the public key.
+   */
+  final void
+  setVerifiedSignatureCache_(VerifiedSignatureCache verifiedSignatureCache)
+  {
+    verifiedSignatureCache_ = verifiedSignatureCache;
+  }
+
+  /**
+   * Verify the Data packet using the public key in the certificate, using the
+   * VerifiedSignatureCache if it is set.
+   * @param data The Data packet to verify.
+   * @param certificate The certificate containing the public key.
+   * @return True if verification succeeds.
+   */
+  final boolean
+  verifyDataSignature_(Data data, CertificateV2 certificate)
+  {
+    if (verifiedSignatureCache_ != null)
+      return verifiedSignatureCache_.verifyDataSignature(data, certificate);
+    else
+      return VerificationHelpers.verifyDataSignature(data, certificate);
+  }
+
+  /**
+   * Verify the Interest using the public key in the certificate, using the
+   * VerifiedSignatureCache if it is set.
+   * @param interest The Interest to verify.
+   * @param certificate The certificate containing the public key.
+   * @return True if verification succeeds.
+   */
+  final boolean
+  verifyInterestSignature_(Interest interest, CertificateV2 certificate)
+  {
+    if (verifiedSignatureCache_ != null)
+      return verifiedSignatureCache_.verifyInterestSignature
+        (interest, certificate);
+    else
+      return VerificationHelpers.verifyInterestSignature(interest, certificate);
+  }
+
+  /**
+   * Get the executor for verifying the signature of the original packet, as
+   * set by setVerifyExecutor_. This is only called by the Validator class.
+   * @return The executor, or null to verify on the calling thread.
+   */
+  final Executor
+  getVerifyExecutor_() { return verifyExecutor_; }
+
+  /**
+   * Set the executor for verifying the signature of the original packet. This
+   * is only called by the Validator class for batch validation.
+   * @param verifyExecutor The executor, or null to verify on the calling thread.
+   */
+  final void
+  setVerifyExecutor_(Executor verifyExecutor)
+  {
+    verifyExecutor_ = verifyExecutor;
+  }
+
+  /**
+   * Set the callback to call when the certificate chain of this state is
+   * resolved, either because the trusted certificate is found or because the
+   * state has an outcome. This is only called by the Validator class for batch
+   * validation.
+   * @param onCertificateResolved This calls onCertificateResolved.run() once.
+   */
+  final void
+  setOnCertificateResolved_(Runnable onCertificateResolved)
+  {
+    onCertificateResolved_ = onCertificateResolved;
+  }
+
+  /**
+   * If the callback from setOnCertificateResolved_ has not been called, call
+   * it now. This is only called by the Validator class and setOutcome.
+   */
+  final void
+  certificateResolved_()
+  {
+    Runnable onCertificateResolved = onCertificateResolved_;
+    onCertificateResolved_ = null;
+    if (onCertificateResolved != null)
+      onCertificateResolved.run();
+  }
+
   /**
    * Each certificate in the chain signs the next certificate. The last
    * certificate signs the original packet.
@@ -206,6 +299,9 @@ public abstract class ValidationState {
   private final HashSet<Name> seenCertificateNames_ = new HashSet<Name>();
   private boolean hasOutcome_ = false;
   private boolean outcome_;
+  private VerifiedSignatureCache verifiedSignatureCache_ = null;
+  private Executor verifyExecutor_ = null;
+  private Runnable onCertificateResolved_ = null;
   private static final Logger logger_ =
     Logger.getLogger(ValidationState.class.getName());
   // This is to force an import of net.named_data.jndn.util.
@@ -20,10 +20,20 @@
 
 package net.named_data.jndn.security.v2;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.named_data.jndn.Data;
 import net.named_data.jndn.Interest;
+import net.named_data.jndn.KeyLocator;
+import net.named_data.jndn.KeyLocatorType;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.Signature;
+import net.named_data.jndn.encoding.WireFormat;
 import net.named_data.jndn.security.ValidatorConfigError;
 
 /**
@@ -117,6 +127,40 @@ public class Validator extends CertificateStorage {
   public final int
   getMaxDepth() { return maxDepth_; }
 
+  /**
+   * Set the cache of verified signatures which is checked before verifying the
+   * signature of a packet or certificate with its public key. When a
+   * certificate is removed from the verified certificate cache, this removes
+   * the entries for the signatures that it verified.
+   * @param verifiedSignatureCache The VerifiedSignatureCache, or null to not
+   * use a cache (the default). The same cache may be shared by more than one
+   * Validator.
+   */
+  public final void
+  setVerifiedSignatureCache(VerifiedSignatureCache verifiedSignatureCache)
+  {
+    if (verifiedSignatureCache != null && !isOnCertificateRemovedAdded_) {
+      verifiedCertificateCache_.addOnCertificateRemoved
+        (new CertificateCacheV2.OnCertificateRemoved() {
+          public void onCertificateRemoved(Name certificateName) {
+            VerifiedSignatureCache cache = verifiedSignatureCache_;
+            if (cache != null)
+              cache.removeCertificate(certificateName);
+          }
+        });
+      isOnCertificateRemovedAdded_ = true;
+    }
+
+    verifiedSignatureCache_ = verifiedSignatureCache;
+  }
+
+  /**
+   * Get the cache of verified signatures given to setVerifiedSignatureCache.
+   * @return The VerifiedSignatureCache, or null if not using a cache.
+   */
+  public final VerifiedSignatureCache
+  getVerifiedSignatureCache() { return verifiedSignatureCache_; }
+
   /**
    * Asynchronously validate the Data packet.
    * @param data The Data packet to validate, which is copied.
@@ -132,23 +176,7 @@ public class Validator extends CertificateStorage {
      DataValidationFailureCallback failureCallback)
     throws CertificateV2.Error, ValidatorConfigError
   {
-    DataValidationState state =
-      new DataValidationState(data, successCallback, failureCallback);
-    logger_.log(Level.FINE, "Start validating data {0}", data.getName().toUri());
-
-    policy_.checkPolicy
-      (data, state, new ValidationPolicy.ValidationContinuation() {
-        public void
-        continueValidation
-            (CertificateRequest certificateRequest, ValidationState state)
-            throws CertificateV2.Error, ValidatorConfigError {
-          if (certificateRequest == null)
-            state.bypassValidation_();
-          else
-            // We need to fetch the key and validate it.
-            requestCertificate(certificateRequest, state);
-        }
-      });
+    validate(new DataValidationState(data, successCallback, failureCallback));
   }
 
   /**
@@ -166,24 +194,245 @@ public class Validator extends CertificateStorage {
      InterestValidationFailureCallback failureCallback)
     throws CertificateV2.Error, ValidatorConfigError
   {
-    InterestValidationState state =
-      new InterestValidationState(interest, successCallback, failureCallback);
+    validate(new InterestValidationState
+      (interest, successCallback, failureCallback));
+  }
+
+  /**
+   * Asynchronously validate a batch of Data packets. This is the same as
+   * calling validate for each Data packet, except that packets whose
+   * KeyLocator has the same name share one certificate retrieval and the
+   * signatures of the packets are verified in parallel on the executor. The
+   * first packet for each KeyLocator name is validated right away, and the
+   * others are validated when its certificate chain is resolved, at which
+   * time the certificate is in the verified certificate cache. The policy
+   * checks and certificate retrieval still happen on the calling thread (or
+   * the thread of the Face which fetches certificates), so the Validator
+   * doesn't need to be thread safe. Only the signature verification of the
+   * original packets, and the callbacks which follow, run on the executor.
+   * @param dataList The list of Data packets to validate, which are copied.
+   * @param successCallback On validation success, this calls
+   * successCallback.successCallback(data). This may be called from a thread of
+   * the executor, and may be called for different packets at the same time, so
+   * it must be thread safe.
+   * @param failureCallback On validation failure, this calls
+   * failureCallback.failureCallback(data, error) where error is a
+   * ValidationError. This may be called from a thread of the executor, and may
+   * be called for different packets at the same time, so it must be thread
+   * safe.
+   * @param executor The executor for verifying signatures. If this rejects a
+   * task, the signature is verified on the calling thread.
+   */
+  public final void
+  validate
+    (List<Data> dataList, DataValidationSuccessCallback successCallback,
+     DataValidationFailureCallback failureCallback, Executor executor)
+  {
+    ArrayList<ValidationState> states = new ArrayList<ValidationState>();
+    ArrayList<Name> keyLocatorNames = new ArrayList<Name>();
+    for (int i = 0; i < dataList.size(); ++i) {
+      Data data = dataList.get(i);
+      states.add(new DataValidationState(data, successCallback, failureCallback));
+      keyLocatorNames.add(getKeyLocatorName(data.getSignature()));
+    }
+
+    validateBatch(states, keyLocatorNames, executor);
+  }
+
+  /**
+   * Asynchronously validate a batch of Interests. This is the same as calling
+   * validate for each Interest, except that Interests whose KeyLocator has the
+   * same name share one certificate retrieval and the signatures are verified
+   * in parallel on the executor. See validate(List<Data>, ...) for details.
+   * @param interestList The list of Interests to validate, which are copied.
+   * @param successCallback On validation success, this calls
+   * successCallback.successCallback(interest). This may be called from a
+   * thread of the executor, so it must be thread safe.
+   * @param failureCallback On validation failure, this calls
+   * failureCallback.failureCallback(interest, error) where error is a
+   * ValidationError. This may be called from a thread of the executor, so it
+   * must be thread safe.
+   * @param executor The executor for verifying signatures. If this rejects a
+   * task, the signature is verified on the calling thread.
+   */
+  public final void
+  validate
+    (List<Interest> interestList,
+     InterestValidationSuccessCallback successCallback,
+     InterestValidationFailureCallback failureCallback, Executor executor)
+  {
+    ArrayList<ValidationState> states = new ArrayList<ValidationState>();
+    ArrayList<Name> keyLocatorNames = new ArrayList<Name>();
+    for (int i = 0; i < interestList.size(); ++i) {
+      Interest interest = interestList.get(i);
+      states.add(new InterestValidationState
+        (interest, successCallback, failureCallback));
+
+      Name name = interest.getName();
+      Name keyLocatorName = null;
+      if (name.size() >= 2) {
+        try {
+          keyLocatorName = getKeyLocatorName
+            (WireFormat.getDefaultWireFormat().decodeSignatureInfoAndValue
+             (name.get(-2).getValue().buf(), name.get(-1).getValue().buf()));
+        } catch (Throwable ex) {
+          // Let the policy report the error.
+        }
+      }
+      keyLocatorNames.add(keyLocatorName);
+    }
+
+    validateBatch(states, keyLocatorNames, executor);
+  }
+
+  /**
+   * Start validating the Data packet in the state.
+   * @param state The DataValidationState with the Data packet.
+   */
+  private void
+  validate(DataValidationState state)
+    throws CertificateV2.Error, ValidatorConfigError
+  {
+    Data data = state.getOriginalData();
+    state.setVerifiedSignatureCache_(verifiedSignatureCache_);
+    logger_.log(Level.FINE, "Start validating data {0}", data.getName().toUri());
+
+    policy_.checkPolicy(data, state, policyContinuation_);
+  }
+
+  /**
+   * Start validating the Interest in the state.
+   * @param state The InterestValidationState with the Interest.
+   */
+  private void
+  validate(InterestValidationState state)
+    throws CertificateV2.Error, ValidatorConfigError
+  {
+    Interest interest = state.getOriginalInterest();
+    state.setVerifiedSignatureCache_(verifiedSignatureCache_);
     logger_.log(Level.FINE, "Start validating interest {0}",
       interest.getName().toUri());
 
-    policy_.checkPolicy
-      (interest, state, new ValidationPolicy.ValidationContinuation() {
-        public void
-        continueValidation
-            (CertificateRequest certificateRequest, ValidationState state)
-            throws CertificateV2.Error, ValidatorConfigError {
-          if (certificateRequest == null)
-            state.bypassValidation_();
-          else
-            // We need to fetch the key and validate it.
-            requestCertificate(certificateRequest, state);
+    policy_.checkPolicy(interest, state, policyContinuation_);
+  }
+
+  /**
+   * Start validating the packet in the state, for batch validation. If this
+   * throws an exception, fail the state instead.
+   * @param state The DataValidationState or InterestValidationState.
+   */
+  private void
+  validateInBatch(ValidationState state)
+  {
+    try {
+      if (state instanceof DataValidationState)
+        validate((DataValidationState)state);
+      else
+        validate((InterestValidationState)state);
+    } catch (Throwable ex) {
+      if (!state.hasOutcome())
+        state.fail(new ValidationError
+          (ValidationError.IMPLEMENTATION_ERROR, "Error in validate: " + ex));
+    }
+  }
+
+  /**
+   * Validate the first state for each KeyLocator name, and validate the other
+   * states with the same KeyLocator name when its certificate is resolved.
+   * @param states The states to validate, with the original packets.
+   * @param keyLocatorNames The KeyLocator name for each state, or null if it
+   * can't be found, in which case the state is validated by itself.
+   * @param executor The executor for verifying signatures.
+   */
+  private void
+  validateBatch
+    (ArrayList<ValidationState> states, ArrayList<Name> keyLocatorNames,
+     Executor executor)
+  {
+    if (executor == null)
+      throw new IllegalArgumentException("The executor is null");
+
+    ArrayList<ValidationState> firstStates = new ArrayList<ValidationState>();
+    HashMap<Name, ArrayList<ValidationState>> waitingStates =
+      new HashMap<Name, ArrayList<ValidationState>>();
+    for (int i = 0; i < states.size(); ++i) {
+      ValidationState state = states.get(i);
+      state.setVerifyExecutor_(executor);
+
+      Name keyLocatorName = keyLocatorNames.get(i);
+      if (keyLocatorName == null) {
+        firstStates.add(state);
+        continue;
+      }
+
+      ArrayList<ValidationState> waiting = waitingStates.get(keyLocatorName);
+      if (waiting != null) {
+        waiting.add(state);
+        continue;
+      }
+
+      final ArrayList<ValidationState> newWaiting =
+        new ArrayList<ValidationState>();
+      waitingStates.put(keyLocatorName, newWaiting);
+      state.setOnCertificateResolved_(new Runnable() {
+        public void run() {
+          for (int i = 0; i < newWaiting.size(); ++i)
+            validateInBatch(newWaiting.get(i));
+        }
+      });
+      firstStates.add(state);
+    }
+
+    for (int i = 0; i < firstStates.size(); ++i)
+      validateInBatch(firstStates.get(i));
+  }
+
+  /**
+   * Verify the original packet with the trusted certificate. If the state has
+   * a verify executor, then mark the certificate as resolved and verify on the
+   * executor.
+   * @param state The validation state.
+   * @param trustedCertificate The certificate that signs the original packet.
+   */
+  private static void
+  verifyOriginalPacket
+    (final ValidationState state, final CertificateV2 trustedCertificate)
+  {
+    Executor executor = state.getVerifyExecutor_();
+    if (executor == null) {
+      state.verifyOriginalPacket_(trustedCertificate);
+      return;
+    }
+
+    state.certificateResolved_();
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          state.verifyOriginalPacket_(trustedCertificate);
         }
       });
+    } catch (RejectedExecutionException ex) {
+      state.verifyOriginalPacket_(trustedCertificate);
+    }
+  }
+
+  /**
+   * Get the KeyLocator name from the signature for grouping a batch.
+   * @param signature The signature.
+   * @return The KeyLocator name, or null if the signature doesn't have a
+   * KeyLocator of type KEYNAME.
+   */
+  private static Name
+  getKeyLocatorName(Signature signature)
+  {
+    if (!KeyLocator.canGetFromSignature(signature))
+      return null;
+
+    KeyLocator keyLocator = KeyLocator.getFromSignature(signature);
+    if (keyLocator.getType() != KeyLocatorType.KEYNAME)
+      return null;
+
+    return keyLocator.getKeyName();
   }
 
   /**
@@ -260,12 +509,14 @@ public class Validator extends CertificateStorage {
         certificate.getName().toUri());
 
       certificate = state.verifyCertificateChain_(certificate);
-      if (certificate != null)
-        state.verifyOriginalPacket_(certificate);
-
+      // Cache the verified chain before verifying the original packet, which
+      // may let the other packets in a batch continue.
       for (int i = 0; i < state.getCertificateChain_().size(); ++i)
         cacheVerifiedCertificate(state.getCertificateChain_().get(i));
 
+      if (certificate != null)
+        verifyOriginalPacket(state, certificate);
+
       return;
     }
 
@@ -279,9 +530,24 @@ public class Validator extends CertificateStorage {
       });
   }
 
+  private final ValidationPolicy.ValidationContinuation policyContinuation_ =
+    new ValidationPolicy.ValidationContinuation() {
+      public void
+      continueValidation
+          (CertificateRequest certificateRequest, ValidationState state)
+          throws CertificateV2.Error, ValidatorConfigError {
+        if (certificateRequest == null)
+          state.bypassValidation_();
+        else
+          // We need to fetch the key and validate it.
+          requestCertificate(certificateRequest, state);
+      }
+    };
   private final ValidationPolicy policy_;
   private final CertificateFetcher certificateFetcher_;
   private int maxDepth_;
+  private volatile VerifiedSignatureCache verifiedSignatureCache_ = null;
+  private boolean isOnCertificateRemovedAdded_ = false;
   private static final Logger logger_ =
     Logger.getLogger(Validator.class.getName());
 }
@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.security.v2;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.security.VerificationHelpers;
+import net.named_data.jndn.util.Blob;
+import net.named_data.jndn.util.SignedBlob;
+
+/**
+ * A VerifiedSignatureCache holds the results of verifying the signatures of
+ * Data and Interest packets, so that when the same packet is validated again
+ * (for example a retransmission or a reply to several consumers) the Validator
+ * can skip the public key operation. An entry is keyed by one SHA-256 digest
+ * of the signed portion of the packet, the signature bytes and the public key,
+ * and by the name of the certificate which verified it. Including the public
+ * key means that a different certificate with the same name is never confused
+ * with the original. The entry does not keep a reference to the packet or
+ * certificate buffers. The cache holds at most a fixed number of entries, removing the
+ * least recently used. Attach it to a Validator with
+ * Validator.setVerifiedSignatureCache, which also removes the entries for a
+ * certificate when the certificate is removed from the verified certificate
+ * cache. The methods are synchronized so that signatures can be verified on
+ * multiple threads.
+ */
+public class VerifiedSignatureCache {
+  /**
+   * Create a VerifiedSignatureCache with the given capacity.
+   * @param capacity The maximum number of entries.
+   */
+  public VerifiedSignatureCache(int capacity)
+  {
+    if (capacity <= 0)
+      throw new IllegalArgumentException
+        ("VerifiedSignatureCache: capacity must be positive");
+
+    capacity_ = capacity;
+  }
+
+  /**
+   * Create a VerifiedSignatureCache with the default capacity.
+   */
+  public VerifiedSignatureCache()
+  {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Verify the Data packet using the public key in the certificate, or return
+   * the result of a previous verification of the same signed portion and
+   * signature with the same certificate.
+   * @param data The Data packet to verify.
+   * @param certificate The certificate containing the public key.
+   * @return True if verification succeeds, false if verification fails or for
+   * an error decoding the public key.
+   */
+  public final boolean
+  verifyDataSignature(Data data, CertificateV2 certificate)
+  {
+    SignedBlob encoding = data.wireEncode();
+    return verify
+      (encoding, data.getSignature().getSignature(), certificate, data, null);
+  }
+
+  /**
+   * Verify the Interest packet using the public key in the certificate, where
+   * the last two name components are the SignatureInfo and signature bytes, or
+   * return the result of a previous verification of the same signed portion
+   * and signature with the same certificate.
+   * @param interest The Interest packet to verify.
+   * @param certificate The certificate containing the public key.
+   * @return True if verification succeeds, false if verification fails or
+   * cannot decode the Interest.
+   */
+  public final boolean
+  verifyInterestSignature(Interest interest, CertificateV2 certificate)
+  {
+    if (interest.getName().size() < 2)
+      return false;
+
+    SignedBlob encoding = interest.wireEncode();
+    return verify
+      (encoding, interest.getName().get(-1).getValue(), certificate, null,
+       interest);
+  }
+
+  /**
+   * Remove all entries for signatures verified by the certificate. This is
+   * called when the certificate is removed from the verified certificate cache.
+   * @param certificateName The name of the certificate.
+   */
+  public synchronized final void
+  removeCertificate(Name certificateName)
+  {
+    HashSet<Key> keys = keysByCertificateName_.remove(certificateName);
+    if (keys == null)
+      return;
+
+    for (Key key : keys)
+      entries_.remove(key);
+  }
+
+  /**
+   * Remove all entries and reset the hit and miss counts.
+   */
+  public synchronized final void
+  clear()
+  {
+    entries_.clear();
+    keysByCertificateName_.clear();
+    nHits_ = 0;
+    nMisses_ = 0;
+  }
+
+  /**
+   * Get the number of entries in the cache.
+   * @return The number of entries.
+   */
+  public synchronized final int
+  size() { return entries_.size(); }
+
+  /**
+   * Get the maximum number of entries, as given to the constructor.
+   * @return The capacity.
+   */
+  public final int
+  getCapacity() { return capacity_; }
+
+  /**
+   * Get the number of verifications which were answered from the cache.
+   * @return The number of hits.
+   */
+  public synchronized final long
+  getHits() { return nHits_; }
+
+  /**
+   * Get the number of verifications which needed the public key operation.
+   * @return The number of misses.
+   */
+  public synchronized final long
+  getMisses() { return nMisses_; }
+
+  /**
+   * Get the fraction of verifications which were answered from the cache.
+   * @return The hit rate from 0.0 to 1.0, or 0.0 if there were no
+   * verifications.
+   */
+  public synchronized final double
+  getHitRate()
+  {
+    long total = nHits_ + nMisses_;
+    return total == 0 ? 0.0 : (double)nHits_ / total;
+  }
+
+  /**
+   * The default maximum number of entries.
+   */
+  public static final int DEFAULT_CAPACITY = 10000;
+
+  /**
+   * Key is the key of the entries_ map.
+   */
+  private static class Key {
+    public Key(Blob digest, Name certificateName)
+    {
+      digest_ = digest;
+      certificateName_ = certificateName;
+      hashCode_ = 37 * digest.hashCode() + certificateName.hashCode();
+    }
+
+    public boolean
+    equals(Object other)
+    {
+      if (!(other instanceof Key))
+        return false;
+
+      Key otherKey = (Key)other;
+      return hashCode_ == otherKey.hashCode_ &&
+        digest_.equals(otherKey.digest_) &&
+        certificateName_.equals(otherKey.certificateName_);
+    }
+
+    public int
+    hashCode() { return hashCode_; }
+
+    public final Blob digest_;
+    public final Name certificateName_;
+    private final int hashCode_;
+  }
+
+  /**
+   * Look up the signature in the cache, or verify it with the certificate and
+   * add the result to the cache.
+   * @param encoding The packet encoding with the signed portion.
+   * @param signature The signature bytes.
+   * @param certificate The certificate containing the public key.
+   * @param data The Data packet to verify, or null if verifying interest.
+   * @param interest The Interest to verify, or null if verifying data.
+   * @return The verification result.
+   */
+  private boolean
+  verify
+    (SignedBlob encoding, Blob signature, CertificateV2 certificate, Data data,
+     Interest interest)
+  {
+    Blob publicKey = certificate.getContent();
+    if (publicKey.size() == 0 || signature.size() == 0)
+      // The public key is not set, or there is no signature to verify.
+      return false;
+
+    // Copy the name since the certificate may change.
+    Key key = new Key
+      (digestSignature(encoding, signature, publicKey),
+       new Name(certificate.getName()));
+
+    synchronized (this) {
+      Boolean isVerified = entries_.get(key);
+      if (isVerified != null) {
+        ++nHits_;
+        return isVerified;
+      }
+      ++nMisses_;
+    }
+
+    // Verify without the lock so that other threads can use the cache.
+    boolean isVerified = data != null ?
+      VerificationHelpers.verifyDataSignature(data, certificate) :
+      VerificationHelpers.verifyInterestSignature(interest, certificate);
+
+    synchronized (this) {
+      entries_.put(key, isVerified);
+      HashSet<Key> keys = keysByCertificateName_.get(key.certificateName_);
+      if (keys == null) {
+        keys = new HashSet<Key>();
+        keysByCertificateName_.put(key.certificateName_, keys);
+      }
+      keys.add(key);
+
+      // Remove the least recently used entries.
+      Iterator<Map.Entry<Key, Boolean>> iterator =
+        entries_.entrySet().iterator();
+      while (entries_.size() > capacity_ && iterator.hasNext()) {
+        Key oldKey = iterator.next().getKey();
+        iterator.remove();
+        HashSet<Key> oldKeys = keysByCertificateName_.get(oldKey.certificateName_);
+        if (oldKeys != null) {
+          oldKeys.remove(oldKey);
+          if (oldKeys.isEmpty())
+            keysByCertificateName_.remove(oldKey.certificateName_);
+        }
+      }
+    }
+
+    return isVerified;
+  }
+
+  /**
+   * Compute the SHA-256 digest of the signed portion, the signature bytes and
+   * the public key, each preceded by its length so that moving bytes between
+   * the parts changes the digest.
+   * @return A new Blob with the 32-byte digest.
+   */
+  private static Blob
+  digestSignature(SignedBlob encoding, Blob signature, Blob publicKey)
+  {
+    MessageDigest sha256;
+    try {
+      sha256 = MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException exception) {
+      // Don't expect this to happen.
+      throw new Error
+        ("MessageDigest: SHA-256 is not supported: " + exception.getMessage());
+    }
+
+    ByteBuffer length = ByteBuffer.allocate(4);
+    ByteBuffer[] parts = new ByteBuffer[]
+      { encoding.signedBuf(), signature.buf(), publicKey.buf() };
+    for (ByteBuffer part : parts) {
+      length.clear();
+      length.putInt(part.remaining());
+      length.flip();
+      sha256.update(length);
+      // The Blob methods return a new read-only buffer, so we can move it.
+      sha256.update(part);
+    }
+
+    return new Blob(sha256.digest(), false);
+  }
+
+  private final int capacity_;
+  // The access order makes the first entry the least recently used.
+  private final LinkedHashMap<Key, Boolean> entries_ =
+    new LinkedHashMap<Key, Boolean>(16, 0.75f, true);
+  private final HashMap<Name, HashSet<Key>> keysByCertificateName_ =
+    new HashMap<Name, HashSet<Key>>();
+  private long nHits_ = 0;
+  private long nMisses_ = 0;
+}
@@ -24,7 +24,9 @@ import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.named_data.jndn.Data;
@@ -38,6 +40,7 @@ import net.named_data.jndn.OnRegisterFailed;
 import net.named_data.jndn.OnTimeout;
 import net.named_data.jndn.security.KeyChain;
 import net.named_data.jndn.security.SecurityException;
+import net.named_data.jndn.sync.detail.DigestLog;
 import net.named_data.jndn.util.Blob;
 import net.named_data.jndn.util.MemoryContentCache;
 
@@ -108,13 +111,24 @@ public class ChronoSync2013 implements OnInterestCallback, OnData, OnTimeout {
    * NOTE: The library will log any exceptions thrown by this callback, but for
    * better error handling the callback should catch and properly handle any
    * exceptions.
+   * @param digestTree The empty DigestTree to hold the sync state, for example
+   * a new MerkleDigestTree() so that a changed sequence number only updates
+   * O(log n) digests. All participants in the sync group must use the same
+   * kind of DigestTree since the root digests are different.
+   * @throws IllegalArgumentException if digestTree is not empty.
    */
   public ChronoSync2013
     (OnReceivedSyncState onReceivedSyncState, OnInitialized onInitialized,
      Name applicationDataPrefix, Name applicationBroadcastPrefix, long sessionNo,
      Face face, KeyChain keyChain, Name certificateName, double syncLifetime,
-     OnRegisterFailed onRegisterFailed) throws IOException, SecurityException
+     OnRegisterFailed onRegisterFailed, DigestTree digestTree)
+    throws IOException, SecurityException
   {
+    if (digestTree.size() != 0)
+      throw new IllegalArgumentException
+        ("ChronoSync2013: The digestTree must be empty");
+
+    digestTree_ = digestTree;
     onReceivedSyncState_ = onReceivedSyncState;
     onInitialized_ = onInitialized;
     applicationDataPrefixUri_ = applicationDataPrefix.toUri();
@@ -128,7 +142,7 @@ public class ChronoSync2013 implements OnInterestCallback, OnData, OnTimeout {
 
     SyncStateProto.SyncStateMsg emptyContent =
       SyncStateProto.SyncStateMsg.newBuilder().build();
-    digestLog_.add(new DigestLogEntry("00", emptyContent.getSsList()));
+    digestLog_.add("00", emptyContent.getSsList());
 
     // Register the prefix with the contentCache_ and use our own onInterest
     //   as the onDataNotFound fallback.
@@ -143,6 +157,69 @@ public class ChronoSync2013 implements OnInterestCallback, OnData, OnTimeout {
     logger_.log(Level.FINE, interest.getName().toUri());
   }
 
+  /**
+   * Create a new ChronoSync2013 to communicate using the given face. Initialize
+   * the digest log with a digest of "00" and and empty content. Register the
+   * applicationBroadcastPrefix to receive interests for sync state messages and
+   * express an interest for the initial root digest "00".
+   * This uses a DigestTree with the ChronoSync root digest. To use a
+   * MerkleDigestTree, see the constructor with the digestTree parameter.
+   * @note Your application must call processEvents. Since processEvents
+   * modifies the internal ChronoSync data structures, your application should
+   * make sure that it calls processEvents in the same thread as this
+   * constructor (which also modifies the data structures).
+   * @param onReceivedSyncState When ChronoSync receives a sync state message,
+   * this calls onReceivedSyncState.onReceivedSyncState(syncStates, isRecovery)
+   * where syncStates is the
+   * list of SyncState messages and isRecovery is true if this is the initial
+   * list of SyncState messages or from a recovery interest. (For example, if
+   * isRecovery is true, a chat application would not want to re-display all
+   * the associated chat messages.) The callback should send interests to fetch
+   * the application data for the sequence numbers in the sync state.
+   * NOTE: The library will log any exceptions thrown by this callback, but for
+   * better error handling the callback should catch and properly handle any
+   * exceptions.
+   * @param onInitialized This calls onInitialized.onInitialized() when the
+   * first sync data is received (or the interest times out because there are no
+   * other publishers yet).
+   * NOTE: The library will log any exceptions thrown by this callback, but for
+   * better error handling the callback should catch and properly handle any
+   * exceptions.
+   * @param applicationDataPrefix The prefix used by this application instance
+   * for application data. For example, "/my/local/prefix/ndnchat4/0K4wChff2v".
+   * This is used when sending a sync message for a new sequence number.
+   * In the sync message, this uses applicationDataPrefix.toUri().
+   * @param applicationBroadcastPrefix The broadcast name prefix including the
+   * application name. For example, "/ndn/broadcast/ChronoChat-0.3/ndnchat1".
+   * This makes a copy of the name.
+   * @param sessionNo The session number used with the applicationDataPrefix in
+   * sync state messages.
+   * @param face The Face for calling registerPrefix and expressInterest. The
+   * Face object must remain valid for the life of this ChronoSync2013 object.
+   * @param keyChain To sign a data packet containing a sync state message, this
+   * calls keyChain.sign(data, certificateName).
+   * @param certificateName The certificate name of the key to use for signing a
+   * data packet containing a sync state message.
+   * @param syncLifetime The interest lifetime in milliseconds for sending
+   * sync interests.
+   * @param onRegisterFailed If failed to register the prefix to receive
+   * interests for the applicationBroadcastPrefix, this calls
+   * onRegisterFailed.onRegisterFailed(applicationBroadcastPrefix).
+   * NOTE: The library will log any exceptions thrown by this callback, but for
+   * better error handling the callback should catch and properly handle any
+   * exceptions.
+   */
+  public ChronoSync2013
+    (OnReceivedSyncState onReceivedSyncState, OnInitialized onInitialized,
+     Name applicationDataPrefix, Name applicationBroadcastPrefix, long sessionNo,
+     Face face, KeyChain keyChain, Name certificateName, double syncLifetime,
+     OnRegisterFailed onRegisterFailed) throws IOException, SecurityException
+  {
+    this(onReceivedSyncState, onInitialized, applicationDataPrefix,
+         applicationBroadcastPrefix, sessionNo, face, keyChain, certificateName,
+         syncLifetime, onRegisterFailed, new DigestTree());
+  }
+
   /**
    * A SyncState holds the values of a sync state message which is passed to the
    * onReceivedSyncState callback which was given to the ChronoSyn2013
@@ -343,27 +420,19 @@ public class ChronoSync2013 implements OnInterestCallback, OnData, OnTimeout {
   public final long
   getSequenceNo() { return sequenceNo_; }
 
-  private static class DigestLogEntry {
-    public DigestLogEntry(String digest, List data)
-    {
-      digest_ = digest;
-      // Copy.
-      data_ = new ArrayList(data);
-    }
-
-    public final String
-    getDigest() { return digest_; }
-
-    /**
-     * Get the data.
-     * @return The data as a list of SyncStateProto.SyncState.
-     */
-    List // of SyncStateProto.SyncState
-    getData() { return data_; }
-
-    private final String digest_;
-  // Use List without generics so it works with older Java compilers.
-    List data_; // of SyncStateProto.SyncState
+  /**
+   * Set the retention limits of the digest log, which is used to answer sync
+   * interests with the sync states since a given root digest. A sync interest
+   * for a root digest which is no longer in the log is answered by recovery.
+   * @param maxEntries The maximum number of digest log entries. The default is
+   * DigestLog.DEFAULT_MAX_ENTRIES.
+   * @param maxAgeMilliseconds The maximum time to keep a digest log entry. If
+   * this is 0 or negative (the default), entries are not removed by age.
+   */
+  public final void
+  setDigestLogRetention(int maxEntries, double maxAgeMilliseconds)
+  {
+    digestLog_.setRetention(maxEntries, maxAgeMilliseconds);
   }
 
   /**
@@ -426,24 +495,8 @@ public class ChronoSync2013 implements OnInterestCallback, OnData, OnTimeout {
       }
     }
 
-    if (logFind(digestTree_.getRoot()) == -1) {
-      digestLog_.add(new DigestLogEntry(digestTree_.getRoot(), content));
-      return true;
-    }
-    else
-      return false;
-  }
-
-  // Search the digest log by digest.
-  private int
-  logFind(String digest)
-  {
-    for (int i = 0; i < digestLog_.size(); ++i) {
-      if (digest.equals(((DigestLogEntry)digestLog_.get(i)).getDigest()))
-        return i;
-    }
-
-    return -1;
+    // add returns null if the digest is already in the log.
+    return digestLog_.add(digestTree_.getRoot(), content) != null;
   }
 
   /**
@@ -480,8 +533,8 @@ public class ChronoSync2013 implements OnInterestCallback, OnData, OnTimeout {
       contentCache_.storePendingInterest(interest, face);
 
       if (!syncDigest.equals(digestTree_.getRoot())) {
-        int index = logFind(syncDigest);
-        if (index == -1) {
+        DigestLog.Entry logEntry = digestLog_.find(syncDigest);
+        if (logEntry == null) {
           // To see whether there is any data packet coming back, wait 2 seconds
           // using the Interest timeout mechanism.
           // TODO: Are we sure using a "/local/timeout" interest is the best future call approach?
@@ -500,7 +553,7 @@ public class ChronoSync2013 implements OnInterestCallback, OnData, OnTimeout {
         else {
           try {
             // common interest processing
-            processSyncInterest(index, syncDigest, face);
+            processSyncInterest(logEntry, syncDigest, face);
           } catch (SecurityException ex) {
             logger_.log(Level.SEVERE, null, ex);
           }
@@ -642,7 +695,7 @@ public class ChronoSync2013 implements OnInterestCallback, OnData, OnTimeout {
   processRecoveryInterest(Interest interest, String syncDigest, Face face)
   {
     logger_.log(Level.FINE, "processRecoveryInterest");
-    if (logFind(syncDigest) != -1) {
+    if (digestLog_.find(syncDigest) != null) {
       SyncStateProto.SyncStateMsg.Builder builder =
         SyncStateProto.SyncStateMsg.newBuilder();
       for (int i = 0; i < digestTree_.size(); ++i) {
@@ -686,36 +739,39 @@ public class ChronoSync2013 implements OnInterestCallback, OnData, OnTimeout {
    * otherwise false.
    */
   private boolean
-  processSyncInterest(int index, String syncDigest, Face face) throws SecurityException
+  processSyncInterest
+    (DigestLog.Entry logEntry, String syncDigest, Face face)
+    throws SecurityException
   {
-    ArrayList nameList = new ArrayList(); // of String
-    ArrayList sequenceNoList = new ArrayList();  // of long
-    ArrayList sessionNoList = new ArrayList(); // of long
-    for (int j = index + 1; j < digestLog_.size(); ++j) {
-      List temp = ((DigestLogEntry)digestLog_.get(j)).getData(); // of SyncStateProto.SyncState.
+    // For each name, the latest session and the highest sequence number for
+    // that session, in the order that the names are first seen.
+    LinkedHashMap<String, long[]> sessionAndSequenceNos =
+      new LinkedHashMap<String, long[]>();
+    List<DigestLog.Entry> entries = digestLog_.getEntriesAfter(logEntry);
+    for (int j = 0; j < entries.size(); ++j) {
+      List temp = entries.get(j).getData(); // of SyncStateProto.SyncState.
       for (int i = 0; i < temp.size(); ++i) {
         SyncStateProto.SyncState syncState = (SyncStateProto.SyncState)temp.get(i);
         if (!syncState.getType().equals
              (SyncStateProto.SyncState.ActionType.UPDATE))
           continue;
 
-        if (digestTree_.find
-            (syncState.getName(), syncState.getSeqno().getSession()) != -1) {
-          int n = -1;
-          for (int k = 0; k < nameList.size(); ++k) {
-            if (((String)nameList.get(k)).equals(syncState.getName())) {
-              n = k;
-              break;
-            }
-          }
-          if (n == -1) {
-            nameList.add(syncState.getName());
-            sequenceNoList.add(syncState.getSeqno().getSeq());
-            sessionNoList.add(syncState.getSeqno().getSession());
-          }
+        long sessionNo = syncState.getSeqno().getSession();
+        long sequenceNo = syncState.getSeqno().getSeq();
+        long[] value = sessionAndSequenceNos.get(syncState.getName());
+        if (value != null && value[0] == sessionNo) {
+          value[1] = Math.max(value[1], sequenceNo);
+          continue;
+        }
+
+        if (digestTree_.find(syncState.getName(), sessionNo) != -1) {
+          if (value == null)
+            sessionAndSequenceNos.put
+              (syncState.getName(), new long[] { sessionNo, sequenceNo });
           else {
-            sequenceNoList.set(n, syncState.getSeqno().getSeq());
-            sessionNoList.set(n, syncState.getSeqno().getSession());
+            // A later entry has a new session for the name.
+            value[0] = sessionNo;
+            value[1] = sequenceNo;
           }
         }
       }
@@ -723,12 +779,12 @@ public class ChronoSync2013 implements OnInterestCallback, OnData, OnTimeout {
 
     SyncStateProto.SyncStateMsg.Builder builder =
       SyncStateProto.SyncStateMsg.newBuilder();
-    for (int i = 0; i < nameList.size(); ++i) {
+    for (Map.Entry<String, long[]> entry : sessionAndSequenceNos.entrySet()) {
       builder.addSsBuilder()
-        .setName((String)nameList.get(i))
+        .setName(entry.getKey())
         .setType(SyncStateProto.SyncState.ActionType.UPDATE)
-        .getSeqnoBuilder().setSeq((long)(Long)sequenceNoList.get(i))
-                          .setSession((long)(Long)sessionNoList.get(i));
+        .getSeqnoBuilder().setSeq(entry.getValue()[1])
+                          .setSession(entry.getValue()[0]);
     }
     SyncStateProto.SyncStateMsg tempContent = builder.build();
 
@@ -786,11 +842,11 @@ public class ChronoSync2013 implements OnInterestCallback, OnData, OnTimeout {
         // Ignore callbacks after the application calls shutdown().
         return;
 
-      int index2 = logFind(syncDigest_);
-      if (index2 != -1) {
+      DigestLog.Entry logEntry = digestLog_.find(syncDigest_);
+      if (logEntry != null) {
         if (!syncDigest_.equals(digestTree_.getRoot())) {
           try {
-            processSyncInterest(index2, syncDigest_, face_);
+            processSyncInterest(logEntry, syncDigest_, face_);
           } catch (SecurityException ex) {
             logger_.log(Level.SEVERE, null, ex);
             return;
@@ -938,9 +994,8 @@ public class ChronoSync2013 implements OnInterestCallback, OnData, OnTimeout {
   double syncLifetime_;
   OnReceivedSyncState onReceivedSyncState_;
   OnInitialized onInitialized_;
-  // Use ArrayList without generics so it works with older Java compilers.
-  ArrayList digestLog_ = new ArrayList(); // of DigestLogEntry
-  DigestTree digestTree_ = new DigestTree();
+  DigestLog digestLog_ = new DigestLog();
+  DigestTree digestTree_;
   String applicationDataPrefixUri_;
   Name applicationBroadcastPrefix_;
   long sessionNo_;
@@ -28,6 +28,15 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.named_data.jndn.util.Common;
 
+/**
+ * A DigestTree holds the nodes of ChronoSync2013, one for each combination of
+ * data prefix and session number, sorted by data prefix then session number.
+ * The root digest is the SHA-256 of the concatenated node digests. Nodes are
+ * found by a binary search, node digests are kept as bytes, and the root is
+ * only recomputed when getRoot is called after a change, so that a burst of
+ * updates costs one root computation. A subclass such as MerkleDigestTree can
+ * change how the root is computed.
+ */
 public class DigestTree {
   public DigestTree()
   {
@@ -46,6 +55,12 @@ public class DigestTree {
       dataPrefix_ = dataPrefix;
       sessionNo_ = sessionNo;
       sequenceNo_ = sequenceNo;
+      try {
+        nameDigest_ = Common.digestSha256(dataPrefix_.getBytes("UTF-8"));
+      } catch (UnsupportedEncodingException ex) {
+        // We don't expect this to happen.
+        throw new Error("UTF-8 encoder not supported: " + ex.getMessage());
+      }
       recomputeDigest();
     }
 
@@ -63,11 +78,16 @@ public class DigestTree {
      * @return The digest as a hex string.
      */
     public final String
-    getDigest() { return digest_; }
-
+    getDigest()
+    {
+      if (digest_ == null)
+        digest_ = Common.toHex(digestBytes_);
+      return digest_;
+    }
 
     /**
-     * Set the sequence number and recompute the digest.
+     * Set the sequence number and recompute the digest. If this node is in a
+     * DigestTree, this also marks the root digest of the tree to be recomputed.
      * @param sequenceNo The new sequence number.
      */
     public final void
@@ -75,6 +95,8 @@ public class DigestTree {
     {
       sequenceNo_ = sequenceNo;
       recomputeDigest();
+      if (tree_ != null)
+        tree_.nodeChanged(this);
     }
 
     /**
@@ -84,34 +106,45 @@ public class DigestTree {
      */
     public final boolean
     lessThan(Node node2)
+    {
+      return compare(node2.dataPrefix_, node2.sessionNo_) < 0;
+    }
+
+    /**
+     * Get the digest bytes. This is used by DigestTree and its subclasses.
+     * @return The digest bytes, which you should not modify.
+     */
+    final byte[]
+    getDigestBytes() { return digestBytes_; }
+
+    /**
+     * Compare this Node with the given data prefix and session number.
+     * @return A negative number if this node is less, zero if equal, or a
+     * positive number if this node is greater.
+     */
+    private int
+    compare(String dataPrefix, long sessionNo)
     {
       // We compare the Unicode strings which is OK because it has the same sort
       // order as the UTF-8 encoding: http://en.wikipedia.org/wiki/UTF-8#Advantages
       // "Sorting a set of UTF-8 encoded strings as strings of unsigned bytes
       // yields the same order as sorting the corresponding Unicode strings
       // lexicographically by codepoint."
-      int prefixComparison = dataPrefix_.compareTo(node2.dataPrefix_);
+      int prefixComparison = dataPrefix_.compareTo(dataPrefix);
       if (prefixComparison != 0)
-        return prefixComparison < 0;
+        return prefixComparison;
 
-      return sessionNo_ < node2.sessionNo_;
+      return sessionNo_ < sessionNo ? -1 : (sessionNo_ > sessionNo ? 1 : 0);
     }
 
     /**
-     * Digest the fields and set digest_ to the hex digest.
+     * Digest the fields and set digestBytes_. The digest of the data prefix
+     * doesn't change, so it is computed once in the constructor.
      */
     private void
     recomputeDigest()
     {
-      MessageDigest sha256;
-      try {
-        sha256 = MessageDigest.getInstance("SHA-256");
-      }
-      catch (NoSuchAlgorithmException exception) {
-        // Don't expect this to happen.
-        throw new Error
-          ("MessageDigest: SHA-256 is not supported: " + exception.getMessage());
-      }
+      MessageDigest sha256 = getSha256();
 
       byte[] number = new byte[4];
       // Debug: sync-state-proto.proto defines seq and session as uint64, but
@@ -122,20 +155,11 @@ public class DigestTree {
       sha256.update(number);
       byte[] sequenceDigest = sha256.digest();
 
-      sha256.reset();
-      try {
-        sha256.update(dataPrefix_.getBytes("UTF-8"));
-      } catch (UnsupportedEncodingException ex) {
-        // We don't expect this to happen.
-        throw new Error("UTF-8 encoder not supported: " + ex.getMessage());
-      }
-      byte[] nameDigest = sha256.digest();
-
-      sha256.reset();
-      sha256.update(nameDigest);
+      sha256.update(nameDigest_);
       sha256.update(sequenceDigest);
-      byte[] nodeDigest = sha256.digest();
-      digest_ = Common.toHex(nodeDigest);
+      digestBytes_ = sha256.digest();
+      // getDigest() makes the hex string when needed.
+      digest_ = null;
     }
 
     private static void
@@ -150,13 +174,17 @@ public class DigestTree {
     private final String dataPrefix_;
     private final long sessionNo_;
     private long sequenceNo_;
-    private String digest_;
+    private final byte[] nameDigest_;
+    private byte[] digestBytes_;
+    private String digest_ = null;
+    private DigestTree tree_ = null;
   }
 
   /**
-   * Update the digest tree and recompute the root digest.  If the combination
-   * of dataPrefix and sessionNo already exists in the tree then update its
-   * sequenceNo (only if the given sequenceNo is newer), otherwise add a new node.
+   * Update the digest tree and mark the root digest to be recomputed.  If the
+   * combination of dataPrefix and sessionNo already exists in the tree then
+   * update its sequenceNo (only if the given sequenceNo is newer), otherwise
+   * add a new node.
    * @param dataPrefix The name prefix. This is encoded as UTF-8 to digest.
    * @param sessionNo The session number.
    * @param sequenceNo The new sequence number.
@@ -166,47 +194,47 @@ public class DigestTree {
   public final boolean
   update(String dataPrefix, long sessionNo, long sequenceNo)
   {
-    int nodeIndex = find(dataPrefix, sessionNo);
-    Logger.getLogger(DigestTree.class.getName()).log(Level.FINE,
-      "{0}, {1}",  new Object[]{dataPrefix, sessionNo});
-    Logger.getLogger(DigestTree.class.getName()).log(Level.FINE,
-      "DigestTree.update session {0}, nodeIndex {1}", new Object[]{sessionNo, nodeIndex});
-    if (nodeIndex >= 0) {
+    int searchResult = search(dataPrefix, sessionNo);
+    if (logger_.isLoggable(Level.FINE)) {
+      logger_.log(Level.FINE, "{0}, {1}",  new Object[]{dataPrefix, sessionNo});
+      logger_.log(Level.FINE, "DigestTree.update session {0}, nodeIndex {1}",
+        new Object[]{sessionNo, searchResult >= 0 ? searchResult : -1});
+    }
+    if (searchResult >= 0) {
       // Only update to a  newer status.
-      if (digestNode_.get(nodeIndex).getSequenceNo() < sequenceNo)
-        digestNode_.get(nodeIndex).setSequenceNo(sequenceNo);
+      Node node = digestNode_.get(searchResult);
+      if (node.getSequenceNo() < sequenceNo)
+        // This calls nodeChanged.
+        node.setSequenceNo(sequenceNo);
       else
         return false;
     }
     else {
-      Logger.getLogger(DigestTree.class.getName()).log(Level.FINE,
-        "new comer {0}, session {1}, sequence {2}", new Object[]{dataPrefix, sessionNo, sequenceNo});
-      // Insert into digestnode_ sorted.
-      Node temp = new Node(dataPrefix, sessionNo, sequenceNo);
-      // Find the index of the first node where it is not less than temp.
-      int i = 0;
-      while (i < digestNode_.size()) {
-        if (!digestNode_.get(i).lessThan(temp))
-          break;
-        ++i;
-      }
-      digestNode_.add(i, temp);
+      logger_.log(Level.FINE, "new comer {0}, session {1}, sequence {2}",
+        new Object[]{dataPrefix, sessionNo, sequenceNo});
+      // Insert into digestNode_ sorted, at the index from the binary search.
+      int index = -(searchResult + 1);
+      Node node = new Node(dataPrefix, sessionNo, sequenceNo);
+      node.tree_ = this;
+      digestNode_.add(index, node);
+      isRootChanged_ = true;
+      onNodeInserted(index);
     }
 
-    recomputeRoot();
     return true;
   }
 
+  /**
+   * Find the node with the data prefix and session number.
+   * @param dataPrefix The data prefix.
+   * @param sessionNo The session number.
+   * @return The index of the node, or -1 if not found.
+   */
   public final int
   find(String dataPrefix, long sessionNo)
   {
-    for (int i = 0; i < digestNode_.size(); ++i) {
-      if (digestNode_.get(i).getDataPrefix().equals(dataPrefix) &&
-          digestNode_.get(i).getSessionNo() == sessionNo)
-        return i;
-    }
-
-    return -1;
+    int result = search(dataPrefix, sessionNo);
+    return result >= 0 ? result : -1;
   }
 
   public final int
@@ -216,71 +244,122 @@ public class DigestTree {
   get(int i) { return digestNode_.get(i); }
 
   /**
-   * Get the root digest.
+   * Get the root digest. If the tree changed since the last call, this first
+   * recomputes the root digest.
    * @return The root digest as a hex string.
    */
   public final String
-  getRoot() { return root_; }
+  getRoot()
+  {
+    if (isRootChanged_) {
+      root_ = Common.toHex(computeRootDigest());
+      isRootChanged_ = false;
+      logger_.log(Level.FINE, "update root to: {0}", root_);
+    }
+
+    return root_;
+  }
 
   /**
-   * Convert the hex character to an integer from 0 to 15, or -1 if not a hex character.
+   * Compute the root digest from the node digests. This base class returns the
+   * SHA-256 of the concatenated node digests, which is the ChronoSync root
+   * digest. This is only called when the tree is not empty.
+   * @return The root digest bytes.
    */
-  private static int
-  fromHexChar(char c)
+  protected byte[]
+  computeRootDigest()
   {
-    if (c >= '0' && c <= '9')
-      return (int)c - (int)'0';
-    else if (c >= 'A' && c <= 'F')
-      return (int)c - (int)'A' + 10;
-    else if (c >= 'a' && c <= 'f')
-      return (int)c - (int)'a' + 10;
-    else
-      return -1;
+    MessageDigest sha256 = getSha256();
+    for (int i = 0; i < digestNode_.size(); ++i)
+      sha256.update(digestNode_.get(i).getDigestBytes());
+    return sha256.digest();
   }
 
   /**
-   * Convert the hex string to bytes and call messageDigest.update.
-   * @param messageDigest The MessageDigest to update.
-   * @param hex The hex string.
+   * This is called after a new node is inserted. This base class does nothing.
+   * @param index The index of the new node.
    */
-  private static void
-  updateHex(MessageDigest messageDigest, String hex)
-  {
-    byte[] data = new byte[hex.length() / 2];
-    for (int i = 0; i < data.length; ++i)
-      data[i] = (byte)((16 * fromHexChar(hex.charAt(2 * i)) +
-                        fromHexChar(hex.charAt(2 * i + 1))) & 0xff);
+  protected void
+  onNodeInserted(int index) {}
+
+  /**
+   * This is called after the digest of the node changes because its sequence
+   * number changed. This base class does nothing.
+   * @param index The index of the changed node.
+   */
+  protected void
+  onNodeChanged(int index) {}
 
-    messageDigest.update(data);
+  /**
+   * Get a MessageDigest for SHA-256 which is reset and reused by the calling
+   * thread.
+   * @return The MessageDigest.
+   */
+  static MessageDigest
+  getSha256()
+  {
+    MessageDigest sha256 = sha256_.get();
+    sha256.reset();
+    return sha256;
   }
 
   /**
-   * Set root_ to the digest of all digests in digestnode_. This sets root_
-   * to the hex value of the digest.
+   * Mark the root as changed and call onNodeChanged. This is called by
+   * Node.setSequenceNo.
+   * @param node The node in this tree.
    */
   private void
-  recomputeRoot()
+  nodeChanged(Node node)
   {
-    MessageDigest sha256;
-    try {
-      sha256 = MessageDigest.getInstance("SHA-256");
-    }
-    catch (NoSuchAlgorithmException exception) {
-      // Don't expect this to happen.
-      throw new Error
-        ("MessageDigest: SHA-256 is not supported: " + exception.getMessage());
+    isRootChanged_ = true;
+    int index = search(node.dataPrefix_, node.sessionNo_);
+    if (index >= 0)
+      onNodeChanged(index);
+  }
+
+  /**
+   * Do a binary search for the node with the data prefix and session number.
+   * @return The index of the node, or (-(insertion point) - 1) if not found,
+   * as with Collections.binarySearch.
+   */
+  private int
+  search(String dataPrefix, long sessionNo)
+  {
+    int low = 0;
+    int high = digestNode_.size() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int comparison = digestNode_.get(middle).compare(dataPrefix, sessionNo);
+      if (comparison < 0)
+        low = middle + 1;
+      else if (comparison > 0)
+        high = middle - 1;
+      else
+        return middle;
     }
 
-    for (int i = 0; i < digestNode_.size(); ++i)
-      updateHex(sha256, digestNode_.get(i).getDigest());
-    byte[] digestRoot = sha256.digest();
-    root_ = Common.toHex(digestRoot);
-    Logger.getLogger(DigestTree.class.getName()).log(Level.FINE,
-      "update root to: {0}", root_);
+    return -(low + 1);
   }
 
+  private static final ThreadLocal<MessageDigest> sha256_ =
+    new ThreadLocal<MessageDigest>() {
+      protected MessageDigest initialValue() {
+        try {
+          return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException exception) {
+          // Don't expect this to happen.
+          throw new Error
+            ("MessageDigest: SHA-256 is not supported: " + exception.getMessage());
+        }
+      }
+    };
+
   private final ArrayList<DigestTree.Node> digestNode_ = new ArrayList<DigestTree.Node>();
   private String root_;
+  private boolean isRootChanged_ = false;
+  private static final Logger logger_ =
+    Logger.getLogger(DigestTree.class.getName());
   // This is to force an import of net.named_data.jndn.util.
   private static Common dummyCommon_ = new Common();
 }
@@ -243,13 +243,12 @@ public class FullPSync2017 extends PSyncProducerBase
   public final void
   publishName(Name name)
   {
-    if (nameToHash_.containsKey(name)) {
+    if (!insertIntoIblt(name)) {
       logger_.log(Level.FINE, "Already published, ignoring: {0}", name);
       return;
     }
 
     logger_.log(Level.INFO, "Publish: {0}", name);
-    insertIntoIblt(name);
     satisfyPendingInterests();
   }
 
@@ -408,7 +407,7 @@ public class FullPSync2017 extends PSyncProducerBase
       if (positive.size() + negative.size() >= threshold_ ||
           (positive.size() == 0 && negative.size() == 0)) {
         PSyncState state1 = new PSyncState();
-        for (Name name : nameToHash_.keySet())
+        for (Name name : getNames())
           state1.addContent(name);
 
         if (state1.getContent().size() > 0) {
@@ -428,9 +427,9 @@ public class FullPSync2017 extends PSyncProducerBase
 
     PSyncState state = new PSyncState();
     for (Long hash : positive) {
-      Name name = hashToName_.get(hash);
+      Name name = getNameForHash(hash);
 
-      if (nameToHash_.containsKey(name)) {
+      if (name != null) {
         if (canAddToSyncData_ == null ||
             canAddToSyncData_.canAddToSyncData(name, negative))
           state.addContent(name);
@@ -548,7 +547,7 @@ public class FullPSync2017 extends PSyncProducerBase
 
     ArrayList<Name> content = state.getContent();
     for (Name contentName : content) {
-      if (!nameToHash_.containsKey(contentName)) {
+      if (!containsName(contentName)) {
         logger_.log(Level.FINE, "Checking whether to add {0}", contentName);
         if (canAddReceivedName_ == null ||
             canAddReceivedName_.canAddReceivedName(contentName)) {
@@ -619,9 +618,9 @@ public class FullPSync2017 extends PSyncProducerBase
 
       PSyncState state = new PSyncState();
       for (Long hash : positive) {
-        Name name = hashToName_.get(hash);
+        Name name = getNameForHash(hash);
 
-        if (nameToHash_.containsKey(name))
+        if (name != null)
           state.addContent(name);
       }
 
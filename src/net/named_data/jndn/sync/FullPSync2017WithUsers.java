@@ -30,10 +30,7 @@ import net.named_data.jndn.Name;
 import net.named_data.jndn.security.KeyChain;
 import net.named_data.jndn.security.SecurityException;
 import net.named_data.jndn.security.SigningInfo;
-import net.named_data.jndn.sync.detail.InvertibleBloomLookupTable;
 import net.named_data.jndn.sync.detail.PSyncUserPrefixes;
-import net.named_data.jndn.util.Blob;
-import net.named_data.jndn.util.Common;
 
 /**
  * FullPSync2017WithUsers uses FullPSync2017 to implement the full sync logic of
@@ -173,6 +170,16 @@ public class FullPSync2017WithUsers
   public final int
   getSequenceNo(Name prefix) { return prefixes_.getSequenceNo(prefix); }
 
+  /**
+   * Set whether the IBLT name hash is the MurmurHash3 of the name URI or of the
+   * name's NDN-TLV encoding. See PSyncProducerBase.setUseUriHash.
+   * @param useUriHash If true (the default), hash the name URI to sync with
+   * peers which use the URI hash. If false, hash the NDN-TLV encoding, which is
+   * faster but all members of the sync group must do the same.
+   */
+  public final void
+  setUseUriHash(boolean useUriHash) { fullPSync_.setUseUriHash(useUriHash); }
+
   /**
    * Add a user node for synchronization based on the prefix Name, and
    * initialize the sequence number to zero. However, if the prefix Name already
@@ -308,10 +315,8 @@ public class FullPSync2017WithUsers
   canAddToSyncData(Name name, HashSet<Long> negative) {
     Name prefix = name.getPrefix(-1);
 
-    String uri = new Name(prefix).appendNumber
-      (prefixes_.getSequenceNoOrZero(prefix) + 1).toUri();
-    long nextHash = Common.murmurHash3
-      (InvertibleBloomLookupTable.N_HASHCHECK, new Blob(uri).getImmutableArray());
+    long nextHash = fullPSync_.getNameHash(new Name(prefix).appendNumber
+      (prefixes_.getSequenceNoOrZero(prefix) + 1));
 
     for (Long negativeHash : negative) {
       if (negativeHash == nextHash)
@@ -327,7 +332,7 @@ public class FullPSync2017WithUsers
    * We remove an already-existing prefix/sequence number from iblt_ (unless
    * sequenceNo is zero because we don't insert a zero sequence number into the
    * IBLT.) Then we update prefixes_. If this returns true, the caller should
-   * update  nameToHash_, hashToName_ and iblt_ .
+   * update the names in iblt_ .
    * @param prefix The prefix of the sequence number to update.
    * @param sequenceNumber The new sequence number.
    * @return True if the prefixes_ were updated, false if not.
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.sync;
+
+import java.security.MessageDigest;
+
+/**
+ * A MerkleDigestTree is a DigestTree whose root digest is the root of a binary
+ * Merkle tree over the sorted node digests, instead of the digest of all node
+ * digests concatenated. When the sequence number of a node changes, only the
+ * digests on the path from its leaf to the root are recomputed, which is
+ * O(log n) instead of O(n). Inserting a new node rebuilds the Merkle tree the
+ * next time the root is needed. The root digest is not the same as the
+ * ChronoSync root digest of DigestTree, so all participants in a sync group
+ * must use the same kind of tree.
+ *
+ * The leaves are at positions size..(2 * size - 1) of an array where size is
+ * the number of nodes rounded up to a power of 2, and the parent of position i
+ * is i / 2. An inner digest is the SHA-256 of its two child digests. If the
+ * right child is empty, the inner digest is the left child digest.
+ */
+public class MerkleDigestTree extends DigestTree {
+  protected byte[]
+  computeRootDigest()
+  {
+    if (isRebuildNeeded_)
+      rebuild();
+
+    return merkle_[1];
+  }
+
+  protected void
+  onNodeInserted(int index)
+  {
+    isRebuildNeeded_ = true;
+  }
+
+  protected void
+  onNodeChanged(int index)
+  {
+    if (isRebuildNeeded_)
+      // The rebuild will use the new digest.
+      return;
+
+    int position = leafOffset_ + index;
+    merkle_[position] = get(index).getDigestBytes();
+    MessageDigest sha256 = getSha256();
+    for (position /= 2; position >= 1; position /= 2)
+      merkle_[position] = hashChildren(sha256, position);
+  }
+
+  /**
+   * Allocate merkle_ for the current number of nodes and compute all the inner
+   * digests.
+   */
+  private void
+  rebuild()
+  {
+    int leafOffset = 1;
+    while (leafOffset < size())
+      leafOffset <<= 1;
+
+    leafOffset_ = leafOffset;
+    merkle_ = new byte[2 * leafOffset][];
+    for (int i = 0; i < size(); ++i)
+      merkle_[leafOffset + i] = get(i).getDigestBytes();
+
+    MessageDigest sha256 = getSha256();
+    for (int position = leafOffset - 1; position >= 1; --position)
+      merkle_[position] = hashChildren(sha256, position);
+    isRebuildNeeded_ = false;
+  }
+
+  /**
+   * Get the inner digest for the position from its two children.
+   * @param sha256 The MessageDigest to use.
+   * @param position The position in merkle_ of the inner node.
+   * @return The inner digest, or null if both children are empty.
+   */
+  private byte[]
+  hashChildren(MessageDigest sha256, int position)
+  {
+    byte[] left = merkle_[2 * position];
+    byte[] right = merkle_[2 * position + 1];
+    if (right == null)
+      return left;
+
+    sha256.update(left);
+    sha256.update(right);
+    return sha256.digest();
+  }
+
+  // A tree with one node has leafOffset_ 1, so its root is the node digest.
+  private byte[][] merkle_ = null;
+  private int leafOffset_ = 1;
+  private boolean isRebuildNeeded_ = true;
+}
@@ -0,0 +1,439 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.sync;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.named_data.jndn.ContentType;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Face;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.sync.detail.BloomFilter;
+import net.named_data.jndn.sync.detail.PSyncState;
+import net.named_data.jndn.sync.detail.PSyncUserPrefixes;
+import net.named_data.jndn.util.Blob;
+import net.named_data.jndn.util.SegmentFetcher;
+
+/**
+ * PSyncConsumer implements the consumer side of PSync partial sync, to receive
+ * updates only for the user prefixes that it subscribes to from a
+ * PSyncPartialProducer. The application calls sendHelloInterest to get the
+ * list of user prefixes that the producer has. In the OnReceiveHelloData
+ * callback, the application calls addSubscription for the prefixes it wants,
+ * then calls sendSyncInterest. The sync Interest has a Bloom filter of the
+ * subscribed prefixes and the last IBLT received from the producer, so that
+ * the producer only replies with new sequence numbers for the subscribed
+ * prefixes. After each reply, this calls the OnUpdate callback and sends a new
+ * sync Interest. Fetching the data given by the sequence numbers needs to be
+ * handled by the application.
+ * This follows the Consumer of the PSync library and uses the same Bloom
+ * filter encoding, so that it works with a PSyncPartialProducer or a PSync
+ * library partial producer.
+ */
+public class PSyncConsumer {
+  public interface OnReceiveHelloData {
+    void onReceiveHelloData(ArrayList<Name> names);
+  }
+  public interface OnUpdate {
+    void onUpdate(ArrayList<PSyncMissingDataInfo> updates);
+  }
+
+  /**
+   * Create a PSyncConsumer.
+   * @param syncPrefix The prefix Name of the sync group, which is copied.
+   * @param face The application's Face.
+   * @param onReceiveHelloData When the reply to the hello Interest is received,
+   * this calls onReceiveHelloData.onReceiveHelloData(names) where each Name is
+   * a user prefix of the producer with its latest sequence number appended.
+   * NOTE: The library will log any exceptions thrown by this callback, but for
+   * better error handling the callback should catch and properly handle any
+   * exceptions.
+   * @param onUpdate When there are new sequence numbers for subscribed
+   * prefixes, this calls onUpdate.onUpdate(updates) where updates is a list of
+   * PSyncMissingDataInfo.
+   * NOTE: The library will log any exceptions thrown by this callback, but for
+   * better error handling the callback should catch and properly handle any
+   * exceptions.
+   * @param expectedNSubscriptions The expected number of subscriptions, used
+   * as the projected element count of the Bloom filter.
+   * @param falsePositiveProbability The false positive probability of the
+   * Bloom filter, from 0.001 to less than 1. A false positive only makes the
+   * producer reply with a prefix which is not subscribed, which this ignores.
+   * @param helloInterestLifetime The Interest lifetime for the hello Interest,
+   * in milliseconds.
+   * @param syncInterestLifetime The Interest lifetime for the sync Interests,
+   * in milliseconds.
+   */
+  public PSyncConsumer
+    (Name syncPrefix, Face face, OnReceiveHelloData onReceiveHelloData,
+     OnUpdate onUpdate, int expectedNSubscriptions,
+     double falsePositiveProbability, double helloInterestLifetime,
+     double syncInterestLifetime)
+  {
+    syncPrefix_ = new Name(syncPrefix);
+    face_ = face;
+    onReceiveHelloData_ = onReceiveHelloData;
+    onUpdate_ = onUpdate;
+    bloomFilter_ = new BloomFilter
+      (expectedNSubscriptions, falsePositiveProbability);
+    helloInterestLifetime_ = helloInterestLifetime;
+    syncInterestLifetime_ = syncInterestLifetime;
+  }
+
+  /**
+   * Create a PSyncConsumer, where helloInterestLifetime is
+   * DEFAULT_HELLO_INTEREST_LIFETIME and syncInterestLifetime is
+   * DEFAULT_SYNC_INTEREST_LIFETIME.
+   * @param syncPrefix The prefix Name of the sync group, which is copied.
+   * @param face The application's Face.
+   * @param onReceiveHelloData When the reply to the hello Interest is received,
+   * this calls onReceiveHelloData.onReceiveHelloData(names) where each Name is
+   * a user prefix of the producer with its latest sequence number appended.
+   * NOTE: The library will log any exceptions thrown by this callback, but for
+   * better error handling the callback should catch and properly handle any
+   * exceptions.
+   * @param onUpdate When there are new sequence numbers for subscribed
+   * prefixes, this calls onUpdate.onUpdate(updates) where updates is a list of
+   * PSyncMissingDataInfo.
+   * NOTE: The library will log any exceptions thrown by this callback, but for
+   * better error handling the callback should catch and properly handle any
+   * exceptions.
+   * @param expectedNSubscriptions The expected number of subscriptions, used
+   * as the projected element count of the Bloom filter.
+   * @param falsePositiveProbability The false positive probability of the
+   * Bloom filter, from 0.001 to less than 1.
+   */
+  public PSyncConsumer
+    (Name syncPrefix, Face face, OnReceiveHelloData onReceiveHelloData,
+     OnUpdate onUpdate, int expectedNSubscriptions,
+     double falsePositiveProbability)
+  {
+    this(syncPrefix, face, onReceiveHelloData, onUpdate,
+         expectedNSubscriptions, falsePositiveProbability,
+         DEFAULT_HELLO_INTEREST_LIFETIME, DEFAULT_SYNC_INTEREST_LIFETIME);
+  }
+
+  /**
+   * Subscribe to the user prefix, starting after the given sequence number.
+   * This adds the prefix to the Bloom filter for the next sync Interest.
+   * However, if the prefix is already subscribed, do nothing and return false.
+   * @param prefix The user prefix to subscribe to, which is copied.
+   * @param sequenceNo The latest sequence number that the application already
+   * has, for example from the OnReceiveHelloData names. The next OnUpdate for
+   * this prefix starts from sequenceNo + 1.
+   * @return True if the prefix was added, false if it is already subscribed.
+   */
+  public final boolean
+  addSubscription(Name prefix, int sequenceNo)
+  {
+    prefix = new Name(prefix);
+    if (!prefixes_.addUserNode(prefix))
+      return false;
+
+    prefixes_.prefixes_.put(prefix, sequenceNo);
+    bloomFilter_.insert(prefix);
+    return true;
+  }
+
+  /**
+   * Subscribe to the user prefix, starting from sequence number 1. This adds
+   * the prefix to the Bloom filter for the next sync Interest. However, if the
+   * prefix is already subscribed, do nothing and return false.
+   * @param prefix The user prefix to subscribe to, which is copied.
+   * @return True if the prefix was added, false if it is already subscribed.
+   */
+  public final boolean
+  addSubscription(Name prefix) { return addSubscription(prefix, 0); }
+
+  /**
+   * Unsubscribe from the user prefix. This rebuilds the Bloom filter from the
+   * remaining subscriptions for the next sync Interest.
+   * @param prefix The user prefix to unsubscribe from.
+   * @return True if the prefix was removed, false if it was not subscribed.
+   */
+  public final boolean
+  removeSubscription(Name prefix)
+  {
+    if (!prefixes_.isUserNode(prefix))
+      return false;
+
+    prefixes_.removeUserNode(prefix);
+    bloomFilter_.clear();
+    for (Name subscribedPrefix : prefixes_.prefixes_.keySet())
+      bloomFilter_.insert(subscribedPrefix);
+    return true;
+  }
+
+  /**
+   * Check if the user prefix is subscribed.
+   * @param prefix The user prefix to check.
+   * @return True if the prefix is subscribed.
+   */
+  public final boolean
+  isSubscribed(Name prefix) { return prefixes_.isUserNode(prefix); }
+
+  /**
+   * Get the subscribed user prefixes.
+   * @return A new list of the subscribed prefix Names.
+   */
+  public final ArrayList<Name>
+  getSubscriptionList()
+  {
+    return new ArrayList<Name>(prefixes_.prefixes_.keySet());
+  }
+
+  /**
+   * Get the latest sequence number received for the subscribed user prefix.
+   * @param prefix The user prefix.
+   * @return The sequence number, or -1 if the prefix is not subscribed.
+   */
+  public final int
+  getSequenceNo(Name prefix) { return prefixes_.getSequenceNo(prefix); }
+
+  /**
+   * Send the hello Interest /<sync-prefix>/hello to get the user prefixes of
+   * the producer and its IBLT. When the reply is received, this calls the
+   * OnReceiveHelloData callback.
+   */
+  public final void
+  sendHelloInterest()
+  {
+    Name helloInterestName = new Name(syncPrefix_).append(HELLO_COMPONENT);
+
+    Interest helloInterest = new Interest(helloInterestName);
+    helloInterest.setInterestLifetimeMilliseconds(helloInterestLifetime_);
+    helloInterest.setCanBePrefix(true);
+    helloInterest.setMustBeFresh(true);
+
+    final Name[] dataName = new Name[1];
+    final boolean[] isNack = new boolean[1];
+    SegmentFetcher.fetch
+      (face_, helloInterest, getRecordDataName(dataName, isNack),
+       new SegmentFetcher.OnComplete() {
+         public void onComplete(Blob content) {
+           onHelloData(content, dataName[0]);
+         }
+       },
+       new SegmentFetcher.OnError() {
+         public void onError(SegmentFetcher.ErrorCode errorCode, String message) {
+           logger_.log(Level.INFO, "Cannot fetch hello data, error: " +
+             errorCode + " message: " + message);
+         }
+       });
+
+    logger_.log(Level.FINE, "Send hello Interest {0}", helloInterestName);
+  }
+
+  /**
+   * Send the sync Interest
+   * /<sync-prefix>/sync/<BF-count>/<BF-false-positive>/<BF-bits>/<IBLT>
+   * with the Bloom filter of the subscribed prefixes and the last IBLT received
+   * from the producer. When the reply is received, this calls the OnUpdate
+   * callback and sends another sync Interest. sendHelloInterest must have
+   * received its reply before calling this.
+   */
+  public final void
+  sendSyncInterest()
+  {
+    if (isStopped_)
+      return;
+    if (iblt_ == null) {
+      logger_.log(Level.WARNING,
+        "sendSyncInterest: The hello data has not been received");
+      return;
+    }
+
+    Name syncInterestName = new Name(syncPrefix_).append(SYNC_COMPONENT);
+    bloomFilter_.appendToName(syncInterestName);
+    syncInterestName.append(iblt_);
+
+    Interest syncInterest = new Interest(syncInterestName);
+    syncInterest.setInterestLifetimeMilliseconds(syncInterestLifetime_);
+    syncInterest.setCanBePrefix(true);
+    syncInterest.setMustBeFresh(true);
+    syncInterest.refreshNonce();
+
+    final Name[] dataName = new Name[1];
+    final boolean[] isNack = new boolean[1];
+    SegmentFetcher.fetch
+      (face_, syncInterest, getRecordDataName(dataName, isNack),
+       new SegmentFetcher.OnComplete() {
+         public void onComplete(Blob content) {
+           if (isNack[0]) {
+             logger_.log(Level.FINE,
+               "Received application Nack from the producer. Sending hello again");
+             sendHelloInterest();
+           }
+           else
+             onSyncData(content, dataName[0]);
+         }
+       },
+       new SegmentFetcher.OnError() {
+         public void onError(SegmentFetcher.ErrorCode errorCode, String message) {
+           logger_.log(Level.FINE, "Cannot fetch sync data, error: " +
+             errorCode + " message: " + message);
+           if (errorCode == SegmentFetcher.ErrorCode.INTEREST_TIMEOUT) {
+             // Retry after a random delay from 100 to 500 milliseconds.
+             face_.callLater
+               (100 + random_.nextDouble() * 400,
+                new Runnable() {
+                  public void run() { sendSyncInterest(); }
+                });
+           }
+         }
+       });
+
+    logger_.log(Level.FINE, "sendSyncInterest, nonce: " +
+      syncInterest.getNonce().toHex() + ", hash: " + syncInterestName.hashCode());
+  }
+
+  /**
+   * Stop sending sync Interests. A sync Interest which was already sent may
+   * still call OnUpdate.
+   */
+  public final void
+  stop() { isStopped_ = true; }
+
+  public static final double DEFAULT_HELLO_INTEREST_LIFETIME = 1000;
+  public static final double DEFAULT_SYNC_INTEREST_LIFETIME = 1000;
+
+  /**
+   * Get a VerifySegment which doesn't verify, but sets dataName[0] to the
+   * name of the fetched Data and sets isNack[0] true if it is an application
+   * Nack.
+   */
+  private static SegmentFetcher.VerifySegment
+  getRecordDataName(final Name[] dataName, final boolean[] isNack)
+  {
+    return new SegmentFetcher.VerifySegment() {
+      public boolean verifySegment(Data data) {
+        dataName[0] = data.getName();
+        if (data.getMetaInfo().getType() == ContentType.NACK)
+          isNack[0] = true;
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Get the producer's IBLT from the name of the hello or sync Data, which is
+   * /<interest-name>/<IBLT>/<version>/<segment> .
+   */
+  private static Name.Component
+  getIblt(Name dataName)
+  {
+    if (dataName.size() >= 3 && dataName.get(-2).isVersion())
+      return dataName.get(-3);
+    else
+      return dataName.get(-2);
+  }
+
+  private void
+  onHelloData(Blob encodedContent, Name dataName)
+  {
+    PSyncState state;
+    try {
+      state = new PSyncState(encodedContent);
+    } catch (EncodingException ex) {
+      logger_.log(Level.INFO, "onHelloData: Error in PSyncState decode", ex);
+      return;
+    }
+
+    iblt_ = getIblt(dataName);
+    logger_.log(Level.FINE, "Hello Data received: {0}", state);
+
+    try {
+      onReceiveHelloData_.onReceiveHelloData(state.getContent());
+    } catch (Throwable ex) {
+      logger_.log(Level.SEVERE, "Error in onReceiveHelloData", ex);
+    }
+  }
+
+  /**
+   * Process the sync Data. For each name whose prefix is subscribed and whose
+   * sequence number is new, update the sequence number and add a
+   * PSyncMissingDataInfo. Call onUpdate_ if there are updates, and send a new
+   * sync Interest.
+   */
+  private void
+  onSyncData(Blob encodedContent, Name dataName)
+  {
+    PSyncState state;
+    try {
+      state = new PSyncState(encodedContent);
+    } catch (EncodingException ex) {
+      logger_.log(Level.INFO, "onSyncData: Error in PSyncState decode", ex);
+      return;
+    }
+
+    iblt_ = getIblt(dataName);
+    logger_.log(Level.FINE, "Sync Data received: {0}", state);
+
+    ArrayList<PSyncMissingDataInfo> updates =
+      new ArrayList<PSyncMissingDataInfo>();
+    for (Name name : state.getContent()) {
+      Name prefix = name.getPrefix(-1);
+      int sequenceNo = (int)name.get(-1).toNumber();
+
+      // A false positive in the Bloom filter can give a prefix which is not
+      // subscribed.
+      int oldSequenceNo = prefixes_.getSequenceNo(prefix);
+      if (oldSequenceNo >= 0 && oldSequenceNo < sequenceNo) {
+        updates.add(new PSyncMissingDataInfo
+          (prefix, oldSequenceNo + 1, sequenceNo));
+        prefixes_.prefixes_.put(prefix, sequenceNo);
+      }
+    }
+
+    if (updates.size() > 0) {
+      try {
+        onUpdate_.onUpdate(updates);
+      } catch (Throwable ex) {
+        logger_.log(Level.SEVERE, "Error in onUpdate", ex);
+      }
+    }
+
+    sendSyncInterest();
+  }
+
+  private static final Name.Component HELLO_COMPONENT =
+    new Name.Component("hello");
+  private static final Name.Component SYNC_COMPONENT =
+    new Name.Component("sync");
+
+  private final Name syncPrefix_;
+  private final Face face_;
+  private final OnReceiveHelloData onReceiveHelloData_;
+  private final OnUpdate onUpdate_;
+  private final BloomFilter bloomFilter_;
+  private final double helloInterestLifetime_;
+  private final double syncInterestLifetime_;
+  // The subscribed prefixes and their latest sequence number.
+  private final PSyncUserPrefixes prefixes_ = new PSyncUserPrefixes();
+  private Name.Component iblt_ = null;
+  private boolean isStopped_ = false;
+  private static final Random random_ = new Random();
+  private static final Logger logger_ =
+    Logger.getLogger(PSyncConsumer.class.getName());
+}
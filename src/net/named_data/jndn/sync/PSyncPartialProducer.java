@@ -0,0 +1,482 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.named_data.jndn.ContentType;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Face;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.InterestFilter;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.OnInterestCallback;
+import net.named_data.jndn.OnRegisterFailed;
+import net.named_data.jndn.security.KeyChain;
+import net.named_data.jndn.security.SecurityException;
+import net.named_data.jndn.security.SigningInfo;
+import net.named_data.jndn.sync.detail.BloomFilter;
+import net.named_data.jndn.sync.detail.InvertibleBloomLookupTable;
+import net.named_data.jndn.sync.detail.PSyncSegmentPublisher;
+import net.named_data.jndn.sync.detail.PSyncState;
+import net.named_data.jndn.sync.detail.PSyncUserPrefixes;
+
+/**
+ * PSyncPartialProducer implements the partial sync logic of PSync to publish
+ * data names so that a PSyncConsumer can fetch only the user prefixes that it
+ * subscribes to. The producer keeps the latest sequence number for each of its
+ * user prefixes. A consumer first sends a hello Interest
+ * /<sync-prefix>/hello and the producer replies with all its user prefixes and
+ * its IBLT. Then the consumer sends sync Interests
+ * /<sync-prefix>/sync/<BF-count>/<BF-false-positive>/<BF-bits>/<IBLT>
+ * where the Bloom filter holds the subscribed prefixes. The producer replies
+ * only with the names whose prefix is in the Bloom filter and which changed
+ * since the IBLT in the Interest, or keeps the Interest pending until one of
+ * them is published. The Partial PSync protocol is described in Section F
+ * "Partial-Data Synchronization" of:
+ * https://named-data.net/wp-content/uploads/2017/05/scalable_name-based_data_synchronization.pdf
+ * This follows the PartialProducer of the PSync library and uses the same
+ * Bloom filter encoding, so that it works with a PSync library consumer.
+ */
+public class PSyncPartialProducer extends PSyncProducerBase {
+  /**
+   * Create a PSyncPartialProducer.
+   * @param expectedNEntries The expected number of entries in the IBLT.
+   * @param face The application's Face.
+   * @param syncPrefix The prefix Name of the sync group, which is copied.
+   * @param userPrefix The prefix Name of the first user in the group, which is
+   * copied. However, if this Name is empty, it is not added and you must call
+   * addUserNode.
+   * @param keyChain The KeyChain for signing Data packets.
+   * @param helloReplyFreshnessPeriod The freshness period of the hello Data
+   * packet, in milliseconds.
+   * @param syncReplyFreshnessPeriod The freshness period of the sync Data
+   * packet, in milliseconds.
+   * @param signingInfo The SigningInfo for signing Data packets, which is
+   * copied.
+   */
+  public PSyncPartialProducer
+    (int expectedNEntries, Face face, Name syncPrefix, Name userPrefix,
+     KeyChain keyChain, double helloReplyFreshnessPeriod,
+     double syncReplyFreshnessPeriod, SigningInfo signingInfo)
+    throws IOException, SecurityException
+  {
+    super(expectedNEntries, syncPrefix, syncReplyFreshnessPeriod);
+    construct
+      (face, userPrefix, keyChain, helloReplyFreshnessPeriod, signingInfo);
+  }
+
+  /**
+   * Create a PSyncPartialProducer, where helloReplyFreshnessPeriod is
+   * DEFAULT_HELLO_REPLY_FRESHNESS_PERIOD, syncReplyFreshnessPeriod is
+   * DEFAULT_SYNC_REPLY_FRESHNESS_PERIOD, and signingInfo is the default
+   * SigningInfo().
+   * @param expectedNEntries The expected number of entries in the IBLT.
+   * @param face The application's Face.
+   * @param syncPrefix The prefix Name of the sync group, which is copied.
+   * @param userPrefix The prefix Name of the first user in the group, which is
+   * copied. However, if this Name is empty, it is not added and you must call
+   * addUserNode.
+   * @param keyChain The KeyChain for signing Data packets.
+   */
+  public PSyncPartialProducer
+    (int expectedNEntries, Face face, Name syncPrefix, Name userPrefix,
+     KeyChain keyChain)
+    throws IOException, SecurityException
+  {
+    super(expectedNEntries, syncPrefix, DEFAULT_SYNC_REPLY_FRESHNESS_PERIOD);
+    construct
+      (face, userPrefix, keyChain, DEFAULT_HELLO_REPLY_FRESHNESS_PERIOD,
+       new SigningInfo());
+  }
+
+  private void
+  construct
+    (Face face, Name userPrefix, KeyChain keyChain,
+     double helloReplyFreshnessPeriod, SigningInfo signingInfo)
+    throws IOException, SecurityException
+  {
+    face_ = face;
+    keyChain_ = keyChain;
+    helloReplyFreshnessPeriod_ = helloReplyFreshnessPeriod;
+    signingInfo_ = new SigningInfo(signingInfo);
+    segmentPublisher_ = new PSyncSegmentPublisher(face_, keyChain_);
+
+    if (userPrefix != null && userPrefix.size() > 0)
+      addUserNode(userPrefix);
+
+    registeredPrefix_ = face_.registerPrefix
+      (syncPrefix_,
+       new OnInterestCallback() {
+         public void onInterest(Name prefix, Interest interest, Face face,
+                                long interestFilterId, InterestFilter filter) {
+           PSyncPartialProducer.this.onInterest(prefix, interest);
+         }
+       },
+       new OnRegisterFailed() {
+         public void onRegisterFailed(Name prefix) {
+           PSyncProducerBase.onRegisterFailed(prefix);
+         }
+       });
+  }
+
+  /**
+   * Return the current sequence number of the given user prefix.
+   * @param prefix The user prefix for the sequence number.
+   * @return The sequence number for the user prefix, or -1 if not found.
+   */
+  public final int
+  getSequenceNo(Name prefix) { return prefixes_.getSequenceNo(prefix); }
+
+  /**
+   * Add a user node for synchronization based on the prefix Name, and
+   * initialize the sequence number to zero. However, if the prefix Name already
+   * exists, then do nothing and return false. This does not add sequence number
+   * zero to the IBLT.
+   * @param prefix The prefix Name of the user node to be added.
+   * @return True if the user node with the prefix Name was added, false if the
+   * prefix Name already exists.
+   */
+  public final boolean
+  addUserNode(Name prefix) { return prefixes_.addUserNode(prefix); }
+
+  /**
+   * Remove the user node from the synchronization. This erases the prefix from
+   * the IBLT and other tables.
+   * @param prefix The prefix Name of the user node to be removed. If there is
+   * no user node with this prefix, do nothing.
+   */
+  public final void
+  removeUserNode(Name prefix)
+  {
+    if (prefixes_.isUserNode(prefix)) {
+      int sequenceNo = prefixes_.getSequenceNoOrZero(prefix);
+      prefixes_.removeUserNode(prefix);
+      removeFromIblt(new Name(prefix).appendNumber(sequenceNo));
+    }
+  }
+
+  /**
+   * Publish the sequence number for the prefix Name to inform the consumers
+   * which subscribe to it. (addUserNode needs to be called before this to add
+   * the prefix, if it was not already added via the constructor.)
+   * @param prefix the prefix Name to be updated.
+   * @param sequenceNo The sequence number of the user prefix to be set in the
+   * IBLT. However, if sequenceNo is -1, then the existing sequence number is
+   * incremented by 1.
+   */
+  public final void
+  publishName(Name prefix, int sequenceNo)
+  {
+    if (!prefixes_.isUserNode(prefix)) {
+      logger_.log(Level.WARNING, "Prefix not added: {0}", prefix);
+      return;
+    }
+
+    int newSequenceNo =
+      sequenceNo >= 0 ? sequenceNo : prefixes_.getSequenceNoOrZero(prefix) + 1;
+
+    logger_.log(Level.INFO, "Publish: " + prefix.toUri() + "/" + newSequenceNo);
+
+    int[] oldSequenceNo = new int[1];
+    if (!prefixes_.updateSequenceNo(prefix, newSequenceNo, oldSequenceNo))
+      return;
+
+    // We don't insert a zero sequence number into the IBLT, so we don't need to
+    // remove it.
+    if (oldSequenceNo[0] != 0)
+      removeFromIblt(new Name(prefix).appendNumber(oldSequenceNo[0]));
+    insertIntoIblt(new Name(prefix).appendNumber(newSequenceNo));
+
+    satisfyPendingSyncInterests(prefix);
+  }
+
+  /**
+   * Publish the sequence number for the prefix Name to inform the consumers,
+   * where the existing sequence number is incremented by 1.
+   * (addUserNode needs to be called before this to add the prefix, if it was
+   * not already added via the constructor.)
+   * @param prefix the prefix Name to be updated.
+   */
+  public final void
+  publishName(Name prefix)
+  {
+    publishName(prefix, -1);
+  }
+
+  public static final double DEFAULT_HELLO_REPLY_FRESHNESS_PERIOD = 1000;
+  public static final double DEFAULT_SYNC_REPLY_FRESHNESS_PERIOD = 1000;
+
+  private static class PendingEntryInfo {
+    public PendingEntryInfo(BloomFilter bloomFilter, InvertibleBloomLookupTable iblt)
+    {
+      bloomFilter_ = bloomFilter;
+      iblt_ = iblt;
+    }
+
+    public final BloomFilter bloomFilter_;
+    public final InvertibleBloomLookupTable iblt_;
+    public boolean isRemoved_ = false;
+  }
+
+  /**
+   * Dispatch the Interest under the sync prefix to onHelloInterest or
+   * onSyncInterest, or reply with a segment from the store.
+   */
+  private void
+  onInterest(Name prefixName, Interest interest)
+  {
+    try {
+      if (segmentPublisher_.replyFromStore(interest.getName()))
+        return;
+    } catch (IOException ex) {
+      logger_.log(Level.INFO, "onInterest: Error in replyFromStore", ex);
+      return;
+    }
+
+    if (interest.getName().size() <= prefixName.size())
+      return;
+    Name.Component operation = interest.getName().get(prefixName.size());
+    if (operation.equals(HELLO_COMPONENT))
+      onHelloInterest(prefixName, interest);
+    else if (operation.equals(SYNC_COMPONENT))
+      onSyncInterest(prefixName, interest);
+  }
+
+  /**
+   * Reply to the hello Interest /<sync-prefix>/hello with the names of all
+   * the user prefixes with their latest sequence number. The Data name is
+   * /<sync-prefix>/hello/<own-IBLT>/<version>/<segment>.
+   */
+  private void
+  onHelloInterest(Name prefixName, Interest interest)
+  {
+    if (interest.getName().size() != prefixName.size() + 1)
+      // A segment Interest which is no longer in the store.
+      return;
+
+    logger_.log(Level.FINE, "Hello Interest received, nonce: {0}",
+      interest.getNonce().toHex());
+
+    PSyncState state = new PSyncState();
+    for (Name prefix : prefixes_.prefixes_.keySet())
+      state.addContent(new Name(prefix).appendNumber
+        (prefixes_.getSequenceNoOrZero(prefix)));
+
+    try {
+      Name helloDataName = new Name(interest.getName());
+      helloDataName.append(iblt_.encode());
+
+      segmentPublisher_.publish
+        (interest.getName(), helloDataName, state.wireEncode(),
+         helloReplyFreshnessPeriod_, signingInfo_);
+    } catch (Exception ex) {
+      logger_.log(Level.INFO, "onHelloInterest: Error in publish", ex);
+    }
+  }
+
+  /**
+   * Process the sync Interest
+   * /<sync-prefix>/sync/<BF-count>/<BF-false-positive>/<BF-bits>/<IBLT> .
+   * Get the difference between our IBLT and the IBLT in the Interest. If we
+   * cannot decode the difference, then send an application Nack so that the
+   * consumer sends a new hello Interest. If we have new names whose prefix is
+   * in the Bloom filter, then reply with them. Otherwise add the Interest to
+   * pendingEntries_ until we publish a name that the consumer subscribes to.
+   */
+  private void
+  onSyncInterest(Name prefixName, final Interest interest)
+  {
+    // The Interest for a later segment has components after the IBLT, and is
+    // answered by replyFromStore.
+    if (interest.getName().size() != prefixName.size() + 5)
+      return;
+    final Name interestName = interest.getName();
+
+    logger_.log(Level.FINE, "Partial Sync Interest received, nonce: " +
+      interest.getNonce().toHex() + ", hash: " + interestName.hashCode());
+
+    BloomFilter bloomFilter;
+    InvertibleBloomLookupTable iblt =
+      new InvertibleBloomLookupTable(expectedNEntries_);
+    try {
+      bloomFilter = BloomFilter.fromName(interestName, prefixName.size() + 1);
+      iblt.initialize(interestName.get(-1).getValue());
+    } catch (Throwable ex) {
+      logger_.log(Level.INFO,
+        "onSyncInterest: Error in Bloom filter or IBLT decode", ex);
+      return;
+    }
+
+    InvertibleBloomLookupTable difference = iblt_.difference(iblt);
+    HashSet<Long> positive = new HashSet<Long>();
+    HashSet<Long> negative = new HashSet<Long>();
+
+    if (!difference.listEntries(positive, negative)) {
+      logger_.log(Level.INFO, "Cannot decode differences");
+      sendApplicationNack(interestName);
+      return;
+    }
+
+    PSyncState state = new PSyncState();
+    for (Long hash : positive) {
+      Name name = getNameForHash(hash);
+
+      if (name != null && bloomFilter.contains(name.getPrefix(-1)))
+        state.addContent(name);
+    }
+
+    if (state.getContent().size() > 0) {
+      logger_.log(Level.FINE, "Sending sync content: {0}", state);
+      sendSyncData(interestName, state);
+      return;
+    }
+
+    final PendingEntryInfo entry = new PendingEntryInfo(bloomFilter, iblt);
+    PendingEntryInfo oldEntry = pendingEntries_.put(interestName, entry);
+    if (oldEntry != null)
+      oldEntry.isRemoved_ = true;
+    face_.callLater
+      (interest.getInterestLifetimeMilliseconds(),
+       new Runnable() {
+         public void run() {
+           if (!entry.isRemoved_) {
+             entry.isRemoved_ = true;
+             pendingEntries_.remove(interestName);
+           }
+         }
+       });
+  }
+
+  /**
+   * For each pending sync Interest whose Bloom filter has the prefix, reply
+   * with the prefix and its latest sequence number. If we can't decode the
+   * difference from the stored IBLT, then erase the pending Interest.
+   * @param prefix The user prefix which was just published.
+   */
+  private void
+  satisfyPendingSyncInterests(Name prefix)
+  {
+    logger_.log(Level.FINE, "Checking pending sync Interests: " +
+      pendingEntries_.size());
+
+    // First copy the keys, to not change the HashMap while iterating.
+    ArrayList<Name> keys = new ArrayList<Name>(pendingEntries_.keySet());
+
+    for (Name keyName : keys) {
+      PendingEntryInfo entry = pendingEntries_.get(keyName);
+
+      InvertibleBloomLookupTable difference = iblt_.difference(entry.iblt_);
+      HashSet<Long> positive = new HashSet<Long>();
+      HashSet<Long> negative = new HashSet<Long>();
+
+      boolean remove;
+      if (!difference.listEntries(positive, negative)) {
+        logger_.log(Level.INFO, "Decode failed for pending Interest");
+        remove = true;
+      }
+      else if (positive.size() + negative.size() >= threshold_ ||
+               (positive.size() == 0 && negative.size() == 0)) {
+        logger_.log(Level.INFO,
+          "positive + negative > threshold or no difference can be found. Erase pending Interest.");
+        remove = true;
+      }
+      else if (entry.bloomFilter_.contains(prefix)) {
+        PSyncState state = new PSyncState();
+        state.addContent(new Name(prefix).appendNumber
+          (prefixes_.getSequenceNoOrZero(prefix)));
+        logger_.log(Level.FINE, "Satisfying sync content: {0}", state);
+        sendSyncData(keyName, state);
+        remove = true;
+      }
+      else
+        remove = false;
+
+      if (remove) {
+        // Prevent the delayed removal from removing a new entry with the same Name.
+        entry.isRemoved_ = true;
+        pendingEntries_.remove(keyName);
+      }
+    }
+  }
+
+  /**
+   * Publish the sync Data /<interest-name>/<own-IBLT>/<version>/<segment>.
+   */
+  private void
+  sendSyncData(Name interestName, PSyncState state)
+  {
+    try {
+      Name syncDataName = new Name(interestName);
+      syncDataName.append(iblt_.encode());
+
+      segmentPublisher_.publish
+        (interestName, syncDataName, state.wireEncode(),
+         syncReplyFreshnessPeriod_, signingInfo_);
+    } catch (Exception ex) {
+      logger_.log(Level.INFO, "sendSyncData: Error in publish", ex);
+    }
+  }
+
+  /**
+   * Send the application Nack /<interest-name>/<own-IBLT>/<segment=0> with
+   * content type NACK, so that the consumer sends a new hello Interest.
+   */
+  private void
+  sendApplicationNack(Name interestName)
+  {
+    try {
+      Name dataName = new Name(interestName);
+      dataName.append(iblt_.encode());
+      dataName.appendSegment(0);
+
+      Data data = new Data(dataName);
+      data.getMetaInfo().setFreshnessPeriod(syncReplyFreshnessPeriod_);
+      data.getMetaInfo().setType(ContentType.NACK);
+      data.getMetaInfo().setFinalBlockId(dataName.get(-1));
+      keyChain_.sign(data, signingInfo_);
+
+      face_.putData(data);
+    } catch (Exception ex) {
+      logger_.log(Level.INFO, "sendApplicationNack: Error sending the Nack", ex);
+    }
+  }
+
+  private static final Name.Component HELLO_COMPONENT =
+    new Name.Component("hello");
+  private static final Name.Component SYNC_COMPONENT =
+    new Name.Component("sync");
+
+  private Face face_;
+  private KeyChain keyChain_;
+  private SigningInfo signingInfo_;
+  private double helloReplyFreshnessPeriod_;
+  private PSyncSegmentPublisher segmentPublisher_;
+  private final PSyncUserPrefixes prefixes_ = new PSyncUserPrefixes();
+  private final HashMap<Name, PendingEntryInfo> pendingEntries_ =
+    new HashMap<Name, PendingEntryInfo>();
+  private long registeredPrefix_;
+  private static final Logger logger_ =
+    Logger.getLogger(PSyncPartialProducer.class.getName());
+}
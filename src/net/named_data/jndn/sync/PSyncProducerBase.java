@@ -20,16 +20,21 @@
 
 package net.named_data.jndn.sync;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.named_data.jndn.Name;
+import net.named_data.jndn.encoding.Tlv0_3WireFormat;
+import net.named_data.jndn.encoding.tlv.TlvEncoder;
 import net.named_data.jndn.sync.detail.InvertibleBloomLookupTable;
+import net.named_data.jndn.sync.detail.LongHashMap;
 import net.named_data.jndn.util.Blob;
 import net.named_data.jndn.util.Common;
 
 /**
- * PSyncProducerBase is a base class for PsyncPartialProducer and FullPSync2017.
+ * PSyncProducerBase is a base class for PSyncPartialProducer and FullPSync2017.
  */
 public class PSyncProducerBase {
   /**
@@ -50,36 +55,165 @@ public class PSyncProducerBase {
   }
 
   /**
-   * Insert the URI of the name into the iblt_, and update nameToHash_ and
-   * hashToName_.
+   * Get the hash of the name which is inserted into the IBLT. If
+   * getUseUriHash() is true, this is the MurmurHash3 of the name URI.
+   * Otherwise, this is the MurmurHash3 of the name's NDN-TLV encoding, which
+   * is computed without making a string or copying the encoding.
+   * @param name The Name to hash.
+   * @return The hash, as an unsigned 32-bit integer.
+   */
+  public final long
+  getNameHash(Name name)
+  {
+    if (useUriHash_)
+      return Common.murmurHash3
+        (InvertibleBloomLookupTable.N_HASHCHECK,
+         new Blob(name.toUri()).getImmutableArray());
+
+    TlvEncoder encoder = TlvEncoder.acquireReusable(256);
+    try {
+      Tlv0_3WireFormat.encodeName(name, new int[1], new int[1], encoder);
+      return Common.murmurHash3
+        (InvertibleBloomLookupTable.N_HASHCHECK, encoder.getOutput());
+    } finally {
+      encoder.release();
+    }
+  }
+
+  /**
+   * Check if the name hash is the MurmurHash3 of the name URI, as used by the
+   * PSync library, or of the name's NDN-TLV encoding.
+   * @return True if the hash uses the name URI.
+   */
+  public final boolean
+  getUseUriHash() { return useUriHash_; }
+
+  /**
+   * Set whether the name hash is the MurmurHash3 of the name URI or of the
+   * name's NDN-TLV encoding. The NDN-TLV hash is faster to compute, but all
+   * members of the sync group must use the same hash. If names are already
+   * in the IBLT, this re-inserts them with the new hash.
+   * @param useUriHash If true (the default), hash the name URI so that this
+   * can sync with the PSync library and with peers which use the URI hash. If
+   * false, hash the NDN-TLV encoding.
+   */
+  public final void
+  setUseUriHash(boolean useUriHash)
+  {
+    if (useUriHash == useUriHash_)
+      return;
+
+    ArrayList<Name> names = getNames();
+    for (Name name : names)
+      removeFromIblt(name);
+    useUriHash_ = useUriHash;
+    for (Name name : names)
+      insertIntoIblt(name);
+  }
+
+  /**
+   * Insert the hash of the name into the iblt_, and update the table of names.
+   * However, if the Name was already inserted then do nothing.
    * @param name The Name to insert.
+   * @return True if the Name was inserted, false if it was already inserted.
    */
-  protected final void
+  protected final boolean
   insertIntoIblt(Name name)
   {
-    String uri = name.toUri();
-    long newHash = Common.murmurHash3
-      (InvertibleBloomLookupTable.N_HASHCHECK, new Blob(uri).getImmutableArray());
-    nameToHash_.put(name, newHash);
-    hashToName_.put(newHash, name);
+    long newHash = getNameHash(name);
+    Name otherName = hashToName_.get(newHash);
+    if (otherName == null)
+      hashToName_.put(newHash, name);
+    else {
+      if (otherName.equals(name) || collidedNameToHash_.containsKey(name))
+        return false;
+      // The IBLT can't separate the names, but keep the name so that it is
+      // sent when all the names are sent.
+      collidedNameToHash_.put(name, newHash);
+    }
+
     iblt_.insert(newHash);
+    return true;
   }
 
   /**
-   * If the Name is in nameToHash_, then remove the hash from the iblt_,
-   * nameToHash_ and hashToName_. However, if the Name is not in nameToHash_
-   * then do nothing.
+   * If the Name was inserted, then remove its hash from the iblt_ and the
+   * table of names. However, if the Name was not inserted then do nothing.
    * @param name The Name to remove.
    */
   protected final void
   removeFromIblt(Name name)
   {
-    Object hash = nameToHash_.get(name);
-    if (hash != null) {
-      nameToHash_.remove(name);
+    long hash;
+    if (collidedNameToHash_.size() > 0 && collidedNameToHash_.containsKey(name))
+      hash = collidedNameToHash_.remove(name);
+    else {
+      hash = getNameHash(name);
+      Name otherName = hashToName_.get(hash);
+      if (otherName == null || !otherName.equals(name))
+        return;
       hashToName_.remove(hash);
-      iblt_.erase((long)hash);
+      if (collidedNameToHash_.size() > 0) {
+        // Move a Name with the same hash into hashToName_.
+        for (Map.Entry<Name, Long> entry : collidedNameToHash_.entrySet()) {
+          if (entry.getValue() == hash) {
+            hashToName_.put(hash, entry.getKey());
+            collidedNameToHash_.remove(entry.getKey());
+            break;
+          }
+        }
+      }
     }
+
+    iblt_.erase(hash);
+  }
+
+  /**
+   * Check if the Name was inserted into the IBLT.
+   * @param name The Name to check.
+   * @return True if the Name was inserted.
+   */
+  protected final boolean
+  containsName(Name name)
+  {
+    Name otherName = hashToName_.get(getNameHash(name));
+    if (otherName != null && otherName.equals(name))
+      return true;
+    return collidedNameToHash_.size() > 0 &&
+      collidedNameToHash_.containsKey(name);
+  }
+
+  /**
+   * Get the Name which was inserted into the IBLT with the hash.
+   * @param hash The hash from getNameHash.
+   * @return The Name, or null if not found.
+   */
+  protected final Name
+  getNameForHash(long hash) { return hashToName_.get(hash); }
+
+  /**
+   * Get all the names which were inserted into the IBLT.
+   * @return A new list of the Names.
+   */
+  protected final ArrayList<Name>
+  getNames()
+  {
+    ArrayList<Name> names = hashToName_.values();
+    names.addAll(collidedNameToHash_.keySet());
+    return names;
+  }
+
+  /**
+   * Set the compression level for encoding the IBLT in sync Interests and
+   * sync Data names. A lower level uses less time but makes larger packets.
+   * @param compressionLevel The compression level from 0 to 9, as used by
+   * java.util.zip.Deflater. The default is
+   * InvertibleBloomLookupTable.DEFAULT_COMPRESSION_LEVEL.
+   */
+  public final void
+  setIbltCompressionLevel(int compressionLevel)
+  {
+    iblt_.setCompressionLevel(compressionLevel);
   }
 
   /**
@@ -98,12 +232,13 @@ public class PSyncProducerBase {
   // threshold, and whether we need to update the other IBLT.
   protected final int threshold_;
 
-  // nameToHash_ and hashToName_ are just for looking up the hash more quickly
-  // (instead of calculating it again).
-  // The key is the Name. The value is the hash.
-  protected final HashMap<Name, Object> nameToHash_ = new HashMap<Name, Object>();
   // The key is the hash. The value is the Name.
-  protected final HashMap<Object, Name> hashToName_ = new HashMap<Object, Name>();
+  private final LongHashMap<Name> hashToName_ = new LongHashMap<Name>();
+  // A Name whose hash is already used by another Name in hashToName_. This is
+  // normally empty.
+  private final HashMap<Name, Long> collidedNameToHash_ =
+    new HashMap<Name, Long>();
+  private boolean useUriHash_ = true;
 
   protected final Name syncPrefix_;
   protected final double syncReplyFreshnessPeriod_;
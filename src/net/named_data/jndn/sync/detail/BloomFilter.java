@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.sync.detail;
+
+import java.util.Arrays;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.util.Blob;
+import net.named_data.jndn.util.Common;
+
+/**
+ * BloomFilter is a Bloom filter of Names, used by a PSync consumer to tell the
+ * partial producer which user prefixes it subscribes to. This is a port of
+ * bloom_filter in the PSync library (which is based on the Bloom filter by
+ * Arash Partow), so that the encoding in a sync Interest name is compatible
+ * with PSync: the table size and number of hash functions are computed in the
+ * same way from the projected element count and the false positive
+ * probability, and each hash function is a MurmurHash3 of the name URI with
+ * one of the same predefined salts.
+ */
+public class BloomFilter {
+  /**
+   * Create an empty BloomFilter.
+   * @param projectedElementCount The expected number of names to insert.
+   * @param falsePositiveProbability The desired false positive probability,
+   * from 0.001 to less than 1. This is rounded to a multiple of 0.001 since
+   * that is how it is encoded by appendToName.
+   */
+  public BloomFilter(int projectedElementCount, double falsePositiveProbability)
+  {
+    this(projectedElementCount, encodeProbability(falsePositiveProbability),
+         null);
+  }
+
+  /**
+   * Create a BloomFilter with the bit table from the name component made by
+   * appendToName.
+   * @param projectedElementCount The projected element count from the name.
+   * @param falsePositiveProbability The false positive probability from the
+   * name.
+   * @param bitTable The bit table from the name, which is copied.
+   * @throws IllegalArgumentException if the size of the bit table doesn't match
+   * the size from projectedElementCount and falsePositiveProbability.
+   */
+  public BloomFilter
+    (int projectedElementCount, double falsePositiveProbability, Blob bitTable)
+  {
+    this(projectedElementCount, encodeProbability(falsePositiveProbability),
+         bitTable);
+  }
+
+  /**
+   * Compute the table size and number of hashes as in PSync, make the salts,
+   * then allocate the bit table. If bitTable is not null, check its size before
+   * allocating and copy it.
+   */
+  private BloomFilter
+    (int projectedElementCount, int encodedProbability, Blob bitTable)
+  {
+    if (projectedElementCount <= 0)
+      throw new IllegalArgumentException
+        ("BloomFilter: projectedElementCount must be positive");
+
+    projectedElementCount_ = projectedElementCount;
+    encodedProbability_ = encodedProbability;
+
+    // Find the number of hashes which gives the smallest table.
+    double probability = encodedProbability_ / 1000.0;
+    double minTableSize = Double.POSITIVE_INFINITY;
+    double minNHashes = 0.0;
+    for (double k = 1.0; k < 1000.0; k += 1.0) {
+      double tableSize = (-k * projectedElementCount_) /
+        Math.log(1.0 - Math.pow(probability, 1.0 / k));
+      if (tableSize < minTableSize) {
+        minTableSize = tableSize;
+        minNHashes = k;
+      }
+    }
+
+    // Round up to a whole number of bytes.
+    long nBits = (long)minTableSize;
+    nBits = (nBits + 7) / 8 * 8;
+    if (nBits > Integer.MAX_VALUE - 7)
+      throw new IllegalArgumentException
+        ("BloomFilter: projectedElementCount is too large");
+    tableSize_ = Math.max(8, (int)nBits);
+    int nHashes = Math.max(1, (int)minNHashes);
+    if (nHashes > PREDEFINED_SALTS.length)
+      // We don't expect this for a probability of at least 0.001.
+      throw new IllegalArgumentException
+        ("BloomFilter: The number of hashes exceeds the predefined salts");
+
+    if (bitTable != null && bitTable.size() != tableSize_ / 8)
+      throw new IllegalArgumentException
+        ("BloomFilter: The bit table size " + bitTable.size() +
+         " does not match the expected size " + tableSize_ / 8);
+    bitTable_ = new byte[tableSize_ / 8];
+    if (bitTable != null)
+      bitTable.buf().get(bitTable_);
+
+    // Make the salts as in PSync generate_unique_salt. The salts are unsigned
+    // 32-bit values, so the Java int arithmetic wraps the same way.
+    salts_ = new int[nHashes];
+    System.arraycopy(PREDEFINED_SALTS, 0, salts_, 0, nHashes);
+    for (int i = 0; i < salts_.length; ++i)
+      salts_[i] = salts_[i] * salts_[(i + 3) % salts_.length] + RANDOM_SEED;
+  }
+
+  /**
+   * Create a BloomFilter from the three name components starting at
+   * startIndex, as made by appendToName.
+   * @param name The Name with the encoded BloomFilter.
+   * @param startIndex The index of the first of the three components.
+   * @return The new BloomFilter.
+   * @throws IllegalArgumentException if the components are not a valid
+   * encoding.
+   */
+  public static BloomFilter
+  fromName(Name name, int startIndex)
+  {
+    long projectedElementCount = name.get(startIndex).toNumber();
+    long encodedProbability = name.get(startIndex + 1).toNumber();
+    if (projectedElementCount > MAX_PROJECTED_ELEMENT_COUNT)
+      throw new IllegalArgumentException
+        ("BloomFilter.fromName: The projected element count is too large");
+    if (encodedProbability < 1 || encodedProbability >= 1000)
+      throw new IllegalArgumentException
+        ("BloomFilter.fromName: The false positive probability is out of range");
+
+    // The private constructor checks the bit table size before allocating.
+    return new BloomFilter
+      ((int)projectedElementCount, (int)encodedProbability,
+       name.get(startIndex + 2).getValue());
+  }
+
+  /**
+   * Append the projected element count, the false positive probability
+   * (times 1000) and the bit table as three components to the name.
+   * @param name The Name to append to.
+   */
+  public final void
+  appendToName(Name name)
+  {
+    name.appendNumber(projectedElementCount_);
+    name.appendNumber(encodedProbability_);
+    name.append(new Blob(bitTable_, true));
+  }
+
+  /**
+   * Insert the name into the filter.
+   * @param key The Name to insert.
+   */
+  public final void
+  insert(Name key)
+  {
+    byte[] keyBytes = new Blob(key.toUri()).getImmutableArray();
+    for (int i = 0; i < salts_.length; ++i) {
+      int bitIndex = getBitIndex(salts_[i], keyBytes);
+      bitTable_[bitIndex / 8] |= (byte)(1 << (bitIndex % 8));
+    }
+  }
+
+  /**
+   * Check if the name may have been inserted into the filter.
+   * @param key The Name to check.
+   * @return False if the name was definitely not inserted, or true if it was
+   * inserted or is a false positive.
+   */
+  public final boolean
+  contains(Name key)
+  {
+    byte[] keyBytes = new Blob(key.toUri()).getImmutableArray();
+    for (int i = 0; i < salts_.length; ++i) {
+      int bitIndex = getBitIndex(salts_[i], keyBytes);
+      if ((bitTable_[bitIndex / 8] & (1 << (bitIndex % 8))) == 0)
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Remove all names from the filter.
+   */
+  public final void
+  clear() { Arrays.fill(bitTable_, (byte)0); }
+
+  /**
+   * Get the projected element count given to the constructor.
+   * @return The projected element count.
+   */
+  public final int
+  getProjectedElementCount() { return projectedElementCount_; }
+
+  /**
+   * Get the false positive probability, rounded to a multiple of 0.001.
+   * @return The false positive probability.
+   */
+  public final double
+  getFalsePositiveProbability() { return encodedProbability_ / 1000.0; }
+
+  /**
+   * Get the number of bits in the bit table.
+   * @return The number of bits.
+   */
+  public final int
+  getTableSize() { return tableSize_; }
+
+  /**
+   * Get the number of hash functions.
+   * @return The number of hash functions.
+   */
+  public final int
+  getNHashes() { return salts_.length; }
+
+  /**
+   * Get the index in the bit table for the hash with the salt.
+   */
+  private int
+  getBitIndex(int salt, byte[] keyBytes)
+  {
+    // murmurHash3 returns the unsigned 32-bit hash, so the index is positive.
+    return (int)(Common.murmurHash3(salt, keyBytes) % tableSize_);
+  }
+
+  /**
+   * Round the false positive probability to a multiple of 0.001 and return it
+   * times 1000, as encoded by appendToName.
+   * @throws IllegalArgumentException if it is out of range.
+   */
+  private static int
+  encodeProbability(double falsePositiveProbability)
+  {
+    long encodedProbability = Math.round(falsePositiveProbability * 1000);
+    if (encodedProbability < 1 || encodedProbability >= 1000)
+      throw new IllegalArgumentException
+        ("BloomFilter: falsePositiveProbability must be from 0.001 to less than 1");
+    return (int)encodedProbability;
+  }
+
+  // Limit the size of a bit table decoded from a name.
+  private static final int MAX_PROJECTED_ELEMENT_COUNT = 1000000;
+
+  private final int projectedElementCount_;
+  private final int encodedProbability_;
+  private final int tableSize_;
+  private final int[] salts_;
+  private final byte[] bitTable_;
+
+  // PSync computes the seed as (0xA5A5A5A55A5A5A5A * 0xA5A5A5A5) + 1 and adds
+  // its low 32 bits to each salt.
+  private static final int RANDOM_SEED =
+    (int)(0xA5A5A5A55A5A5A5AL * 0xA5A5A5A5L + 1);
+
+  // The predefined salts of PSync bloom_filter.
+  private static final int[] PREDEFINED_SALTS = {
+    0xAAAAAAAA, 0x55555555, 0x33333333, 0xCCCCCCCC,
+    0x66666666, 0x99999999, 0xB5B5B5B5, 0x4B4B4B4B,
+    0xAA55AA55, 0x55335533, 0x33CC33CC, 0xCC66CC66,
+    0x66996699, 0x99B599B5, 0xB54BB54B, 0x4BAA4BAA,
+    0xAA33AA33, 0x55CC55CC, 0x33663366, 0xCC99CC99,
+    0x66B566B5, 0x994B994B, 0xB5AAB5AA, 0xAAAAAA33,
+    0x555555CC, 0x33333366, 0xCCCCCC99, 0x666666B5,
+    0x9999994B, 0xB5B5B5AA, 0xFFFFFFFF, 0xFFFF0000,
+    0xB823D5EB, 0xC1191CDF, 0xF623AEB3, 0xDB58499F,
+    0xC8D42E70, 0xB173F616, 0xA91A5967, 0xDA427D63,
+    0xB1E8A2EA, 0xF6C0D155, 0x4909FEA3, 0xA68CC6A7,
+    0xC395E782, 0xA26057EB, 0x0CD5DA28, 0x467C5492,
+    0xF15E6982, 0x61C6FAD3, 0x9615E352, 0x6E9E355A,
+    0x689B563E, 0x0C9831A8, 0x6753C18B, 0xA622689B,
+    0x8CA63C47, 0x42CC2884, 0x8E89919B, 0x6EDBD7D3,
+    0x15B6796C, 0x1D6FDFE4, 0x63FF9092, 0xE7401432,
+    0xEFFE9412, 0xAEAEDF79, 0x9F245A31, 0x83C136FC,
+    0xC3DA4A8C, 0xA5112C8C, 0x5271F491, 0x9A948DAB,
+    0xCEE59A8D, 0xB5F525AB, 0x59D13217, 0x24E7C331,
+    0x697C2103, 0x84B0A460, 0x86156DA9, 0xAEF2AC68,
+    0x23243DA5, 0x3F649643, 0x5FA495A8, 0x67710DF8,
+    0x9A6C499E, 0xDCFB0227, 0x46A43433, 0x1832B07A,
+    0xC46AFF3C, 0xB9C8FFF0, 0xC9500467, 0x34431BDF,
+    0xB652432B, 0xE367F12B, 0x427F4C1B, 0x224C006E,
+    0x2E7E5A89, 0x96F99AA5, 0x0BEB452A, 0x2FD87C39,
+    0x74B2E1FB, 0x222EFD24, 0xF357F60C, 0x440FCB1E,
+    0x8BBE030F, 0x6704DC29, 0x1144D12F, 0x948B1355,
+    0x6D8FD7E9, 0x1C11A014, 0xADD1592F, 0xFB3C712E,
+    0xFC77642F, 0xF9C4CE8C, 0x31312FB9, 0x08B0DD79,
+    0x318FA6E7, 0xC040D23D, 0xC0589AA7, 0x0CA5C075,
+    0xF874B172, 0x0CF914D5, 0x784D3280, 0x4E8CFEBC,
+    0xC569F575, 0xCDB2A091, 0x2CC016B4, 0x5C5F4421
+  };
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.sync.detail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import net.named_data.jndn.util.Common;
+
+/**
+ * DigestLog is the digest log of ChronoSync2013. Each entry has a root digest
+ * and the list of sync states which changed the digest tree to that root. The
+ * entries are kept in the order that they are added and are also indexed by
+ * digest. The first entry which is added (the entry for the empty digest tree)
+ * is always kept. Other entries are removed, oldest first, when there are more
+ * than maxEntries or when they are older than maxAgeMilliseconds. Since only
+ * the oldest entries are removed, all the entries after a found entry are
+ * still in the log.
+ */
+public class DigestLog {
+  /**
+   * DigestLog.Entry is an entry in the digest log.
+   */
+  public static class Entry {
+    private Entry(String digest, List data, long id, double addTime)
+    {
+      digest_ = digest;
+      // Copy.
+      data_ = new ArrayList(data);
+      id_ = id;
+      addTime_ = addTime;
+    }
+
+    public final String
+    getDigest() { return digest_; }
+
+    /**
+     * Get the data.
+     * @return The data as a list of SyncStateProto.SyncState.
+     */
+    public final List // of SyncStateProto.SyncState
+    getData() { return data_; }
+
+    private final String digest_;
+    // Use List without generics so it works with older Java compilers.
+    private final List data_; // of SyncStateProto.SyncState
+    private final long id_;
+    private final double addTime_;
+  }
+
+  /**
+   * Create a DigestLog with the given retention limits.
+   * @param maxEntries The maximum number of entries, not counting the first
+   * entry which is always kept.
+   * @param maxAgeMilliseconds The maximum time to keep an entry after it is
+   * added. If this is 0 or negative, entries are not removed by age.
+   */
+  public DigestLog(int maxEntries, double maxAgeMilliseconds)
+  {
+    setRetention(maxEntries, maxAgeMilliseconds);
+  }
+
+  /**
+   * Create a DigestLog with DEFAULT_MAX_ENTRIES and no maximum age.
+   */
+  public DigestLog()
+  {
+    this(DEFAULT_MAX_ENTRIES, 0);
+  }
+
+  /**
+   * Set the retention limits and remove entries which are over the limits.
+   * @param maxEntries The maximum number of entries, not counting the first
+   * entry which is always kept.
+   * @param maxAgeMilliseconds The maximum time to keep an entry after it is
+   * added. If this is 0 or negative, entries are not removed by age.
+   */
+  public final void
+  setRetention(int maxEntries, double maxAgeMilliseconds)
+  {
+    if (maxEntries < 1)
+      throw new IllegalArgumentException
+        ("DigestLog: maxEntries must be at least 1");
+
+    maxEntries_ = maxEntries;
+    maxAgeMilliseconds_ = maxAgeMilliseconds;
+    removeOldEntries();
+  }
+
+  /**
+   * Get the maximum number of entries given to setRetention.
+   * @return The maximum number of entries.
+   */
+  public final int
+  getMaxEntries() { return maxEntries_; }
+
+  /**
+   * Get the maximum entry age given to setRetention.
+   * @return The maximum age in milliseconds, or 0 or negative for no limit.
+   */
+  public final double
+  getMaxAgeMilliseconds() { return maxAgeMilliseconds_; }
+
+  /**
+   * Add an entry with the digest and data, unless an entry with the digest is
+   * already in the log. Then remove entries which are over the limits.
+   * @param digest The root digest.
+   * @param data The list of SyncStateProto.SyncState, which is copied.
+   * @return The new Entry, or null if an entry with the digest is already in
+   * the log.
+   */
+  public final Entry
+  add(String digest, List data)
+  {
+    if (find(digest) != null)
+      return null;
+
+    // nowOffsetMilliseconds_ is only used for testing.
+    Entry entry = new Entry
+      (digest, data, nextId_++, Common.getNowMilliseconds() + nowOffsetMilliseconds_);
+    if (firstEntry_ == null)
+      firstEntry_ = entry;
+    else
+      entries_.add(entry);
+    entriesByDigest_.put(digest, entry);
+
+    removeOldEntries();
+    return entry;
+  }
+
+  /**
+   * Find the entry with the digest.
+   * @param digest The root digest.
+   * @return The Entry, or null if not found.
+   */
+  public final Entry
+  find(String digest)
+  {
+    removeOldEntries();
+    return entriesByDigest_.get(digest);
+  }
+
+  /**
+   * Get the entries which were added after the given entry, in the order that
+   * they were added. If the entry is the first entry, this is all the other
+   * entries still in the log.
+   * @param entry An Entry from find or add.
+   * @return The list of Entry, which you should not modify. It is only valid
+   * until the next call to add or find.
+   */
+  public final List<Entry>
+  getEntriesAfter(Entry entry)
+  {
+    int start;
+    if (entry == firstEntry_ || head_ >= entries_.size())
+      start = head_;
+    else
+      start = head_ + (int)(entry.id_ - entries_.get(head_).id_) + 1;
+    start = Math.max(head_, Math.min(start, entries_.size()));
+
+    return Collections.unmodifiableList(entries_.subList(start, entries_.size()));
+  }
+
+  /**
+   * Get the number of entries in the log, including the first entry.
+   * @return The number of entries.
+   */
+  public final int
+  size()
+  {
+    return entries_.size() - head_ + (firstEntry_ != null ? 1 : 0);
+  }
+
+  /**
+   * Set the offset when add and find get the current time, which should only
+   * be used for testing.
+   * @param nowOffsetMilliseconds The offset in milliseconds.
+   */
+  public final void
+  setNowOffsetMilliseconds_(double nowOffsetMilliseconds)
+  {
+    nowOffsetMilliseconds_ = nowOffsetMilliseconds;
+  }
+
+  /**
+   * The default maximum number of entries.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+  /**
+   * Remove the oldest entries while there are more than maxEntries_ or they
+   * are older than maxAgeMilliseconds_.
+   */
+  private void
+  removeOldEntries()
+  {
+    // nowOffsetMilliseconds_ is only used for testing.
+    double minAddTime = maxAgeMilliseconds_ > 0 ?
+      Common.getNowMilliseconds() + nowOffsetMilliseconds_ - maxAgeMilliseconds_ :
+      Double.NEGATIVE_INFINITY;
+
+    while (head_ < entries_.size()) {
+      Entry oldest = entries_.get(head_);
+      if (entries_.size() - head_ <= maxEntries_ && oldest.addTime_ >= minAddTime)
+        break;
+
+      entriesByDigest_.remove(oldest.digest_);
+      entries_.set(head_, null);
+      ++head_;
+    }
+
+    // Remove the cleared entries from the front when they are at least half.
+    if (head_ > 0 && head_ * 2 >= entries_.size()) {
+      entries_.subList(0, head_).clear();
+      head_ = 0;
+    }
+  }
+
+  private Entry firstEntry_ = null;
+  // entries_ has the entries after firstEntry_. The entries before head_ are
+  // removed.
+  private final ArrayList<Entry> entries_ = new ArrayList<Entry>();
+  private int head_ = 0;
+  private final HashMap<String, Entry> entriesByDigest_ =
+    new HashMap<String, Entry>();
+  private long nextId_ = 0;
+  private int maxEntries_;
+  private double maxAgeMilliseconds_;
+  private double nowOffsetMilliseconds_ = 0;
+}
@@ -19,20 +19,21 @@
 
 package net.named_data.jndn.sync.detail;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.Inflater;
 import net.named_data.jndn.util.Blob;
 import net.named_data.jndn.util.Common;
 
 /**
  * InvertibleBloomLookupTable implements an Invertible Bloom Lookup Table (IBLT)
- * (Invertible Bloom Filter). This is used by FullPSync2017.
+ * (Invertible Bloom Filter). This is used by FullPSync2017. The hash table is
+ * kept in parallel arrays of counts, key sums and key checks. The encoding is
+ * cached until the table changes, and encode and initialize reuse a Deflater
+ * and Inflater for each thread.
  */
 public class InvertibleBloomLookupTable {
   /**
@@ -49,9 +50,9 @@ public class InvertibleBloomLookupTable {
     if (remainder != 0)
       nEntries += (N_HASH - remainder);
 
-    hashTable_ = new ArrayList<HashTableEntry>(nEntries);
-    for (int i = 0; i < nEntries; ++i)
-      hashTable_.add(new HashTableEntry());
+    count_ = new int[nEntries];
+    keySum_ = new long[nEntries];
+    keyCheck_ = new long[nEntries];
   }
 
   /**
@@ -60,10 +61,12 @@ public class InvertibleBloomLookupTable {
    */
   public InvertibleBloomLookupTable(InvertibleBloomLookupTable iblt)
   {
-    // Make a deep copy the hashTable_ array.
-    hashTable_ = new ArrayList<HashTableEntry>(iblt.hashTable_.size());
-    for (int i = 0; i < iblt.hashTable_.size(); ++i)
-      hashTable_.add(new HashTableEntry(iblt.hashTable_.get(i)));
+    // Make a deep copy the hash table arrays.
+    count_ = iblt.count_.clone();
+    keySum_ = iblt.keySum_.clone();
+    keyCheck_ = iblt.keyCheck_.clone();
+    compressionLevel_ = iblt.compressionLevel_;
+    encoding_ = iblt.encoding_;
   }
 
   /**
@@ -77,17 +80,17 @@ public class InvertibleBloomLookupTable {
   {
     long[] values = decode(encoding);
 
-    if (3 * hashTable_.size() != values.length)
+    if (3 * count_.length != values.length)
       throw new AssertionError("The received Invertible Bloom Filter cannot be decoded");
 
-    for (int i = 0; i < hashTable_.size(); i++) {
-      HashTableEntry entry = hashTable_.get(i);
+    for (int i = 0; i < count_.length; i++) {
       if (values[i * 3] != 0) {
-        entry.count_ = (int)(values[i * 3]);
-        entry.keySum_ = values[(i * 3) + 1];
-        entry.keyCheck_ = values[(i * 3) + 2];
+        count_[i] = (int)(values[i * 3]);
+        keySum_[i] = values[(i * 3) + 1];
+        keyCheck_[i] = values[(i * 3) + 2];
       }
     }
+    encoding_ = null;
   }
 
   public final void
@@ -117,14 +120,15 @@ public class InvertibleBloomLookupTable {
     int nErased = 0;
     do {
       nErased = 0;
-      for (HashTableEntry entry : peeled.hashTable_) {
-        if (entry.isPure()) {
-          if (entry.count_ == 1)
-            positive.add(entry.keySum_);
+      for (int i = 0; i < peeled.count_.length; ++i) {
+        if (peeled.isPure(i)) {
+          long keySum = peeled.keySum_[i];
+          if (peeled.count_[i] == 1)
+            positive.add(keySum);
           else
-            negative.add(entry.keySum_);
+            negative.add(keySum);
 
-          peeled.update(-entry.count_, entry.keySum_);
+          peeled.update(-peeled.count_[i], keySum);
           ++nErased;
         }
       }
@@ -132,8 +136,9 @@ public class InvertibleBloomLookupTable {
 
     // If any buckets for one of the hash functions is not empty, then we didn't
     // peel them all.
-    for (HashTableEntry entry : peeled.hashTable_) {
-      if (!entry.isEmpty())
+    for (int i = 0; i < peeled.count_.length; ++i) {
+      if (peeled.count_[i] != 0 || peeled.keySum_[i] != 0 ||
+          peeled.keyCheck_[i] != 0)
         return false;
     }
 
@@ -148,17 +153,25 @@ public class InvertibleBloomLookupTable {
   public final InvertibleBloomLookupTable
   difference(InvertibleBloomLookupTable other)
   {
-    if (hashTable_.size() != other.hashTable_.size())
+    if (count_.length != other.count_.length)
       throw new Error("IBLT difference: Both tables must be the same size");
 
     InvertibleBloomLookupTable result = new InvertibleBloomLookupTable(this);
-    for (int i = 0; i < hashTable_.size(); ++i) {
-      HashTableEntry e1 = result.hashTable_.get(i);
-      HashTableEntry e2 = other.hashTable_.get(i);
-      e1.count_ -= e2.count_;
-      e1.keySum_ ^= e2.keySum_;
-      e1.keyCheck_ ^= e2.keyCheck_;
-    }
+    result.encoding_ = null;
+    // Use separate simple loops over each array so that the JIT can vectorize
+    // them.
+    int[] count = result.count_;
+    int[] otherCount = other.count_;
+    for (int i = 0; i < count.length; ++i)
+      count[i] -= otherCount[i];
+    long[] keySum = result.keySum_;
+    long[] otherKeySum = other.keySum_;
+    for (int i = 0; i < keySum.length; ++i)
+      keySum[i] ^= otherKeySum[i];
+    long[] keyCheck = result.keyCheck_;
+    long[] otherKeyCheck = other.keyCheck_;
+    for (int i = 0; i < keyCheck.length; ++i)
+      keyCheck[i] ^= otherKeyCheck[i];
 
     return result;
   }
@@ -169,59 +182,73 @@ public class InvertibleBloomLookupTable {
    * the uint32_t array. We put the first count in the first 4 cells, keySum in
    * the next 4, and keyCheck in the next 4. We repeat for all the other cells
    * of the hash table. Then we append this uint8_t array to the name.
+   * The result is cached until the table is changed.
    * @return The encoded Blob.
    */
   public final Blob
   encode() throws IOException
   {
-    int nEntries = hashTable_.size();
-    int unitSize = (32 * 3) / 8; // hard coding
-    int tableSize = unitSize * nEntries;
+    if (encoding_ != null)
+      return encoding_;
 
-    byte[] table = new byte[tableSize];
+    int nEntries = count_.length;
+    int unitSize = (32 * 3) / 8; // hard coding
+    byte[] table = new byte[unitSize * nEntries];
 
     for (int i = 0; i < nEntries; i++) {
-      HashTableEntry entry = hashTable_.get(i);
-      
+      int offset = i * unitSize;
       // table[i*12],   table[i*12+1], table[i*12+2], table[i*12+3] --> hashTable[i].count_
-
-      table[(i * unitSize)]     = (byte)(0xFF & entry.count_);
-      table[(i * unitSize) + 1] = (byte)(0xFF & (entry.count_ >> 8));
-      table[(i * unitSize) + 2] = (byte)(0xFF & (entry.count_ >> 16));
-      table[(i * unitSize) + 3] = (byte)(0xFF & (entry.count_ >> 24));
-
+      putUint32LittleEndian(count_[i], table, offset);
       // table[i*12+4], table[i*12+5], table[i*12+6], table[i*12+7] --> hashTable[i].keySum_
-
-      table[(i * unitSize) + 4] = (byte)(0xFF & entry.keySum_);
-      table[(i * unitSize) + 5] = (byte)(0xFF & (entry.keySum_ >> 8));
-      table[(i * unitSize) + 6] = (byte)(0xFF & (entry.keySum_ >> 16));
-      table[(i * unitSize) + 7] = (byte)(0xFF & (entry.keySum_ >> 24));
-
+      putUint32LittleEndian(keySum_[i], table, offset + 4);
       // table[i*12+8], table[i*12+9], table[i*12+10], table[i*12+11] --> hashTable[i].keyCheck_
+      putUint32LittleEndian(keyCheck_[i], table, offset + 8);
+    }
 
-      table[(i * unitSize) + 8]  = (byte)(0xFF & entry.keyCheck_);
-      table[(i * unitSize) + 9]  = (byte)(0xFF & (entry.keyCheck_ >> 8));
-      table[(i * unitSize) + 10] = (byte)(0xFF & (entry.keyCheck_ >> 16));
-      table[(i * unitSize) + 11] = (byte)(0xFF & (entry.keyCheck_ >> 24));
+    Deflater deflater = deflater_.get();
+    deflater.reset();
+    deflater.setLevel(compressionLevel_);
+    deflater.setInput(table);
+    deflater.finish();
+
+    // The compressed table is usually much smaller than the table.
+    byte[] output = new byte[Math.max(64, table.length / 4)];
+    int outputLength = 0;
+    while (!deflater.finished()) {
+      if (outputLength == output.length)
+        output = Arrays.copyOf(output, 2 * output.length);
+      outputLength += deflater.deflate
+        (output, outputLength, output.length - outputLength);
     }
 
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    final int compressionLevel = 9;
-    DeflaterOutputStream deflaterStream = new DeflaterOutputStream
-      (outputStream, new Deflater(compressionLevel));
+    encoding_ = new Blob(Arrays.copyOf(output, outputLength), false);
+    return encoding_;
+  }
 
-    // Use "try/finally instead of "try-with-resources" or "using"
-    // which are not supported before Java 7.
-    try {
-      deflaterStream.write(table);
-      deflaterStream.flush();
-    } finally {
-      deflaterStream.close();
-    }
+  /**
+   * Set the compression level used by encode.
+   * @param compressionLevel The compression level from 0 to 9, as used by
+   * java.util.zip.Deflater. The default is DEFAULT_COMPRESSION_LEVEL.
+   */
+  public final void
+  setCompressionLevel(int compressionLevel)
+  {
+    if (compressionLevel < 0 || compressionLevel > 9)
+      throw new IllegalArgumentException
+        ("InvertibleBloomLookupTable: compressionLevel must be from 0 to 9");
 
-    return new Blob(outputStream.toByteArray(), false);
+    if (compressionLevel != compressionLevel_)
+      encoding_ = null;
+    compressionLevel_ = compressionLevel;
   }
 
+  /**
+   * Get the compression level used by encode.
+   * @return The compression level.
+   */
+  public final int
+  getCompressionLevel() { return compressionLevel_; }
+
   /**
    * Check if this IBLT has the same number of entries as the other IBLT and
    * that they are equal.
@@ -231,80 +258,67 @@ public class InvertibleBloomLookupTable {
   public final boolean
   equals(InvertibleBloomLookupTable other)
   {
-    ArrayList<HashTableEntry> iblt1HashTable = hashTable_;
-    ArrayList<HashTableEntry> iblt2HashTable = other.hashTable_;
-    if (iblt1HashTable.size() != iblt2HashTable.size())
-      return false;
-
-    for (int i = 0; i < iblt1HashTable.size(); i++) {
-      if (iblt1HashTable.get(i).count_ != iblt2HashTable.get(i).count_ ||
-          iblt1HashTable.get(i).keySum_ != iblt2HashTable.get(i).keySum_ ||
-          iblt1HashTable.get(i).keyCheck_ != iblt2HashTable.get(i).keyCheck_)
-        return false;
-    }
-
-    return true;
+    return Arrays.equals(count_, other.count_) &&
+      Arrays.equals(keySum_, other.keySum_) &&
+      Arrays.equals(keyCheck_, other.keyCheck_);
   }
 
   public static final int N_HASH = 3;
   public static final int N_HASHCHECK = 11;
 
-  private static class HashTableEntry {
-    /** 
-     * The default constructor.
-     */
-    public HashTableEntry() {}
-
-    /**
-     * The copy constructor.
-     */
-    public HashTableEntry(HashTableEntry entry) {
-      count_ = entry.count_;
-      keySum_ = entry.keySum_;
-      keyCheck_ = entry.keyCheck_;
-    }
-
-    public final boolean
-    isPure()
-    {
-      if (count_ == 1 || count_ == -1) {
-        long check = Common.murmurHash3(N_HASHCHECK, keySum_);
-        return keyCheck_ == check;
-      }
+  /**
+   * The default compression level for encode, which is the best compression.
+   */
+  public static final int DEFAULT_COMPRESSION_LEVEL = 9;
 
-      return false;
+  /**
+   * Check if the entry at index has a count of 1 or -1 and a key check which
+   * matches its key sum.
+   */
+  private boolean
+  isPure(int index)
+  {
+    if (count_[index] == 1 || count_[index] == -1) {
+      long check = Common.murmurHash3(N_HASHCHECK, keySum_[index]);
+      return keyCheck_[index] == check;
     }
 
-    public final boolean
-    isEmpty() { return count_ == 0 && keySum_ == 0 && keyCheck_ == 0; }
-
-    public int count_ = 0;
-    public long keySum_ = 0;
-    public long keyCheck_ = 0;
+    return false;
   }
 
   /**
-   * Update the entries in hashTable_.
+   * Update the entries in the hash table.
    * @param plusOrMinus The amount to update the count.
    * @param key The key for computing the entry.
    */
   private void
   update(int plusOrMinus, long key)
   {
-    int bucketsPerHash = hashTable_.size() / N_HASH;
+    int bucketsPerHash = count_.length / N_HASH;
+    long keyCheck = Common.murmurHash3(N_HASHCHECK, key);
 
     for (int i = 0; i < N_HASH; i++) {
       int startEntry = i * bucketsPerHash;
       long h = Common.murmurHash3(i, key);
-      HashTableEntry entry = hashTable_.get(startEntry + (int)(h % bucketsPerHash));
-      entry.count_ += plusOrMinus;
-      entry.keySum_ ^= key;
-      entry.keyCheck_ ^= Common.murmurHash3(N_HASHCHECK, key);
+      int index = startEntry + (int)(h % bucketsPerHash);
+      count_[index] += plusOrMinus;
+      keySum_[index] ^= key;
+      keyCheck_[index] ^= keyCheck;
     }
+    encoding_ = null;
+  }
+
+  private static void
+  putUint32LittleEndian(long value, byte[] output, int offset)
+  {
+    output[offset]     = (byte)(0xFF & value);
+    output[offset + 1] = (byte)(0xFF & (value >> 8));
+    output[offset + 2] = (byte)(0xFF & (value >> 16));
+    output[offset + 3] = (byte)(0xFF & (value >> 24));
   }
 
   /**
-   * Decode the IBLT from the Blob. This converts the Blob into a byte array
+   * Decode the IBLT from the Blob. This inflates the Blob into a byte array
    * which is then decoded to a long array.
    * @param encoding The encoded IBLT.
    * @return An int array representing the hash table of the IBLT.
@@ -312,22 +326,28 @@ public class InvertibleBloomLookupTable {
   private static long[]
   decode(Blob encoding) throws IOException
   {
-    InflaterInputStream inflaterStream = new InflaterInputStream
-      (new ByteArrayInputStream(encoding.getImmutableArray()));
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-    byte[] buffer = new byte[encoding.size()];
+    Inflater inflater = inflater_.get();
+    inflater.reset();
+    inflater.setInput(encoding.getImmutableArray());
 
-    while (true) {
-      int count = inflaterStream.read(buffer);
-      if (count <= 0)
-        break;
-
-      outputStream.write(buffer, 0, count);
+    byte[] ibltValues = new byte[Math.max(64, 4 * encoding.size())];
+    int length = 0;
+    try {
+      while (!inflater.finished()) {
+        if (length == ibltValues.length)
+          ibltValues = Arrays.copyOf(ibltValues, 2 * ibltValues.length);
+        int count = inflater.inflate
+          (ibltValues, length, ibltValues.length - length);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          // Truncated input.
+          break;
+        length += count;
+      }
+    } catch (DataFormatException ex) {
+      throw new IOException("Error decoding the IBLT: " + ex.getMessage());
     }
 
-    byte[] ibltValues = outputStream.toByteArray();
-
-    int nEntries = ibltValues.length / 4;
+    int nEntries = length / 4;
     long[] values = new long[nEntries];
 
     for (int i = 0; i < 4 * nEntries; i += 4) {
@@ -342,7 +362,20 @@ public class InvertibleBloomLookupTable {
     return values;
   }
 
-  private final ArrayList<HashTableEntry> hashTable_;
+  private final int[] count_;
+  private final long[] keySum_;
+  private final long[] keyCheck_;
+  private int compressionLevel_ = DEFAULT_COMPRESSION_LEVEL;
+  private Blob encoding_ = null; /**< The cached encoding, or null */
+
+  private static final ThreadLocal<Deflater> deflater_ =
+    new ThreadLocal<Deflater>() {
+      protected Deflater initialValue() { return new Deflater(); }
+    };
+  private static final ThreadLocal<Inflater> inflater_ =
+    new ThreadLocal<Inflater>() {
+      protected Inflater initialValue() { return new Inflater(); }
+    };
 
   private static final int INSERT = 1;
   private static final int ERASE = -1;
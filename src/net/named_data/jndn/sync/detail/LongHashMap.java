@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.sync.detail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * LongHashMap is a hash map from a primitive long key to an object value. It
+ * uses open addressing with linear probing in parallel arrays of keys and
+ * values, so that put and get don't allocate a boxed Long or an entry object.
+ * This is used by PSync to map the IBLT hash of a name to the name. A value
+ * cannot be null.
+ * @param <V> The type of the values.
+ */
+public class LongHashMap<V> {
+  /**
+   * Create a LongHashMap with capacity for the expected number of entries
+   * before it needs to grow.
+   * @param expectedSize The expected number of entries.
+   */
+  public LongHashMap(int expectedSize)
+  {
+    int capacity = MIN_CAPACITY;
+    // Keep the load factor at most 1/2.
+    while (capacity < expectedSize * 2)
+      capacity <<= 1;
+
+    keys_ = new long[capacity];
+    values_ = new Object[capacity];
+  }
+
+  /**
+   * Create a LongHashMap with a default initial capacity.
+   */
+  public LongHashMap()
+  {
+    this(MIN_CAPACITY / 2);
+  }
+
+  /**
+   * Get the value for the key.
+   * @param key The key.
+   * @return The value, or null if the key is not in the map.
+   */
+  public final V
+  get(long key)
+  {
+    int i = find(key);
+    return i >= 0 ? getValue(i) : null;
+  }
+
+  /**
+   * Check if the key is in the map.
+   * @param key The key.
+   * @return True if the key is in the map.
+   */
+  public final boolean
+  containsKey(long key) { return find(key) >= 0; }
+
+  /**
+   * Put the value for the key, replacing any existing value.
+   * @param key The key.
+   * @param value The value, which must not be null.
+   * @return The previous value, or null if the key was not in the map.
+   */
+  public final V
+  put(long key, V value)
+  {
+    if (value == null)
+      throw new IllegalArgumentException("LongHashMap.put: value is null");
+
+    int mask = keys_.length - 1;
+    int i = getSlot(key, mask);
+    while (values_[i] != null) {
+      if (keys_[i] == key) {
+        V previous = getValue(i);
+        values_[i] = value;
+        return previous;
+      }
+      i = (i + 1) & mask;
+    }
+
+    keys_[i] = key;
+    values_[i] = value;
+    ++size_;
+    if (size_ * 2 > keys_.length)
+      resize(keys_.length * 2);
+
+    return null;
+  }
+
+  /**
+   * Remove the key and its value from the map.
+   * @param key The key.
+   * @return The removed value, or null if the key was not in the map.
+   */
+  public final V
+  remove(long key)
+  {
+    int i = find(key);
+    if (i < 0)
+      return null;
+
+    V previous = getValue(i);
+    // Shift back the following entries in the probe sequence so that a later
+    // find doesn't stop at the empty slot.
+    int mask = keys_.length - 1;
+    int empty = i;
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      if (values_[j] == null)
+        break;
+
+      int slot = getSlot(keys_[j], mask);
+      // Move the entry at j if its slot is not cyclically in (empty, j].
+      if (empty <= j ? (slot <= empty || slot > j) : (slot <= empty && slot > j)) {
+        keys_[empty] = keys_[j];
+        values_[empty] = values_[j];
+        empty = j;
+      }
+    }
+
+    keys_[empty] = 0;
+    values_[empty] = null;
+    --size_;
+    return previous;
+  }
+
+  /**
+   * Get the number of entries in the map.
+   * @return The number of entries.
+   */
+  public final int
+  size() { return size_; }
+
+  /**
+   * Remove all entries from the map.
+   */
+  public final void
+  clear()
+  {
+    Arrays.fill(keys_, 0);
+    Arrays.fill(values_, null);
+    size_ = 0;
+  }
+
+  /**
+   * Get a new list of the values in the map, in no particular order.
+   * @return A new list of the values.
+   */
+  public final ArrayList<V>
+  values()
+  {
+    ArrayList<V> result = new ArrayList<V>(size_);
+    for (int i = 0; i < values_.length; ++i) {
+      if (values_[i] != null)
+        result.add(getValue(i));
+    }
+
+    return result;
+  }
+
+  /**
+   * Find the slot of the key.
+   * @return The index in keys_ and values_, or -1 if not found.
+   */
+  private int
+  find(long key)
+  {
+    int mask = keys_.length - 1;
+    int i = getSlot(key, mask);
+    while (values_[i] != null) {
+      if (keys_[i] == key)
+        return i;
+      i = (i + 1) & mask;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Get the value at the index as type V. Only put stores into values_, so the
+   * cast is safe.
+   */
+  @SuppressWarnings("unchecked")
+  private V
+  getValue(int i) { return (V)values_[i]; }
+
+  private void
+  resize(int capacity)
+  {
+    long[] oldKeys = keys_;
+    Object[] oldValues = values_;
+    keys_ = new long[capacity];
+    values_ = new Object[capacity];
+
+    int mask = capacity - 1;
+    for (int i = 0; i < oldValues.length; ++i) {
+      if (oldValues[i] == null)
+        continue;
+
+      int j = getSlot(oldKeys[i], mask);
+      while (values_[j] != null)
+        j = (j + 1) & mask;
+      keys_[j] = oldKeys[i];
+      values_[j] = oldValues[i];
+    }
+  }
+
+  private static int
+  getSlot(long key, int mask)
+  {
+    // Mix the bits since the keys may not be well distributed in the low bits.
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int)(hash ^ (hash >>> 32)) & mask;
+  }
+
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys_;
+  private Object[] values_;
+  private int size_ = 0;
+}
@@ -120,6 +120,58 @@ public class AsyncTcpTransport extends Transport
         }
       }
     };
+
+    // This is the CompletionHandler for a gathering write of the send queue.
+    batchWriteCompletionHandler_ = new CompletionHandler<Long, Void>() {
+      public void completed(Long bytesWritten, Void attachment) {
+        // Need to catch and log exceptions at this async entry point.
+        try {
+          synchronized (sendQueueLock_) {
+            if (!writingQueue_.advance())
+              writeBatch();
+            else {
+              writingQueue_.clear();
+              isWriting_ = false;
+              // Packets which were sent during the write are written now.
+              if (!sendQueue_.isEmpty())
+                startBatchWrite();
+            }
+          }
+        } catch (Throwable ex) {
+          logger_.log(Level.SEVERE, null, ex);
+        }
+      }
+
+      public void failed(Throwable ex, Void attachment) {
+        logger_.log(Level.SEVERE, "Failed to write to transport", ex);
+        synchronized (sendQueueLock_) {
+          // The queued packets are dropped, as for an unbatched send.
+          writingQueue_.clear();
+          sendQueue_.clear();
+          isWriting_ = false;
+          sendQueueLock_.notifyAll();
+        }
+        if(connectionInfo_.shouldAttemptReconnection() && acquireReconnectLock()) {
+          scheduleReconnect();
+        }
+      }
+    };
+
+    // This is called after the maximum delay of the send flush policy.
+    flushSendQueue_ = new Runnable() {
+      public void run() {
+        // Need to catch and log exceptions at this async entry point.
+        try {
+          synchronized (sendQueueLock_) {
+            isFlushScheduled_ = false;
+            if (!isWriting_ && !sendQueue_.isEmpty())
+              startBatchWrite();
+          }
+        } catch (Throwable ex) {
+          logger_.log(Level.SEVERE, null, ex);
+        }
+      }
+    };
   }
 
   /**
@@ -250,6 +302,22 @@ public class AsyncTcpTransport extends Transport
     this.elementListener_ = elementListener;
     this.onConnected_ = onConnected;
 
+    synchronized (sendQueueLock_) {
+      if (connectionInfo.getSendFlushMaxBytes() > 0) {
+        sendQueue_ = new SendQueue
+          (connectionInfo.getSendFlushMaxBytes(),
+           connectionInfo.getSendFlushMaxDelayMilliseconds());
+        writingQueue_ = new SendQueue
+          (connectionInfo.getSendFlushMaxBytes(),
+           connectionInfo.getSendFlushMaxDelayMilliseconds());
+      }
+      else {
+        sendQueue_ = null;
+        writingQueue_ = null;
+      }
+      isWriting_ = false;
+    }
+
     // connect is already async, so no need to dispatch.
     channel_.connect
         (new InetSocketAddress
@@ -362,7 +430,12 @@ public class AsyncTcpTransport extends Transport
   }
 
   /**
-   * Send data to the host.
+   * Send data to the host. If the ConnectionInfo given to connect has a send
+   * flush policy, this adds the data to the send queue which is written with
+   * one gathering write when it reaches the maximum bytes or when the maximum
+   * delay has passed. Packets which are sent while a write is in progress are
+   * written together when it completes. If the queue is full while a write is
+   * in progress, this blocks until the write completes.
    * @param data The buffer of data to send.  This reads from position() to
    * limit(), but does not change the position.
    * @throws IOException For I/O error.
@@ -377,6 +450,15 @@ public class AsyncTcpTransport extends Transport
       throw new IOException("Cannot send because the socket is not open.  Use connect.");
     }
 
+    if (sendQueue_ != null) {
+      try {
+        sendBatched(data);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      return;
+    }
+
     // This does not copy the bytes, but only duplicates the position which is
     // updated by write(). We assume that the sender won't change the bytes of
     // the buffer during send, so that we can avoid a costly copy operation.
@@ -408,6 +490,72 @@ public class AsyncTcpTransport extends Transport
     channel_.write(data, data, writeCompletionHandler_);
   }
 
+  /**
+   * Add the data to the send queue and start a write or schedule a flush
+   * according to the send flush policy.
+   * @param data The buffer to send.
+   * @throws InterruptedException If interrupted while waiting for room in the
+   * send queue.
+   * @throws IOException If the send queue is full for DEFAULT_LOCK_TIMEOUT_MS.
+   */
+  private void
+  sendBatched(ByteBuffer data) throws InterruptedException, IOException {
+    synchronized (sendQueueLock_) {
+      // Limit the queue while the previous batch is being written.
+      long timeoutTime = System.currentTimeMillis() + DEFAULT_LOCK_TIMEOUT_MS;
+      while (isWriting_ && sendQueue_.getNBytes() >= sendQueue_.getMaxBytes()) {
+        long waitMilliseconds = timeoutTime - System.currentTimeMillis();
+        if (waitMilliseconds <= 0)
+          throw new IOException("Timed out waiting for room in the send queue");
+        sendQueueLock_.wait(waitMilliseconds);
+      }
+
+      boolean isFull = sendQueue_.add(data);
+      if (isWriting_)
+        // The write completion handler will write the queue.
+        return;
+
+      if (isFull || sendQueue_.getMaxDelayMilliseconds() <= 0)
+        startBatchWrite();
+      else if (!isFlushScheduled_) {
+        isFlushScheduled_ = true;
+        threadPool_.schedule
+          (flushSendQueue_,
+           (long)Math.ceil(sendQueue_.getMaxDelayMilliseconds() * 1000.0),
+           TimeUnit.MICROSECONDS);
+      }
+    }
+  }
+
+  /**
+   * Swap the send queue with the empty writing queue and start writing it. The
+   * caller must hold sendQueueLock_ and isWriting_ must be false.
+   */
+  private void
+  startBatchWrite() {
+    SendQueue queue = writingQueue_;
+    writingQueue_ = sendQueue_;
+    sendQueue_ = queue;
+    isWriting_ = true;
+    // There is room in the send queue for any blocked senders.
+    sendQueueLock_.notifyAll();
+
+    writeBatch();
+  }
+
+  /**
+   * Start a gathering write of the remaining buffers in writingQueue_. The
+   * caller must hold sendQueueLock_.
+   */
+  private void
+  writeBatch() {
+    // A timeout of 0 means no timeout.
+    channel_.write
+      (writingQueue_.getBuffers(), writingQueue_.getWriteOffset(),
+       writingQueue_.getWriteLength(), 0, TimeUnit.MILLISECONDS, null,
+       batchWriteCompletionHandler_);
+  }
+
   /**
    * Do nothing since AsynchronousSocketChannel checks for incoming data.
    */
@@ -427,6 +575,13 @@ public class AsyncTcpTransport extends Transport
   private AsynchronousSocketChannel channel_;
   private final CompletionHandler<Integer, Void> readCompletionHandler_;
   private final CompletionHandler<Integer, ByteBuffer> writeCompletionHandler_;
+  private final CompletionHandler<Long, Void> batchWriteCompletionHandler_;
+  private final Runnable flushSendQueue_;
+  private SendQueue sendQueue_ = null;
+  private SendQueue writingQueue_ = null;
+  private boolean isWriting_ = false;
+  private boolean isFlushScheduled_ = false;
+  private final Object sendQueueLock_ = new Object();
   private final ScheduledExecutorService threadPool_;
   private ByteBuffer inputBuffer_ = ByteBuffer.allocate(Common.MAX_NDN_PACKET_SIZE);
   private ElementReader elementReader_;
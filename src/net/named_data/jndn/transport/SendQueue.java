@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import net.named_data.jndn.util.Common;
+
+/**
+ * A SendQueue holds the packets which a transport has been asked to send so
+ * that they can be written together with one gathering write. The queue does
+ * not copy the packet bytes. This is an internal class used by TcpTransport and
+ * AsyncTcpTransport. It is not thread safe, so the caller must synchronize.
+ */
+class SendQueue {
+  /**
+   * Create an empty SendQueue with the given flush policy.
+   * @param maxBytes The number of queued bytes which causes a flush.
+   * @param maxDelayMilliseconds The maximum time that a packet waits in the
+   * queue.
+   */
+  public SendQueue(int maxBytes, double maxDelayMilliseconds)
+  {
+    maxBytes_ = maxBytes;
+    maxDelayMilliseconds_ = maxDelayMilliseconds;
+  }
+
+  /**
+   * Add the packet to the end of the queue.
+   * @param data The buffer of data to send. This keeps a duplicate of the
+   * buffer which reads from position() to limit(), and does not change the
+   * position of data.
+   * @return True if the queue now has at least maxBytes and should be flushed.
+   */
+  public final boolean
+  add(ByteBuffer data)
+  {
+    if (nBuffers_ == buffers_.length) {
+      ByteBuffer[] newBuffers = new ByteBuffer[buffers_.length * 2];
+      System.arraycopy(buffers_, 0, newBuffers, 0, nBuffers_);
+      buffers_ = newBuffers;
+    }
+
+    if (nBuffers_ == 0)
+      firstAddTime_ = Common.getNowMilliseconds();
+    buffers_[nBuffers_++] = data.duplicate();
+    nBytes_ += data.remaining();
+
+    return nBytes_ >= maxBytes_;
+  }
+
+  /**
+   * Check if the first queued packet has waited maxDelayMilliseconds.
+   * @param nowMilliseconds The current time in milliseconds from
+   * Common.getNowMilliseconds.
+   * @return True if the queue is not empty and should be flushed.
+   */
+  public final boolean
+  isFlushDue(double nowMilliseconds)
+  {
+    return nBuffers_ > 0 &&
+      nowMilliseconds - firstAddTime_ >= maxDelayMilliseconds_;
+  }
+
+  /**
+   * Get the time when the first queued packet will have waited
+   * maxDelayMilliseconds.
+   * @return The time in milliseconds, similar to Common.getNowMilliseconds(),
+   * or -1 if the queue is empty.
+   */
+  public final double
+  getFlushTime()
+  {
+    return nBuffers_ > 0 ? firstAddTime_ + maxDelayMilliseconds_ : -1;
+  }
+
+  /**
+   * Skip the queued buffers at the write offset which have been completely
+   * written.
+   * @return True if all queued buffers have been written.
+   */
+  public final boolean
+  advance()
+  {
+    while (writeOffset_ < nBuffers_ && !buffers_[writeOffset_].hasRemaining()) {
+      // Release the reference as soon as possible.
+      buffers_[writeOffset_] = null;
+      ++writeOffset_;
+    }
+
+    return writeOffset_ >= nBuffers_;
+  }
+
+  /**
+   * Write all the queued buffers to the channel using gathering writes, then
+   * clear the queue. If the channel is non-blocking, this repeats the write
+   * until all bytes are written.
+   * @param channel The channel to write to.
+   * @throws IOException For I/O error. In this case the queue is still cleared.
+   */
+  public final void
+  writeTo(GatheringByteChannel channel) throws IOException
+  {
+    try {
+      while (!advance())
+        channel.write(buffers_, writeOffset_, nBuffers_ - writeOffset_);
+    }
+    finally {
+      clear();
+    }
+  }
+
+  /**
+   * Remove all buffers from the queue.
+   */
+  public final void
+  clear()
+  {
+    for (int i = writeOffset_; i < nBuffers_; ++i)
+      buffers_[i] = null;
+    nBuffers_ = 0;
+    nBytes_ = 0;
+    writeOffset_ = 0;
+  }
+
+  /**
+   * Get the array of queued buffers. Only the buffers from getWriteOffset()
+   * for getWriteLength() are valid.
+   * @return The array of buffers. This is not a copy.
+   */
+  public final ByteBuffer[]
+  getBuffers() { return buffers_; }
+
+  public final int
+  getWriteOffset() { return writeOffset_; }
+
+  public final int
+  getWriteLength() { return nBuffers_ - writeOffset_; }
+
+  public final boolean
+  isEmpty() { return nBuffers_ == 0; }
+
+  /**
+   * Get the number of bytes added since the queue was last cleared.
+   * @return The number of bytes.
+   */
+  public final int
+  getNBytes() { return nBytes_; }
+
+  public final int
+  getMaxBytes() { return maxBytes_; }
+
+  public final double
+  getMaxDelayMilliseconds() { return maxDelayMilliseconds_; }
+
+  private final int maxBytes_;
+  private final double maxDelayMilliseconds_;
+  private ByteBuffer[] buffers_ = new ByteBuffer[16];
+  private int nBuffers_ = 0;
+  private int nBytes_ = 0;
+  private int writeOffset_ = 0;
+  private double firstAddTime_ = 0;
+}
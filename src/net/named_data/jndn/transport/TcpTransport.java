@@ -24,6 +24,7 @@ import java.net.InetSocketAddress;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
 import net.named_data.jndn.encoding.ElementListener;
 import net.named_data.jndn.encoding.ElementReader;
 import net.named_data.jndn.encoding.EncodingException;
@@ -136,12 +137,22 @@ public class TcpTransport extends Transport {
 
     elementReader_ = new ElementReader(elementListener);
 
+    if (connectionInfo.getSendFlushMaxBytes() > 0)
+      sendQueue_ = new SendQueue
+        (connectionInfo.getSendFlushMaxBytes(),
+         connectionInfo.getSendFlushMaxDelayMilliseconds());
+    else
+      sendQueue_ = null;
+
     if (onConnected != null)
       onConnected.run();
   }
 
   /**
-   * Send data to the host
+   * Send data to the host. If the ConnectionInfo given to connect has a send
+   * flush policy, this adds the data to the send queue and only writes the
+   * queue when it reaches the maximum bytes. Otherwise the queue is written by
+   * processEvents when the maximum delay has passed.
    * @param data The buffer of data to send.  This reads from position() to
    * limit(), but does not change the position.
    * @throws IOException For I/O error.
@@ -149,24 +160,54 @@ public class TcpTransport extends Transport {
   public void
   send(ByteBuffer data) throws IOException
   {
-    if (channel_ == null)
+    SocketChannel channel = channel_;
+    if (channel == null)
       throw new IOException
         ("Cannot send because the socket is not open.  Use connect.");
 
+    SendQueue sendQueue = sendQueue_;
+    if (sendQueue != null) {
+      synchronized (sendQueue) {
+        if (sendQueue.add(data))
+          sendQueue.writeTo(channel);
+      }
+      return;
+    }
+
     // Save and restore the position.
     int savePosition = data.position();
     try {
       while(data.hasRemaining())
-        channel_.write(data);
+        channel.write(data);
     }
     finally {
       data.position(savePosition);
     }
   }
 
+  /**
+   * Write all packets in the send queue now, without waiting for the flush
+   * policy. If send batching is not enabled, this does nothing.
+   * @throws IOException For I/O error.
+   */
+  public void
+  flush() throws IOException
+  {
+    SocketChannel channel = channel_;
+    SendQueue sendQueue = sendQueue_;
+    if (sendQueue == null || channel == null)
+      return;
+
+    synchronized (sendQueue) {
+      if (!sendQueue.isEmpty())
+        sendQueue.writeTo(channel);
+    }
+  }
+
   /**
    * Process any data to receive.  For each element received, call
-   * elementListener.onReceivedElement.
+   * elementListener.onReceivedElement. If the send queue has a packet which
+   * has waited the maximum delay of the send flush policy, write the queue.
    * This is non-blocking and will return immediately if there is no data to
    * receive. You should normally not call this directly since it is called by
    * Face.processEvents.
@@ -181,11 +222,28 @@ public class TcpTransport extends Transport {
     if (!getIsConnected())
       return;
 
+    SendQueue sendQueue = sendQueue_;
+    if (sendQueue != null) {
+      synchronized (sendQueue) {
+        if (sendQueue.isFlushDue(Common.getNowMilliseconds()))
+          sendQueue.writeTo(channel_);
+      }
+    }
+
     while (true) {
       inputBuffer_.limit(inputBuffer_.capacity());
       inputBuffer_.position(0);
       int bytesRead = channel_.read(inputBuffer_);
-      if (bytesRead <= 0)
+      if (bytesRead < 0) {
+        // The other side closed the connection. Close the channel so that
+        // getIsConnected() is false and an event loop doesn't keep selecting
+        // it.
+        channel_.close();
+        channel_ = null;
+        sendQueue_ = null;
+        return;
+      }
+      if (bytesRead == 0)
         return;
 
       inputBuffer_.flip();
@@ -193,6 +251,30 @@ public class TcpTransport extends Transport {
     }
   }
 
+  /**
+   * Get the socket channel so that an event loop can select it.
+   * @return The channel, or null if not connected.
+   */
+  public SelectableChannel
+  getSelectableChannel() { return channel_; }
+
+  /**
+   * Get the time when the send queue needs to be flushed by processEvents.
+   * @return The time in milliseconds, or -1 if the send queue is empty or send
+   * batching is not enabled.
+   */
+  public double
+  getNextProcessEventsTime()
+  {
+    SendQueue sendQueue = sendQueue_;
+    if (sendQueue == null)
+      return -1;
+
+    synchronized (sendQueue) {
+      return sendQueue.getFlushTime();
+    }
+  }
+
   /**
    * Check if the transport is connected.
    * @return True if connected.
@@ -207,16 +289,24 @@ public class TcpTransport extends Transport {
   }
 
   /**
-   * Close the connection.  If not connected, this does nothing.
+   * Close the connection.  If not connected, this does nothing. This first
+   * writes any packets in the send queue.
    * @throws IOException For I/O error.
    */
   public void
   close() throws IOException
   {
     if (channel_ != null) {
-      if (channel_.isConnected())
-        channel_.close();
-      channel_ = null;
+      try {
+        if (channel_.isConnected())
+          flush();
+      }
+      finally {
+        if (channel_.isConnected())
+          channel_.close();
+        channel_ = null;
+        sendQueue_ = null;
+      }
     }
   }
 
@@ -243,6 +333,7 @@ public class TcpTransport extends Transport {
   ByteBuffer inputBuffer_ = ByteBuffer.allocate(Common.MAX_NDN_PACKET_SIZE);
   // TODO: This belongs in the socket listener.
   private ElementReader elementReader_;
+  private SendQueue sendQueue_ = null;
   private ConnectionInfo connectionInfo_;
   private boolean isLocal_;
 }
@@ -21,6 +21,7 @@ package net.named_data.jndn.transport;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
 import net.named_data.jndn.encoding.ElementListener;
 import net.named_data.jndn.encoding.EncodingException;
 import net.named_data.jndn.util.Common;
@@ -32,9 +33,60 @@ import net.named_data.jndn.util.Common;
 public abstract class Transport {
   /**
    * A Transport.ConnectionInfo is a base class for connection information used
-   * by subclasses of Transport.
+   * by subclasses of Transport. It also holds the send flush policy for
+   * transports which support batched sends.
    */
   public static class ConnectionInfo {
+    /**
+     * Set the policy for batching sent packets. If sendFlushMaxBytes is
+     * positive, a transport which supports batching adds each sent packet to a
+     * queue and writes the queued packets together in one gathering write when
+     * the queue has sendFlushMaxBytes bytes, or when the first queued packet
+     * has waited sendFlushMaxDelayMilliseconds. While batching is enabled, the
+     * transport keeps the sent buffer until it is written, so the caller must
+     * not change its bytes after calling send.
+     * @param sendFlushMaxBytes The number of queued bytes which causes a flush.
+     * If this is 0 (the default), batching is disabled and each packet is
+     * written when it is sent.
+     * @param sendFlushMaxDelayMilliseconds The maximum time that a packet waits
+     * in the queue. If this is 0, the queue is flushed on the next call to
+     * processEvents (or immediately if the transport is async).
+     * @return This ConnectionInfo so that you can chain calls to update values.
+     */
+    public final ConnectionInfo
+    setSendFlushPolicy
+      (int sendFlushMaxBytes, double sendFlushMaxDelayMilliseconds)
+    {
+      if (sendFlushMaxBytes < 0)
+        throw new IllegalArgumentException
+          ("setSendFlushPolicy: sendFlushMaxBytes must not be negative");
+      if (sendFlushMaxDelayMilliseconds < 0)
+        throw new IllegalArgumentException
+          ("setSendFlushPolicy: sendFlushMaxDelayMilliseconds must not be negative");
+
+      sendFlushMaxBytes_ = sendFlushMaxBytes;
+      sendFlushMaxDelayMilliseconds_ = sendFlushMaxDelayMilliseconds;
+      return this;
+    }
+
+    /**
+     * Get the number of queued bytes which causes a flush, as given to
+     * setSendFlushPolicy.
+     * @return The number of bytes, or 0 if batching is disabled.
+     */
+    public final int
+    getSendFlushMaxBytes() { return sendFlushMaxBytes_; }
+
+    /**
+     * Get the maximum time that a packet waits in the send queue, as given to
+     * setSendFlushPolicy.
+     * @return The maximum delay in milliseconds.
+     */
+    public final double
+    getSendFlushMaxDelayMilliseconds() { return sendFlushMaxDelayMilliseconds_; }
+
+    private int sendFlushMaxBytes_ = 0;
+    private double sendFlushMaxDelayMilliseconds_ = 0;
   }
 
   /**
@@ -103,6 +155,39 @@ public abstract class Transport {
   public abstract void
   processEvents() throws IOException, EncodingException;
 
+  /**
+   * Get the channel which an event loop such as SelectorEventLoop can register
+   * with a Selector to wait until processEvents has data to receive. The
+   * channel is in non-blocking mode. This base class implementation returns
+   * null, which means that the transport can't be selected, and is correct for
+   * an async transport which receives data on its own threads.
+   * @return The channel, or null if not connected or if the transport can't be
+   * selected. This may change after connect or close.
+   */
+  public SelectableChannel
+  getSelectableChannel() { return null; }
+
+  /**
+   * Get the earliest time when processEvents needs to be called to do pending
+   * work such as flushing queued packets, even if no data is received. This
+   * base class implementation returns -1.
+   * @return The time in milliseconds, similar to Common.getNowMilliseconds(),
+   * or -1 if there is no pending work.
+   */
+  public double
+  getNextProcessEventsTime() { return -1; }
+
+  /**
+   * Check if the transport has queued packets which it couldn't write because
+   * the channel from getSelectableChannel() was not writable. An event loop
+   * such as SelectorEventLoop should then select the channel for writing and
+   * call processEvents when it is writable, instead of polling. This base class
+   * implementation returns false.
+   * @return True if a write is waiting for the channel to be writable.
+   */
+  public boolean
+  getIsWritePending() { return false; }
+
   /**
    * Check if the transport is connected.
    * @return True if connected.
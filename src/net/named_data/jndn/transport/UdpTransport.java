@@ -22,7 +22,10 @@ package net.named_data.jndn.transport;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import net.named_data.jndn.encoding.ElementListener;
 import net.named_data.jndn.encoding.ElementReader;
 import net.named_data.jndn.encoding.EncodingException;
@@ -75,10 +78,72 @@ public class UdpTransport extends Transport {
     public final int
     getPort() { return port_; }
 
+    /**
+     * Set the batch size for batched datagram mode. If the batch size is
+     * positive, each call to processEvents reads up to batchSize datagrams,
+     * first reading as many as fit in the ring of receive buffers and then
+     * passing them to the ElementReader, and send adds each datagram to a ring
+     * of send buffers which is written when batchSize datagrams are queued or
+     * on the next call to processEvents.
+     * @param batchSize The maximum number of datagrams to read in one call to
+     * processEvents and to queue before writing. If this is 0 (the default),
+     * batched mode is disabled.
+     * @return This ConnectionInfo so that you can chain calls to update values.
+     */
+    public final ConnectionInfo
+    setBatchSize(int batchSize)
+    {
+      if (batchSize < 0)
+        throw new IllegalArgumentException
+          ("setBatchSize: batchSize must not be negative");
+
+      batchSize_ = batchSize;
+      return this;
+    }
+
+    /**
+     * Get the batch size for batched datagram mode.
+     * @return The batch size, or 0 if batched mode is disabled.
+     */
+    public final int
+    getBatchSize() { return batchSize_; }
+
+    /**
+     * Set the number of pooled buffers in each of the receive and send rings
+     * for batched datagram mode. Each buffer has Common.MAX_NDN_PACKET_SIZE
+     * bytes.
+     * @param ringSize The number of buffers in each ring.
+     * @return This ConnectionInfo so that you can chain calls to update values.
+     */
+    public final ConnectionInfo
+    setRingSize(int ringSize)
+    {
+      if (ringSize <= 0)
+        throw new IllegalArgumentException
+          ("setRingSize: ringSize must be positive");
+
+      ringSize_ = ringSize;
+      return this;
+    }
+
+    /**
+     * Get the number of pooled buffers in each ring for batched datagram mode.
+     * @return The ring size.
+     */
+    public final int
+    getRingSize() { return ringSize_; }
+
     private final String host_;
     private final int port_;
+    private int batchSize_ = 0;
+    private int ringSize_ = DEFAULT_RING_SIZE;
   }
 
+  /**
+   * The default number of buffers in each ring for batched datagram mode.
+   */
+  public static final int DEFAULT_RING_SIZE = 64;
+
   /**
    * Determine whether this transport connecting according to connectionInfo is
    * to a node on the current machine. According to
@@ -124,12 +189,25 @@ public class UdpTransport extends Transport {
 
     elementReader_ = new ElementReader(elementListener);
 
+    batchSize_ = ((ConnectionInfo)connectionInfo).getBatchSize();
+    if (batchSize_ > 0) {
+      int ringSize = ((ConnectionInfo)connectionInfo).getRingSize();
+      if (receiveRing_ == null || receiveRing_.length != ringSize) {
+        receiveRing_ = allocateRing(ringSize);
+        sendRing_ = allocateRing(ringSize);
+      }
+    }
+    sendHead_ = 0;
+    nQueued_ = 0;
+    isWriteBlocked_ = false;
+
     if (onConnected != null)
       onConnected.run();
   }
 
   /**
-   * Send data to the host
+   * Send data to the host. In batched datagram mode, this copies the data to
+   * the send ring, and writes the queued datagrams when there are batchSize.
    * @param data The buffer of data to send.  This reads from position() to
    * limit(), but does not change the position.
    * @throws IOException For I/O error.
@@ -141,6 +219,28 @@ public class UdpTransport extends Transport {
       throw new IOException
         ("Cannot send because the socket is not open.  Use connect.");
 
+    if (batchSize_ > 0 && data.remaining() <= Common.MAX_NDN_PACKET_SIZE) {
+      synchronized (sendRingLock_) {
+        if (nQueued_ >= sendRing_.length)
+          // The ring is full, so wait until the queued datagrams are written.
+          writeSendRing(true);
+
+        ByteBuffer buffer = sendRing_[(sendHead_ + nQueued_) % sendRing_.length];
+        buffer.clear();
+        buffer.put(data.duplicate());
+        buffer.flip();
+        ++nQueued_;
+
+        if (nQueued_ >= batchSize_)
+          writeSendRing(false);
+      }
+      return;
+    }
+
+    if (batchSize_ > 0)
+      // Keep the order of datagrams which are too large for the ring.
+      flush();
+
     // Save and restore the position.
     int savePosition = data.position();
     try {
@@ -152,12 +252,30 @@ public class UdpTransport extends Transport {
     }
   }
 
+  /**
+   * Write all datagrams in the send ring now. If batched datagram mode is not
+   * enabled, this does nothing.
+   * @throws IOException For I/O error.
+   */
+  public void
+  flush() throws IOException
+  {
+    if (batchSize_ <= 0 || channel_ == null)
+      return;
+
+    synchronized (sendRingLock_) {
+      writeSendRing(true);
+    }
+  }
+
   /**
    * Process any data to receive.  For each element received, call
    * elementListener.onReceivedElement.
    * This is non-blocking and will return immediately if there is no data to
    * receive. You should normally not call this directly since it is called by
-   * Face.processEvents.
+   * Face.processEvents. In batched datagram mode, this first writes the
+   * queued datagrams which the socket can accept without blocking, then reads
+   * up to batchSize datagrams.
    * If you call this from an main event loop, you may want to catch and
    * log/disregard all exceptions.
    * @throws IOException For I/O error.
@@ -169,6 +287,14 @@ public class UdpTransport extends Transport {
     if (!getIsConnected())
       return;
 
+    if (batchSize_ > 0) {
+      synchronized (sendRingLock_) {
+        writeSendRing(false);
+      }
+      receiveBatch();
+      return;
+    }
+
     while (true) {
       inputBuffer_.limit(inputBuffer_.capacity());
       inputBuffer_.position(0);
@@ -181,6 +307,42 @@ public class UdpTransport extends Transport {
     }
   }
 
+  /**
+   * Get the datagram channel so that an event loop can select it.
+   * @return The channel, or null if not connected.
+   */
+  public SelectableChannel
+  getSelectableChannel() { return channel_; }
+
+  /**
+   * Get the time when processEvents needs to write the send ring.
+   * @return The current time if datagrams are waiting in the send ring of the
+   * batched datagram mode and the last write didn't find the socket full,
+   * otherwise -1. (If the socket is full, getIsWritePending() is true so that
+   * the event loop waits until the channel is writable.)
+   */
+  public double
+  getNextProcessEventsTime()
+  {
+    synchronized (sendRingLock_) {
+      return nQueued_ > 0 && !isWriteBlocked_ ?
+        Common.getNowMilliseconds() : -1;
+    }
+  }
+
+  /**
+   * Check if datagrams are waiting in the send ring because the socket
+   * couldn't accept them without blocking.
+   * @return True if a write is waiting for the channel to be writable.
+   */
+  public boolean
+  getIsWritePending()
+  {
+    synchronized (sendRingLock_) {
+      return nQueued_ > 0 && isWriteBlocked_;
+    }
+  }
+
   /**
    * Check if the transport is connected.
    * @return True if connected.
@@ -195,21 +357,141 @@ public class UdpTransport extends Transport {
   }
 
   /**
-   * Close the connection.  If not connected, this does nothing.
+   * Close the connection.  If not connected, this does nothing. In batched
+   * datagram mode, this first writes the queued datagrams.
    * @throws IOException For I/O error.
    */
   public void
   close() throws IOException
   {
     if (channel_ != null) {
-      if (channel_.isConnected())
-        channel_.close();
-      channel_ = null;
+      try {
+        if (channel_.isConnected())
+          flush();
+      }
+      finally {
+        if (writeSelector_ != null) {
+          writeSelector_.close();
+          writeSelector_ = null;
+        }
+        if (channel_.isConnected())
+          channel_.close();
+        channel_ = null;
+      }
     }
   }
 
+  /**
+   * Read up to batchSize_ datagrams. Fill the receive ring with the datagrams
+   * which are ready, then pass them to the ElementReader, and repeat until
+   * there are no more datagrams or batchSize_ have been read. If the
+   * ElementReader throws an exception, the remaining datagrams in the ring are
+   * still processed before the first exception is thrown.
+   */
+  private void
+  receiveBatch() throws IOException, EncodingException
+  {
+    int nRead = 0;
+    while (nRead < batchSize_) {
+      int nInRing = 0;
+      boolean isDrained = false;
+      while (nInRing < receiveRing_.length && nRead < batchSize_) {
+        ByteBuffer buffer = receiveRing_[nInRing];
+        buffer.clear();
+        if (channel_.read(buffer) <= 0) {
+          isDrained = true;
+          break;
+        }
+
+        buffer.flip();
+        ++nInRing;
+        ++nRead;
+      }
+
+      EncodingException encodingException = null;
+      for (int i = 0; i < nInRing; ++i) {
+        try {
+          elementReader_.onReceivedData(receiveRing_[i]);
+        } catch (EncodingException ex) {
+          if (encodingException == null)
+            encodingException = ex;
+        }
+      }
+      if (encodingException != null)
+        throw encodingException;
+
+      if (isDrained)
+        break;
+    }
+  }
+
+  /**
+   * Write the queued datagrams in the send ring in order. The caller must hold
+   * sendRingLock_.
+   * @param block If true, wait until the socket accepts all the datagrams. If
+   * false, stop when the socket can't accept a datagram without blocking, set
+   * isWriteBlocked_ and leave the rest in the ring for the next call.
+   */
+  private void
+  writeSendRing(boolean block) throws IOException
+  {
+    while (nQueued_ > 0) {
+      if (channel_.write(sendRing_[sendHead_]) == 0) {
+        if (!block) {
+          isWriteBlocked_ = true;
+          return;
+        }
+
+        waitUntilWritable();
+        continue;
+      }
+
+      isWriteBlocked_ = false;
+      sendHead_ = (sendHead_ + 1) % sendRing_.length;
+      --nQueued_;
+    }
+  }
+
+  /**
+   * Wait on writeSelector_ until channel_ is writable, so that a blocking
+   * write of the send ring doesn't spin. The caller must hold sendRingLock_.
+   */
+  private void
+  waitUntilWritable() throws IOException
+  {
+    if (writeSelector_ == null) {
+      writeSelector_ = Selector.open();
+      // The channel can also be registered with an event loop's selector.
+      channel_.register(writeSelector_, SelectionKey.OP_WRITE);
+    }
+
+    writeSelector_.select();
+    writeSelector_.selectedKeys().clear();
+  }
+
+  private static ByteBuffer[]
+  allocateRing(int ringSize)
+  {
+    ByteBuffer[] ring = new ByteBuffer[ringSize];
+    for (int i = 0; i < ringSize; ++i)
+      ring[i] = ByteBuffer.allocate(Common.MAX_NDN_PACKET_SIZE);
+    return ring;
+  }
+
   DatagramChannel channel_;
   ByteBuffer inputBuffer_ = ByteBuffer.allocate(Common.MAX_NDN_PACKET_SIZE);
   // TODO: This belongs in the socket listener.
   private ElementReader elementReader_;
+  private int batchSize_ = 0;
+  private ByteBuffer[] receiveRing_ = null;
+  private ByteBuffer[] sendRing_ = null;
+  // sendHead_ is the index in sendRing_ of the first queued datagram.
+  private int sendHead_ = 0;
+  private int nQueued_ = 0;
+  // isWriteBlocked_ is true if the last write of the send ring made no
+  // progress because the socket was full.
+  private boolean isWriteBlocked_ = false;
+  // writeSelector_ is opened by the first blocking write which must wait.
+  private Selector writeSelector_ = null;
+  private final Object sendRingLock_ = new Object();
 }
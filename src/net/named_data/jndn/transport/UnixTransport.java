@@ -0,0 +1,391 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.transport;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
+import net.named_data.jndn.encoding.ElementListener;
+import net.named_data.jndn.encoding.ElementReader;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.util.Common;
+
+/**
+ * UnixTransport extends the Transport interface to implement communication over
+ * a Unix domain socket, which is normally used to connect to the local NFD.
+ * This uses SocketChannel with UnixDomainSocketAddress, which requires Java 16
+ * or later. Since this library is compiled for Java 8, the Java 16 API is
+ * accessed by reflection. Use isSupported() to check if it is available.
+ */
+public class UnixTransport extends Transport {
+  /**
+   * A UnixTransport.ConnectionInfo extends Transport.ConnectionInfo to hold
+   * the socket file path for the Unix domain socket connection.
+   */
+  public static class ConnectionInfo extends Transport.ConnectionInfo {
+    /**
+     * Create a ConnectionInfo with the given socket file path.
+     * @param filePath The file path of the Unix domain socket, for example
+     * "/run/nfd.sock".
+     */
+    public
+    ConnectionInfo(String filePath)
+    {
+      filePath_ = filePath;
+    }
+
+    /**
+     * Create a ConnectionInfo with the default NFD socket file path
+     * DEFAULT_FILE_PATH.
+     */
+    public
+    ConnectionInfo()
+    {
+      filePath_ = DEFAULT_FILE_PATH;
+    }
+
+    /**
+     * Get the file path given to the constructor.
+     * @return The file path.
+     */
+    public final String
+    getFilePath() { return filePath_; }
+
+    private final String filePath_;
+  }
+
+  /**
+   * The default file path of the NFD Unix domain socket.
+   */
+  public static final String DEFAULT_FILE_PATH = "/run/nfd.sock";
+
+  /**
+   * Determine whether this transport connecting according to connectionInfo is
+   * to a node on the current machine. Unix domain sockets are always local.
+   * @param connectionInfo This is ignored.
+   * @return True because Unix domain sockets are always local.
+   */
+  public boolean
+  isLocal(Transport.ConnectionInfo connectionInfo) { return true; }
+
+  /**
+   * Override to return false since connect does not need to use the onConnected
+   * callback.
+   * @return False.
+   */
+  public boolean
+  isAsync() { return false; }
+
+  /**
+   * Check if this Java runtime supports Unix domain socket channels (Java 16
+   * or later).
+   * @return True if UnixTransport can connect.
+   */
+  public static boolean
+  isSupported() { return openMethod_ != null; }
+
+  /**
+   * Connect according to the info in ConnectionInfo, and use elementListener.
+   * @param connectionInfo A UnixTransport.ConnectionInfo.
+   * @param elementListener The ElementListener must remain valid during the
+   * life of this object.
+   * @param onConnected If not null, this calls onConnected.run() when the
+   * connection is established.
+   * @throws IOException For I/O error.
+   * @throws UnsupportedOperationException If this Java runtime does not support
+   * Unix domain socket channels.
+   */
+  public void
+  connect
+    (Transport.ConnectionInfo connectionInfo, ElementListener elementListener,
+     Runnable onConnected)
+    throws IOException
+  {
+    close();
+
+    SocketChannel channel = openChannel();
+    try {
+      channel.connect(makeAddress
+        (((ConnectionInfo)connectionInfo).getFilePath()));
+      channel.configureBlocking(false);
+    } catch (IOException ex) {
+      channel.close();
+      throw ex;
+    }
+    channel_ = channel;
+
+    elementReader_ = new ElementReader(elementListener);
+
+    if (connectionInfo.getSendFlushMaxBytes() > 0)
+      sendQueue_ = new SendQueue
+        (connectionInfo.getSendFlushMaxBytes(),
+         connectionInfo.getSendFlushMaxDelayMilliseconds());
+    else
+      sendQueue_ = null;
+
+    if (onConnected != null)
+      onConnected.run();
+  }
+
+  /**
+   * Send data to the host. If the ConnectionInfo given to connect has a send
+   * flush policy, this adds the data to the send queue as in TcpTransport.
+   * @param data The buffer of data to send.  This reads from position() to
+   * limit(), but does not change the position.
+   * @throws IOException For I/O error.
+   */
+  public void
+  send(ByteBuffer data) throws IOException
+  {
+    SocketChannel channel = channel_;
+    if (channel == null)
+      throw new IOException
+        ("Cannot send because the socket is not open.  Use connect.");
+
+    SendQueue sendQueue = sendQueue_;
+    if (sendQueue != null) {
+      synchronized (sendQueue) {
+        if (sendQueue.add(data))
+          sendQueue.writeTo(channel);
+      }
+      return;
+    }
+
+    // Save and restore the position.
+    int savePosition = data.position();
+    try {
+      while(data.hasRemaining())
+        channel.write(data);
+    }
+    finally {
+      data.position(savePosition);
+    }
+  }
+
+  /**
+   * Write all packets in the send queue now, without waiting for the flush
+   * policy. If send batching is not enabled, this does nothing.
+   * @throws IOException For I/O error.
+   */
+  public void
+  flush() throws IOException
+  {
+    SocketChannel channel = channel_;
+    SendQueue sendQueue = sendQueue_;
+    if (sendQueue == null || channel == null)
+      return;
+
+    synchronized (sendQueue) {
+      if (!sendQueue.isEmpty())
+        sendQueue.writeTo(channel);
+    }
+  }
+
+  /**
+   * Process any data to receive.  For each element received, call
+   * elementListener.onReceivedElement. If the send queue has a packet which
+   * has waited the maximum delay of the send flush policy, write the queue.
+   * This is non-blocking and will return immediately if there is no data to
+   * receive. You should normally not call this directly since it is called by
+   * Face.processEvents.
+   * If you call this from an main event loop, you may want to catch and
+   * log/disregard all exceptions.
+   * @throws IOException For I/O error.
+   * @throws EncodingException For invalid encoding.
+   */
+  public void
+  processEvents() throws IOException, EncodingException
+  {
+    if (!getIsConnected())
+      return;
+
+    SendQueue sendQueue = sendQueue_;
+    if (sendQueue != null) {
+      synchronized (sendQueue) {
+        if (sendQueue.isFlushDue(Common.getNowMilliseconds()))
+          sendQueue.writeTo(channel_);
+      }
+    }
+
+    while (true) {
+      inputBuffer_.limit(inputBuffer_.capacity());
+      inputBuffer_.position(0);
+      int bytesRead = channel_.read(inputBuffer_);
+      if (bytesRead < 0) {
+        // The other side closed the connection. Close the channel so that
+        // getIsConnected() is false and an event loop doesn't keep selecting
+        // it.
+        channel_.close();
+        channel_ = null;
+        sendQueue_ = null;
+        return;
+      }
+      if (bytesRead == 0)
+        return;
+
+      inputBuffer_.flip();
+      elementReader_.onReceivedData(inputBuffer_);
+    }
+  }
+
+  /**
+   * Get the socket channel so that an event loop can select it.
+   * @return The channel, or null if not connected.
+   */
+  public SelectableChannel
+  getSelectableChannel() { return channel_; }
+
+  /**
+   * Get the time when the send queue needs to be flushed by processEvents.
+   * @return The time in milliseconds, or -1 if the send queue is empty or send
+   * batching is not enabled.
+   */
+  public double
+  getNextProcessEventsTime()
+  {
+    SendQueue sendQueue = sendQueue_;
+    if (sendQueue == null)
+      return -1;
+
+    synchronized (sendQueue) {
+      return sendQueue.getFlushTime();
+    }
+  }
+
+  /**
+   * Check if the transport is connected.
+   * @return True if connected.
+   */
+  public boolean
+  getIsConnected() throws IOException
+  {
+    if (channel_ == null)
+      return false;
+
+    return channel_.isConnected();
+  }
+
+  /**
+   * Close the connection.  If not connected, this does nothing. This first
+   * writes any packets in the send queue.
+   * @throws IOException For I/O error.
+   */
+  public void
+  close() throws IOException
+  {
+    if (channel_ != null) {
+      try {
+        if (channel_.isConnected())
+          flush();
+      }
+      finally {
+        if (channel_.isConnected())
+          channel_.close();
+        channel_ = null;
+        sendQueue_ = null;
+      }
+    }
+  }
+
+  /**
+   * Call SocketChannel.open(StandardProtocolFamily.UNIX).
+   */
+  private static SocketChannel
+  openChannel() throws IOException
+  {
+    if (openMethod_ == null)
+      throw new UnsupportedOperationException
+        ("UnixTransport requires Java 16 or later");
+
+    try {
+      return (SocketChannel)openMethod_.invoke(null, unixProtocolFamily_);
+    } catch (InvocationTargetException ex) {
+      throw toIOException(ex);
+    } catch (IllegalAccessException ex) {
+      throw new Error("UnixTransport: Can't call SocketChannel.open: " + ex);
+    }
+  }
+
+  /**
+   * Call UnixDomainSocketAddress.of(filePath).
+   */
+  private static SocketAddress
+  makeAddress(String filePath) throws IOException
+  {
+    try {
+      return (SocketAddress)addressOfMethod_.invoke(null, filePath);
+    } catch (InvocationTargetException ex) {
+      throw toIOException(ex);
+    } catch (IllegalAccessException ex) {
+      throw new Error
+        ("UnixTransport: Can't call UnixDomainSocketAddress.of: " + ex);
+    }
+  }
+
+  private static IOException
+  toIOException(InvocationTargetException ex)
+  {
+    Throwable cause = ex.getCause();
+    if (cause instanceof IOException)
+      return (IOException)cause;
+    if (cause instanceof RuntimeException)
+      throw (RuntimeException)cause;
+    return new IOException(cause);
+  }
+
+  private SocketChannel channel_;
+  private ByteBuffer inputBuffer_ =
+    ByteBuffer.allocate(Common.MAX_NDN_PACKET_SIZE);
+  private ElementReader elementReader_;
+  private SendQueue sendQueue_ = null;
+
+  private static final Method openMethod_;
+  private static final Method addressOfMethod_;
+  private static final ProtocolFamily unixProtocolFamily_;
+
+  static {
+    Method openMethod = null;
+    Method addressOfMethod = null;
+    ProtocolFamily unixProtocolFamily = null;
+    try {
+      unixProtocolFamily = StandardProtocolFamily.valueOf("UNIX");
+      openMethod = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+      addressOfMethod = Class.forName("java.net.UnixDomainSocketAddress")
+        .getMethod("of", String.class);
+    } catch (IllegalArgumentException ex) {
+      // StandardProtocolFamily.UNIX is not defined before Java 16.
+      openMethod = null;
+    } catch (NoSuchMethodException ex) {
+      openMethod = null;
+    } catch (ClassNotFoundException ex) {
+      openMethod = null;
+    }
+
+    openMethod_ = openMethod;
+    addressOfMethod_ = addressOfMethod;
+    unixProtocolFamily_ = unixProtocolFamily;
+  }
+}
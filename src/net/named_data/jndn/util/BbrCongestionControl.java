@@ -0,0 +1,272 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.util;
+
+/**
+ * BbrCongestionControl sets the congestion window from a model of the path,
+ * in the style of BBR, instead of reacting to each loss. It measures the
+ * delivery rate in each round trip and keeps the maximum of the last rounds as
+ * the bottleneck rate, and keeps the minimum RTT sample of the last
+ * MIN_RTT_WINDOW milliseconds. The window is a gain times the product of the
+ * two (the bandwidth-delay product). It starts with slow start until the rate
+ * stops growing, then cycles the gain to probe for more bandwidth and drain any
+ * queue, and periodically shrinks the window to remeasure the minimum RTT.
+ * Since there is no pacing, the window is the only control. If the fraction
+ * of congestion marked segments in a round is above MARK_THRESHOLD, or the
+ * fraction lost is above LOSS_THRESHOLD, the window is capped until the next
+ * probe for bandwidth. Isolated random losses are ignored.
+ */
+public class BbrCongestionControl extends CongestionControl {
+    /**
+     * Create a BbrCongestionControl.
+     * @param options The SegmentFetcher.Options.
+     */
+    public BbrCongestionControl(SegmentFetcher.Options options) {
+        super(options);
+    }
+
+    /**
+     * Get the estimated bottleneck rate.
+     * @return The rate in segments per millisecond, or 0 if not measured yet.
+     */
+    public double getBottleneckRate() {
+        return bottleneckRate_;
+    }
+
+    /**
+     * Get the minimum RTT in the current window.
+     * @return The minimum RTT in milliseconds, or infinity if not measured yet.
+     */
+    public double getMinRtt() {
+        return minRtt_;
+    }
+
+    public long onInterestSent() {
+        lastSentSequence_ = super.onInterestSent();
+        return lastSentSequence_;
+    }
+
+    public void onData
+    (long sequence, double rtt, boolean isCongestionMarked, double nowMilliseconds) {
+        ++nDelivered_;
+        updateMinRtt(rtt, nowMilliseconds);
+        if (sequence >= roundEndSequence_) {
+            onRoundEnd(nowMilliseconds);
+        }
+
+        if (mode_ == Mode.PROBE_RTT && isProbeRttRoundDone_ &&
+                nowMilliseconds >= probeRttDoneTime_) {
+            if (Double.isInfinite(minRtt_)) {
+                minRtt_ = savedMinRtt_;
+            }
+            minRttTime_ = nowMilliseconds;
+            mode_ = isFullPipe_ ? Mode.PROBE_BW : Mode.STARTUP;
+        }
+
+        if (isCongestionMarked) {
+            ++nMarksInRound_;
+            isCongestionMarked = nMarksInRound_ > MARK_THRESHOLD * getRoundSize();
+        }
+        super.onData(sequence, rtt, isCongestionMarked, nowMilliseconds);
+    }
+
+    public void onLoss(double nowMilliseconds) {
+        ++nLossesInRound_;
+        // Ignore random loss.
+        if (nLossesInRound_ > LOSS_THRESHOLD * getRoundSize()) {
+            super.onLoss(nowMilliseconds);
+        }
+    }
+
+    protected void windowIncrease(double rtt, double nowMilliseconds) {
+        if (mode_ == Mode.STARTUP) {
+            cwnd_ = Math.min(cwnd_ + options_.aiStep, inflightHigh_);
+            return;
+        }
+        if (mode_ == Mode.PROBE_RTT) {
+            cwnd_ = MIN_CWND;
+            return;
+        }
+
+        double bdp = getBdp();
+        if (bdp > 0) {
+            double gain = mode_ == Mode.DRAIN ? 1.0 : PROBE_BW_GAINS[cycleIndex_];
+            double target = Math.max(MIN_CWND, Math.min(gain * bdp, inflightHigh_));
+            // Without pacing, grow by at most aiStep per segment so that a jump
+            // in the window doesn't send a burst which builds a queue.
+            cwnd_ = Math.min(target, cwnd_ + options_.aiStep);
+        }
+    }
+
+    protected void windowDecrease(double nowMilliseconds) {
+        // The path is full, so stop probing above the current window. The
+        // estimated bandwidth-delay product doesn't include the queue, so it
+        // is safe to keep.
+        inflightHigh_ = Math.max(MIN_CWND, Math.max(cwnd_ * BETA, getBdp()));
+        cwnd_ = Math.min(cwnd_, inflightHigh_);
+        if (mode_ == Mode.STARTUP) {
+            isFullPipe_ = true;
+            mode_ = Mode.DRAIN;
+        }
+    }
+
+    private enum Mode {
+        /** slow start until the delivery rate stops growing
+         */
+        STARTUP,
+        /** set the window to the bandwidth-delay product for one round to drain
+         *  the queue built in STARTUP
+         */
+        DRAIN,
+        /** cycle the window gain to probe for bandwidth
+         */
+        PROBE_BW,
+        /** use MIN_CWND to remeasure the minimum RTT
+         */
+        PROBE_RTT
+    }
+
+    /**
+     * Get the estimated bandwidth-delay product.
+     * @return The number of segments, or 0 if not measured yet.
+     */
+    private double getBdp() {
+        if (Double.isInfinite(minRtt_)) {
+            return 0;
+        }
+        return bottleneckRate_ * minRtt_;
+    }
+
+    /**
+     * Get the number of segments delivered in the current round or the previous
+     * round, whichever is larger, since the current round may have just started.
+     */
+    private long getRoundSize() {
+        return Math.max(nDelivered_ - roundStartDelivered_, nDeliveredInLastRound_);
+    }
+
+    private void updateMinRtt(double rtt, double nowMilliseconds) {
+        if (Double.isNaN(rtt)) {
+            return;
+        }
+
+        if (rtt <= minRtt_) {
+            minRtt_ = rtt;
+            minRttTime_ = nowMilliseconds;
+        } else if (mode_ != Mode.PROBE_RTT &&
+                nowMilliseconds - minRttTime_ > MIN_RTT_WINDOW) {
+            // The minimum RTT is stale. Measure it again with a small window.
+            mode_ = Mode.PROBE_RTT;
+            savedMinRtt_ = minRtt_;
+            minRtt_ = Double.POSITIVE_INFINITY;
+            probeRttDoneTime_ = nowMilliseconds + PROBE_RTT_DURATION;
+            isProbeRttRoundDone_ = false;
+        }
+    }
+
+    private void onRoundEnd(double nowMilliseconds) {
+        nDeliveredInLastRound_ = nDelivered_ - roundStartDelivered_;
+        if (roundStartTime_ >= 0 && nowMilliseconds > roundStartTime_) {
+            rateSamples_[(int)(roundCount_ % rateSamples_.length)] =
+                    nDeliveredInLastRound_ / (nowMilliseconds - roundStartTime_);
+            bottleneckRate_ = 0;
+            for (double rate : rateSamples_) {
+                bottleneckRate_ = Math.max(bottleneckRate_, rate);
+            }
+        }
+
+        ++roundCount_;
+        roundStartTime_ = nowMilliseconds;
+        roundStartDelivered_ = nDelivered_;
+        roundEndSequence_ = lastSentSequence_ + 1;
+        nLossesInRound_ = 0;
+        nMarksInRound_ = 0;
+        isProbeRttRoundDone_ = true;
+
+        if (mode_ == Mode.STARTUP) {
+            if (bottleneckRate_ >= fullRate_ * FULL_RATE_GROWTH) {
+                fullRate_ = bottleneckRate_;
+                nFullRateRounds_ = 0;
+            } else if (++nFullRateRounds_ >= FULL_RATE_ROUNDS) {
+                isFullPipe_ = true;
+                mode_ = Mode.DRAIN;
+            }
+        } else if (mode_ == Mode.DRAIN) {
+            mode_ = Mode.PROBE_BW;
+            cycleIndex_ = 0;
+            inflightHigh_ = Double.POSITIVE_INFINITY;
+        } else if (mode_ == Mode.PROBE_BW) {
+            cycleIndex_ = (cycleIndex_ + 1) % PROBE_BW_GAINS.length;
+            if (cycleIndex_ == 0) {
+                // Probe for bandwidth above the cap from the last congestion.
+                inflightHigh_ = Double.POSITIVE_INFINITY;
+            }
+        }
+    }
+
+    /** window gains for each round in PROBE_BW: probe up, drain, then cruise
+     */
+    private static final double[] PROBE_BW_GAINS =
+            { 1.25, 0.75, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0 };
+    /** the number of rounds of delivery rate samples for the bottleneck rate
+     */
+    private static final int RATE_FILTER_ROUNDS = 10;
+    /** the milliseconds after which the minimum RTT is remeasured
+     */
+    public static final double MIN_RTT_WINDOW = 10000.0;
+    /** the minimum milliseconds to stay in PROBE_RTT
+     */
+    public static final double PROBE_RTT_DURATION = 200.0;
+    /** the fraction of segments lost in a round above which a loss is treated as
+     *  congestion
+     */
+    public static final double LOSS_THRESHOLD = 0.02;
+    /** the fraction of segments congestion marked in a round above which a mark
+     *  is treated as congestion
+     */
+    public static final double MARK_THRESHOLD = 0.5;
+    private static final double MIN_CWND = 4.0;
+    private static final double BETA = 0.7;
+    private static final double FULL_RATE_GROWTH = 1.25;
+    private static final int FULL_RATE_ROUNDS = 3;
+
+    private Mode mode_ = Mode.STARTUP;
+    private final double[] rateSamples_ = new double[RATE_FILTER_ROUNDS];
+    private double bottleneckRate_ = 0;
+    private double minRtt_ = Double.POSITIVE_INFINITY;
+    private double minRttTime_ = 0;
+    private double savedMinRtt_ = Double.POSITIVE_INFINITY;
+    private double probeRttDoneTime_ = 0;
+    private boolean isProbeRttRoundDone_ = false;
+    private double inflightHigh_ = Double.POSITIVE_INFINITY;
+    private boolean isFullPipe_ = false;
+    private double fullRate_ = 0;
+    private int nFullRateRounds_ = 0;
+    private int cycleIndex_ = 0;
+    private long lastSentSequence_ = -1;
+    private long roundEndSequence_ = 0;
+    private long roundCount_ = 0;
+    private double roundStartTime_ = -1;
+    private long nDelivered_ = 0;
+    private long roundStartDelivered_ = 0;
+    private long nDeliveredInLastRound_ = 0;
+    private int nLossesInRound_ = 0;
+    private int nMarksInRound_ = 0;
+}
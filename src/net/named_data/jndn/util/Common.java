@@ -383,6 +383,32 @@ public class Common {
     return hash >= 0 ? hash : 0x100000000L + hash;
   }
 
+  /**
+   * Compute the MurmurHash3 of the bytes in the buffer. If the buffer has a
+   * backing array, this hashes the array directly without copying.
+   * @param nHashSeed The hash seed.
+   * @param dataToHash The input buffer to hash. This reads from position() to
+   * limit(), but does not change the position.
+   * @return The hash value. This returns a long to make it easier to interpret
+   * it as an unsigned 32-bit integer (instead of the Java int which is signed).
+   */
+  public static long
+  murmurHash3(int nHashSeed, ByteBuffer dataToHash)
+  {
+    int hash;
+    if (dataToHash.hasArray())
+      hash = Murmur3.hash32
+        (dataToHash.array(), dataToHash.arrayOffset() + dataToHash.position(),
+         dataToHash.remaining(), nHashSeed);
+    else {
+      byte[] array = new byte[dataToHash.remaining()];
+      dataToHash.duplicate().get(array);
+      hash = Murmur3.hash32(array, array.length, nHashSeed);
+    }
+
+    return hash >= 0 ? hash : 0x100000000L + hash;
+  }
+
   /**
    * Compute the MurmurHash3 of the integer value.
    * @param nHashSeed The hash seed.
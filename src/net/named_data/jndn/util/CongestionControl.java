@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.util;
+
+/**
+ * CongestionControl holds the congestion window and RTT estimator which
+ * SegmentFetcher uses to decide how many Interests to keep in flight. This base
+ * class uses additive increase, multiplicative decrease (AIMD) with slow start
+ * and conservative window adaptation, configured by the SegmentFetcher.Options.
+ * Subclasses such as CubicCongestionControl and BbrCongestionControl override
+ * windowIncrease and windowDecrease. Use create to make the CongestionControl
+ * selected by Options.congestionControlAlgorithm. A SegmentFetchManager
+ * shares one CongestionControl among all the fetchers for the same producer
+ * prefix, so their Interests are counted against one window.
+ */
+public class CongestionControl {
+    /**
+     * The congestion control algorithms which can be selected with
+     * SegmentFetcher.Options.congestionControlAlgorithm.
+     */
+    public enum Algorithm {
+        /** additive increase, multiplicative decrease with slow start
+         */
+        AIMD,
+        /** CUBIC window growth (RFC 8312), see CubicCongestionControl
+         */
+        CUBIC,
+        /** a window set from the measured bottleneck rate and minimum RTT, see
+         *  BbrCongestionControl
+         */
+        BBR
+    }
+
+    /**
+     * Create the CongestionControl for options.congestionControlAlgorithm.
+     * @param options The SegmentFetcher.Options.
+     * @return A new CongestionControl.
+     */
+    public static CongestionControl create(SegmentFetcher.Options options) {
+        switch (options.congestionControlAlgorithm) {
+            case CUBIC:
+                return new CubicCongestionControl(options);
+            case BBR:
+                return new BbrCongestionControl(options);
+            default:
+                return new CongestionControl(options);
+        }
+    }
+
+    /**
+     * Create an AIMD CongestionControl with the window and RTT estimator options.
+     * @param options The SegmentFetcher.Options with initCwnd, initSsthresh,
+     * aiStep, mdCoef, disableCwa, resetCwndToInit, useConstantCwnd,
+     * maxWindowSize and rttOptions.
+     */
+    public CongestionControl(SegmentFetcher.Options options) {
+        options_ = options;
+        cwnd_ = options.initCwnd;
+        ssThresh_ = options.initSsthresh;
+        rttEstimator_ = new RttEstimator(options.rttOptions);
+    }
+
+    /**
+     * Get the congestion window.
+     * @return The number of Interests which may be in flight.
+     */
+    public double getCwnd() {
+        return cwnd_;
+    }
+
+    /**
+     * Get the slow start threshold.
+     * @return The slow start threshold.
+     */
+    public double getSsthresh() {
+        return ssThresh_;
+    }
+
+    /**
+     * Get the RTT estimator.
+     * @return The RttEstimator.
+     */
+    public RttEstimator getRttEstimator() {
+        return rttEstimator_;
+    }
+
+    /**
+     * Call this when sending the first Interest for a segment (not a
+     * retransmission).
+     * @return The sequence number to pass to onData when the segment is
+     * received. Sequence numbers increase in the order Interests are sent, which
+     * is used for conservative window adaptation.
+     */
+    public long onInterestSent() {
+        highInterest_ = nextSequence_++;
+        return highInterest_;
+    }
+
+    /**
+     * Call this when a segment is received to increase the window, or decrease
+     * it if the segment has a congestion mark.
+     * @param sequence The sequence number from onInterestSent for the segment.
+     * @param rtt The RTT sample in milliseconds, or NaN if the segment was
+     * retransmitted so that there is no valid sample.
+     * @param isCongestionMarked True if the Data packet has a congestion mark
+     * which should not be ignored.
+     * @param nowMilliseconds The current time in milliseconds.
+     */
+    public void onData
+    (long sequence, double rtt, boolean isCongestionMarked, double nowMilliseconds) {
+        if (highData_ < sequence) {
+            highData_ = sequence;
+        }
+
+        if (isCongestionMarked) {
+            onCongestion(nowMilliseconds);
+        } else if (!options_.useConstantCwnd) {
+            windowIncrease(rtt, nowMilliseconds);
+            cwnd_ = Math.min(cwnd_, options_.maxWindowSize);
+        }
+    }
+
+    /**
+     * Call this when an Interest times out or receives a congestion Nack, to
+     * decrease the window.
+     * @param nowMilliseconds The current time in milliseconds.
+     */
+    public void onLoss(double nowMilliseconds) {
+        onCongestion(nowMilliseconds);
+    }
+
+    /**
+     * Increase the window for a received segment. This base class does slow
+     * start and additive increase.
+     * @param rtt The RTT sample in milliseconds, or NaN.
+     * @param nowMilliseconds The current time in milliseconds.
+     */
+    protected void windowIncrease(double rtt, double nowMilliseconds) {
+        if (cwnd_ < ssThresh_) {
+            cwnd_ += options_.aiStep; // additive increase
+        } else {
+            cwnd_ += options_.aiStep / cwnd_; // congestion avoidance
+        }
+    }
+
+    /**
+     * Decrease the window for a congestion event. This is called at most once
+     * per window of Interests unless Options.disableCwa is true. This base class
+     * does multiplicative decrease.
+     * @param nowMilliseconds The current time in milliseconds.
+     */
+    protected void windowDecrease(double nowMilliseconds) {
+        // Refer to RFC 5681, Section 3.1 for the rationale behind the code below
+        ssThresh_ = Math.max(MIN_SSTHRESH, cwnd_ * options_.mdCoef); // multiplicative decrease
+        cwnd_ = options_.resetCwndToInit ? options_.initCwnd : ssThresh_;
+    }
+
+    /**
+     * Check if the Data for the last Interest sent before the previous window
+     * decrease has been received, so that a new congestion event is not part of
+     * the same loss episode.
+     */
+    private void onCongestion(double nowMilliseconds) {
+        if (options_.disableCwa || highData_ > recPoint_) {
+            recPoint_ = highInterest_;
+
+            if (options_.useConstantCwnd) {
+                return;
+            }
+
+            windowDecrease(nowMilliseconds);
+        }
+    }
+
+    protected final SegmentFetcher.Options options_;
+    protected final RttEstimator rttEstimator_;
+    protected double cwnd_;
+    protected double ssThresh_;
+    private long nextSequence_ = 0;
+    private long highData_ = 0;
+    private long recPoint_ = 0;
+    private long highInterest_ = 0;
+    protected static final double MIN_SSTHRESH = 2.0;
+}
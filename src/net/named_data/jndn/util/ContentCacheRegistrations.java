@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.named_data.jndn.Face;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.InterestFilter;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.OnInterestCallback;
+import net.named_data.jndn.OnRegisterFailed;
+import net.named_data.jndn.OnRegisterSuccess;
+import net.named_data.jndn.RegistrationOptions;
+import net.named_data.jndn.encoding.WireFormat;
+import net.named_data.jndn.security.SecurityException;
+
+/**
+ * ContentCacheRegistrations holds the registered prefixes and interest filters
+ * which a content cache such as MemoryContentCache or PersistentContentCache
+ * sets on its Face, and the onDataNotFound callback for each prefix.
+ */
+class ContentCacheRegistrations {
+  /**
+   * Create a ContentCacheRegistrations to use the given Face.
+   * @param face The Face to use to call registerPrefix and setInterestFilter.
+   */
+  public ContentCacheRegistrations(Face face)
+  {
+    face_ = face;
+  }
+
+  /**
+   * Call registerPrefix on the Face so that it calls onInterest for interests
+   * whose name has the prefix, and remember onDataNotFound for the prefix.
+   * See MemoryContentCache.registerPrefix.
+   */
+  public final void
+  registerPrefix
+    (Name prefix, OnInterestCallback onInterest,
+     OnRegisterFailed onRegisterFailed, OnRegisterSuccess onRegisterSuccess,
+     OnInterestCallback onDataNotFound, RegistrationOptions registrationOptions,
+     WireFormat wireFormat)
+     throws IOException, SecurityException
+  {
+    if (onDataNotFound != null)
+      onDataNotFoundForPrefix_.put(prefix.toUri(), onDataNotFound);
+    long registeredPrefixId = face_.registerPrefix
+      (prefix, onInterest, onRegisterFailed, onRegisterSuccess,
+       registrationOptions, wireFormat);
+    registeredPrefixIdList_.add(registeredPrefixId);
+  }
+
+  /**
+   * Call setInterestFilter on the Face so that it calls onInterest for
+   * interests whose name matches the filter, and remember onDataNotFound for
+   * the filter prefix. See MemoryContentCache.setInterestFilter.
+   */
+  public final void
+  setInterestFilter
+    (InterestFilter filter, OnInterestCallback onInterest,
+     OnInterestCallback onDataNotFound)
+  {
+    if (onDataNotFound != null)
+      onDataNotFoundForPrefix_.put(filter.getPrefix().toUri(), onDataNotFound);
+    long interestFilterId = face_.setInterestFilter(filter, onInterest);
+    interestFilterIdList_.add(interestFilterId);
+  }
+
+  /**
+   * Call setInterestFilter on the Face so that it calls onInterest for
+   * interests whose name has the prefix, and remember onDataNotFound for the
+   * prefix. See MemoryContentCache.setInterestFilter.
+   */
+  public final void
+  setInterestFilter
+    (Name prefix, OnInterestCallback onInterest,
+     OnInterestCallback onDataNotFound)
+  {
+    if (onDataNotFound != null)
+      onDataNotFoundForPrefix_.put(prefix.toUri(), onDataNotFound);
+    long interestFilterId = face_.setInterestFilter(prefix, onInterest);
+    interestFilterIdList_.add(interestFilterId);
+  }
+
+  /**
+   * Call Face.unsetInterestFilter and Face.removeRegisteredPrefix for all the
+   * prefixes given to setInterestFilter and registerPrefix, and clear the
+   * onDataNotFound callbacks.
+   */
+  public final void
+  unregisterAll()
+  {
+    for (int i = 0; i < interestFilterIdList_.size(); ++i)
+      face_.unsetInterestFilter((long)interestFilterIdList_.get(i));
+    interestFilterIdList_.clear();
+
+    for (int i = 0; i < registeredPrefixIdList_.size(); ++i)
+      face_.removeRegisteredPrefix((long)registeredPrefixIdList_.get(i));
+    registeredPrefixIdList_.clear();
+
+    // Also clear each onDataNotFoundForPrefix given to registerPrefix.
+    onDataNotFoundForPrefix_.clear();
+  }
+
+  /**
+   * If there is an onDataNotFound callback for the prefix, call it with the
+   * given arguments from the OnInterest callback. This logs any exception
+   * thrown by the callback.
+   */
+  public final void
+  callOnDataNotFound
+    (Name prefix, Interest interest, Face face, long interestFilterId,
+     InterestFilter filter)
+  {
+    OnInterestCallback onDataNotFound =
+      onDataNotFoundForPrefix_.get(prefix.toUri());
+    if (onDataNotFound != null) {
+      try {
+        onDataNotFound.onInterest
+          (prefix, interest, face, interestFilterId, filter);
+      } catch (Throwable ex) {
+        logger_.log(Level.SEVERE, "Error in onDataNotFound", ex);
+      }
+    }
+  }
+
+  private final Face face_;
+  private final HashMap<String, OnInterestCallback> onDataNotFoundForPrefix_ =
+    new HashMap<String, OnInterestCallback>(); /**< The map key is the
+                                                * prefix.toUri(). */
+  private final ArrayList<Long> interestFilterIdList_ = new ArrayList<Long>();
+  private final ArrayList<Long> registeredPrefixIdList_ = new ArrayList<Long>();
+  private static final Logger logger_ =
+    Logger.getLogger(ContentCacheRegistrations.class.getName());
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.util;
+
+/**
+ * CubicCongestionControl grows the congestion window with the CUBIC function
+ * of RFC 8312 instead of AIMD. After a window decrease, the window grows
+ * quickly back toward the window before the decrease (wmax), levels off near
+ * it, then probes above it. Since the growth depends on the time since the
+ * decrease rather than on the RTT, a flow on a long-RTT, high-bandwidth link
+ * recovers its window much faster than with additive increase. This is
+ * configured by the SegmentFetcher.Options cubicBeta, cubicC and
+ * enableCubicFastConvergence.
+ */
+public class CubicCongestionControl extends CongestionControl {
+    /**
+     * Create a CubicCongestionControl.
+     * @param options The SegmentFetcher.Options.
+     */
+    public CubicCongestionControl(SegmentFetcher.Options options) {
+        super(options);
+    }
+
+    /**
+     * Get the window before the last decrease, which is the plateau of the
+     * cubic function.
+     * @return The window before the last decrease, or 0 if there has not been
+     * a decrease.
+     */
+    public double getWmax() {
+        return wmax_;
+    }
+
+    protected void windowIncrease(double rtt, double nowMilliseconds) {
+        if (cwnd_ < ssThresh_) {
+            // Slow start.
+            cwnd_ += options_.aiStep;
+            return;
+        }
+
+        // Congestion avoidance.
+        if (wmax_ < options_.initCwnd) {
+            // ssThresh_ was set without a decrease.
+            wmax_ = cwnd_;
+            lastDecreaseTime_ = nowMilliseconds;
+        }
+
+        // The time since the last decrease in seconds.
+        double t = (nowMilliseconds - lastDecreaseTime_) / 1000.0;
+        // The time to grow the window back to wmax_ (RFC 8312 Eq. 2).
+        double k = Math.cbrt(wmax_ * (1 - options_.cubicBeta) / options_.cubicC);
+        // The cubic window (RFC 8312 Eq. 1).
+        double wCubic = options_.cubicC * Math.pow(t - k, 3) + wmax_;
+
+        // The window which AIMD would reach in the same time, so that CUBIC is at
+        // least as fast as AIMD when the RTT is short (RFC 8312 Eq. 4).
+        double sRtt = rttEstimator_.getSmoothedRtt() / 1000.0;
+        double target = wCubic;
+        if (sRtt > 0) {
+            double wEst = wmax_ * options_.cubicBeta +
+                    (3 * (1 - options_.cubicBeta) / (1 + options_.cubicBeta)) * (t / sRtt);
+            target = Math.max(target, wEst);
+        }
+
+        cwnd_ += Math.max(0.0, target - cwnd_) / cwnd_;
+    }
+
+    protected void windowDecrease(double nowMilliseconds) {
+        if (options_.enableCubicFastConvergence && cwnd_ < lastWmax_) {
+            // The flow is losing bandwidth to other flows, so release more.
+            lastWmax_ = cwnd_;
+            wmax_ = cwnd_ * (1.0 + options_.cubicBeta) / 2.0;
+        } else {
+            lastWmax_ = cwnd_;
+            wmax_ = cwnd_;
+        }
+
+        ssThresh_ = Math.max(MIN_SSTHRESH, cwnd_ * options_.cubicBeta);
+        cwnd_ = options_.resetCwndToInit ? options_.initCwnd : ssThresh_;
+        lastDecreaseTime_ = nowMilliseconds;
+    }
+
+    private double wmax_ = 0;
+    private double lastWmax_ = 0;
+    private double lastDecreaseTime_ = 0;
+}
@@ -21,7 +21,12 @@ package net.named_data.jndn.util;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.named_data.jndn.Data;
@@ -40,6 +45,11 @@ import net.named_data.jndn.security.SecurityException;
  * A MemoryContentCache holds a set of Data packets and answers an Interest to
  * return the correct Data packet. The cache is periodically cleaned up to
  * remove each stale Data packet based on its FreshnessPeriod (if it has one).
+ * The Data packets are indexed in a trie of name components, so that finding
+ * the match for an Interest (including the leftmost or rightmost child) takes
+ * time proportional to the Interest name length, not the size of the cache.
+ * If you call setMaxByteSize, the cache removes Data packets chosen by the
+ * EvictionPolicy (by default least recently used) to stay within the size.
  * @note This class is an experimental feature.  See the API docs for more detail at
  * http://named-data.net/doc/ndn-ccl-api/memory-content-cache.html .
  */
@@ -55,7 +65,7 @@ public class MemoryContentCache implements OnInterestCallback {
    */
   public MemoryContentCache(Face face, double cleanupIntervalMilliseconds)
   {
-    face_ = face;
+    registrations_ = new ContentCacheRegistrations(face);
     cleanupIntervalMilliseconds_ = cleanupIntervalMilliseconds;
     construct();
   }
@@ -68,7 +78,7 @@ public class MemoryContentCache implements OnInterestCallback {
    */
   public MemoryContentCache(Face face)
   {
-    face_ = face;
+    registrations_ = new ContentCacheRegistrations(face);
     cleanupIntervalMilliseconds_ = 1000.0;
     construct();
   }
@@ -132,12 +142,9 @@ public class MemoryContentCache implements OnInterestCallback {
      RegistrationOptions registrationOptions, WireFormat wireFormat)
      throws IOException, SecurityException
   {
-    if (onDataNotFound != null)
-      onDataNotFoundForPrefix_.put(prefix.toUri(), onDataNotFound);
-    long registeredPrefixId = face_.registerPrefix
-      (prefix, this, onRegisterFailed, onRegisterSuccess, registrationOptions,
-       wireFormat);
-    registeredPrefixIdList_.add(registeredPrefixId);
+    registrations_.registerPrefix
+      (prefix, this, onRegisterFailed, onRegisterSuccess, onDataNotFound,
+       registrationOptions, wireFormat);
   }
 
   /**
@@ -436,10 +443,7 @@ public class MemoryContentCache implements OnInterestCallback {
   public final void
   setInterestFilter(InterestFilter filter, OnInterestCallback onDataNotFound)
   {
-    if (onDataNotFound != null)
-      onDataNotFoundForPrefix_.put(filter.getPrefix().toUri(), onDataNotFound);
-    long interestFilterId = face_.setInterestFilter(filter, this);
-    interestFilterIdList_.add(interestFilterId);
+    registrations_.setInterestFilter(filter, this, onDataNotFound);
   }
 
   /**
@@ -479,10 +483,7 @@ public class MemoryContentCache implements OnInterestCallback {
   public final void
   setInterestFilter(Name prefix, OnInterestCallback onDataNotFound)
   {
-    if (onDataNotFound != null)
-      onDataNotFoundForPrefix_.put(prefix.toUri(), onDataNotFound);
-    long interestFilterId = face_.setInterestFilter(prefix, this);
-    interestFilterIdList_.add(interestFilterId);
+    registrations_.setInterestFilter(prefix, this, onDataNotFound);
   }
 
   /**
@@ -506,26 +507,17 @@ public class MemoryContentCache implements OnInterestCallback {
    * your application is still running.
    */
   public final void
-  unregisterAll()
-  {
-    for (int i = 0; i < interestFilterIdList_.size(); ++i)
-      face_.unsetInterestFilter((long)interestFilterIdList_.get(i));
-    interestFilterIdList_.clear();
-
-    for (int i = 0; i < registeredPrefixIdList_.size(); ++i)
-      face_.removeRegisteredPrefix((long)registeredPrefixIdList_.get(i));
-    registeredPrefixIdList_.clear();
-
-    // Also clear each onDataNotFoundForPrefix given to registerPrefix.
-    onDataNotFoundForPrefix_.clear();
-  }
+  unregisterAll() { registrations_.unregisterAll(); }
 
   /**
    * Add the Data packet to the cache so that it is available to use to
    * answer interests. If data.getMetaInfo().getFreshnessPeriod() is not
    * negative, set the staleness time to now plus the maximum of
    * data.getMetaInfo().getFreshnessPeriod() and minimumCacheLifetime, which is
-   * checked during cleanup to remove stale content.
+   * checked during cleanup to remove stale content. If the cache already has a
+   * Data packet with the same name, this replaces it. If the max byte size is
+   * set, this first removes entries chosen by the eviction policy to make room
+   * (and does not cache a Data packet which is larger than the max byte size).
    * This also checks if cleanupIntervalMilliseconds
    * milliseconds have passed and removes stale content from the cache. After
    * removing stale content, remove timed-out pending interests from
@@ -541,26 +533,34 @@ public class MemoryContentCache implements OnInterestCallback {
     double nowMilliseconds = Common.getNowMilliseconds();
     doCleanup(nowMilliseconds);
 
-    if (data.getMetaInfo().getFreshnessPeriod() >= 0.0) {
-      // The content will go stale, so use staleTimeCache_.
-      StaleTimeContent content = new StaleTimeContent
-        (data, nowMilliseconds, minimumCacheLifetime_);
-      // Insert into staleTimeCache, sorted on content.cacheRemovalTimeMilliseconds_.
-      // Search from the back since we expect it to go there.
-      int i = staleTimeCache_.size() - 1;
-      while (i >= 0) {
-        if (staleTimeCache_.get(i).getCacheRemovalTimeMilliseconds() <=
-            content.getCacheRemovalTimeMilliseconds())
-          break;
-        --i;
-      }
-      // Element i is the greatest less than or equal to
-      // content.cacheRemovalTimeMilliseconds_, so insert after it.
-      staleTimeCache_.add(i + 1, content);
+    Entry entry = new Entry
+      (data, nowMilliseconds, minimumCacheLifetime_, nextEntrySequenceNo_++);
+    Name name = entry.getName();
+
+    // Remove an entry with the same name, which is replaced.
+    TrieNode node = root_;
+    for (int i = 0; i < name.size() && node != null; ++i)
+      node = node.getChild(name.get(i));
+    if (node != null && node.entry_ != null)
+      removeEntry(node.entry_);
+
+    // Don't cache a Data packet which is larger than the max byte size.
+    if (maxByteSize_ <= 0 || entry.getByteSize() <= maxByteSize_) {
+      // Make room before adding, so that the eviction policy doesn't select
+      // the new entry.
+      evict(maxByteSize_ - entry.getByteSize(), nowMilliseconds);
+
+      node = root_;
+      for (int i = 0; i < name.size(); ++i)
+        node = node.getOrAddChild(name.get(i));
+      node.entry_ = entry;
+      entry.node_ = node;
+      ++size_;
+      byteSize_ += entry.getByteSize();
+      if (entry.hasFreshnessPeriod())
+        staleTimeCache_.add(entry);
+      evictionPolicy_.onAdd(entry, nowMilliseconds);
     }
-    else
-      // The data does not go stale, so use noStaleTimeCache_.
-      noStaleTimeCache_.add(new Content(data));
 
     // Remove timed-out interests and check if the data packet matches any
     // pending interest.
@@ -640,6 +640,77 @@ public class MemoryContentCache implements OnInterestCallback {
     minimumCacheLifetime_ = minimumCacheLifetime;
   }
 
+  /**
+   * Get the maximum total size of the Data packet encodings in the cache.
+   * @return The maximum size in bytes, or 0 if there is no maximum.
+   */
+  public final long
+  getMaxByteSize() { return maxByteSize_; }
+
+  /**
+   * Set the maximum total size of the Data packet encodings in the cache. When
+   * add(data) needs room for a new Data packet, it removes entries chosen by
+   * the eviction policy. If the cache is already larger, this removes entries
+   * now.
+   * @param maxByteSize The maximum size in bytes. If this is 0 (the default),
+   * there is no maximum and entries are only removed when stale.
+   */
+  public final void
+  setMaxByteSize(long maxByteSize)
+  {
+    if (maxByteSize < 0)
+      throw new IllegalArgumentException
+        ("setMaxByteSize: maxByteSize must not be negative");
+
+    maxByteSize_ = maxByteSize;
+    evict(maxByteSize_, Common.getNowMilliseconds());
+  }
+
+  /**
+   * Get the eviction policy which chooses the entries to remove when the cache
+   * exceeds the max byte size.
+   * @return The EvictionPolicy.
+   */
+  public final EvictionPolicy
+  getEvictionPolicy() { return evictionPolicy_; }
+
+  /**
+   * Set the eviction policy which chooses the entries to remove when the cache
+   * exceeds the max byte size. The default is an LruEvictionPolicy. This adds
+   * the entries which are already in the cache to the new policy.
+   * @param evictionPolicy A new EvictionPolicy object which is not used by
+   * another MemoryContentCache.
+   */
+  public final void
+  setEvictionPolicy(EvictionPolicy evictionPolicy)
+  {
+    double nowMilliseconds = Common.getNowMilliseconds();
+    evictionPolicy_ = evictionPolicy;
+    ArrayList<TrieNode> stack = new ArrayList<TrieNode>();
+    stack.add(root_);
+    while (stack.size() > 0) {
+      TrieNode node = stack.remove(stack.size() - 1);
+      if (node.entry_ != null)
+        evictionPolicy_.onAdd(node.entry_, nowMilliseconds);
+      if (node.children_ != null)
+        stack.addAll(node.children_.values());
+    }
+  }
+
+  /**
+   * Get the number of Data packets in the cache.
+   * @return The number of Data packets.
+   */
+  public final int
+  size() { return size_; }
+
+  /**
+   * Get the total size of the Data packet encodings in the cache.
+   * @return The size in bytes.
+   */
+  public final long
+  getByteSize() { return byteSize_; }
+
   public final void
   onInterest
     (Name prefix, Interest interest, Face face, long interestFilterId,
@@ -651,74 +722,22 @@ public class MemoryContentCache implements OnInterestCallback {
     double nowMilliseconds = Common.getNowMilliseconds();
     doCleanup(nowMilliseconds);
 
-    Name.Component selectedComponent = null;
-    Blob selectedEncoding = null;
-    // We need to iterate over both arrays.
-    int totalSize = staleTimeCache_.size() + noStaleTimeCache_.size();
-    for (int i = 0; i < totalSize; ++i) {
-      Content content;
-      boolean isFresh = true;
-      if (i < staleTimeCache_.size()) {
-        StaleTimeContent staleTimeContent = staleTimeCache_.get(i);
-        content = staleTimeContent;
-        isFresh = staleTimeContent.isFresh(nowMilliseconds);
-      }
-      else
-        // We have iterated over the first array. Get from the second.
-        content = noStaleTimeCache_.get(i - staleTimeCache_.size());
-
-      if (interest.matchesName(content.getName()) &&
-          !(interest.getMustBeFresh() && !isFresh)) {
-        if (interest.getChildSelector() < 0) {
-          // No child selector, so send the first match that we have found.
-          logger_.log(Level.INFO, "MemoryContentCache:         Reply Data {0}",
-            content.getName());
-          try {
-            face.send(content.getDataEncoding());
-          } catch (IOException ex) {
-            logger_.log(Level.SEVERE, null, ex);
-          }
-          return;
-        }
-        else {
-          // Update selectedEncoding based on the child selector.
-          Name.Component component;
-          if (content.getName().size() > interest.getName().size())
-            component = content.getName().get(interest.getName().size());
-          else
-            component = emptyComponent_;
-
-          boolean gotBetterMatch = false;
-          if (selectedEncoding == null)
-            // Save the first match.
-            gotBetterMatch = true;
-          else {
-            if (interest.getChildSelector() == 0) {
-              // Leftmost child.
-              if (component.compare(selectedComponent) < 0)
-                gotBetterMatch = true;
-            }
-            else {
-              // Rightmost child.
-              if (component.compare(selectedComponent) > 0)
-                gotBetterMatch = true;
-            }
-          }
-
-          if (gotBetterMatch) {
-            selectedComponent = component;
-            selectedEncoding = content.getDataEncoding();
-          }
-        }
-      }
-    }
+    // Find the node for the Interest name. Only entries below it can match.
+    Entry selectedEntry = null;
+    TrieNode node = root_;
+    Name interestName = interest.getName();
+    for (int i = 0; i < interestName.size() && node != null; ++i)
+      node = node.getChild(interestName.get(i));
+    if (node != null)
+      selectedEntry = findMatch
+        (interest, node, 0, interest.getChildSelector() == 1, nowMilliseconds);
 
-    if (selectedEncoding != null) {
-      // We found the leftmost or rightmost child.
+    if (selectedEntry != null) {
+      evictionPolicy_.onAccess(selectedEntry, nowMilliseconds);
       try {
         logger_.log(Level.INFO, "MemoryContentCache: Reply Data to Interest {0}",
           interest.toUri());
-        face.send(selectedEncoding);
+        face.send(selectedEntry.getDataEncoding());
       } catch (IOException ex) {
         logger_.log(Level.SEVERE, null, ex);
       }
@@ -727,33 +746,96 @@ public class MemoryContentCache implements OnInterestCallback {
       logger_.log(Level.INFO, "MemoryContentCache: onDataNotFound for {0}",
         interest.toUri());
       // Call the onDataNotFound callback (if defined).
-      Object onDataNotFound = onDataNotFoundForPrefix_.get(prefix.toUri());
-      if (onDataNotFound != null) {
-        try {
-          ((OnInterestCallback)onDataNotFound).onInterest
-            (prefix, interest, face, interestFilterId, filter);
-        } catch (Throwable ex) {
-          logger_.log(Level.SEVERE, "Error in onDataNotFound", ex);
-        }
+      registrations_.callOnDataNotFound
+        (prefix, interest, face, interestFilterId, filter);
+    }
+  }
+
+  /**
+   * Search the subtree at node for the first entry which matches the interest,
+   * in canonical order of the name components (or reverse order for the
+   * rightmost child). An entry whose name equals the node's name is treated as
+   * having an empty child component, so it comes first for the leftmost child
+   * and last for the rightmost child. This skips subtrees which can't match
+   * because of the MaxSuffixComponents or Exclude.
+   * @param interest The Interest to match.
+   * @param node The TrieNode to search.
+   * @param depth The number of components of node's name after the Interest
+   * name.
+   * @param isRightmost True to search for the rightmost child.
+   * @param nowMilliseconds The current time in milliseconds from
+   * Common.getNowMilliseconds().
+   * @return The first matching Entry, or null if not found.
+   */
+  private static Entry
+  findMatch
+    (Interest interest, TrieNode node, int depth, boolean isRightmost,
+     double nowMilliseconds)
+  {
+    if (!isRightmost && node.isMatch(interest, nowMilliseconds))
+      return node.entry_;
+
+    // Add 1 for the implicit digest and 1 for the child's component.
+    if (node.children_ != null && !(interest.getMaxSuffixComponents() >= 0 &&
+         depth + 2 > interest.getMaxSuffixComponents())) {
+      Iterator<TrieNode> children = isRightmost ?
+        node.children_.descendingMap().values().iterator() :
+        node.children_.values().iterator();
+      while (children.hasNext()) {
+        TrieNode child = children.next();
+        if (depth == 0 && interest.getExclude().size() > 0 &&
+            interest.getExclude().matches(child.component_))
+          continue;
+
+        Entry entry = findMatch
+          (interest, child, depth + 1, isRightmost, nowMilliseconds);
+        if (entry != null)
+          return entry;
       }
     }
+
+    if (isRightmost && node.isMatch(interest, nowMilliseconds))
+      return node.entry_;
+
+    return null;
   }
 
   /**
-   * Content is a private class to hold the name and encoding for each entry
-   * in the cache. This base class is for a Data packet without a
-   * FreshnessPeriod.
+   * An Entry holds the name and encoding of a Data packet in the cache, and the
+   * times for freshness and removal. It is passed to the EvictionPolicy.
    */
-  private class Content {
+  public static class Entry {
     /**
-     * Create a new Content entry to hold data's name and wire encoding.
+     * Create a new Entry to hold data's name and wire encoding. If the data has
+     * a FreshnessPeriod, set the cacheRemovalTimeMilliseconds_ to now plus the
+     * maximum of data.getMetaInfo().getFreshnessPeriod() and the
+     * minimumCacheLifetime.
      * @param data The Data packet whose name and wire encoding are copied.
+     * @param nowMilliseconds The current time in milliseconds from
+     * Common.getNowMilliseconds().
+     * @param minimumCacheLifetime The minimum cache lifetime in milliseconds.
+     * @param sequenceNo The sequence number to order entries added at the same
+     * time.
      */
-    public Content(Data data)
+    private Entry
+      (Data data, double nowMilliseconds, double minimumCacheLifetime,
+       long sequenceNo)
     {
       // wireEncode returns the cached encoding if available.
       name_ = data.getName();
       dataEncoding_ = data.wireEncode();
+      sequenceNo_ = sequenceNo;
+
+      double freshnessPeriod = data.getMetaInfo().getFreshnessPeriod();
+      if (freshnessPeriod >= 0.0) {
+        cacheRemovalTimeMilliseconds_ = nowMilliseconds +
+          Math.max(freshnessPeriod, minimumCacheLifetime);
+        freshnessExpiryTimeMilliseconds_ = nowMilliseconds + freshnessPeriod;
+      }
+      else {
+        cacheRemovalTimeMilliseconds_ = Double.POSITIVE_INFINITY;
+        freshnessExpiryTimeMilliseconds_ = Double.POSITIVE_INFINITY;
+      }
     }
 
     public final Name
@@ -762,47 +844,34 @@ public class MemoryContentCache implements OnInterestCallback {
     public final Blob
     getDataEncoding() { return dataEncoding_; }
 
-    private final Name name_;
-    private final Blob dataEncoding_;
-  }
+    /**
+     * Get the size of the Data packet encoding, which is counted against the
+     * max byte size of the cache.
+     * @return The size in bytes.
+     */
+    public final int
+    getByteSize() { return dataEncoding_.size(); }
 
-  /**
-   * StaleTimeContent extends Content to include the cacheRemovalTimeMilliseconds_
-   * for when this entry should be cleaned up from the cache.
-   */
-  private class StaleTimeContent extends Content {
     /**
-     * Create a new StaleTimeContent to hold data's name and wire encoding
-     * as well as the cacheRemovalTimeMilliseconds_ which is now plus the maximum of
-     * data.getMetaInfo().getFreshnessPeriod() and the minimumCacheLifetime.
-     * @param data The Data packet whose name and wire encoding are copied.
-     * @param nowMilliseconds The current time in milliseconds from
-     * Common.getNowMilliseconds().
-     * @param minimumCacheLifetime The minimum cache lifetime in milliseconds.
+     * Check if the Data packet has a FreshnessPeriod, so that it goes stale.
+     * @return True if the Data packet has a FreshnessPeriod.
      */
-    public StaleTimeContent
-      (Data data, double nowMilliseconds, double minimumCacheLifetime)
+    public final boolean
+    hasFreshnessPeriod()
     {
-      // wireEncode returns the cached encoding if available.
-      super(data);
-
-      cacheRemovalTimeMilliseconds_ = nowMilliseconds +
-        Math.max(data.getMetaInfo().getFreshnessPeriod(), minimumCacheLifetime);
-      freshnessExpiryTimeMilliseconds_ = nowMilliseconds +
-        data.getMetaInfo().getFreshnessPeriod();
+      return freshnessExpiryTimeMilliseconds_ != Double.POSITIVE_INFINITY;
     }
 
     /**
-     * Check if this content is stale and should be removed from the cache,
-     * according to the content freshness period and the minimumCacheLifetime.
-     * @param nowMilliseconds The current time in milliseconds from
-     * Common.getNowMilliseconds().
-     * @return True if this content should be removed, otherwise false.
+     * Get the time when the freshness period of the content expires
+     * (independent of when to remove from the cache).
+     * @return The time in milliseconds according to Common.getNowMilliseconds(),
+     * or Double.POSITIVE_INFINITY if the Data packet has no FreshnessPeriod.
      */
-    public final boolean
-    isPastRemovalTime(double nowMilliseconds)
+    public final double
+    getFreshnessExpiryTimeMilliseconds()
     {
-      return cacheRemovalTimeMilliseconds_ <= nowMilliseconds;
+      return freshnessExpiryTimeMilliseconds_;
     }
 
     /**
@@ -818,15 +887,285 @@ public class MemoryContentCache implements OnInterestCallback {
       return freshnessExpiryTimeMilliseconds_ > nowMilliseconds;
     }
 
+    /**
+     * Check if this content is stale and should be removed from the cache,
+     * according to the content freshness period and the minimumCacheLifetime.
+     * @param nowMilliseconds The current time in milliseconds from
+     * Common.getNowMilliseconds().
+     * @return True if this content should be removed, otherwise false.
+     */
+    public final boolean
+    isPastRemovalTime(double nowMilliseconds)
+    {
+      return cacheRemovalTimeMilliseconds_ <= nowMilliseconds;
+    }
+
     public final double
     getCacheRemovalTimeMilliseconds() { return cacheRemovalTimeMilliseconds_; }
 
+    /**
+     * Get the sequence number which orders entries in the order they were
+     * added. This can be used to break ties when sorting entries.
+     * @return The sequence number.
+     */
+    public final long
+    getSequenceNo() { return sequenceNo_; }
+
+    private final Name name_;
+    private final Blob dataEncoding_;
+    private final long sequenceNo_;
     private final double cacheRemovalTimeMilliseconds_; /**< The time when the content
       becomes stale and should be removed from the cache in milliseconds
       according to Common.getNowMilliseconds(). */
     private final double freshnessExpiryTimeMilliseconds_; /**< The time when
       the freshness period of the content expires (independent of when to
       remove from the cache) in milliseconds according to Common.getNowMilliseconds(). */
+    private TrieNode node_ = null; /**< The node in the name trie, or null if
+      removed. */
+  }
+
+  /**
+   * An EvictionPolicy chooses which entry to remove when the cache exceeds its
+   * max byte size. The cache calls onAdd, onAccess and onRemove so that the
+   * policy can keep its own index of the entries. An EvictionPolicy object is
+   * used by only one MemoryContentCache.
+   */
+  public interface EvictionPolicy {
+    /**
+     * This is called when the entry is added to the cache.
+     * @param entry The new Entry.
+     * @param nowMilliseconds The current time in milliseconds from
+     * Common.getNowMilliseconds().
+     */
+    void
+    onAdd(Entry entry, double nowMilliseconds);
+
+    /**
+     * This is called when the entry is used to answer an Interest.
+     * @param entry The Entry.
+     * @param nowMilliseconds The current time in milliseconds from
+     * Common.getNowMilliseconds().
+     */
+    void
+    onAccess(Entry entry, double nowMilliseconds);
+
+    /**
+     * This is called when the entry is removed from the cache for any reason,
+     * including after it is returned by selectVictim.
+     * @param entry The removed Entry.
+     */
+    void
+    onRemove(Entry entry);
+
+    /**
+     * Choose the entry to remove from the cache.
+     * @param nowMilliseconds The current time in milliseconds from
+     * Common.getNowMilliseconds().
+     * @return The Entry to remove, or null if there are no entries.
+     */
+    Entry
+    selectVictim(double nowMilliseconds);
+  }
+
+  /**
+   * LruEvictionPolicy evicts the least recently added or accessed entry.
+   */
+  public static class LruEvictionPolicy implements EvictionPolicy {
+    public void
+    onAdd(Entry entry, double nowMilliseconds) { entries_.add(entry); }
+
+    public void
+    onAccess(Entry entry, double nowMilliseconds)
+    {
+      // Move to the back.
+      if (entries_.remove(entry))
+        entries_.add(entry);
+    }
+
+    public void
+    onRemove(Entry entry) { entries_.remove(entry); }
+
+    public Entry
+    selectVictim(double nowMilliseconds)
+    {
+      Iterator<Entry> iterator = entries_.iterator();
+      return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private final LinkedHashSet<Entry> entries_ = new LinkedHashSet<Entry>();
+  }
+
+  /**
+   * LfuEvictionPolicy evicts the least frequently accessed entry. Among
+   * entries with the same access count, it evicts the least recently added or
+   * accessed.
+   */
+  public static class LfuEvictionPolicy implements EvictionPolicy {
+    public void
+    onAdd(Entry entry, double nowMilliseconds)
+    {
+      counts_.put(entry, 0);
+      addToBucket(entry, 0);
+    }
+
+    public void
+    onAccess(Entry entry, double nowMilliseconds)
+    {
+      Integer count = counts_.get(entry);
+      if (count == null)
+        return;
+
+      removeFromBucket(entry, count);
+      counts_.put(entry, count + 1);
+      addToBucket(entry, count + 1);
+    }
+
+    public void
+    onRemove(Entry entry)
+    {
+      Integer count = counts_.remove(entry);
+      if (count != null)
+        removeFromBucket(entry, count);
+    }
+
+    public Entry
+    selectVictim(double nowMilliseconds)
+    {
+      if (buckets_.isEmpty())
+        return null;
+      return buckets_.firstEntry().getValue().iterator().next();
+    }
+
+    private void
+    addToBucket(Entry entry, int count)
+    {
+      LinkedHashSet<Entry> bucket = buckets_.get(count);
+      if (bucket == null) {
+        bucket = new LinkedHashSet<Entry>();
+        buckets_.put(count, bucket);
+      }
+      bucket.add(entry);
+    }
+
+    private void
+    removeFromBucket(Entry entry, int count)
+    {
+      LinkedHashSet<Entry> bucket = buckets_.get(count);
+      bucket.remove(entry);
+      if (bucket.isEmpty())
+        buckets_.remove(count);
+    }
+
+    private final HashMap<Entry, Integer> counts_ = new HashMap<Entry, Integer>();
+    private final TreeMap<Integer, LinkedHashSet<Entry>> buckets_ =
+      new TreeMap<Integer, LinkedHashSet<Entry>>(); /**< The key is the access
+      count. The value is the entries with that count in LRU order. */
+  }
+
+  /**
+   * FreshnessEvictionPolicy first evicts entries which are no longer fresh
+   * (but have not reached their removal time because of the minimum cache
+   * lifetime), starting with the earliest freshness expiry time, since they
+   * can't answer an Interest with MustBeFresh. If all entries are fresh, it
+   * evicts the least recently added or accessed entry.
+   */
+  public static class FreshnessEvictionPolicy implements EvictionPolicy {
+    public void
+    onAdd(Entry entry, double nowMilliseconds)
+    {
+      lru_.onAdd(entry, nowMilliseconds);
+      if (entry.hasFreshnessPeriod())
+        byFreshnessExpiry_.add(entry);
+    }
+
+    public void
+    onAccess(Entry entry, double nowMilliseconds)
+    {
+      lru_.onAccess(entry, nowMilliseconds);
+    }
+
+    public void
+    onRemove(Entry entry)
+    {
+      lru_.onRemove(entry);
+      if (entry.hasFreshnessPeriod())
+        byFreshnessExpiry_.remove(entry);
+    }
+
+    public Entry
+    selectVictim(double nowMilliseconds)
+    {
+      if (!byFreshnessExpiry_.isEmpty()) {
+        Entry entry = byFreshnessExpiry_.first();
+        if (!entry.isFresh(nowMilliseconds))
+          return entry;
+      }
+
+      return lru_.selectVictim(nowMilliseconds);
+    }
+
+    private final LruEvictionPolicy lru_ = new LruEvictionPolicy();
+    private final TreeSet<Entry> byFreshnessExpiry_ = new TreeSet<Entry>
+      (new Comparator<Entry>() {
+        public int compare(Entry entry1, Entry entry2) {
+          int result = Double.compare
+            (entry1.getFreshnessExpiryTimeMilliseconds(),
+             entry2.getFreshnessExpiryTimeMilliseconds());
+          if (result != 0)
+            return result;
+          return Long.compare(entry1.getSequenceNo(), entry2.getSequenceNo());
+        }
+      });
+  }
+
+  /**
+   * A TrieNode is a node in the name trie which indexes the entries by name
+   * component. The children are sorted in canonical order of the component so
+   * that the leftmost and rightmost child can be found without a scan.
+   */
+  private static class TrieNode {
+    public TrieNode(TrieNode parent, Name.Component component)
+    {
+      parent_ = parent;
+      component_ = component;
+    }
+
+    public final TrieNode
+    getChild(Name.Component component)
+    {
+      return children_ == null ? null : children_.get(component);
+    }
+
+    public final TrieNode
+    getOrAddChild(Name.Component component)
+    {
+      if (children_ == null)
+        children_ = new TreeMap<Name.Component, TrieNode>();
+
+      TrieNode child = children_.get(component);
+      if (child == null) {
+        child = new TrieNode(this, component);
+        children_.put(component, child);
+      }
+      return child;
+    }
+
+    /**
+     * Check if this node has an entry which matches the interest, including
+     * MustBeFresh.
+     */
+    public final boolean
+    isMatch(Interest interest, double nowMilliseconds)
+    {
+      return entry_ != null && interest.matchesName(entry_.getName()) &&
+        !(interest.getMustBeFresh() && !entry_.isFresh(nowMilliseconds));
+    }
+
+    private final TrieNode parent_;
+    private final Name.Component component_;
+    private TreeMap<Name.Component, TrieNode> children_ = null; /**< null until
+      a child is added, to save memory for the leaves. */
+    private Entry entry_ = null;
   }
 
   /**
@@ -890,10 +1229,10 @@ public class MemoryContentCache implements OnInterestCallback {
 
   /**
    * Check if now is greater than nextCleanupTime_ and, if so, remove stale
-   * content from staleTimeCache_ and reset nextCleanupTime_ based on
-   * cleanupIntervalMilliseconds_. Since add(Data) does a sorted insert into
-   * staleTimeCache_, the check for stale data is quick and does not require
-   * searching the entire staleTimeCache_.
+   * content from the cache and reset nextCleanupTime_ based on
+   * cleanupIntervalMilliseconds_. Since staleTimeCache_ is sorted on the
+   * removal time, the check for stale data is quick and does not require
+   * searching the entire cache.
    * @param nowMilliseconds The current time in milliseconds from
    * Common.getNowMilliseconds().
    */
@@ -904,27 +1243,84 @@ public class MemoryContentCache implements OnInterestCallback {
       // staleTimeCache_ is sorted on cacheRemovalTimeMilliseconds_, so we only need to
       // erase the stale entries at the front, then quit.
       while (staleTimeCache_.size() > 0 &&
-             staleTimeCache_.get(0).isPastRemovalTime(nowMilliseconds))
-        staleTimeCache_.remove(0);
+             staleTimeCache_.first().isPastRemovalTime(nowMilliseconds))
+        removeEntry(staleTimeCache_.first());
 
       nextCleanupTime_ = nowMilliseconds + cleanupIntervalMilliseconds_;
     }
   }
 
-  private final Face face_;
+  /**
+   * If there is a max byte size, remove the entries chosen by the eviction
+   * policy while the cache exceeds the given size.
+   * @param byteSize The size in bytes to reduce the cache to.
+   * @param nowMilliseconds The current time in milliseconds from
+   * Common.getNowMilliseconds().
+   */
+  private void
+  evict(long byteSize, double nowMilliseconds)
+  {
+    if (maxByteSize_ <= 0)
+      return;
+
+    while (size_ > 0 && byteSize_ > byteSize) {
+      Entry victim = evictionPolicy_.selectVictim(nowMilliseconds);
+      if (victim == null || victim.node_ == null)
+        // We don't expect this.
+        throw new Error
+          ("MemoryContentCache: The eviction policy did not select an entry in the cache");
+
+      removeEntry(victim);
+    }
+  }
+
+  /**
+   * Remove the entry from the cache and remove the trie nodes which are no
+   * longer needed.
+   * @param entry The Entry to remove.
+   */
+  private void
+  removeEntry(Entry entry)
+  {
+    TrieNode node = entry.node_;
+    node.entry_ = null;
+    entry.node_ = null;
+    if (entry.hasFreshnessPeriod())
+      staleTimeCache_.remove(entry);
+    evictionPolicy_.onRemove(entry);
+    --size_;
+    byteSize_ -= entry.getByteSize();
+
+    // Prune the nodes which have no entry and no children.
+    while (node.parent_ != null && node.entry_ == null &&
+           (node.children_ == null || node.children_.isEmpty())) {
+      node.parent_.children_.remove(node.component_);
+      if (node.parent_.children_.isEmpty())
+        node.parent_.children_ = null;
+      node = node.parent_;
+    }
+  }
+
+  private final ContentCacheRegistrations registrations_;
   private final double cleanupIntervalMilliseconds_;
   private double nextCleanupTime_;
-  // Use HashMap without generics so it works with older Java compilers.
-  private final HashMap onDataNotFoundForPrefix_ =
-    new HashMap(); /**< The map key is the prefix.toUri().
-                    * The value is the OnInterest callback. */
-  // Use ArrayList without generics so it works with older Java compilers.
-  private final ArrayList<Long> interestFilterIdList_ = new ArrayList<Long>();
-  private final ArrayList<Long> registeredPrefixIdList_ = new ArrayList<Long>();
-  private final ArrayList<Content> noStaleTimeCache_ = new ArrayList<Content>();
-  private final ArrayList<StaleTimeContent> staleTimeCache_ =
-    new ArrayList<StaleTimeContent>();
-  private final Name.Component emptyComponent_ = new Name.Component();
+  private final TrieNode root_ = new TrieNode(null, null);
+  private final TreeSet<Entry> staleTimeCache_ = new TreeSet<Entry>
+    (new Comparator<Entry>() {
+      public int compare(Entry entry1, Entry entry2) {
+        int result = Double.compare
+          (entry1.getCacheRemovalTimeMilliseconds(),
+           entry2.getCacheRemovalTimeMilliseconds());
+        if (result != 0)
+          return result;
+        return Long.compare(entry1.getSequenceNo(), entry2.getSequenceNo());
+      }
+    }); /**< The entries with a FreshnessPeriod, sorted on the removal time. */
+  private int size_ = 0;
+  private long byteSize_ = 0;
+  private long maxByteSize_ = 0;
+  private long nextEntrySequenceNo_ = 0;
+  private EvictionPolicy evictionPolicy_ = new LruEvictionPolicy();
   private final ArrayList<PendingInterest> pendingInterestTable_ =
     new ArrayList<PendingInterest>();
   private OnInterestCallback storePendingInterestCallback_;
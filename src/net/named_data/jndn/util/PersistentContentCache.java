@@ -0,0 +1,1155 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Face;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.InterestFilter;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.OnInterestCallback;
+import net.named_data.jndn.OnRegisterFailed;
+import net.named_data.jndn.OnRegisterSuccess;
+import net.named_data.jndn.RegistrationOptions;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.encoding.WireFormat;
+import net.named_data.jndn.encoding.tlv.Tlv;
+import net.named_data.jndn.encoding.tlv.TlvDecoder;
+import net.named_data.jndn.security.SecurityException;
+
+/**
+ * A PersistentContentCache holds a set of Data packets in files and answers an
+ * Interest to return the correct Data packet, like MemoryContentCache. The
+ * wire encoding of each added Data packet is appended to a segment file which
+ * is memory-mapped, so that the packets are stored outside the Java heap, and
+ * an Interest is answered by sending a slice of the mapped region without
+ * copying. For each packet, a record with the name and location is appended to
+ * an index file. The index of names is kept in a sorted index file which is
+ * memory-mapped and searched with a binary search, so that it is also outside
+ * the Java heap. Only the names added or removed since the sorted index file
+ * was written are kept in a map on the heap, until there are
+ * MAX_RECENT_INDEX_SIZE of them and they are merged into a new sorted index
+ * file. When a PersistentContentCache is created for a directory which
+ * already has files, it maps the sorted index file and reads the index file to
+ * restore the cache. To limit the total size of the segment files, the oldest
+ * segment file is evicted with all its Data packets, which also reclaims the
+ * space of a replaced or removed Data packet.
+ * A Data packet is only guaranteed to be on the storage device after flush()
+ * or close(). After a crash, restoring skips a packet whose index record or
+ * segment bytes were not completely written.
+ * The methods of this class are synchronized, so that add can be called from a
+ * different thread than the one which processes the Face events.
+ */
+public class PersistentContentCache implements OnInterestCallback {
+  /**
+   * Create a new PersistentContentCache to use the given Face and to store the
+   * Data packets in the given directory. If the directory has files from a
+   * previous PersistentContentCache, restore the Data packets from them.
+   * @param face The Face to use to call registerPrefix and setInterestFilter,
+   * and which will call this object's OnInterest callback.
+   * @param directoryPath The path of the directory for the files. This
+   * creates the directory if it doesn't exist.
+   * @param segmentSize The size in bytes of each memory-mapped segment file.
+   * This must be at least Common.MAX_NDN_PACKET_SIZE. When you restore from an
+   * existing directory, this must be the same as the segment size when it was
+   * created.
+   * @param maxSize The maximum total size in bytes of the segment files. When
+   * add needs a new segment file which would exceed this, it evicts the oldest
+   * segment file. This must be at least segmentSize.
+   * @throws IOException For error creating or reading the files.
+   */
+  public PersistentContentCache
+    (Face face, String directoryPath, int segmentSize, long maxSize)
+    throws IOException
+  {
+    if (segmentSize < Common.MAX_NDN_PACKET_SIZE)
+      throw new IllegalArgumentException
+        ("PersistentContentCache: segmentSize must be at least MAX_NDN_PACKET_SIZE");
+    if (maxSize < segmentSize)
+      throw new IllegalArgumentException
+        ("PersistentContentCache: maxSize must be at least segmentSize");
+
+    registrations_ = new ContentCacheRegistrations(face);
+    directory_ = new File(directoryPath);
+    segmentSize_ = segmentSize;
+    maxSegments_ = (int)Math.min(Integer.MAX_VALUE, maxSize / segmentSize);
+
+    if (!directory_.isDirectory() && !directory_.mkdirs())
+      throw new IOException
+        ("PersistentContentCache: Can't create the directory " + directoryPath);
+
+    restore();
+  }
+
+  /**
+   * Create a new PersistentContentCache to use the given Face and to store the
+   * Data packets in the given directory, with no limit on the total size of
+   * the segment files. If the directory has files from a previous
+   * PersistentContentCache, restore the Data packets from them.
+   * @param face The Face to use to call registerPrefix and setInterestFilter,
+   * and which will call this object's OnInterest callback.
+   * @param directoryPath The path of the directory for the files. This
+   * creates the directory if it doesn't exist.
+   * @param segmentSize The size in bytes of each memory-mapped segment file.
+   * This must be at least Common.MAX_NDN_PACKET_SIZE. When you restore from an
+   * existing directory, this must be the same as the segment size when it was
+   * created.
+   * @throws IOException For error creating or reading the files.
+   */
+  public PersistentContentCache
+    (Face face, String directoryPath, int segmentSize) throws IOException
+  {
+    this(face, directoryPath, segmentSize, Long.MAX_VALUE);
+  }
+
+  /**
+   * Create a new PersistentContentCache to use the given Face and to store the
+   * Data packets in the given directory, with the DEFAULT_SEGMENT_SIZE.
+   * @param face The Face to use to call registerPrefix and setInterestFilter,
+   * and which will call this object's OnInterest callback.
+   * @param directoryPath The path of the directory for the files.
+   * @throws IOException For error creating or reading the files.
+   */
+  public PersistentContentCache(Face face, String directoryPath)
+    throws IOException
+  {
+    this(face, directoryPath, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Call registerPrefix on the Face given to the constructor so that this
+   * PersistentContentCache will answer interests whose name has the prefix.
+   * @param prefix The Name for the prefix to register. This copies the Name.
+   * @param onRegisterFailed If register prefix fails for any reason, this
+   * calls onRegisterFailed.onRegisterFailed(prefix).
+   * NOTE: The library will log any exceptions thrown by this callback, but for
+   * better error handling the callback should catch and properly handle any
+   * exceptions.
+   * @param onRegisterSuccess This calls
+   * onRegisterSuccess.onRegisterSuccess(prefix, registeredPrefixId) when this
+   * receives a success message from the forwarder. If onRegisterSuccess is null,
+   * this does not use it.
+   * @param onDataNotFound If a data packet for an interest is not found in the
+   * cache, this forwards the interest by calling
+   * onDataNotFound.onInterest(prefix, interest, face, interestFilterId, filter).
+   * If onDataNotFound is null, this does not use it.
+   * @param registrationOptions See Face.registerPrefix.
+   * @param wireFormat See Face.registerPrefix.
+   * @throws IOException For I/O error in sending the registration request.
+   * @throws SecurityException If signing a command interest for NFD and cannot
+   * find the private key for the certificateName.
+   */
+  public final void
+  registerPrefix
+    (Name prefix, OnRegisterFailed onRegisterFailed,
+     OnRegisterSuccess onRegisterSuccess, OnInterestCallback onDataNotFound,
+     RegistrationOptions registrationOptions, WireFormat wireFormat)
+     throws IOException, SecurityException
+  {
+    registrations_.registerPrefix
+      (prefix, this, onRegisterFailed, onRegisterSuccess, onDataNotFound,
+       registrationOptions, wireFormat);
+  }
+
+  /**
+   * Call registerPrefix on the Face given to the constructor so that this
+   * PersistentContentCache will answer interests whose name has the prefix.
+   * This uses the default WireFormat.getDefaultWireFormat().
+   * Use default RegistrationOptions.
+   * @param prefix The Name for the prefix to register. This copies the Name.
+   * @param onRegisterFailed If register prefix fails for any reason, this
+   * calls onRegisterFailed.onRegisterFailed(prefix).
+   * @param onRegisterSuccess This calls
+   * onRegisterSuccess.onRegisterSuccess(prefix, registeredPrefixId) when this
+   * receives a success message from the forwarder. If onRegisterSuccess is null,
+   * this does not use it.
+   * @param onDataNotFound If a data packet for an interest is not found in the
+   * cache, this forwards the interest by calling
+   * onDataNotFound.onInterest(prefix, interest, face, interestFilterId, filter).
+   * If onDataNotFound is null, this does not use it.
+   * @throws IOException For I/O error in sending the registration request.
+   * @throws SecurityException If signing a command interest for NFD and cannot
+   * find the private key for the certificateName.
+   */
+  public final void
+  registerPrefix
+    (Name prefix, OnRegisterFailed onRegisterFailed,
+     OnRegisterSuccess onRegisterSuccess, OnInterestCallback onDataNotFound)
+    throws IOException, SecurityException
+  {
+    registerPrefix
+      (prefix, onRegisterFailed, onRegisterSuccess, onDataNotFound,
+       new RegistrationOptions(), WireFormat.getDefaultWireFormat());
+  }
+
+  /**
+   * Call registerPrefix on the Face given to the constructor so that this
+   * PersistentContentCache will answer interests whose name has the prefix.
+   * Do not call a callback if a data packet is not found in the cache.
+   * This uses the default WireFormat.getDefaultWireFormat().
+   * Use default RegistrationOptions.
+   * @param prefix The Name for the prefix to register. This copies the Name.
+   * @param onRegisterFailed If register prefix fails for any reason, this
+   * calls onRegisterFailed.onRegisterFailed(prefix).
+   * @throws IOException For I/O error in sending the registration request.
+   * @throws SecurityException If signing a command interest for NFD and cannot
+   * find the private key for the certificateName.
+   */
+  public final void
+  registerPrefix(Name prefix, OnRegisterFailed onRegisterFailed)
+    throws IOException, SecurityException
+  {
+    registerPrefix
+      (prefix, onRegisterFailed, null, null, new RegistrationOptions(),
+       WireFormat.getDefaultWireFormat());
+  }
+
+  /**
+   * Call setInterestFilter on the Face given to the constructor so that this
+   * PersistentContentCache will answer interests whose name matches the filter.
+   * @param filter The InterestFilter with a prefix and optional regex filter
+   * used to match the name of an incoming Interest. This makes a copy of filter.
+   * @param onDataNotFound If a data packet for an interest is not found in the
+   * cache, this forwards the interest by calling
+   * onDataNotFound.onInterest(prefix, interest, face, interestFilterId, filter).
+   * If onDataNotFound is null, this does not use it.
+   */
+  public final void
+  setInterestFilter(InterestFilter filter, OnInterestCallback onDataNotFound)
+  {
+    registrations_.setInterestFilter(filter, this, onDataNotFound);
+  }
+
+  /**
+   * Call setInterestFilter on the Face given to the constructor so that this
+   * PersistentContentCache will answer interests whose name has the prefix.
+   * @param prefix The Name prefix used to match the name of an incoming
+   * Interest. This copies the Name.
+   * @param onDataNotFound If a data packet for an interest is not found in the
+   * cache, this forwards the interest by calling
+   * onDataNotFound.onInterest(prefix, interest, face, interestFilterId, filter).
+   * If onDataNotFound is null, this does not use it.
+   */
+  public final void
+  setInterestFilter(Name prefix, OnInterestCallback onDataNotFound)
+  {
+    registrations_.setInterestFilter(prefix, this, onDataNotFound);
+  }
+
+  /**
+   * Call setInterestFilter on the Face given to the constructor so that this
+   * PersistentContentCache will answer interests whose name has the prefix.
+   * Do not call a callback if a data packet is not found in the cache.
+   * @param prefix The Name prefix used to match the name of an incoming
+   * Interest. This copies the Name.
+   */
+  public final void
+  setInterestFilter(Name prefix)
+  {
+    setInterestFilter(prefix, null);
+  }
+
+  /**
+   * Call Face.unsetInterestFilter and Face.removeRegisteredPrefix for all the
+   * prefixes given to the setInterestFilter and registerPrefix method on this
+   * PersistentContentCache object so that it will not receive interests any
+   * more.
+   */
+  public final void
+  unregisterAll() { registrations_.unregisterAll(); }
+
+  /**
+   * Append the Data packet to the segment file and the index file so that it
+   * is available to use to answer interests. If
+   * data.getMetaInfo().getFreshnessPeriod() is not negative, the Data packet
+   * is fresh until now plus the freshness period. (Unlike MemoryContentCache,
+   * a stale Data packet is not removed.) If the cache already has a Data packet
+   * with the same name, this replaces it. If this needs a new segment file and
+   * the segment files would exceed the maximum size given to the constructor,
+   * this evicts the oldest segment file with all its Data packets. The packet
+   * is only guaranteed to be on the storage device after you call flush() or
+   * close().
+   * @param data The Data packet object to put in the cache. This copies the
+   * wire encoding.
+   * @throws IOException For error writing to the files.
+   */
+  public synchronized final void
+  add(Data data) throws IOException
+  {
+    if (indexFile_ == null)
+      throw new IOException("PersistentContentCache: The cache is closed");
+
+    // wireEncode returns the cached encoding if available.
+    ByteBuffer encoding = data.wireEncode().buf();
+    int length = encoding.remaining();
+    if (length > segmentSize_)
+      throw new IllegalArgumentException
+        ("PersistentContentCache: The Data packet is larger than the segment size");
+
+    if (segments_.size() == 0 || writeOffset_ + length > segmentSize_) {
+      segments_.add(new Segment(mapSegment(firstSegmentNo_ + segments_.size())));
+      writeOffset_ = 0;
+      // Evict after mapping the new segment so that the directory always has
+      // the segment file being written, which restore needs.
+      while (segments_.size() > maxSegments_)
+        evictOldestSegment();
+    }
+    int segmentNo = firstSegmentNo_ + segments_.size() - 1;
+    ByteBuffer segment = getSegment(segmentNo).buffer_.duplicate();
+    segment.position(writeOffset_);
+    segment.put(encoding.duplicate());
+
+    double freshnessPeriod = data.getMetaInfo().getFreshnessPeriod();
+    double freshnessExpiryTime = freshnessPeriod >= 0.0 ?
+      Common.getNowMilliseconds() + freshnessPeriod : Double.POSITIVE_INFINITY;
+
+    // Append the index record after the Data packet so that a record is only
+    // restored for a complete packet.
+    Location location = new Location
+      (segmentNo, writeOffset_, length, freshnessExpiryTime);
+    appendIndexRecord(data.getName(), location);
+    putLocation(new Name(data.getName()), location);
+    writeOffset_ += length;
+
+    if (recentIndex_.size() >= MAX_RECENT_INDEX_SIZE)
+      mergeIndex();
+  }
+
+  /**
+   * Remove the Data packet with the given name from the cache. The space in
+   * the segment file is reclaimed when the segment is evicted.
+   * @param name The name of the Data packet to remove.
+   * @return True if the Data packet was removed, false if the cache doesn't
+   * have it.
+   * @throws IOException For error writing to the index file.
+   */
+  public synchronized final boolean
+  remove(Name name) throws IOException
+  {
+    if (indexFile_ == null)
+      throw new IOException("PersistentContentCache: The cache is closed");
+    if (getLocation(name) == null)
+      return false;
+
+    appendIndexRecord(name, Location.REMOVED);
+    putLocation(new Name(name), Location.REMOVED);
+
+    if (recentIndex_.size() >= MAX_RECENT_INDEX_SIZE)
+      mergeIndex();
+    return true;
+  }
+
+  /**
+   * Find the first Data packet in the cache which matches the interest
+   * according to Interest.matchesName, MustBeFresh and the ChildSelector. If
+   * CanBePrefix is false, this only looks up the Interest name.
+   * @param interest The Interest to match.
+   * @return A read-only slice of the memory-mapped segment file with the Data
+   * packet encoding, or null if not found. The slice is valid until close().
+   */
+  public synchronized final ByteBuffer
+  find(Interest interest)
+  {
+    Name interestName = interest.getName();
+    boolean mustBeFresh = interest.getMustBeFresh();
+    double nowMilliseconds = mustBeFresh ? Common.getNowMilliseconds() : 0;
+
+    if (!interest.getCanBePrefix()) {
+      // Only a Data packet with the Interest name can match.
+      Location location = getLocation(interestName);
+      if (location == null || !interest.matchesName(interestName) ||
+          (mustBeFresh && !(location.freshnessExpiryTime_ > nowMilliseconds)))
+        return null;
+      return getEncoding(location);
+    }
+
+    IndexCursor cursor = new IndexCursor
+      (interestName, interest.getChildSelector() == 1);
+    while (cursor.next()) {
+      Location location = cursor.location_;
+      if (!isLive(location) || !interest.matchesName(cursor.name_))
+        continue;
+      // Without MustBeFresh, the first name match is the result.
+      if (mustBeFresh && !(location.freshnessExpiryTime_ > nowMilliseconds))
+        continue;
+
+      return getEncoding(location);
+    }
+
+    return null;
+  }
+
+  public final void
+  onInterest
+    (Name prefix, Interest interest, Face face, long interestFilterId,
+     InterestFilter filter)
+  {
+    ByteBuffer encoding = find(interest);
+    if (encoding != null) {
+      logger_.log(Level.FINE,
+        "PersistentContentCache: Reply Data to Interest {0}", interest.toUri());
+      try {
+        face.send(encoding);
+      } catch (IOException ex) {
+        logger_.log(Level.SEVERE, null, ex);
+      }
+    }
+    else {
+      // Call the onDataNotFound callback (if defined).
+      registrations_.callOnDataNotFound
+        (prefix, interest, face, interestFilterId, filter);
+    }
+  }
+
+  /**
+   * Get the number of Data packets in the cache.
+   * @return The number of Data packets.
+   */
+  public synchronized final int
+  size() { return size_; }
+
+  /**
+   * Write changes in the memory-mapped segment files and the index file to the
+   * storage device.
+   * @throws IOException For error writing to the files.
+   */
+  public synchronized final void
+  flush() throws IOException
+  {
+    for (int i = 0; i < segments_.size(); ++i)
+      segments_.get(i).buffer_.force();
+    if (indexFile_ != null)
+      indexFile_.force(false);
+  }
+
+  /**
+   * Flush and close the files. After this, you can't add to the cache or use a
+   * ByteBuffer returned by find. The memory-mapped regions are released when
+   * they are garbage collected.
+   * @throws IOException For error writing to the files.
+   */
+  public synchronized final void
+  close() throws IOException
+  {
+    if (indexFile_ == null)
+      return;
+
+    flush();
+    indexFile_.close();
+    indexFile_ = null;
+    segments_.clear();
+    recentIndex_.clear();
+    sortedIndex_ = null;
+    sortedIndexSize_ = 0;
+    size_ = 0;
+  }
+
+  /**
+   * Location has the position of a Data packet in the segment files.
+   */
+  private static class Location {
+    public Location
+      (int segmentNo, int offset, int length, double freshnessExpiryTime)
+    {
+      segmentNo_ = segmentNo;
+      offset_ = offset;
+      length_ = length;
+      freshnessExpiryTime_ = freshnessExpiryTime;
+    }
+
+    /**
+     * Check if this is the REMOVED location.
+     * @return True if the Data packet with the name was removed.
+     */
+    public final boolean
+    isRemoved() { return segmentNo_ < 0; }
+
+    public final int segmentNo_;
+    public final int offset_;
+    public final int length_;
+    public final double freshnessExpiryTime_;
+
+    /**
+     * The location for a name whose Data packet was removed, so that it hides
+     * an older location in the sorted index.
+     */
+    public static final Location REMOVED = new Location(-1, 0, 0, 0.0);
+  }
+
+  /**
+   * Segment has the memory-mapped region of a segment file and the number of
+   * Data packets in the cache which are stored in it.
+   */
+  private static class Segment {
+    public Segment(MappedByteBuffer buffer)
+    {
+      buffer_ = buffer;
+    }
+
+    public final MappedByteBuffer buffer_;
+    public int nPackets_ = 0;
+  }
+
+  /**
+   * IndexCursor visits the names with a prefix in order, merging the
+   * recentIndex_ with the sorted index. If a name is in both, this only visits
+   * the location in recentIndex_, which is newer. This doesn't skip a location
+   * which is not live, so the caller should check isLive.
+   */
+  private class IndexCursor {
+    /**
+     * Create an IndexCursor before the first name with the prefix.
+     * @param prefix Visit the names with this prefix. If the prefix is empty,
+     * visit all names.
+     * @param isDescending If true, visit the names in descending order.
+     */
+    public IndexCursor(Name prefix, boolean isDescending)
+    {
+      isDescending_ = isDescending;
+
+      NavigableMap<Name, Location> range;
+      if (prefix.size() == 0) {
+        range = recentIndex_;
+        sortedBegin_ = 0;
+        sortedEnd_ = sortedIndexSize_;
+      }
+      else {
+        // Names with the prefix are before the successor of the prefix.
+        Name successor = prefix.getSuccessor();
+        range = recentIndex_.subMap(prefix, true, successor, false);
+        sortedBegin_ = getSortedLowerBound(prefix);
+        sortedEnd_ = getSortedLowerBound(successor);
+      }
+      if (isDescending)
+        range = range.descendingMap();
+      recentEntries_ = range.entrySet().iterator();
+
+      iSorted_ = isDescending ? sortedEnd_ : sortedBegin_ - 1;
+      nextRecent();
+      nextSorted();
+    }
+
+    /**
+     * Move to the next name and set name_ and location_.
+     * @return True if there is a next name, false if there are no more.
+     */
+    public final boolean
+    next()
+    {
+      if (recentEntry_ == null && sortedName_ == null)
+        return false;
+
+      int comparison;
+      if (recentEntry_ == null)
+        comparison = -1;
+      else if (sortedName_ == null)
+        comparison = 1;
+      else {
+        comparison = sortedName_.compare(recentEntry_.getKey());
+        if (isDescending_)
+          comparison = -comparison;
+      }
+
+      if (comparison < 0) {
+        name_ = sortedName_;
+        location_ = getSortedLocation(iSorted_);
+        nextSorted();
+      }
+      else {
+        name_ = recentEntry_.getKey();
+        location_ = recentEntry_.getValue();
+        nextRecent();
+        if (comparison == 0)
+          // The location in recentIndex_ replaces the one in the sorted index.
+          nextSorted();
+      }
+
+      return true;
+    }
+
+    private void
+    nextRecent()
+    {
+      recentEntry_ = recentEntries_.hasNext() ? recentEntries_.next() : null;
+    }
+
+    private void
+    nextSorted()
+    {
+      iSorted_ += isDescending_ ? -1 : 1;
+      sortedName_ = iSorted_ >= sortedBegin_ && iSorted_ < sortedEnd_ ?
+        getSortedName(iSorted_) : null;
+    }
+
+    public Name name_ = null;
+    public Location location_ = null;
+    private final boolean isDescending_;
+    private final Iterator<Map.Entry<Name, Location>> recentEntries_;
+    private Map.Entry<Name, Location> recentEntry_;
+    private final int sortedBegin_;
+    private final int sortedEnd_;
+    private int iSorted_;
+    private Name sortedName_;
+  }
+
+  /**
+   * Check if the location is for a Data packet in the cache.
+   * @param location The Location to check.
+   * @return False if the location is REMOVED or its segment was evicted.
+   */
+  private boolean
+  isLive(Location location)
+  {
+    return !location.isRemoved() && location.segmentNo_ >= firstSegmentNo_;
+  }
+
+  /**
+   * Get the segment with the segment number.
+   * @param segmentNo The segment number, which must not be evicted.
+   * @return The Segment.
+   */
+  private Segment
+  getSegment(int segmentNo) { return segments_.get(segmentNo - firstSegmentNo_); }
+
+  /**
+   * Look up the name in recentIndex_, then in the sorted index.
+   * @param name The name of the Data packet.
+   * @return The Location of the Data packet, or null if the cache doesn't have
+   * it.
+   */
+  private Location
+  getLocation(Name name)
+  {
+    Location location = recentIndex_.get(name);
+    if (location == null) {
+      int i = getSortedLowerBound(name);
+      if (i < sortedIndexSize_ && getSortedName(i).equals(name))
+        location = getSortedLocation(i);
+    }
+
+    return location != null && isLive(location) ? location : null;
+  }
+
+  /**
+   * Put the location for the name in recentIndex_ and update size_ and the
+   * number of packets in each segment for the old and new location. This does
+   * not write to the index file.
+   * @param name The name of the Data packet, which is not copied.
+   * @param location The new Location, or Location.REMOVED.
+   */
+  private void
+  putLocation(Name name, Location location)
+  {
+    Location oldLocation = getLocation(name);
+    if (oldLocation != null) {
+      --getSegment(oldLocation.segmentNo_).nPackets_;
+      --size_;
+    }
+    if (isLive(location)) {
+      ++getSegment(location.segmentNo_).nPackets_;
+      ++size_;
+    }
+
+    recentIndex_.put(name, location);
+  }
+
+  /**
+   * Append a record for the name and location to the index file.
+   * @param name The name of the Data packet.
+   * @param location The Location of the Data packet, or Location.REMOVED.
+   */
+  private void
+  appendIndexRecord(Name name, Location location) throws IOException
+  {
+    ByteBuffer nameEncoding = name.wireEncode().buf();
+    ByteBuffer record = ByteBuffer.allocate
+      (INDEX_RECORD_HEADER_SIZE + nameEncoding.remaining());
+    record.putInt(record.capacity() - 4);
+    record.putInt(location.segmentNo_);
+    record.putInt(location.offset_);
+    record.putInt(location.length_);
+    record.putDouble(location.freshnessExpiryTime_);
+    record.put(nameEncoding.duplicate());
+    record.flip();
+    while (record.hasRemaining())
+      indexFile_.write(record);
+  }
+
+  /**
+   * Get the index of the first name in the sorted index which is not less
+   * than the given name, using binary search.
+   * @param name The name to search for.
+   * @return The index, or sortedIndexSize_ if all names are less.
+   */
+  private int
+  getSortedLowerBound(Name name)
+  {
+    int low = 0;
+    int high = sortedIndexSize_;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (getSortedName(middle).compare(name) < 0)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+
+    return low;
+  }
+
+  /**
+   * Get the position in sortedIndex_ of the entry at index i.
+   */
+  private int
+  getSortedEntryPosition(int i)
+  {
+    return sortedIndex_.getInt
+      (sortedIndex_.capacity() - SORTED_INDEX_TRAILER_SIZE -
+       4 * (sortedIndexSize_ - i));
+  }
+
+  /**
+   * Get the location of the entry at index i in the sorted index.
+   */
+  private Location
+  getSortedLocation(int i)
+  {
+    int position = getSortedEntryPosition(i);
+    return new Location
+      (sortedIndex_.getInt(position), sortedIndex_.getInt(position + 4),
+       sortedIndex_.getInt(position + 8), sortedIndex_.getDouble(position + 12));
+  }
+
+  /**
+   * Decode the name of the entry at index i in the sorted index. The Name
+   * shares memory with the mapped sorted index file.
+   */
+  private Name
+  getSortedName(int i)
+  {
+    ByteBuffer nameEncoding = sortedIndex_.duplicate();
+    nameEncoding.position(getSortedEntryPosition(i) + SORTED_ENTRY_HEADER_SIZE);
+    Name name = new Name();
+    try {
+      name.wireDecode(new Blob(nameEncoding, false));
+    } catch (EncodingException ex) {
+      // We don't expect this since the file is checked when it is mapped.
+      throw new Error("PersistentContentCache: Error decoding the sorted index: " +
+        ex.getMessage());
+    }
+    return name;
+  }
+
+  /**
+   * Map the sorted index file and set sortedIndex_, sortedIndexSize_ and
+   * generation_. The file has an entry for each name in ascending order with
+   * the segment number, offset, length and freshness expiry time, followed by
+   * the name TLV. After the entries is the position of each entry, then the
+   * number of entries and the generation.
+   * @param filePath The path of the sorted index file.
+   * @throws IOException For error reading the file, or if the file is not a
+   * valid sorted index.
+   */
+  private void
+  mapSortedIndex(File filePath) throws IOException
+  {
+    RandomAccessFile file = new RandomAccessFile(filePath, "r");
+    try {
+      long length = file.length();
+      if (length < SORTED_INDEX_TRAILER_SIZE || length > Integer.MAX_VALUE)
+        throw new IOException
+          ("PersistentContentCache: The sorted index file has an invalid length");
+      // The mapping stays valid after the file is closed.
+      MappedByteBuffer sortedIndex = file.getChannel().map
+        (FileChannel.MapMode.READ_ONLY, 0, length);
+      int size = sortedIndex.getInt((int)length - SORTED_INDEX_TRAILER_SIZE);
+      if (size < 0 || SORTED_INDEX_TRAILER_SIZE + 4L * size > length)
+        throw new IOException
+          ("PersistentContentCache: The sorted index file has an invalid size");
+
+      sortedIndex_ = sortedIndex;
+      sortedIndexSize_ = size;
+      generation_ = sortedIndex.getInt((int)length - 4);
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Write the locations in the sorted index and recentIndex_ which are live to
+   * a new sorted index file, map it and clear recentIndex_. Then start a new
+   * index file for the next generation. The sorted index file replaces the old
+   * one with an atomic rename, and restore ignores an index file with an older
+   * generation than the sorted index file, so that a crash during the merge
+   * doesn't lose or repeat a record.
+   * @throws IOException For error writing the files.
+   */
+  private void
+  mergeIndex() throws IOException
+  {
+    // The sorted index must not refer to a Data packet which is not stored.
+    for (int i = 0; i < segments_.size(); ++i)
+      segments_.get(i).buffer_.force();
+
+    File tempFilePath = new File(directory_, SORTED_INDEX_FILE_NAME + ".tmp");
+    int[] entryPositions = new int[sortedIndexSize_ + recentIndex_.size()];
+    int size = 0;
+    FileOutputStream fileOutput = new FileOutputStream(tempFilePath);
+    try {
+      DataOutputStream output = new DataOutputStream
+        (new BufferedOutputStream(fileOutput));
+      IndexCursor cursor = new IndexCursor(new Name(), false);
+      while (cursor.next()) {
+        Location location = cursor.location_;
+        if (!isLive(location))
+          continue;
+
+        entryPositions[size++] = output.size();
+        output.writeInt(location.segmentNo_);
+        output.writeInt(location.offset_);
+        output.writeInt(location.length_);
+        output.writeDouble(location.freshnessExpiryTime_);
+        output.write(cursor.name_.wireEncode().getImmutableArray());
+      }
+
+      for (int i = 0; i < size; ++i)
+        output.writeInt(entryPositions[i]);
+      output.writeInt(size);
+      output.writeInt(generation_ + 1);
+      output.flush();
+      if (output.size() < 0)
+        // DataOutputStream.size() overflowed.
+        throw new IOException
+          ("PersistentContentCache: The sorted index file is too large");
+      fileOutput.getFD().sync();
+    } finally {
+      fileOutput.close();
+    }
+
+    File filePath = new File(directory_, SORTED_INDEX_FILE_NAME);
+    Files.move
+      (tempFilePath.toPath(), filePath.toPath(),
+       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    mapSortedIndex(filePath);
+    recentIndex_.clear();
+    resetIndexFile();
+  }
+
+  /**
+   * Truncate the index file and write the current generation_ at the start.
+   */
+  private void
+  resetIndexFile() throws IOException
+  {
+    indexFile_.truncate(0);
+    ByteBuffer header = ByteBuffer.allocate(INDEX_FILE_HEADER_SIZE);
+    header.putInt(generation_);
+    header.flip();
+    indexFile_.position(0);
+    while (header.hasRemaining())
+      indexFile_.write(header);
+    indexFile_.force(false);
+  }
+
+  /**
+   * Remove the oldest segment from segments_ and delete its file. The
+   * locations which refer to it are no longer live, and are removed from the
+   * sorted index by the next mergeIndex.
+   */
+  private void
+  evictOldestSegment()
+  {
+    Segment segment = segments_.remove(0);
+    size_ -= segment.nPackets_;
+    File filePath = new File(directory_, getSegmentFileName(firstSegmentNo_));
+    ++firstSegmentNo_;
+
+    logger_.log(Level.FINE,
+      "PersistentContentCache: Evicting {0} Data packets in {1}",
+      new Object[] { segment.nPackets_, filePath.getName() });
+    if (!filePath.delete())
+      logger_.log(Level.WARNING,
+        "PersistentContentCache: Can't delete the evicted segment file {0}",
+        filePath);
+  }
+
+  /**
+   * Get a read-only slice of the memory-mapped segment file for the location.
+   * @param location The Location of the Data packet.
+   * @return The slice with the Data packet encoding.
+   */
+  private ByteBuffer
+  getEncoding(Location location)
+  {
+    ByteBuffer result = getSegment(location.segmentNo_).buffer_.asReadOnlyBuffer();
+    result.limit(location.offset_ + location.length_);
+    result.position(location.offset_);
+    return result.slice();
+  }
+
+  /**
+   * Check that the location has one Data TLV whose length matches the
+   * location length, so that restore doesn't use a record whose packet was
+   * not completely written to the segment file before a crash.
+   * @param location The Location of the Data packet. Its segment must be
+   * mapped.
+   * @return True if the location has a complete Data TLV.
+   */
+  private boolean
+  isCompleteData(Location location)
+  {
+    TlvDecoder decoder = new TlvDecoder(getEncoding(location));
+    try {
+      int valueLength = decoder.readTypeAndLength(Tlv.Data);
+      return (long)decoder.getOffset() + valueLength == location.length_;
+    } catch (EncodingException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Map the segment files which were not evicted and the sorted index file.
+   * Then read the records in the index file which were added since the sorted
+   * index file was written. Stop at the first record which is incomplete or
+   * whose Data packet is not a complete TLV in the segment file, from a crash,
+   * and truncate the index file there. Then open the index file for appending.
+   */
+  private void
+  restore() throws IOException
+  {
+    int firstSegmentNo = -1;
+    int lastSegmentNo = -1;
+    String[] fileNames = directory_.list();
+    for (int i = 0; i < fileNames.length; ++i) {
+      int segmentNo = getSegmentNo(fileNames[i]);
+      if (segmentNo < 0)
+        continue;
+      if (firstSegmentNo < 0 || segmentNo < firstSegmentNo)
+        firstSegmentNo = segmentNo;
+      if (segmentNo > lastSegmentNo)
+        lastSegmentNo = segmentNo;
+    }
+    if (lastSegmentNo >= 0) {
+      firstSegmentNo_ = firstSegmentNo;
+      for (int segmentNo = firstSegmentNo; segmentNo <= lastSegmentNo; ++segmentNo)
+        segments_.add(new Segment(mapSegment(segmentNo)));
+    }
+    // The end of the Data packets in the last segment.
+    int lastEnd = 0;
+
+    File sortedIndexFilePath = new File(directory_, SORTED_INDEX_FILE_NAME);
+    if (sortedIndexFilePath.exists()) {
+      mapSortedIndex(sortedIndexFilePath);
+      for (int i = 0; i < sortedIndexSize_; ++i) {
+        Location location = getSortedLocation(i);
+        if (!isLive(location))
+          continue;
+        if (location.segmentNo_ > lastSegmentNo)
+          throw new IOException
+            ("PersistentContentCache: The sorted index refers to a missing segment file");
+
+        ++getSegment(location.segmentNo_).nPackets_;
+        ++size_;
+        if (location.segmentNo_ == lastSegmentNo)
+          lastEnd = Math.max(lastEnd, location.offset_ + location.length_);
+      }
+    }
+
+    File indexFilePath = new File(directory_, INDEX_FILE_NAME);
+    long validLength = 0;
+    if (indexFilePath.exists()) {
+      DataInputStream input = new DataInputStream(new BufferedInputStream
+        (new FileInputStream(indexFilePath)));
+      try {
+        // If the generation is older, the sorted index file already has the
+        // records, from a crash during mergeIndex.
+        if (input.readInt() == generation_) {
+          validLength = INDEX_FILE_HEADER_SIZE;
+          while (true) {
+            int recordLength = input.readInt();
+            if (recordLength < INDEX_RECORD_HEADER_SIZE - 4)
+              break;
+            int segmentNo = input.readInt();
+            int offset = input.readInt();
+            int length = input.readInt();
+            double freshnessExpiryTime = input.readDouble();
+            byte[] nameEncoding =
+              new byte[recordLength - (INDEX_RECORD_HEADER_SIZE - 4)];
+            input.readFully(nameEncoding);
+
+            Name name = new Name();
+            try {
+              name.wireDecode(new Blob(nameEncoding, false));
+            } catch (EncodingException ex) {
+              break;
+            }
+
+            Location location;
+            if (segmentNo == Location.REMOVED.segmentNo_)
+              location = Location.REMOVED;
+            else {
+              if (segmentNo < 0 || offset < 0 || length <= 0 ||
+                  (long)offset + length > segmentSize_ ||
+                  segmentNo > lastSegmentNo)
+                break;
+
+              location = new Location
+                (segmentNo, offset, length, freshnessExpiryTime);
+              if (isLive(location) && !isCompleteData(location))
+                break;
+              if (segmentNo == lastSegmentNo)
+                lastEnd = Math.max(lastEnd, offset + length);
+            }
+
+            putLocation(name, location);
+            validLength += 4 + recordLength;
+          }
+        }
+      } catch (EOFException ex) {
+        // The last record is incomplete.
+      } finally {
+        input.close();
+      }
+    }
+    writeOffset_ = lastEnd;
+
+    RandomAccessFile file = new RandomAccessFile(indexFilePath, "rw");
+    indexFile_ = file.getChannel();
+    if (validLength == 0)
+      resetIndexFile();
+    else {
+      file.setLength(validLength);
+      indexFile_.position(validLength);
+    }
+
+    while (segments_.size() > maxSegments_)
+      evictOldestSegment();
+    if (recentIndex_.size() >= MAX_RECENT_INDEX_SIZE)
+      mergeIndex();
+  }
+
+  /**
+   * Create or open the segment file and map segmentSize_ bytes of it.
+   * @param segmentNo The segment number.
+   * @return The mapped region.
+   */
+  private MappedByteBuffer
+  mapSegment(int segmentNo) throws IOException
+  {
+    RandomAccessFile file = new RandomAccessFile
+      (new File(directory_, getSegmentFileName(segmentNo)), "rw");
+    try {
+      // The mapping stays valid after the file is closed.
+      return file.getChannel().map
+        (FileChannel.MapMode.READ_WRITE, 0, segmentSize_);
+    } finally {
+      file.close();
+    }
+  }
+
+  private static String
+  getSegmentFileName(int segmentNo)
+  {
+    return String.format("segment-%06d.dat", segmentNo);
+  }
+
+  /**
+   * Get the segment number from the segment file name.
+   * @param fileName The file name.
+   * @return The segment number, or -1 if fileName is not a segment file name.
+   */
+  private static int
+  getSegmentNo(String fileName)
+  {
+    if (!fileName.startsWith("segment-") || !fileName.endsWith(".dat"))
+      return -1;
+    try {
+      return Integer.parseInt
+        (fileName.substring("segment-".length(), fileName.length() - 4));
+    } catch (NumberFormatException ex) {
+      return -1;
+    }
+  }
+
+  /**
+   * The default size of each segment file, 64 MiB.
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * The maximum number of names in recentIndex_ before it is merged into the
+   * sorted index file.
+   */
+  public static final int MAX_RECENT_INDEX_SIZE = 4096;
+
+  private static final String INDEX_FILE_NAME = "index.dat";
+  private static final String SORTED_INDEX_FILE_NAME = "sorted-index.dat";
+  /** The generation of the sorted index file for the records. */
+  private static final int INDEX_FILE_HEADER_SIZE = 4;
+  /** The record length, segment number, offset, length and freshness expiry
+   * time, followed by the name TLV. */
+  private static final int INDEX_RECORD_HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+  /** The segment number, offset, length and freshness expiry time, followed by
+   * the name TLV. */
+  private static final int SORTED_ENTRY_HEADER_SIZE = 4 + 4 + 4 + 8;
+  /** The number of entries and the generation. */
+  private static final int SORTED_INDEX_TRAILER_SIZE = 4 + 4;
+
+  private final ContentCacheRegistrations registrations_;
+  private final File directory_;
+  private final int segmentSize_;
+  private final int maxSegments_;
+  private final ArrayList<Segment> segments_ = new ArrayList<Segment>();
+  private int firstSegmentNo_ = 0; /**< The segment number of segments_.get(0) */
+  private int writeOffset_ = 0; /**< The offset in the last segment. */
+  private FileChannel indexFile_ = null;
+  private int generation_ = 0; /**< The generation of the sorted index file */
+  private MappedByteBuffer sortedIndex_ = null;
+  private int sortedIndexSize_ = 0;
+  // The changes since the sorted index file was written. This has at most
+  // MAX_RECENT_INDEX_SIZE names, so the rest of the index is off the heap.
+  private final TreeMap<Name, Location> recentIndex_ =
+    new TreeMap<Name, Location>();
+  private int size_ = 0;
+  private static final Logger logger_ =
+    Logger.getLogger(PersistentContentCache.class.getName());
+}
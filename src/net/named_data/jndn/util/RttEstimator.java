@@ -71,7 +71,7 @@ public class RttEstimator {
      * Configures the RTT Estimator
      * @param options_ Parameters for configuration.
      */
-    RttEstimator(Options options_) {
+    public RttEstimator(Options options_) {
         this.options_ = options_;
         rto_ = options_.initialRto;
     }
@@ -86,7 +86,7 @@ public class RttEstimator {
      * NOTE: Do not call this function with RTT samples from retransmitted Interests
      *       (per Karn's algorithm).
      */
-    void
+    public void
     addMeasurement(double rtt, int nExpectedSamples) {
         if (nRttSamples_ == 0) { // first measurement
             sRtt_ = rtt;
@@ -104,14 +104,14 @@ public class RttEstimator {
 
         rttAvg_ = (nRttSamples_ * rttAvg_ + rtt) / (nRttSamples_ + 1);
         rttMax_ = Math.max(rtt, rttMax_);
-        rttMin_ = Math.max(rtt, rttMin_);
+        rttMin_ = Math.min(rtt, rttMin_);
         nRttSamples_++;
     }
 
     /**
      * Backoff RTO by a factor of Options.rtoBackoffMultiplier.
      */
-    void
+    public void
     backoffRto()
     {
         rto_ = clamp(rto_ * options_.rtoBackoffMultiplier,
@@ -127,7 +127,7 @@ public class RttEstimator {
     /**
      * Returns the estimated RTO value.
      */
-    double
+    public double
     getEstimatedRto()
     {
         return rto_;
@@ -136,7 +136,7 @@ public class RttEstimator {
     /**
      * Returns the minimum RTT observed.
      */
-    double
+    public double
     getMinRtt()
     {
         return rttMin_;
@@ -145,7 +145,7 @@ public class RttEstimator {
     /**
      * Returns the maximum RTT observed.
      */
-    double
+    public double
     getMaxRtt()
     {
         return rttMax_;
@@ -154,12 +154,21 @@ public class RttEstimator {
     /**
      * Returns the average RTT.
      */
-    double
+    public double
     getAvgRtt()
     {
         return rttAvg_;
     }
 
+    /**
+     * Returns the smoothed RTT, or NaN if there are no measurements.
+     */
+    public double
+    getSmoothedRtt()
+    {
+        return sRtt_;
+    }
+
     private final Options options_;
     private double sRtt_ = Double.NaN; // smoothed round-trip time
     private double rttVar_ =  Double.NaN; // round-trip time variation
@@ -0,0 +1,440 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.named_data.jndn.Face;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.security.v2.Validator;
+
+/**
+ * SegmentFetchManager fetches many segmented objects at the same time over one
+ * Face. Each object is fetched by a SegmentFetcher as in SegmentFetcher.fetch,
+ * but all the fetchers for the same producer prefix share one
+ * CongestionControl (congestion window and RTT estimate), so that together
+ * they keep at most one window of Interests in flight to the producer instead
+ * of one window each. The manager gives the window to the fetchers of a
+ * producer in round-robin order, one Interest at a time, so that each object
+ * gets a fair share. It also limits the total number of Interests in flight
+ * for all producers, and keeps statistics for all the fetches.
+ * Like SegmentFetcher, this is not thread safe and should be used from the
+ * thread which calls face.processEvents.
+ */
+public class SegmentFetchManager {
+    /**
+     * Statistics is a snapshot of the counts for all the fetches of a
+     * SegmentFetchManager, returned by getStatistics.
+     */
+    public static class Statistics {
+        private Statistics(SegmentFetchManager manager) {
+            nInterestsSent_ = manager.nInterestsSent_;
+            nRetransmissions_ = manager.nRetransmissions_;
+            nSegmentsReceived_ = manager.nSegmentsReceived_;
+            nBytesReceived_ = manager.nBytesReceived_;
+            nFetchesCompleted_ = manager.nFetchesCompleted_;
+            nFetchesFailed_ = manager.nFetchesFailed_;
+            nFetchesActive_ = manager.groupOfFetcher_.size();
+            nInterestsInFlight_ = manager.nInterestsInFlight_;
+            elapsedMilliseconds_ = manager.startTime_ < 0 ?
+                    0 : Common.getNowMilliseconds() - manager.startTime_;
+        }
+
+        /** Get the number of Interests sent, including retransmissions. */
+        public long getNInterestsSent() { return nInterestsSent_; }
+
+        /** Get the number of retransmitted Interests. */
+        public long getNRetransmissions() { return nRetransmissions_; }
+
+        /** Get the number of segments received and verified. */
+        public long getNSegmentsReceived() { return nSegmentsReceived_; }
+
+        /** Get the number of content bytes in the received segments. */
+        public long getNBytesReceived() { return nBytesReceived_; }
+
+        /** Get the number of fetches which called onComplete. */
+        public long getNFetchesCompleted() { return nFetchesCompleted_; }
+
+        /** Get the number of fetches which called onError. */
+        public long getNFetchesFailed() { return nFetchesFailed_; }
+
+        /** Get the number of fetches which are not finished. */
+        public int getNFetchesActive() { return nFetchesActive_; }
+
+        /** Get the number of Interests in flight for all producers. */
+        public int getNInterestsInFlight() { return nInterestsInFlight_; }
+
+        /** Get the milliseconds since the first fetch was started. */
+        public double getElapsedMilliseconds() { return elapsedMilliseconds_; }
+
+        /**
+         * Get the average throughput since the first fetch was started.
+         * @return The throughput in content bytes per second.
+         */
+        public double getThroughput() {
+            if (elapsedMilliseconds_ <= 0) {
+                return 0;
+            }
+            return nBytesReceived_ * 1000.0 / elapsedMilliseconds_;
+        }
+
+        private final long nInterestsSent_;
+        private final long nRetransmissions_;
+        private final long nSegmentsReceived_;
+        private final long nBytesReceived_;
+        private final long nFetchesCompleted_;
+        private final long nFetchesFailed_;
+        private final int nFetchesActive_;
+        private final int nInterestsInFlight_;
+        private final double elapsedMilliseconds_;
+    }
+
+    /**
+     * Create a SegmentFetchManager to fetch over the face.
+     * @param face This calls face.expressInterest to fetch the segments.
+     * @param maxInterestsInFlight The maximum number of Interests in flight for
+     * all producers.
+     */
+    public SegmentFetchManager(Face face, int maxInterestsInFlight) {
+        if (maxInterestsInFlight <= 0) {
+            throw new IllegalArgumentException
+                    ("SegmentFetchManager: maxInterestsInFlight must be positive");
+        }
+
+        face_ = face;
+        maxInterestsInFlight_ = maxInterestsInFlight;
+    }
+
+    /**
+     * Create a SegmentFetchManager to fetch over the face, with
+     * DEFAULT_MAX_INTERESTS_IN_FLIGHT.
+     * @param face This calls face.expressInterest to fetch the segments.
+     */
+    public SegmentFetchManager(Face face) {
+        this(face, DEFAULT_MAX_INTERESTS_IN_FLIGHT);
+    }
+
+    /**
+     * Start fetching a segmented object. For details of the fetching process and
+     * the parameters, see SegmentFetcher.fetch.
+     * @param producerPrefix The prefix which identifies the producer. All the
+     * active fetches with the same producer prefix share one CongestionControl.
+     * If there is no active fetch for the producer prefix, this creates the
+     * CongestionControl from the options. When the last fetch for a producer
+     * prefix finishes, its CongestionControl is removed.
+     * @param baseInterest Interest for the initial segment of requested data.
+     * @param options A set of options for the fetcher. The congestion window
+     * options are only used if there is no active fetch for the producer prefix.
+     * @param verifySegment When a Data packet is received this calls
+     * verifySegment.verifySegment(data). See SegmentFetcher.fetch.
+     * @param onComplete When all segments are received, call
+     * onComplete.onComplete(content).
+     * NOTE: The library will log any exceptions thrown by this callback, but for
+     * better error handling the callback should catch and properly handle any
+     * exceptions.
+     * @param onError Call onError.onError(errorCode, message) for timeout or an
+     * error processing segments. This stops the fetch, so onError is called at
+     * most once.
+     * NOTE: The library will log any exceptions thrown by this callback, but for
+     * better error handling the callback should catch and properly handle any
+     * exceptions.
+     */
+    public void fetch
+    (Name producerPrefix, Interest baseInterest, SegmentFetcher.Options options,
+     SegmentFetcher.VerifySegment verifySegment, SegmentFetcher.OnComplete onComplete,
+     SegmentFetcher.OnError onError) {
+        startFetch(producerPrefix, baseInterest, options, null, verifySegment,
+                onComplete, onError);
+    }
+
+    /**
+     * Start fetching a segmented object, using a Validator. This is the same as
+     * fetch with verifySegment, except that each segment is validated with
+     * validator.validate.
+     * @param validator The Validator, the fetcher will use to validate data.
+     * The caller must ensure the validator remains valid until either
+     * onComplete or onError has been signaled.
+     */
+    public void fetch
+    (Name producerPrefix, Interest baseInterest, SegmentFetcher.Options options,
+     Validator validator, SegmentFetcher.OnComplete onComplete,
+     SegmentFetcher.OnError onError) {
+        startFetch(producerPrefix, baseInterest, options, validator,
+                SegmentFetcher.DontVerifySegment, onComplete, onError);
+    }
+
+    /**
+     * Start fetching a segmented object where the producer prefix is the name
+     * of the baseInterest without its last component. See fetch above.
+     */
+    public void fetch
+    (Interest baseInterest, SegmentFetcher.Options options,
+     SegmentFetcher.VerifySegment verifySegment, SegmentFetcher.OnComplete onComplete,
+     SegmentFetcher.OnError onError) {
+        fetch(baseInterest.getName().getPrefix(-1), baseInterest, options,
+                verifySegment, onComplete, onError);
+    }
+
+    /**
+     * Get a snapshot of the statistics for all the fetches.
+     * @return A new Statistics object.
+     */
+    public Statistics getStatistics() {
+        return new Statistics(this);
+    }
+
+    /**
+     * Get the CongestionControl shared by the fetches for the producer prefix.
+     * @param producerPrefix The producer prefix given to fetch.
+     * @return The CongestionControl, or null if there is no active fetch for the
+     * producer prefix.
+     */
+    public CongestionControl getCongestionControl(Name producerPrefix) {
+        ProducerGroup group = groups_.get(producerPrefix);
+        return group == null ? null : group.congestionControl_;
+    }
+
+    /**
+     * Get the maximum number of Interests in flight for all producers, as
+     * given to the constructor.
+     * @return The maximum number of Interests.
+     */
+    public int getMaxInterestsInFlight() {
+        return maxInterestsInFlight_;
+    }
+
+    /**
+     * ProducerGroup holds the shared CongestionControl and the active fetchers
+     * for a producer prefix.
+     */
+    private static class ProducerGroup {
+        public ProducerGroup(Name producerPrefix, CongestionControl congestionControl) {
+            producerPrefix_ = producerPrefix;
+            congestionControl_ = congestionControl;
+        }
+
+        /**
+         * If the window allows, let the next fetcher in round-robin order which
+         * has an Interest to send, send it.
+         * @return True if an Interest was sent.
+         */
+        public boolean sendNextInterest() {
+            if (congestionControl_.getCwnd() - nInterestsInFlight_ <= 0) {
+                return false;
+            }
+
+            int nFetchers = fetchers_.size();
+            for (int i = 0; i < nFetchers; ++i) {
+                // Sending can complete a fetcher and remove it.
+                SegmentFetcher fetcher = fetchers_.poll();
+                if (fetcher == null) {
+                    return false;
+                }
+                fetchers_.add(fetcher);
+
+                if (fetcher.sendNextInterest()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        public final Name producerPrefix_;
+        public final CongestionControl congestionControl_;
+        public final ArrayDeque<SegmentFetcher> fetchers_ = new ArrayDeque<SegmentFetcher>();
+        public int nInterestsInFlight_ = 0;
+    }
+
+    private void startFetch
+    (Name producerPrefix, Interest baseInterest, SegmentFetcher.Options options,
+     Validator validator, SegmentFetcher.VerifySegment verifySegment,
+     final SegmentFetcher.OnComplete onComplete, final SegmentFetcher.OnError onError) {
+        if (startTime_ < 0) {
+            startTime_ = Common.getNowMilliseconds();
+        }
+
+        ProducerGroup group = groups_.get(producerPrefix);
+        if (group == null) {
+            group = new ProducerGroup
+                    (new Name(producerPrefix), CongestionControl.create(options));
+            groups_.put(group.producerPrefix_, group);
+            groupList_.add(group);
+        }
+
+        // The fetcher is set after it is created.
+        final SegmentFetcher[] fetcherHolder = new SegmentFetcher[1];
+        SegmentFetcher fetcher = new SegmentFetcher
+                (face_, baseInterest, null, options, validator, verifySegment,
+                 new SegmentFetcher.OnComplete() {
+                     public void onComplete(Blob content) {
+                         if (!removeFetcher(fetcherHolder[0])) {
+                             return;
+                         }
+                         ++nFetchesCompleted_;
+                         try {
+                             onComplete.onComplete(content);
+                         } catch (Throwable ex) {
+                             logger_.log(Level.SEVERE, "Error in onComplete", ex);
+                         }
+                         scheduler_.schedule();
+                     }
+                 },
+                 null, null, null,
+                 new SegmentFetcher.OnError() {
+                     public void onError(SegmentFetcher.ErrorCode errorCode, String message) {
+                         fetcherHolder[0].stop();
+                         if (!removeFetcher(fetcherHolder[0])) {
+                             return;
+                         }
+                         ++nFetchesFailed_;
+                         try {
+                             onError.onError(errorCode, message);
+                         } catch (Throwable ex) {
+                             logger_.log(Level.SEVERE, "Error in onError", ex);
+                         }
+                         scheduler_.schedule();
+                     }
+                 },
+                 group.congestionControl_, scheduler_);
+        fetcherHolder[0] = fetcher;
+
+        group.fetchers_.add(fetcher);
+        groupOfFetcher_.put(fetcher, group);
+        fetcher.run();
+    }
+
+    /**
+     * Remove the finished fetcher from its group and release its Interests in
+     * flight. If the group has no more fetchers, remove the group.
+     * @return True if removed, false if it was already removed.
+     */
+    private boolean removeFetcher(SegmentFetcher fetcher) {
+        ProducerGroup group = groupOfFetcher_.remove(fetcher);
+        if (group == null) {
+            return false;
+        }
+
+        group.fetchers_.remove(fetcher);
+        group.nInterestsInFlight_ -= fetcher.getSegmentsInFlight();
+        nInterestsInFlight_ -= fetcher.getSegmentsInFlight();
+        if (group.fetchers_.isEmpty()) {
+            groups_.remove(group.producerPrefix_);
+            groupList_.remove(group);
+        }
+        return true;
+    }
+
+    private final SegmentFetcher.Scheduler scheduler_ = new SegmentFetcher.Scheduler() {
+        public void schedule() {
+            if (isScheduling_) {
+                // A fetcher called back while sending. Check again after.
+                isScheduleNeeded_ = true;
+                return;
+            }
+
+            isScheduling_ = true;
+            try {
+                do {
+                    isScheduleNeeded_ = false;
+                    boolean sentInterest = true;
+                    while (sentInterest && nInterestsInFlight_ < maxInterestsInFlight_) {
+                        sentInterest = false;
+                        // Give each producer at most one Interest per round so
+                        // that they share the global limit. Continue from the
+                        // group after the last one which had a turn, so that the
+                        // first group doesn't take each Interest which is freed.
+                        // A callback can add or remove a group, so check the size
+                        // each time.
+                        int nGroups = groupList_.size();
+                        for (int i = 0; i < nGroups && !groupList_.isEmpty(); ++i) {
+                            if (nInterestsInFlight_ >= maxInterestsInFlight_) {
+                                break;
+                            }
+                            if (nextGroupIndex_ >= groupList_.size()) {
+                                nextGroupIndex_ = 0;
+                            }
+                            ProducerGroup group = groupList_.get(nextGroupIndex_);
+                            ++nextGroupIndex_;
+                            if (group.sendNextInterest()) {
+                                sentInterest = true;
+                            }
+                        }
+                    }
+                } while (isScheduleNeeded_);
+            } finally {
+                isScheduling_ = false;
+            }
+        }
+
+        public void onSegmentsInFlightChanged(SegmentFetcher fetcher, int delta) {
+            ProducerGroup group = groupOfFetcher_.get(fetcher);
+            if (group == null) {
+                return;
+            }
+
+            group.nInterestsInFlight_ += delta;
+            nInterestsInFlight_ += delta;
+        }
+
+        public void onInterestSent(SegmentFetcher fetcher, boolean isRetransmission) {
+            ++nInterestsSent_;
+            if (isRetransmission) {
+                ++nRetransmissions_;
+            }
+        }
+
+        public void onSegmentReceived(SegmentFetcher fetcher, int nBytes) {
+            ++nSegmentsReceived_;
+            nBytesReceived_ += nBytes;
+        }
+    };
+
+    /**
+     * The default maximum number of Interests in flight for all producers.
+     */
+    public static final int DEFAULT_MAX_INTERESTS_IN_FLIGHT = 256;
+
+    private final Face face_;
+    private final int maxInterestsInFlight_;
+    private final HashMap<Name, ProducerGroup> groups_ =
+            new HashMap<Name, ProducerGroup>();
+    // The same groups as groups_, in the order they were added, for round-robin.
+    private final ArrayList<ProducerGroup> groupList_ = new ArrayList<ProducerGroup>();
+    // The index in groupList_ of the group which has the next turn to send.
+    private int nextGroupIndex_ = 0;
+    private final HashMap<SegmentFetcher, ProducerGroup> groupOfFetcher_ =
+            new HashMap<SegmentFetcher, ProducerGroup>();
+    private int nInterestsInFlight_ = 0;
+    private boolean isScheduling_ = false;
+    private boolean isScheduleNeeded_ = false;
+    private long nInterestsSent_ = 0;
+    private long nRetransmissions_ = 0;
+    private long nSegmentsReceived_ = 0;
+    private long nBytesReceived_ = 0;
+    private long nFetchesCompleted_ = 0;
+    private long nFetchesFailed_ = 0;
+    private double startTime_ = -1;
+    private static final Logger logger_ = Logger.getLogger(SegmentFetchManager.class.getName());
+}
@@ -24,6 +24,7 @@ package net.named_data.jndn.util;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
@@ -75,6 +76,12 @@ import net.named_data.jndn.security.v2.*;
  * 4. Call the OnComplete callback with a blob that concatenates the content
  *    from all the segmented objects.
  *
+ * Alternatively, fetchStream delivers the content of each segment as soon as it
+ * and all the segments before it are received, to an OnSegmentContent callback
+ * or a WritableByteChannel. Only the segments which are received out of order
+ * are kept in memory, and Options.maxReorderBufferSize bounds how many segments
+ * ahead of the first missing segment can be requested.
+ *
  * If an error occurs during the fetching process, the OnError callback is called
  * with a proper error code.  The following errors are possible:
  *
@@ -151,6 +158,25 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
         /** options for RTT estimator
          */
         public RttEstimator.Options rttOptions = new RttEstimator.Options();
+        /** if greater than 0, don't request a segment this many or more segments
+         *  after the first segment not yet received, which bounds the number of
+         *  out-of-order segments held in memory by fetchStream
+         */
+        public int maxReorderBufferSize = 0;
+        /** congestion control algorithm, see CongestionControl.Algorithm
+         */
+        public CongestionControl.Algorithm congestionControlAlgorithm =
+                CongestionControl.Algorithm.AIMD;
+        /** CUBIC multiplicative decrease factor
+         */
+        public double cubicBeta = 0.7;
+        /** CUBIC scaling constant, in segments per second cubed
+         */
+        public double cubicC = 0.4;
+        /** enable CUBIC fast convergence, which lowers the window target after
+         *  consecutive losses to release bandwidth to newer flows
+         */
+        public boolean enableCubicFastConvergence = false;
 
     }
 
@@ -171,11 +197,13 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
         public SegmentState state;
         public long sendTime;
         public long rto;
+        public long sequence; // from CongestionControl.onInterestSent
 
-        public PendingSegment(SegmentState state, long sendTime, long rto) {
+        public PendingSegment(SegmentState state, long sendTime, long rto, long sequence) {
             this.state = state;
             this.sendTime = sendTime;
             this.rto = rto;
+            this.sequence = sequence;
         }
     }
 
@@ -199,6 +227,70 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
         void onError(SegmentFetcher.ErrorCode errorCode, String message);
     }
 
+    /**
+     * OnSegmentContent is used by fetchStream to deliver the content of each
+     * segment in order.
+     */
+    public interface OnSegmentContent {
+        /**
+         * @param segmentNumber The segment number, starting from 0.
+         * @param content The content of the segment.
+         * @throws IOException For error writing the content, which aborts
+         * fetching and calls onError with IO_ERROR.
+         */
+        void onSegmentContent(long segmentNumber, Blob content) throws IOException;
+    }
+
+    /**
+     * OnProgress is used by fetchStream to report the content delivered so far.
+     */
+    public interface OnProgress {
+        /**
+         * @param nBytesDelivered The number of content bytes delivered so far.
+         * @param nSegmentsDelivered The number of segments delivered so far.
+         * @param nSegments The total number of segments, or -1 if not known yet
+         * because no segment with the FinalBlockId has been received.
+         */
+        void onProgress(long nBytesDelivered, long nSegmentsDelivered, long nSegments);
+    }
+
+    /**
+     * OnStreamComplete is used by fetchStream when all the segments are delivered.
+     */
+    public interface OnStreamComplete {
+        /**
+         * @param nBytes The total number of content bytes delivered.
+         */
+        void onStreamComplete(long nBytes);
+    }
+
+    /**
+     * Scheduler is used by SegmentFetchManager to decide when each of its
+     * fetchers sends an Interest, and to be notified of the fetcher's activity.
+     */
+    interface Scheduler {
+        /**
+         * Called when the fetcher may have more Interests to send. The scheduler
+         * calls sendNextInterest on its fetchers while the window allows.
+         */
+        void schedule();
+
+        /**
+         * Called when the number of Interests in flight for the fetcher changes.
+         */
+        void onSegmentsInFlightChanged(SegmentFetcher fetcher, int delta);
+
+        /**
+         * Called when the fetcher sends an Interest.
+         */
+        void onInterestSent(SegmentFetcher fetcher, boolean isRetransmission);
+
+        /**
+         * Called when the fetcher receives a verified segment.
+         */
+        void onSegmentReceived(SegmentFetcher fetcher, int nBytes);
+    }
+
     /**
      * DontVerifySegment may be used in fetch to skip validation of Data packets.
      */
@@ -340,6 +432,114 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
                 .run();
     }
 
+    /**
+     * Initiate segment fetching in streaming mode. Unlike fetch, this doesn't
+     * hold all the content in memory. As soon as a segment and all the segments
+     * before it are received, this calls onSegmentContent with its content and
+     * removes it from memory. For more details, see the documentation for the
+     * class.
+     * @param face This calls face.expressInterest to fetch more segments.
+     * @param baseInterest Interest for the initial segment of requested data.
+     * See fetch.
+     * @param options A set of options to control the sending and receiving of
+     * packets in the AIMD pipelining. Set options.maxReorderBufferSize to bound
+     * the number of out-of-order segments held in memory.
+     * @param verifySegment When a Data packet is received this calls
+     * verifySegment.verifySegment(data). If it returns false then abort fetching
+     * and call onError.onError with ErrorCode.SEGMENT_VERIFICATION_FAILED. If
+     * data validation is not required, use DontVerifySegment.
+     * @param onSegmentContent Call
+     * onSegmentContent.onSegmentContent(segmentNumber, content) for each segment
+     * in order. If it throws an IOException, abort fetching and call onError
+     * with IO_ERROR.
+     * NOTE: The library will log any other exceptions thrown by this callback,
+     * but for better error handling the callback should catch and properly
+     * handle any exceptions.
+     * @param onProgress After delivering segments, call
+     * onProgress.onProgress(nBytesDelivered, nSegmentsDelivered, nSegments). If
+     * onProgress is null, this does not use it.
+     * NOTE: The library will log any exceptions thrown by this callback, but for
+     * better error handling the callback should catch and properly handle any
+     * exceptions.
+     * @param onStreamComplete When all segments are delivered, call
+     * onStreamComplete.onStreamComplete(nBytes).
+     * NOTE: The library will log any exceptions thrown by this callback, but for
+     * better error handling the callback should catch and properly handle any
+     * exceptions.
+     * @param onError Call onError.onError(errorCode, message) for timeout or an
+     * error processing segments.
+     * NOTE: The library will log any exceptions thrown by this callback, but for
+     * better error handling the callback should catch and properly handle any
+     * exceptions.
+     */
+    public static void fetchStream
+    (Face face, Interest baseInterest, Options options, SegmentFetcher.VerifySegment verifySegment,
+     SegmentFetcher.OnSegmentContent onSegmentContent, SegmentFetcher.OnProgress onProgress,
+     SegmentFetcher.OnStreamComplete onStreamComplete, SegmentFetcher.OnError onError) {
+        new SegmentFetcher(face, baseInterest, null, options, null,
+                verifySegment, null, onSegmentContent, onProgress, onStreamComplete, onError, null, null)
+                .run();
+    }
+
+    /**
+     * Initiate segment fetching in streaming mode, using a Validator. This is
+     * the same as fetchStream with verifySegment, except that each segment is
+     * validated with validator.validate.
+     * @param validator The Validator, the fetcher will use to validate data.
+     * The caller must ensure the validator remains valid until either
+     * onStreamComplete or onError has been signaled.
+     */
+    public static void fetchStream
+    (Face face, Interest baseInterest, Options options, Validator validator,
+     SegmentFetcher.OnSegmentContent onSegmentContent, SegmentFetcher.OnProgress onProgress,
+     SegmentFetcher.OnStreamComplete onStreamComplete, SegmentFetcher.OnError onError) {
+        new SegmentFetcher(face, baseInterest, null, options, validator,
+                DontVerifySegment, null, onSegmentContent, onProgress, onStreamComplete, onError, null, null)
+                .run();
+    }
+
+    /**
+     * Initiate segment fetching in streaming mode and write the content of the
+     * segments in order to the channel. This is the same as fetchStream with
+     * onSegmentContent, except that each segment is written to the channel. If
+     * writing fails, abort fetching and call onError with IO_ERROR.
+     * @param channel The channel to write the content to. This does not close
+     * the channel.
+     */
+    public static void fetchStream
+    (Face face, Interest baseInterest, Options options, SegmentFetcher.VerifySegment verifySegment,
+     WritableByteChannel channel, SegmentFetcher.OnProgress onProgress,
+     SegmentFetcher.OnStreamComplete onStreamComplete, SegmentFetcher.OnError onError) {
+        fetchStream(face, baseInterest, options, verifySegment, makeChannelWriter(channel),
+                onProgress, onStreamComplete, onError);
+    }
+
+    /**
+     * Initiate segment fetching in streaming mode, using a Validator, and write
+     * the content of the segments in order to the channel. See fetchStream.
+     */
+    public static void fetchStream
+    (Face face, Interest baseInterest, Options options, Validator validator,
+     WritableByteChannel channel, SegmentFetcher.OnProgress onProgress,
+     SegmentFetcher.OnStreamComplete onStreamComplete, SegmentFetcher.OnError onError) {
+        fetchStream(face, baseInterest, options, validator, makeChannelWriter(channel),
+                onProgress, onStreamComplete, onError);
+    }
+
+    private static SegmentFetcher.OnSegmentContent makeChannelWriter(final WritableByteChannel channel) {
+        return new SegmentFetcher.OnSegmentContent() {
+            public void onSegmentContent(long segmentNumber, Blob content) throws IOException {
+                if (content.size() == 0)
+                    return;
+
+                ByteBuffer buffer = content.buf();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        };
+    }
+
     /**
      * Create a new SegmentFetcher to use the Face. See the static fetch method
      * for details. If validatorKeyChain is not null, use it and ignore
@@ -361,27 +561,110 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
     (Face face, Interest baseInterest, KeyChain validatorKeyChain, Options options, Validator validator,
      SegmentFetcher.VerifySegment verifySegment, SegmentFetcher.OnComplete onComplete,
      SegmentFetcher.OnError onError) {
+        this(face, baseInterest, validatorKeyChain, options, validator, verifySegment,
+                onComplete, null, null, null, onError, null, null);
+    }
+
+    /**
+     * Create a new SegmentFetcher as above. If onSegmentContent is not null,
+     * use streaming mode where the segments are delivered to onSegmentContent
+     * in order, and call onStreamComplete instead of onComplete. If
+     * congestionControl is null, create one from the options. If scheduler is
+     * not null, it decides when to send Interests by calling sendNextInterest.
+     */
+    SegmentFetcher
+    (Face face, Interest baseInterest, KeyChain validatorKeyChain, Options options, Validator validator,
+     SegmentFetcher.VerifySegment verifySegment, SegmentFetcher.OnComplete onComplete,
+     SegmentFetcher.OnSegmentContent onSegmentContent, SegmentFetcher.OnProgress onProgress,
+     SegmentFetcher.OnStreamComplete onStreamComplete, SegmentFetcher.OnError onError,
+     CongestionControl congestionControl, SegmentFetcher.Scheduler scheduler) {
         this.options_ = options;
         face_ = face;
         validator_ = validator;
         validatorKeyChain_ = validatorKeyChain;
         verifySegment_ = verifySegment;
         onComplete_ = onComplete;
+        onSegmentContent_ = onSegmentContent;
+        onProgress_ = onProgress;
+        onStreamComplete_ = onStreamComplete;
         onError_ = onError;
 
-        rttEstimator_ = new RttEstimator(options_.rttOptions);
-        cwnd_ = options_.initCwnd;
-        ssThresh_ = options_.initSsthresh;
+        congestionControl_ = congestionControl != null ?
+                congestionControl : CongestionControl.create(options_);
+        rttEstimator_ = congestionControl_.getRttEstimator();
+        scheduler_ = scheduler;
         timeLastSegmentReceived_ = System.currentTimeMillis();
         baseInterest_ = baseInterest;
     }
 
-    private void run() {
-        fetchFirstSegment(false);
+    /**
+     * Start fetching. If there is a scheduler, it sends the first Interest.
+     */
+    void run() {
+        if (scheduler_ == null) {
+            isStarted_ = true;
+            fetchFirstSegment(false);
+        } else {
+            scheduler_.schedule();
+        }
 
         face_.callLater(options_.rtoCheckInterval, rtoTimeoutRunnable_);
     }
 
+    /**
+     * Send the next Interest, either the first Interest, a retransmission or
+     * the next segment. This is called by the scheduler.
+     * @return True if an Interest was sent, or false if there is nothing to
+     * send now, including while waiting for the first segment.
+     */
+    boolean sendNextInterest() {
+        if (stop_) {
+            return false;
+        }
+
+        if (!isStarted_) {
+            isStarted_ = true;
+            // Don't count the time waiting in the scheduler against maxTimeout.
+            timeLastSegmentReceived_ = System.currentTimeMillis();
+            fetchFirstSegment(false);
+            return true;
+        }
+
+        if (nReceivedSegments_ == 0) {
+            return false;
+        }
+
+        long segmentNum;
+        boolean isRetransmission;
+        if (!retxQueue_.isEmpty()) {
+            segmentNum = retxQueue_.remove();
+            isRetransmission = true;
+        } else {
+            segmentNum = takeNextNewSegment();
+            if (segmentNum < 0) {
+                return false;
+            }
+            isRetransmission = false;
+        }
+
+        sendSegmentInterest(segmentNum, isRetransmission);
+        return true;
+    }
+
+    /**
+     * Get the Interest window available to this fetcher.
+     */
+    double getCwnd() {
+        return congestionControl_.getCwnd();
+    }
+
+    /**
+     * Get the number of Interests in flight for this fetcher.
+     */
+    int getSegmentsInFlight() {
+        return nSegmentsInFlight_;
+    }
+
     private void fetchFirstSegment(boolean isRetransmission) {
         Interest interest = new Interest(baseInterest_);
         interest.setCanBePrefix(true);
@@ -411,7 +694,13 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
             return;
         }
 
-        double availableWindowSize = cwnd_ - nSegmentsInFlight_;
+        if (scheduler_ != null) {
+            // The scheduler decides which fetcher uses the shared window.
+            scheduler_.schedule();
+            return;
+        }
+
+        double availableWindowSize = congestionControl_.getCwnd() - nSegmentsInFlight_;
         Map<Long, Boolean> segmentsToRequest = new HashMap(); // The boolean indicates whether a retx or not
 
         while (availableWindowSize > 0) {
@@ -420,37 +709,59 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
                 Long key = retxQueue_.element();
                 retxQueue_.remove();
                 segmentsToRequest.put(key, true);
-            } else if (nSegments_ == -1 || nextSegmentNum_ < nSegments_) {
-                if (receivedSegments_.containsKey(nextSegmentNum_)) {
-                    // Don't request a segment a second time if received in response to first "discovery" Interest
-                    nextSegmentNum_++;
-                    continue;
-                }
-                segmentsToRequest.put(nextSegmentNum_++, false);
             } else {
-                break;
+                long segmentNum = takeNextNewSegment();
+                if (segmentNum < 0) {
+                    break;
+                }
+                segmentsToRequest.put(segmentNum, false);
             }
             availableWindowSize--;
         }
 
         for (Map.Entry<Long, Boolean> segment : segmentsToRequest.entrySet()) {
-            // Start with the original Interest to preserve any special selectors.
-            Interest interest = new Interest(baseInterest_);
-            interest.setName(versionedDataName_.getPrefix(-1).appendSegment(segment.getKey()));
-            interest.setCanBePrefix(false);
-            interest.setMustBeFresh(false);
-            interest.setInterestLifetimeMilliseconds(options_.interestLifetime);
-            interest.refreshNonce();
+            sendSegmentInterest(segment.getKey(), segment.getValue());
+        }
+    }
 
+    /**
+     * Get the next segment number which has not been requested, skipping a
+     * segment received in response to the first "discovery" Interest, and
+     * advance nextSegmentNum_.
+     * @return The segment number, or -1 if all segments have been requested or
+     * the reorder buffer limit is reached.
+     */
+    private long takeNextNewSegment() {
+        while ((nSegments_ == -1 || nextSegmentNum_ < nSegments_) &&
+                (options_.maxReorderBufferSize <= 0 ||
+                 nextSegmentNum_ < nInOrderSegments_ + options_.maxReorderBufferSize)) {
+            if (isSegmentReceived(nextSegmentNum_)) {
+                // Don't request a segment a second time if received in response to first "discovery" Interest
+                nextSegmentNum_++;
+                continue;
+            }
+            return nextSegmentNum_++;
+        }
+        return -1;
+    }
+
+    private void sendSegmentInterest(long segmentNum, boolean isRetransmission) {
+        // Start with the original Interest to preserve any special selectors.
+        Interest interest = new Interest(baseInterest_);
+        interest.setName(versionedDataName_.getPrefix(-1).appendSegment(segmentNum));
+        interest.setCanBePrefix(false);
+        interest.setMustBeFresh(false);
+        interest.setInterestLifetimeMilliseconds(options_.interestLifetime);
+        interest.refreshNonce();
+
+        try {
+            sendInterest(segmentNum, interest, isRetransmission);
+        } catch (IOException ex) {
             try {
-                sendInterest(segment.getKey(), interest, segment.getValue());
-            } catch (IOException ex) {
-                try {
-                    onError_.onError
-                            (SegmentFetcher.ErrorCode.IO_ERROR, "I/O error fetching the next segment " + ex);
-                } catch (Throwable exception) {
-                    logger_.log(Level.SEVERE, "Error in onError", exception);
-                }
+                onError_.onError
+                        (SegmentFetcher.ErrorCode.IO_ERROR, "I/O error fetching the next segment " + ex);
+            } catch (Throwable exception) {
+                logger_.log(Level.SEVERE, "Error in onError", exception);
             }
         }
     }
@@ -466,15 +777,24 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
             pendingSegmentIt.rto = timeout;
         }else {
             pendingSegments_.put(segmentNum, new PendingSegment(SegmentState.FirstInterest,
-                    System.currentTimeMillis(), timeout));
-            highInterest_ = segmentNum;
+                    System.currentTimeMillis(), timeout, congestionControl_.onInterestSent()));
         }
 
+        changeSegmentsInFlight(1);
+        if (scheduler_ != null) {
+            scheduler_.onInterestSent(this, isRetransmission);
+        }
         face_.expressInterest(interest, this, this, this);
-        ++nSegmentsInFlight_;
 
     }
 
+    private void changeSegmentsInFlight(int delta) {
+        nSegmentsInFlight_ += delta;
+        if (scheduler_ != null) {
+            scheduler_.onSegmentsInFlightChanged(this, delta);
+        }
+    }
+
     private int getEstimatedRto() {
         // We don't want an Interest timeout greater than the maximum allowed timeout between the
         // successful receipt of segments
@@ -489,11 +809,11 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
     private boolean checkAllSegmentsReceived() {
         boolean haveReceivedAllSegments = false;
 
-        if (nSegments_ != -1 && receivedSegments_.size() >= nSegments_) {
+        if (nSegments_ != -1 && nReceivedSegments_ >= nSegments_) {
             haveReceivedAllSegments = true;
             // Verify that all segments in window have been received. If not, send Interests for missing segments.
-            for (long i = 0; i < nSegments_; i++) {
-                if (!receivedSegments_.containsKey(i)) {
+            for (long i = nInOrderSegments_; i < nSegments_; i++) {
+                if (!isSegmentReceived(i)) {
                     retxQueue_.offer(i);
                     return false;
                 }
@@ -502,8 +822,71 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
         return haveReceivedAllSegments;
     }
 
+    /**
+     * Check if the segment has been received, including a segment which was
+     * already delivered and removed in streaming mode.
+     */
+    private boolean isSegmentReceived(long segmentNum) {
+        return segmentNum < nInOrderSegments_ || receivedSegments_.containsKey(segmentNum);
+    }
+
+    /**
+     * Update nInOrderSegments_ for the received segments. In streaming mode,
+     * also deliver the in-order segments to onSegmentContent_, remove them from
+     * receivedSegments_ and call onProgress_.
+     * @return False if onSegmentContent_ had an I/O error, in which case this
+     * has called onError_ and stopped.
+     */
+    private boolean deliverInOrderSegments() {
+        long nInOrderSegmentsBefore = nInOrderSegments_;
+        while (receivedSegments_.containsKey(nInOrderSegments_)) {
+            if (onSegmentContent_ != null) {
+                Blob content = receivedSegments_.remove(nInOrderSegments_);
+                nDeliveredBytes_ += content.size();
+                try {
+                    onSegmentContent_.onSegmentContent(nInOrderSegments_, content);
+                } catch (IOException ex) {
+                    stop();
+                    try {
+                        onError_.onError
+                                (SegmentFetcher.ErrorCode.IO_ERROR, "I/O error delivering segment " +
+                                        nInOrderSegments_ + ": " + ex);
+                    } catch (Throwable exception) {
+                        logger_.log(Level.SEVERE, "Error in onError", exception);
+                    }
+                    return false;
+                } catch (Throwable ex) {
+                    logger_.log(Level.SEVERE, "Error in onSegmentContent", ex);
+                }
+            }
+            nInOrderSegments_++;
+        }
+
+        if (onSegmentContent_ != null && onProgress_ != null &&
+                nInOrderSegments_ != nInOrderSegmentsBefore) {
+            try {
+                onProgress_.onProgress(nDeliveredBytes_, nInOrderSegments_, nSegments_);
+            } catch (Throwable ex) {
+                logger_.log(Level.SEVERE, "Error in onProgress", ex);
+            }
+        }
+        return true;
+    }
+
     private void finalizeFetch() {
         // We are finished.
+        if (onSegmentContent_ != null) {
+            // In streaming mode, all the segments have been delivered.
+            stop();
+            clean();
+            try {
+                onStreamComplete_.onStreamComplete(nDeliveredBytes_);
+            } catch (Throwable ex) {
+                logger_.log(Level.SEVERE, "Error in onStreamComplete", ex);
+            }
+            return;
+        }
+
         // Get the total size and concatenate to get content.
         int totalSize = 0;
         for (long i = 0; i < nSegments_; ++i) {
@@ -529,7 +912,7 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
     public void onData(final Interest originalInterest, Data data) {
         if (shouldStop()) return;
 
-        nSegmentsInFlight_--;
+        changeSegmentsInFlight(-1);
         Name.Component currentSegmentComponent = data.getName().get(-1);
         if (!currentSegmentComponent.isSegment()) {
             onError_.onError
@@ -551,8 +934,8 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
 
         // The first received Interest could have any segment ID
         final long pendingSegmentIt;
-        if (receivedSegments_.size() > 0) {
-            if (receivedSegments_.containsKey(segmentNum) || !pendingSegments_.containsKey(segmentNum))
+        if (nReceivedSegments_ > 0) {
+            if (isSegmentReceived(segmentNum) || !pendingSegments_.containsKey(segmentNum))
                 return;
             pendingSegmentIt = segmentNum;
         } else {
@@ -635,19 +1018,25 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
             // transfer will not fail to terminate if we only received invalid Data packets.
             timeLastSegmentReceived_ = System.currentTimeMillis();
 
+            double rtt = Double.NaN;
             if (pendingSegments_.get(pendingSegmentIt).state == SegmentState.FirstInterest) {
-                rttEstimator_.addMeasurement(
-                        timeLastSegmentReceived_ - pendingSegments_.get(pendingSegmentIt).sendTime,
-                        Math.max(nSegmentsInFlight_ + 1, 1));
+                rtt = timeLastSegmentReceived_ - pendingSegments_.get(pendingSegmentIt).sendTime;
+                rttEstimator_.addMeasurement(rtt, Math.max(nSegmentsInFlight_ + 1, 1));
             }
 
             // Remove from pending segments map
-            pendingSegments_.remove(pendingSegmentIt);
+            long sequence = pendingSegments_.remove(pendingSegmentIt).sequence;
 
             // Copy data in segment to temporary buffer
-            receivedSegments_.put(segmentNum, data.getContent());
+            if (!isSegmentReceived(segmentNum)) {
+                receivedSegments_.put(segmentNum, data.getContent());
+                nReceivedSegments_++;
+                if (scheduler_ != null) {
+                    scheduler_.onSegmentReceived(this, data.getContent().size());
+                }
+            }
 
-            if (receivedSegments_.size() == 1) {
+            if (nReceivedSegments_ == 1) {
                 versionedDataName_ = data.getName();
                 if (segmentNum == 0) {
                     // We received the first segment in response, so we can increment the next segment number
@@ -671,46 +1060,18 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
                 }
             }
 
-            if (highData_ < segmentNum) {
-                highData_ = segmentNum;
+            if (!deliverInOrderSegments()) {
+                return;
             }
 
-            if (data.getCongestionMark() > 0 && !options_.ignoreCongMarks) {
-                windowDecrease();
-            } else {
-                windowIncrease();
-            }
+            congestionControl_.onData
+                    (sequence, rtt, data.getCongestionMark() > 0 && !options_.ignoreCongMarks,
+                     System.currentTimeMillis());
             fetchSegmentsInWindow();
         }
 
     }
 
-    private void windowIncrease() {
-        if (options_.useConstantCwnd || cwnd_ == options_.maxWindowSize) {
-            return;
-        }
-
-        if (cwnd_ < ssThresh_) {
-            cwnd_ += options_.aiStep; // additive increase
-        } else {
-            cwnd_ += options_.aiStep / cwnd_; // congestion avoidance
-        }
-    }
-
-    private void windowDecrease() {
-        if (options_.disableCwa || highData_ > recPoint_) {
-            recPoint_ = highInterest_;
-
-            if (options_.useConstantCwnd) {
-                return;
-            }
-
-            // Refer to RFC 5681, Section 3.1 for the rationale behind the code below
-            ssThresh_ = Math.max(MIN_SSTHRESH, cwnd_ * options_.mdCoef); // multiplicative decrease
-            cwnd_ = options_.resetCwndToInit ? options_.initCwnd : ssThresh_;
-        }
-    }
-
     public void onDataValidationFailed(Data data, String reason) {
         if (shouldStop()) return;
 
@@ -787,11 +1148,11 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
                 if (!checkMaxTimeout()) return;
 
                 rttEstimator_.backoffRto();
-                if (receivedSegments_.size() == 0) {
+                if (nReceivedSegments_ == 0) {
                     // Resend first Interest (until maximum receive timeout exceeded)
                     fetchFirstSegment(true);
                 } else {
-                    windowDecrease();
+                    congestionControl_.onLoss(System.currentTimeMillis());
                     fetchSegmentsInWindow();
                 }
             }
@@ -806,10 +1167,10 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
             // Cancel timeout event and set status to InRetxQueue
             PendingSegment pendingSegmentIt = pendingSegments_.get(segmentNumber);
             pendingSegmentIt.state = SegmentState.InRetxQueue;
-            nSegmentsInFlight_--;
+            changeSegmentsInFlight(-1);
         } else return false;
 
-        if (receivedSegments_.size() != 0) {
+        if (nReceivedSegments_ != 0) {
             retxQueue_.offer(segmentNumber);
         }
 
@@ -823,11 +1184,11 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
             return;
 
         rttEstimator_.backoffRto();
-        if (receivedSegments_.size() == 0) {
+        if (nReceivedSegments_ == 0) {
             // Resend first Interest (until maximum receive timeout exceeded)
             fetchFirstSegment(true);
         } else {
-            windowDecrease();
+            congestionControl_.onLoss(System.currentTimeMillis());
             fetchSegmentsInWindow();
         }
     }
@@ -905,30 +1266,32 @@ public class SegmentFetcher implements OnData, OnDataValidationFailed, OnTimeout
         return name.size() >= 1 && name.get(-1).isSegment();
     }
 
-    private double cwnd_ = 1;
     private final Options options_;
-    private double ssThresh_;
     private final Face face_;
-    private RttEstimator rttEstimator_;
-
-    private long highData_ = 0;
-    private long recPoint_ = 0;
-    private long highInterest_ = 0;
+    private final CongestionControl congestionControl_;
+    private final RttEstimator rttEstimator_;
+    private final SegmentFetcher.Scheduler scheduler_;
+    private boolean isStarted_ = false;
     private Interest baseInterest_;
     private int nSegmentsInFlight_ = 0;
     private long nSegments_ = -1;
     private Map<Long, PendingSegment> pendingSegments_ = new HashMap();
-    private Map<Long, Blob> receivedSegments_ = new HashMap();
+    private Map<Long, Blob> receivedSegments_ = new HashMap(); // In streaming mode, only the out-of-order segments
+    private long nReceivedSegments_ = 0;
+    private long nInOrderSegments_ = 0; // Segments before this are received (and delivered in streaming mode)
+    private long nDeliveredBytes_ = 0;
     private Queue<Long> retxQueue_ = new LinkedList<>();
     private long nextSegmentNum_ = 0;
     private long timeLastSegmentReceived_ = 0;
     private Name versionedDataName_;
     private boolean stop_ = false;
-    private static final double MIN_SSTHRESH = 2.0;
     private final Validator validator_;
     private final KeyChain validatorKeyChain_;
     private final SegmentFetcher.VerifySegment verifySegment_;
     private final SegmentFetcher.OnComplete onComplete_;
+    private final SegmentFetcher.OnSegmentContent onSegmentContent_;
+    private final SegmentFetcher.OnProgress onProgress_;
+    private final SegmentFetcher.OnStreamComplete onStreamComplete_;
     private final SegmentFetcher.OnError onError_;
     private static final Logger logger_ = Logger.getLogger(SegmentFetcher.class.getName());
 }
\ No newline at end of file
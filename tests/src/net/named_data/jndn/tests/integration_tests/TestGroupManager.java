@@ -33,6 +33,8 @@ import java.text.ParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
@@ -518,6 +520,62 @@ public class TestGroupManager implements GroupManager.Friend {
        data2.getName().toUri());
   }
 
+  @Test
+  public void
+  testGetGroupKeyParallel()
+    throws SecurityException, GroupManagerDb.Error, EncodingException,
+      DerDecodingException, ParseException, TpmBackEnd.Error, PibImpl.Error,
+      KeyChain.Error
+  {
+    // Create the group manager.
+    GroupManager manager = new GroupManager
+      (new Name("Alice"), new Name("data_type"),
+       new Sqlite3GroupManagerDb(groupKeyDatabaseFilePath.getAbsolutePath()), 1024, 1,
+       keyChain);
+    setManager(manager);
+
+    double timePoint1 = fromIsoString("20150825T093000");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List result = manager.getGroupKey(timePoint1, true, executor);
+      List sequentialResult = manager.getGroupKey(timePoint1, false);
+
+      // The packets are in the same order as getGroupKey without an executor.
+      assertEquals(4, result.size());
+      assertEquals(sequentialResult.size(), result.size());
+      for (int i = 0; i < result.size(); ++i)
+        assertEquals(((Data)sequentialResult.get(i)).getName(),
+                     ((Data)result.get(i)).getName());
+
+      // Each D-KEY has the nonce encrypted with the member's RSA key.
+      for (int i = 1; i < result.size(); ++i) {
+        EncryptedContent encryptedNonce = new EncryptedContent();
+        encryptedNonce.wireDecode(((Data)result.get(i)).getContent());
+        assertEquals(EncryptAlgorithmType.RsaOaep, encryptedNonce.getAlgorithmType());
+      }
+      Blob groupEKey = ((Data)result.get(0)).getContent();
+
+      // Only a new member gets a D-KEY.
+      List newMemberResult = manager.getGroupKeyForNewMembers(timePoint1, executor);
+      assertEquals(1, newMemberResult.size());
+      assertTrue(groupEKey.equals(((Data)newMemberResult.get(0)).getContent()));
+
+      Data memberD = new Data();
+      memberD.wireDecode(certificate.wireEncode());
+      memberD.setName(new Name("/ndn/memberD/KEY/ksk-123/ID-CERT/123"));
+      manager.addMember("schedule1", memberD);
+
+      newMemberResult = manager.getGroupKeyForNewMembers(timePoint1, null);
+      assertEquals(2, newMemberResult.size());
+      assertTrue(groupEKey.equals(((Data)newMemberResult.get(0)).getContent()));
+      assertEquals
+        ("/Alice/READ/data_type/D-KEY/20150825T090000/20150825T100000/FOR/ndn/memberD/ksk-123",
+         ((Data)newMemberResult.get(1)).getName().toUri());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   private File dKeyDatabaseFilePath;
   private File eKeyDatabaseFilePath;
   private File intervalDatabaseFilePath;
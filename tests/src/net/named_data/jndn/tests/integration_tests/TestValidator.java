@@ -22,6 +22,11 @@
 package src.net.named_data.jndn.tests.integration_tests;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.named_data.jndn.ContentType;
@@ -51,6 +56,8 @@ import net.named_data.jndn.security.v2.ValidationError;
 import net.named_data.jndn.security.v2.ValidationPolicy;
 import net.named_data.jndn.security.v2.ValidationPolicySimpleHierarchy;
 import net.named_data.jndn.security.v2.Validator;
+import net.named_data.jndn.security.v2.VerifiedSignatureCache;
+import net.named_data.jndn.util.Blob;
 import net.named_data.jndn.util.Common;
 import org.junit.Before;
 import org.junit.Test;
@@ -470,6 +477,100 @@ public class TestValidator {
     assertEquals(3, fixture_.face_.sentInterests_.size());
   }
 
+  @Test
+  public void
+  testValidateBatch()
+    throws CertificateV2.Error, TpmBackEnd.Error, PibImpl.Error,
+      KeyChain.Error, InterruptedException
+  {
+    final int nPackets = 20;
+    ArrayList<Data> dataList = new ArrayList<Data>();
+    for (int i = 0; i < nPackets; ++i) {
+      Data data = new Data
+        (new Name("/Security/V2/ValidatorFixture/Sub1/Sub2/Data").appendSegment(i));
+      fixture_.keyChain_.sign(data, new SigningInfo(fixture_.subIdentity_));
+      dataList.add(data);
+    }
+    // Corrupt the signature of one packet.
+    Data badData = dataList.get(5);
+    byte[] badSignature = badData.getSignature().getSignature().getImmutableArray();
+    badSignature[badSignature.length - 1] ^= 1;
+    badData.getSignature().setSignature(new Blob(badSignature, false));
+
+    final AtomicInteger nSuccesses = new AtomicInteger();
+    final ArrayList<Name> failedNames = new ArrayList<Name>();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    fixture_.validator_.validate
+      (dataList,
+       new DataValidationSuccessCallback() {
+        public void successCallback(Data data) {
+          nSuccesses.incrementAndGet();
+        }
+       },
+       new DataValidationFailureCallback() {
+        public void failureCallback(Data data, ValidationError error) {
+          synchronized (failedNames) {
+            failedNames.add(data.getName());
+          }
+        }
+       },
+       executor);
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+    assertEquals(nPackets - 1, nSuccesses.get());
+    assertEquals(1, failedNames.size());
+    assertEquals(badData.getName(), failedNames.get(0));
+    // The certificate is only retrieved once for the batch.
+    assertEquals(1, fixture_.face_.sentInterests_.size());
+  }
+
+  @Test
+  public void
+  testVerifiedSignatureCache()
+    throws CertificateV2.Error, ValidatorConfigError, TpmBackEnd.Error,
+      PibImpl.Error, KeyChain.Error, Pib.Error
+  {
+    VerifiedSignatureCache cache = new VerifiedSignatureCache();
+    fixture_.validator_.setVerifiedSignatureCache(cache);
+
+    Data data = new Data(new Name("/Security/V2/ValidatorFixture/Sub1/Sub2/Data"));
+    fixture_.keyChain_.sign(data, new SigningInfo(fixture_.subIdentity_));
+
+    // The first validation verifies the certificate and the data.
+    validateExpectSuccess(data, "Should get accepted");
+    assertEquals(0, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    assertEquals(2, cache.size());
+
+    // The certificate is now trusted, and the data signature is in the cache.
+    validateExpectSuccess(data, "Should get accepted from the cache");
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+
+    // The cached result of a bad signature is also a failure.
+    Data badData = new Data(data);
+    byte[] badSignature = badData.getSignature().getSignature().getImmutableArray();
+    badSignature[badSignature.length - 1] ^= 1;
+    badData.getSignature().setSignature(new Blob(badSignature, false));
+    validateExpectFailure(badData, "Should fail with a bad signature");
+    validateExpectFailure(badData, "Should fail with a cached bad signature");
+    assertEquals(2, cache.getHits());
+
+    // Removing the signing certificate removes its verified signatures.
+    Name certificateName =
+      fixture_.subIdentity_.getDefaultKey().getDefaultCertificate().getName();
+    fixture_.validator_.getVerifiedCertificateCache().deleteCertificate
+      (certificateName);
+    assertEquals(1, cache.size());
+    // The fetched certificate's signature is still cached, but not the data's.
+    long nMisses = cache.getMisses();
+    validateExpectSuccess(data, "Should get accepted after the removal");
+    assertEquals(3, cache.getHits());
+    assertEquals(nMisses + 1, cache.getMisses());
+  }
+
   // This is to force an import of net.named_data.jndn.util.
   private static Common dummyCommon_ = new Common();
 }
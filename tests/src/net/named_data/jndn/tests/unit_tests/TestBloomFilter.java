@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import net.named_data.jndn.Name;
+import net.named_data.jndn.sync.detail.BloomFilter;
+import net.named_data.jndn.util.Blob;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class TestBloomFilter {
+  @Test
+  public void
+  testBasic()
+  {
+    BloomFilter bloomFilter = new BloomFilter(100, 0.001);
+
+    Name prefix = new Name("/test/prefix");
+    assertFalse(bloomFilter.contains(prefix));
+    bloomFilter.insert(prefix);
+    assertTrue(bloomFilter.contains(prefix));
+    assertFalse(bloomFilter.contains(new Name("/test/other")));
+
+    bloomFilter.clear();
+    assertFalse(bloomFilter.contains(prefix));
+  }
+
+  @Test
+  public void
+  testPSyncParameters()
+  {
+    // The table size and number of hashes are the same as PSync bloom_filter.
+    BloomFilter bloomFilter = new BloomFilter(100, 0.001);
+    assertEquals(1440, bloomFilter.getTableSize());
+    assertEquals(10, bloomFilter.getNHashes());
+
+    bloomFilter = new BloomFilter(10, 0.01);
+    assertEquals(96, bloomFilter.getTableSize());
+    assertEquals(7, bloomFilter.getNHashes());
+  }
+
+  @Test
+  public void
+  testNameAppendAndExtract()
+  {
+    BloomFilter bloomFilter = new BloomFilter(100, 0.001);
+    for (int i = 0; i < 100; ++i)
+      bloomFilter.insert(new Name("/test/user" + i));
+
+    Name name = new Name("/sync");
+    bloomFilter.appendToName(name);
+    assertEquals(4, name.size());
+    assertEquals(100, name.get(1).toNumber());
+    assertEquals(1, name.get(2).toNumber());
+
+    BloomFilter decoded = BloomFilter.fromName(name, 1);
+    assertEquals(bloomFilter.getTableSize(), decoded.getTableSize());
+    assertEquals(bloomFilter.getNHashes(), decoded.getNHashes());
+    for (int i = 0; i < 100; ++i)
+      assertTrue(decoded.contains(new Name("/test/user" + i)));
+
+    int nFalsePositives = 0;
+    for (int i = 0; i < 10000; ++i) {
+      if (decoded.contains(new Name("/test/other" + i)))
+        ++nFalsePositives;
+    }
+    // The expected number is 10. Allow for variation.
+    assertTrue("Too many false positives: " + nFalsePositives,
+               nFalsePositives < 50);
+  }
+
+  @Test
+  public void
+  testInvalidBitTable()
+  {
+    try {
+      new BloomFilter(100, 0.001, new Blob(new byte[10], false));
+      fail("Did not throw an exception for the wrong bit table size");
+    } catch (IllegalArgumentException ex) {}
+
+    try {
+      new BloomFilter(100, 0.0001);
+      fail("Did not throw an exception for a false positive probability below 0.001");
+    } catch (IllegalArgumentException ex) {}
+
+    // A large projected element count with a short bit table.
+    Name name = new Name("/sync").appendNumber(1000000).appendNumber(1)
+      .append(new Blob(new byte[10], false));
+    try {
+      BloomFilter.fromName(name, 1);
+      fail("Did not throw an exception for the wrong bit table size in the name");
+    } catch (IllegalArgumentException ex) {}
+  }
+}
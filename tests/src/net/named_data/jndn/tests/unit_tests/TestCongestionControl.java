@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import net.named_data.jndn.util.CongestionControl;
+import net.named_data.jndn.util.SegmentFetcher;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Compare the congestion control algorithms on a simulated link.
+ */
+public class TestCongestionControl {
+    /**
+     * SimulatedLink is a deterministic discrete-event simulation of a consumer
+     * fetching segments over a path with a bottleneck link. Each Interest takes
+     * half the base RTT to reach the producer. The Data packets are sent over
+     * the bottleneck in order, wait in a drop-tail queue, then take half the
+     * base RTT to return. A Data packet is congestion marked if the queue has
+     * more than markQueueSize packets, and is also dropped at random with
+     * lossRate using a seeded Random. A loss is detected when the RTO expires.
+     */
+    private static class SimulatedLink {
+        public SimulatedLink
+        (double baseRtt, double segmentsPerMillisecond, int queueSize,
+         int markQueueSize, double lossRate, long seed) {
+            baseRtt_ = baseRtt;
+            serviceTime_ = 1.0 / segmentsPerMillisecond;
+            queueSize_ = queueSize;
+            markQueueSize_ = markQueueSize;
+            lossRate_ = lossRate;
+            random_ = new Random(seed);
+        }
+
+        /**
+         * Fetch with the congestion control for the duration.
+         * @return The number of segments received.
+         */
+        public long run(CongestionControl congestionControl, double durationMilliseconds) {
+            congestionControl_ = congestionControl;
+            sendInterests(0);
+            while (!events_.isEmpty()) {
+                Event event = events_.poll();
+                if (event.time_ > durationMilliseconds) {
+                    break;
+                }
+
+                --nInFlight_;
+                if (event.isLoss_) {
+                    congestionControl_.onLoss(event.time_);
+                } else {
+                    ++nReceived_;
+                    double rtt = event.time_ - event.sendTime_;
+                    congestionControl_.getRttEstimator().addMeasurement
+                            (rtt, Math.max(nInFlight_ + 1, 1));
+                    congestionControl_.onData
+                            (event.sequence_, rtt, event.isCongestionMarked_, event.time_);
+                }
+                sendInterests(event.time_);
+            }
+
+            return nReceived_;
+        }
+
+        private static class Event implements Comparable<Event> {
+            public Event
+            (double time, long order, long sequence, double sendTime, boolean isLoss,
+             boolean isCongestionMarked) {
+                time_ = time;
+                order_ = order;
+                sequence_ = sequence;
+                sendTime_ = sendTime;
+                isLoss_ = isLoss;
+                isCongestionMarked_ = isCongestionMarked;
+            }
+
+            public int compareTo(Event other) {
+                int result = Double.compare(time_, other.time_);
+                return result != 0 ? result : Long.compare(order_, other.order_);
+            }
+
+            public final double time_;
+            public final long order_;
+            public final long sequence_;
+            public final double sendTime_;
+            public final boolean isLoss_;
+            public final boolean isCongestionMarked_;
+        }
+
+        private void sendInterests(double now) {
+            while (nInFlight_ < Math.floor(congestionControl_.getCwnd())) {
+                long sequence = congestionControl_.onInterestSent();
+                ++nInFlight_;
+
+                // The Data arrives at the bottleneck after half the base RTT.
+                double arrivalTime = now + baseRtt_ / 2;
+                double nQueued = Math.max(0, (linkFreeTime_ - arrivalTime) / serviceTime_);
+                if (nQueued >= queueSize_ || random_.nextDouble() < lossRate_) {
+                    events_.add(new Event
+                            (now + congestionControl_.getRttEstimator().getEstimatedRto(),
+                             nEvents_++, sequence, now, true, false));
+                    continue;
+                }
+
+                linkFreeTime_ = Math.max(arrivalTime, linkFreeTime_) + serviceTime_;
+                events_.add(new Event
+                        (linkFreeTime_ + baseRtt_ / 2, nEvents_++, sequence, now, false,
+                         nQueued > markQueueSize_));
+            }
+        }
+
+        private final double baseRtt_;
+        private final double serviceTime_;
+        private final int queueSize_;
+        private final int markQueueSize_;
+        private final double lossRate_;
+        private final Random random_;
+        private final PriorityQueue<Event> events_ = new PriorityQueue<Event>();
+        private CongestionControl congestionControl_;
+        private double linkFreeTime_ = 0;
+        private int nInFlight_ = 0;
+        private long nEvents_ = 0;
+        private long nReceived_ = 0;
+    }
+
+    private static double
+    goodput(CongestionControl.Algorithm algorithm, double lossRate, int markQueueSize) {
+        // A 100 ms RTT and 1 Gbps of 8800-byte segments.
+        final double baseRtt = 100;
+        final double segmentsPerMillisecond = 1e9 / 8 / 8800 / 1000;
+        final double duration = 20000;
+        int bdp = (int)(baseRtt * segmentsPerMillisecond);
+
+        SegmentFetcher.Options options = new SegmentFetcher.Options();
+        options.congestionControlAlgorithm = algorithm;
+        SimulatedLink link = new SimulatedLink
+                (baseRtt, segmentsPerMillisecond, bdp, markQueueSize, lossRate, 1);
+        long nReceived = link.run(CongestionControl.create(options), duration);
+
+        // The fraction of the link capacity.
+        return nReceived / (duration * segmentsPerMillisecond);
+    }
+
+    @Test
+    public void testDeterministic() {
+        assertEquals
+                (goodput(CongestionControl.Algorithm.CUBIC, 1e-4, Integer.MAX_VALUE),
+                 goodput(CongestionControl.Algorithm.CUBIC, 1e-4, Integer.MAX_VALUE), 0);
+    }
+
+    @Test
+    public void testRandomLoss() {
+        double aimd = goodput(CongestionControl.Algorithm.AIMD, 1e-4, Integer.MAX_VALUE);
+        double cubic = goodput(CongestionControl.Algorithm.CUBIC, 1e-4, Integer.MAX_VALUE);
+        double bbr = goodput(CongestionControl.Algorithm.BBR, 1e-4, Integer.MAX_VALUE);
+
+        // After a loss, AIMD needs many RTTs to grow back to the window.
+        assertTrue("CUBIC should beat AIMD", cubic > 1.5 * aimd);
+        assertTrue("BBR should beat AIMD", bbr > 1.5 * aimd);
+        assertTrue("BBR should fill most of the link", bbr > 0.7);
+    }
+
+    @Test
+    public void testCongestionMarks() {
+        // Mark when the queue has more than 10 ms of packets.
+        int markQueueSize = 142;
+        double aimd = goodput(CongestionControl.Algorithm.AIMD, 0, markQueueSize);
+        double cubic = goodput(CongestionControl.Algorithm.CUBIC, 0, markQueueSize);
+        double bbr = goodput(CongestionControl.Algorithm.BBR, 0, markQueueSize);
+
+        // Slow start overshoots and exits on the first marks, then AIMD grows
+        // back slowly.
+        assertTrue("CUBIC should beat AIMD", cubic > 1.5 * aimd);
+        assertTrue("BBR should beat AIMD", bbr > 1.5 * aimd);
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import javax.crypto.Cipher;
+import net.named_data.jndn.security.CryptoEngine;
+import net.named_data.jndn.security.KeyType;
+import net.named_data.jndn.security.VerificationHelpers;
+import net.named_data.jndn.security.certificate.PublicKey;
+import net.named_data.jndn.util.Blob;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCryptoEngine {
+  @Before
+  public void
+  setUp()
+  {
+    CryptoEngine.clearPublicKeyCache();
+    CryptoEngine.setPublicKeyCacheCapacity
+      (CryptoEngine.DEFAULT_PUBLIC_KEY_CACHE_CAPACITY);
+  }
+
+  private static Blob
+  generatePublicKeyDer(KeyPair[] keyPair) throws Exception
+  {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(256);
+    keyPair[0] = generator.generateKeyPair();
+    return new Blob(keyPair[0].getPublic().getEncoded(), false);
+  }
+
+  @Test
+  public void
+  testVerifyWithCache() throws Exception
+  {
+    KeyPair[] keyPair = new KeyPair[1];
+    Blob publicKeyDer = generatePublicKeyDer(keyPair);
+
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 });
+    java.security.Signature signer =
+      java.security.Signature.getInstance("SHA256withECDSA");
+    signer.initSign(keyPair[0].getPrivate());
+    signer.update(buffer.duplicate());
+    byte[] signature = signer.sign();
+
+    assertTrue(VerificationHelpers.verifySignature
+      (buffer.duplicate(), signature, publicKeyDer));
+    assertEquals(1, CryptoEngine.getPublicKeyCacheSize());
+    long nMisses = CryptoEngine.getPublicKeyCacheMisses();
+
+    // Verify again with a copy of the DER, which is found in the cache.
+    assertTrue(VerificationHelpers.verifySignature
+      (buffer.duplicate(), signature, new Blob(publicKeyDer.getImmutableArray())));
+    assertEquals(nMisses, CryptoEngine.getPublicKeyCacheMisses());
+    assertTrue(CryptoEngine.getPublicKeyCacheHits() > 0);
+
+    // The reused Signature must not keep state from a failed verification.
+    ByteBuffer otherBuffer = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 6 });
+    assertFalse(VerificationHelpers.verifySignature
+      (otherBuffer, signature, publicKeyDer));
+    assertTrue(VerificationHelpers.verifySignature
+      (buffer.duplicate(), signature, publicKeyDer));
+  }
+
+  @Test
+  public void
+  testPublicKeyCache() throws Exception
+  {
+    Blob publicKeyDer = generatePublicKeyDer(new KeyPair[1]);
+
+    PublicKey publicKey = CryptoEngine.getPublicKey(publicKeyDer);
+    assertEquals(KeyType.EC, publicKey.getKeyType());
+    assertSame(publicKey, CryptoEngine.getPublicKey(publicKeyDer));
+    assertSame
+      (CryptoEngine.getJcaPublicKey(KeyType.EC, publicKeyDer),
+       CryptoEngine.getJcaPublicKey(KeyType.EC, publicKeyDer));
+
+    // The capacity limits the size.
+    CryptoEngine.setPublicKeyCacheCapacity(2);
+    Blob lastKeyDer = null;
+    for (int i = 0; i < 4; ++i) {
+      lastKeyDer = generatePublicKeyDer(new KeyPair[1]);
+      CryptoEngine.getPublicKey(lastKeyDer);
+    }
+    assertTrue(CryptoEngine.getPublicKeyCacheSize() <= 2);
+    // A full cache is cleared, so the most recent key is always kept.
+    long nHits = CryptoEngine.getPublicKeyCacheHits();
+    CryptoEngine.getPublicKey(lastKeyDer);
+    assertEquals(nHits + 1, CryptoEngine.getPublicKeyCacheHits());
+
+    CryptoEngine.setPublicKeyCacheCapacity(0);
+    assertEquals(0, CryptoEngine.getPublicKeyCacheSize());
+    CryptoEngine.getPublicKey(publicKeyDer);
+    assertEquals(0, CryptoEngine.getPublicKeyCacheSize());
+  }
+
+  @Test
+  public void
+  testPerThreadInstances() throws Exception
+  {
+    final java.security.Signature signature =
+      CryptoEngine.getSignature("SHA256withECDSA");
+    assertSame(signature, CryptoEngine.getSignature("SHA256withECDSA"));
+    Cipher cipher = CryptoEngine.getCipher("AES/CBC/PKCS5PADDING");
+    assertSame(cipher, CryptoEngine.getCipher("AES/CBC/PKCS5PADDING"));
+
+    final java.security.Signature[] otherSignature =
+      new java.security.Signature[1];
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          otherSignature[0] = CryptoEngine.getSignature("SHA256withECDSA");
+        } catch (Exception ex) {}
+      }
+    });
+    thread.start();
+    thread.join();
+    assertTrue(otherSignature[0] != null);
+    assertNotSame(signature, otherSignature[0]);
+  }
+}
@@ -20,6 +20,7 @@
 
 package net.named_data.jndn.tests.unit_tests;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -33,6 +34,7 @@ import net.named_data.jndn.Name;
 import net.named_data.jndn.Sha256WithRsaSignature;
 import net.named_data.jndn.encoding.EncodingException;
 import net.named_data.jndn.encoding.TlvWireFormat;
+import net.named_data.jndn.encoding.tlv.TlvEncoder;
 import net.named_data.jndn.lp.LpPacket;
 import net.named_data.jndn.security.KeyChain;
 import net.named_data.jndn.security.KeyType;
@@ -710,6 +712,89 @@ public class TestDataMethods {
     assertFalse(data.getFullName().get(-1).equals(saveFullName.get(-1)));
   }
 
+  @Test
+  public void
+  testLazyDecode() throws EncodingException
+  {
+    Data data = new Data();
+    data.wireDecodeLazy(new Blob(codedData, false));
+    assertArrayEquals("Lazy decoded data does not match the initial dump",
+                      initialDump.toArray(), dumpData(data).toArray());
+
+    // The wire encoding is the input, without encoding again.
+    assertTrue(data.wireEncode().equals(new Blob(codedData, false)));
+
+    Data eagerData = new Data();
+    eagerData.wireDecode(codedData);
+    assertEquals(eagerData.getFullName(), data.getFullName());
+  }
+
+  @Test
+  public void
+  testLazyDecodeNameOnly() throws EncodingException
+  {
+    Data data = new Data();
+    Blob input = new Blob(codedData, false);
+    data.wireDecodeLazy(input);
+
+    // Getting the name and full name doesn't invalidate the wire encoding.
+    assertEquals(new Name("/ndn/abc"), data.getName());
+    assertEquals(data.getName().size() + 1, data.getFullName().size());
+    assertTrue(data.getDefaultWireEncoding().equals(input));
+
+    // Changing the name after lazy decoding changes the encoding, but the other
+    // fields are still decoded from the input.
+    data.setName(new Name("/ndn/xyz"));
+    assertTrue(data.getDefaultWireEncoding().isNull());
+    Data reDecodedData = new Data();
+    reDecodedData.wireDecode(data.wireEncode());
+    assertEquals(new Name("/ndn/xyz"), reDecodedData.getName());
+    assertTrue(reDecodedData.getContent().equals(new Blob("SUCCESS!")));
+    assertEquals
+      (5000.0, reDecodedData.getMetaInfo().getFreshnessPeriod(), 0.0);
+  }
+
+  @Test
+  public void
+  testLazyDecodeInvalid()
+  {
+    // Truncate the encoding.
+    ByteBuffer truncated = codedData.duplicate();
+    truncated.limit(truncated.limit() - 10);
+    try {
+      new Data().wireDecodeLazy(new Blob(truncated, true));
+      fail("wireDecodeLazy did not throw an exception for a truncated packet");
+    } catch (EncodingException ex) {}
+  }
+
+  @Test
+  public void
+  testLazyDecodeInvalidMetaInfo() throws EncodingException
+  {
+    // The ContentType length exceeds the MetaInfo length.
+    Blob input = new Blob(new int[] {
+      0x06, 0x12, // Data
+        0x07, 0x03, 0x08, 0x01, 0x61, // Name
+        0x14, 0x03, 0x18, 0x05, 0x00, // MetaInfo
+        0x16, 0x03, 0x1b, 0x01, 0x00, // SignatureInfo
+        0x17, 0x01, 0x00 // SignatureValue
+    });
+
+    try {
+      new Data().wireDecode(input);
+      fail("wireDecode did not throw an exception for an invalid MetaInfo");
+    } catch (EncodingException ex) {}
+
+    // Lazy decoding only reports the error when the MetaInfo is decoded.
+    Data data = new Data();
+    data.wireDecodeLazy(input);
+    assertEquals(new Name("/a"), data.getName());
+    try {
+      data.getMetaInfo();
+      fail("getMetaInfo did not throw an Error for an invalid MetaInfo");
+    } catch (Error ex) {}
+  }
+
   @Test
   public void
   testCongestionMark() throws EncodingException
@@ -727,4 +812,111 @@ public class TestDataMethods {
 
     assertEquals((long)1, data.getCongestionMark());
   }
+
+  @Test
+  public void
+  testEncodeToBuffer()
+  {
+    Data data = new Data(new Name("/test/encode"));
+    data.setContent(new Blob(new byte[4000]));
+    Blob expected = TlvWireFormat.get().encodeData(data);
+
+    ByteBuffer output = ByteBuffer.allocate(5000);
+    output.put((byte)1);
+    int length = data.wireEncode(output, TlvWireFormat.get());
+    assertEquals(expected.size(), length);
+    assertEquals(1 + length, output.position());
+    output.flip();
+    output.position(1);
+    assertTrue(expected.buf().equals(output));
+
+    // A buffer which is too small is not changed.
+    ByteBuffer small = ByteBuffer.allocate(100);
+    try {
+      data.wireEncode(small, TlvWireFormat.get());
+      fail("wireEncode did not throw BufferOverflowException");
+    } catch (BufferOverflowException ex) {}
+    assertEquals(0, small.position());
+
+    // Copy the default wire encoding.
+    data.wireEncode();
+    output.clear();
+    assertEquals(expected.size(), data.wireEncode(output));
+    output.flip();
+    assertTrue(expected.buf().equals(output));
+  }
+
+  @Test
+  public void
+  testReusableEncoder()
+  {
+    TlvEncoder encoder = TlvEncoder.acquireReusable(16);
+    try {
+      encoder.writeBlobTlv(8, new Blob("abc").buf());
+
+      // The thread's encoder is in use, so this gets a new encoder.
+      TlvEncoder nested = TlvEncoder.acquireReusable(16);
+      assertTrue(nested != encoder);
+      nested.release();
+    } finally {
+      encoder.release();
+    }
+
+    // The same encoder is reused after release, with an empty output.
+    TlvEncoder encoder2 = TlvEncoder.acquireReusable(16);
+    try {
+      assertTrue(encoder2 == encoder);
+      assertEquals(0, encoder2.getLength());
+    } finally {
+      encoder2.release();
+    }
+
+    // Encoded results from the reusable encoder don't share its buffer.
+    Blob encoding1 = new Data(new Name("/a")).wireEncode(TlvWireFormat.get());
+    Blob encoding2 = new Data(new Name("/b")).wireEncode(TlvWireFormat.get());
+    Data decoded = new Data();
+    try {
+      decoded.wireDecode(encoding1);
+    } catch (EncodingException ex) {
+      fail("Can't decode the first encoding: " + ex);
+    }
+    assertEquals(new Name("/a"), decoded.getName());
+    assertFalse(encoding1.equals(encoding2));
+  }
+
+  @Test
+  public void
+  testEncodingSizeHint() throws EncodingException
+  {
+    Data data = new Data(new Name("/test/hint"));
+    assertEquals(0, data.getEncodingSizeHint());
+    data.setContent(new Blob(new byte[20000]));
+    Blob encoding = data.wireEncode();
+    assertEquals(encoding.size(), data.getEncodingSizeHint());
+
+    // Changing the Data keeps the hint for the next encoding.
+    data.setContent(new Blob(new byte[30000]));
+    assertEquals(encoding.size(), data.getEncodingSizeHint());
+    Blob encoding2 = data.wireEncode();
+    assertEquals(encoding2.size(), data.getEncodingSizeHint());
+
+    // Encoding into a buffer and decoding also set the hint.
+    ByteBuffer output = ByteBuffer.allocate(40000);
+    data.setContent(new Blob(new byte[10]));
+    int length = data.wireEncode(output);
+    assertEquals(length, data.getEncodingSizeHint());
+    Data decodedData = new Data();
+    decodedData.wireDecode(encoding);
+    assertEquals(encoding.size(), decodedData.getEncodingSizeHint());
+    assertEquals(encoding.size(), new Data(decodedData).getEncodingSizeHint());
+
+    // A large hint pre-sizes the reusable encoder without changing the result.
+    TlvEncoder encoder = TlvEncoder.acquireReusable(encoding2.size());
+    try {
+      encoder.writeBlobTlv(8, new Blob("abc").buf());
+      assertEquals(5, encoder.getLength());
+    } finally {
+      encoder.release();
+    }
+  }
 }
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.util.ArrayList;
+import net.named_data.jndn.impl.DelayedCallTable;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class TestDelayedCallTable {
+  private static Runnable
+  makeCallback(final ArrayList<Integer> calls, final int id)
+  {
+    return new Runnable() {
+      public void run() { calls.add(id); }
+    };
+  }
+
+  @Test
+  public void
+  testCallOrder()
+  {
+    DelayedCallTable table = new DelayedCallTable(10.0, 8);
+    ArrayList<Integer> calls = new ArrayList<Integer>();
+
+    // The delays span several rotations of the 8-slot wheel.
+    table.callLater(500, makeCallback(calls, 3));
+    table.callLater(100, makeCallback(calls, 1));
+    table.callLater(200, makeCallback(calls, 2));
+    table.callLater(200, makeCallback(calls, 22));
+    table.callLater(100000, makeCallback(calls, 4));
+    assertEquals(5, table.size());
+
+    table.callTimedOut();
+    assertEquals(0, calls.size());
+
+    table.setNowOffsetMilliseconds_(1000);
+    table.callTimedOut();
+    assertEquals(4, calls.size());
+    assertEquals(1, (int)calls.get(0));
+    // Entries with the same call time are called in the order they were added.
+    assertEquals(2, (int)calls.get(1));
+    assertEquals(22, (int)calls.get(2));
+    assertEquals(3, (int)calls.get(3));
+    assertEquals(1, table.size());
+
+    table.setNowOffsetMilliseconds_(200000);
+    table.callTimedOut();
+    assertEquals(5, calls.size());
+    assertEquals(4, (int)calls.get(4));
+    assertEquals(0, table.size());
+  }
+
+  @Test
+  public void
+  testCancel()
+  {
+    DelayedCallTable table = new DelayedCallTable();
+    ArrayList<Integer> calls = new ArrayList<Integer>();
+
+    DelayedCallTable.Entry entry1 = table.callLater(100, makeCallback(calls, 1));
+    table.callLater(100, makeCallback(calls, 2));
+    assertTrue(entry1.cancel());
+    assertFalse(entry1.cancel());
+    assertEquals(1, table.size());
+
+    table.setNowOffsetMilliseconds_(1000);
+    table.callTimedOut();
+    assertEquals(1, calls.size());
+    assertEquals(2, (int)calls.get(0));
+  }
+
+  @Test
+  public void
+  testCancelFromCallback()
+  {
+    final DelayedCallTable table = new DelayedCallTable();
+    final ArrayList<Integer> calls = new ArrayList<Integer>();
+
+    final DelayedCallTable.Entry[] entry2 = new DelayedCallTable.Entry[1];
+    table.callLater(100, new Runnable() {
+      public void run() {
+        calls.add(1);
+        // Cancel the other entry which has also timed out.
+        assertTrue(entry2[0].cancel());
+      }
+    });
+    entry2[0] = table.callLater(200, makeCallback(calls, 2));
+
+    table.setNowOffsetMilliseconds_(1000);
+    table.callTimedOut();
+    assertEquals(1, calls.size());
+    assertEquals(1, (int)calls.get(0));
+    assertEquals(0, table.size());
+  }
+
+  @Test
+  public void
+  testNextCallTime()
+  {
+    DelayedCallTable table = new DelayedCallTable(10.0, 8);
+    ArrayList<Integer> calls = new ArrayList<Integer>();
+    assertEquals(-1, table.getNextCallTime(), 0);
+
+    // This is more than one rotation of the 8-slot wheel.
+    DelayedCallTable.Entry entry1 =
+      table.callLater(1000, makeCallback(calls, 1));
+    assertEquals(entry1.getCallTime(), table.getNextCallTime(), 0);
+
+    DelayedCallTable.Entry entry2 = table.callLater(35, makeCallback(calls, 2));
+    table.callLater(50, makeCallback(calls, 3));
+    assertEquals(entry2.getCallTime(), table.getNextCallTime(), 0);
+
+    entry2.cancel();
+    assertTrue(table.getNextCallTime() > entry2.getCallTime());
+    assertTrue(table.getNextCallTime() < entry1.getCallTime());
+
+    // Calling the entry at 50 leaves the entry at 1000 as the next.
+    table.setNowOffsetMilliseconds_(100);
+    table.callTimedOut();
+    assertEquals(1, calls.size());
+    assertEquals(entry1.getCallTime(), table.getNextCallTime(), 0);
+
+    entry1.cancel();
+    assertEquals(-1, table.getNextCallTime(), 0);
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.named_data.jndn.sync.detail.DigestLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class TestDigestLog {
+  private static final List empty = new ArrayList();
+
+  @Test
+  public void
+  testFindAndEntriesAfter()
+  {
+    DigestLog log = new DigestLog();
+    DigestLog.Entry first = log.add("00", empty);
+    for (int i = 0; i < 5; ++i)
+      log.add("d" + i, empty);
+
+    assertEquals(6, log.size());
+    assertTrue(log.add("d2", empty) == null);
+    assertTrue(log.find("x") == null);
+    assertEquals("d3", log.find("d3").getDigest());
+
+    List<DigestLog.Entry> after = log.getEntriesAfter(log.find("d2"));
+    assertEquals(2, after.size());
+    assertEquals("d3", after.get(0).getDigest());
+    assertEquals("d4", after.get(1).getDigest());
+    assertEquals(0, log.getEntriesAfter(log.find("d4")).size());
+    assertEquals(5, log.getEntriesAfter(first).size());
+  }
+
+  @Test
+  public void
+  testMaxEntries()
+  {
+    DigestLog log = new DigestLog(3, 0);
+    DigestLog.Entry first = log.add("00", empty);
+    for (int i = 0; i < 1000; ++i)
+      log.add("d" + i, empty);
+
+    // The first entry is always kept.
+    assertEquals(4, log.size());
+    assertTrue(log.find("00") == first);
+    assertTrue(log.find("d996") == null);
+    List<DigestLog.Entry> after = log.getEntriesAfter(log.find("d997"));
+    assertEquals(2, after.size());
+    assertEquals("d998", after.get(0).getDigest());
+    assertEquals(3, log.getEntriesAfter(first).size());
+
+    // A removed digest can be added again.
+    assertTrue(log.add("d0", empty) != null);
+    assertTrue(log.find("d997") == null);
+  }
+
+  @Test
+  public void
+  testMaxAge()
+  {
+    DigestLog log = new DigestLog(100, 1000);
+    log.add("00", empty);
+    log.add("a", empty);
+    log.setNowOffsetMilliseconds_(600);
+    log.add("b", empty);
+    assertEquals(3, log.size());
+
+    log.setNowOffsetMilliseconds_(1200);
+    assertTrue(log.find("a") == null);
+    assertTrue(log.find("b") != null);
+    assertTrue(log.find("00") != null);
+    assertEquals(2, log.size());
+
+    log.setRetention(100, 0);
+    log.setNowOffsetMilliseconds_(100000);
+    assertTrue(log.find("b") != null);
+  }
+}
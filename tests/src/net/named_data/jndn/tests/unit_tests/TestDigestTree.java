@@ -0,0 +1,276 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import net.named_data.jndn.Face;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.OnData;
+import net.named_data.jndn.OnInterestCallback;
+import net.named_data.jndn.OnNetworkNack;
+import net.named_data.jndn.OnRegisterFailed;
+import net.named_data.jndn.OnRegisterSuccess;
+import net.named_data.jndn.OnTimeout;
+import net.named_data.jndn.RegistrationOptions;
+import net.named_data.jndn.encoding.WireFormat;
+import net.named_data.jndn.security.KeyChain;
+import net.named_data.jndn.sync.ChronoSync2013;
+import net.named_data.jndn.sync.DigestTree;
+import net.named_data.jndn.sync.MerkleDigestTree;
+import net.named_data.jndn.util.Common;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class TestDigestTree {
+  /**
+   * RecordingFace records each expressed Interest and its OnTimeout without
+   * sending it, and accepts any registerPrefix.
+   */
+  static class RecordingFace extends Face {
+    public RecordingFace()
+    {
+      super("localhost");
+    }
+
+    public long
+    expressInterest
+      (Interest interest, OnData onData, OnTimeout onTimeout,
+       OnNetworkNack onNetworkNack, WireFormat wireFormat)
+    {
+      interests_.add(new Interest(interest));
+      onTimeouts_.add(onTimeout);
+      return 0;
+    }
+
+    public long
+    registerPrefix
+      (Name prefix, OnInterestCallback onInterest,
+       OnRegisterFailed onRegisterFailed, OnRegisterSuccess onRegisterSuccess,
+       RegistrationOptions flags, WireFormat wireFormat)
+    {
+      return 0;
+    }
+
+    public final ArrayList<Interest> interests_ = new ArrayList<Interest>();
+    public final ArrayList<OnTimeout> onTimeouts_ = new ArrayList<OnTimeout>();
+  }
+
+  private static byte[]
+  littleEndian32(long value)
+  {
+    byte[] result = new byte[4];
+    for (int i = 0; i < 4; ++i)
+      result[i] = (byte)((value >> (8 * i)) & 0xff);
+    return result;
+  }
+
+  /**
+   * Compute the ChronoSync node digest the way the original DigestTree did.
+   */
+  private static byte[]
+  nodeDigest(String dataPrefix, long sessionNo, long sequenceNo)
+    throws Exception
+  {
+    MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+    sha256.update(littleEndian32(sessionNo));
+    sha256.update(littleEndian32(sequenceNo));
+    byte[] sequenceDigest = sha256.digest();
+    byte[] nameDigest = sha256.digest(dataPrefix.getBytes("UTF-8"));
+    sha256.update(nameDigest);
+    sha256.update(sequenceDigest);
+    return sha256.digest();
+  }
+
+  @Test
+  public void
+  testChronoSyncRoot() throws Exception
+  {
+    DigestTree tree = new DigestTree();
+    assertEquals("00", tree.getRoot());
+
+    assertTrue(tree.update("/b", 2, 1));
+    assertTrue(tree.update("/a", 5, 3));
+    assertTrue(tree.update("/b", 1, 7));
+    assertTrue(tree.update("/a", 5, 4));
+    assertFalse(tree.update("/a", 5, 4));
+    assertFalse(tree.update("/a", 5, 2));
+
+    // The nodes are sorted by data prefix, then session number.
+    assertEquals(3, tree.size());
+    assertEquals(0, tree.find("/a", 5));
+    assertEquals(1, tree.find("/b", 1));
+    assertEquals(2, tree.find("/b", 2));
+    assertEquals(-1, tree.find("/b", 3));
+    assertEquals(-1, tree.find("/0", 1));
+    assertEquals(4, tree.get(0).getSequenceNo());
+
+    MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+    byte[] digest = nodeDigest("/a", 5, 4);
+    assertEquals(Common.toHex(digest), tree.get(0).getDigest());
+    sha256.update(digest);
+    sha256.update(nodeDigest("/b", 1, 7));
+    sha256.update(nodeDigest("/b", 2, 1));
+    assertEquals(Common.toHex(sha256.digest()), tree.getRoot());
+
+    // Changing a node directly also changes the root.
+    String root = tree.getRoot();
+    tree.get(2).setSequenceNo(9);
+    assertFalse(root.equals(tree.getRoot()));
+  }
+
+  @Test
+  public void
+  testMerkleRoot() throws Exception
+  {
+    MerkleDigestTree tree = new MerkleDigestTree();
+    assertEquals("00", tree.getRoot());
+
+    tree.update("/a", 1, 1);
+    // The root of one node is the node digest.
+    assertEquals(tree.get(0).getDigest(), tree.getRoot());
+
+    tree.update("/c", 1, 1);
+    tree.update("/b", 1, 1);
+    MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+    sha256.update(nodeDigest("/a", 1, 1));
+    sha256.update(nodeDigest("/b", 1, 1));
+    byte[] left = sha256.digest();
+    sha256.update(left);
+    sha256.update(nodeDigest("/c", 1, 1));
+    assertEquals(Common.toHex(sha256.digest()), tree.getRoot());
+
+    // Incremental updates give the same root as building the final state.
+    for (int i = 0; i < 100; ++i)
+      tree.update("/p" + (i * 37 % 100), i % 3, 1);
+    tree.getRoot();
+    for (int i = 0; i < 500; ++i) {
+      tree.update("/p" + (i * 13 % 100), (i * 13 % 100) % 3, i + 2);
+      if (i % 7 == 0)
+        tree.getRoot();
+    }
+
+    MerkleDigestTree expected = new MerkleDigestTree();
+    for (int i = 0; i < tree.size(); ++i)
+      expected.update
+        (tree.get(i).getDataPrefix(), tree.get(i).getSessionNo(),
+         tree.get(i).getSequenceNo());
+    assertEquals(expected.getRoot(), tree.getRoot());
+    assertFalse(new DigestTree().getRoot().equals(tree.getRoot()));
+  }
+
+  /**
+   * Initialize a ChronoSync2013 with the digestTree (or the default if null)
+   * and publish two sequence numbers.
+   * @return The RecordingFace with the expressed sync Interests.
+   */
+  private static RecordingFace
+  runChronoSync(String dataPrefix, long sessionNo, DigestTree digestTree)
+    throws Exception
+  {
+    RecordingFace face = new RecordingFace();
+    KeyChain keyChain = new KeyChain("pib-memory:", "tpm-memory:");
+    keyChain.createIdentityV2(new Name("/chronosync"));
+    Name certificateName = keyChain.getPib().getDefaultIdentity()
+      .getDefaultKey().getDefaultCertificate().getName();
+
+    ChronoSync2013.OnReceivedSyncState onReceivedSyncState =
+      new ChronoSync2013.OnReceivedSyncState() {
+        public void onReceivedSyncState(List syncStates, boolean isRecovery) {}
+      };
+    ChronoSync2013.OnInitialized onInitialized =
+      new ChronoSync2013.OnInitialized() {
+        public void onInitialized() {}
+      };
+    OnRegisterFailed onRegisterFailed = new OnRegisterFailed() {
+      public void onRegisterFailed(Name prefix) {}
+    };
+
+    ChronoSync2013 sync;
+    if (digestTree == null)
+      sync = new ChronoSync2013
+        (onReceivedSyncState, onInitialized, new Name(dataPrefix),
+         new Name("/broadcast"), sessionNo, face, keyChain, certificateName,
+         5000, onRegisterFailed);
+    else
+      sync = new ChronoSync2013
+        (onReceivedSyncState, onInitialized, new Name(dataPrefix),
+         new Name("/broadcast"), sessionNo, face, keyChain, certificateName,
+         5000, onRegisterFailed, digestTree);
+
+    // Time out the initial Interest for "00" so that this is the first
+    // participant.
+    assertEquals("00", face.interests_.get(0).getName().get(-1).toEscapedString());
+    face.onTimeouts_.get(0).onTimeout(face.interests_.get(0));
+
+    sync.publishNextSequenceNo();
+    sync.publishNextSequenceNo();
+    assertEquals(2, sync.getSequenceNo());
+
+    return face;
+  }
+
+  @Test
+  public void
+  testChronoSyncWithMerkleDigestTree() throws Exception
+  {
+    String dataPrefix = "/chronosync/data";
+    long sessionNo = 1;
+
+    MerkleDigestTree tree = new MerkleDigestTree();
+    RecordingFace face = runChronoSync(dataPrefix, sessionNo, tree);
+    // ChronoSync2013 keeps its state in the given tree.
+    assertEquals(1, tree.size());
+    assertTrue(tree.find(dataPrefix, sessionNo) >= 0);
+    assertEquals(2, tree.get(0).getSequenceNo());
+
+    MerkleDigestTree expected = new MerkleDigestTree();
+    expected.update(dataPrefix, sessionNo, 2);
+    assertEquals(expected.getRoot(), tree.getRoot());
+    // The sync Interest for the next update carries the Merkle root.
+    Interest lastInterest = face.interests_.get(face.interests_.size() - 1);
+    assertEquals
+      (expected.getRoot(), lastInterest.getName().get(-1).toEscapedString());
+
+    // The default constructor uses the ChronoSync root.
+    RecordingFace defaultFace = runChronoSync(dataPrefix, sessionNo, null);
+    DigestTree expectedDefault = new DigestTree();
+    expectedDefault.update(dataPrefix, sessionNo, 2);
+    Interest lastDefaultInterest =
+      defaultFace.interests_.get(defaultFace.interests_.size() - 1);
+    assertEquals
+      (expectedDefault.getRoot(),
+       lastDefaultInterest.getName().get(-1).toEscapedString());
+    assertFalse(expectedDefault.getRoot().equals(expected.getRoot()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void
+  testChronoSyncNonEmptyDigestTree() throws Exception
+  {
+    MerkleDigestTree tree = new MerkleDigestTree();
+    tree.update("/other", 1, 1);
+    runChronoSync("/chronosync/data", 1, tree);
+  }
+}
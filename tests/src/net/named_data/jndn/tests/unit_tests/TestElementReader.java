@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.encoding.ElementListener;
+import net.named_data.jndn.encoding.ElementReader;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.util.Blob;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Test;
+
+public class TestElementReader {
+  /**
+   * Make the concatenated encoding of nElements Data packets where the content
+   * size of each is different so that some have a multi-byte length.
+   */
+  private static ArrayList<Blob>
+  makeElements(int nElements)
+  {
+    ArrayList<Blob> elements = new ArrayList<Blob>();
+    for (int i = 0; i < nElements; ++i) {
+      Data data = new Data(new Name("/test/element").appendSegment(i));
+      data.setContent(new Blob(new byte[i * 50]));
+      elements.add(data.wireEncode());
+    }
+
+    return elements;
+  }
+
+  private static ByteBuffer
+  concatenate(ArrayList<Blob> elements)
+  {
+    int size = 0;
+    for (int i = 0; i < elements.size(); ++i)
+      size += elements.get(i).size();
+
+    ByteBuffer result = ByteBuffer.allocate(size);
+    for (int i = 0; i < elements.size(); ++i)
+      result.put(elements.get(i).buf());
+    result.flip();
+    return result;
+  }
+
+  private static class CountingListener implements ElementListener {
+    public void
+    onReceivedElement(ByteBuffer element)
+    {
+      ++nElements_;
+      // Check the element the same way that Node does.
+      if (element.get(0) == 6)
+        ++nData_;
+    }
+
+    public int nElements_ = 0;
+    public int nData_ = 0;
+  }
+
+  /**
+   * Feed the input to the reader in pieces of readSize bytes, reusing the same
+   * input buffer like a transport does.
+   */
+  private static void
+  feed(ElementReader reader, ByteBuffer input, ByteBuffer readBuffer, int readSize)
+    throws EncodingException
+  {
+    for (int i = 0; i < input.limit(); i += readSize) {
+      int end = Math.min(i + readSize, input.limit());
+      readBuffer.clear();
+      for (int j = i; j < end; ++j)
+        readBuffer.put(input.get(j));
+      readBuffer.flip();
+      reader.onReceivedData(readBuffer);
+      assertEquals(0, readBuffer.position());
+    }
+  }
+
+  @Test
+  public void
+  testElements() throws EncodingException
+  {
+    ArrayList<Blob> elements = makeElements(10);
+    ByteBuffer input = concatenate(elements);
+
+    // Try read sizes which split elements and headers in different places.
+    int[] readSizes = new int[] { 1, 2, 3, 7, 100, 400, input.limit() };
+    for (int i = 0; i < readSizes.length; ++i) {
+      final ArrayList<Blob> received = new ArrayList<Blob>();
+      ElementReader reader = new ElementReader(new ElementListener() {
+        public void onReceivedElement(ByteBuffer element) {
+          received.add(new Blob(element, true));
+        }
+      });
+
+      feed(reader, input, ByteBuffer.allocate(input.limit()), readSizes[i]);
+      assertEquals(elements.size(), received.size());
+      for (int j = 0; j < elements.size(); ++j)
+        assertTrue(elements.get(j).equals(received.get(j)));
+    }
+  }
+
+  @Test
+  public void
+  testAllocationBudget() throws EncodingException
+  {
+    java.lang.management.ThreadMXBean threadMXBean =
+      ManagementFactory.getThreadMXBean();
+    assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean allocationBean =
+      (com.sun.management.ThreadMXBean)threadMXBean;
+    assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+    allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+    ArrayList<Blob> elements = makeElements(20);
+    ByteBuffer input = concatenate(elements);
+    ByteBuffer readBuffer = ByteBuffer.allocate(input.limit());
+    CountingListener listener = new CountingListener();
+    ElementReader reader = new ElementReader(listener);
+    // Use a read size which puts several elements in each read and splits
+    // others across reads.
+    int readSize = 1500;
+
+    // Warm up so that the reusable buffers reach their steady-state size.
+    for (int i = 0; i < 200; ++i)
+      feed(reader, input, readBuffer, readSize);
+
+    int nIterations = 500;
+    int saveElements = listener.nElements_;
+    long threadId = Thread.currentThread().getId();
+    long startBytes = allocationBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < nIterations; ++i)
+      feed(reader, input, readBuffer, readSize);
+    long allocatedBytes =
+      allocationBean.getThreadAllocatedBytes(threadId) - startBytes;
+
+    int nElements = listener.nElements_ - saveElements;
+    assertEquals(nIterations * elements.size(), nElements);
+    assertEquals(listener.nElements_, listener.nData_);
+    // Allow a small fixed amount for the measurement itself.
+    long budget =
+      (long)nElements * ElementReader.ALLOCATION_BUDGET_PER_ELEMENT + 1024;
+    assertTrue
+      ("ElementReader allocated " + allocatedBytes + " bytes for " + nElements +
+       " elements, which exceeds the budget of " + budget + " bytes",
+       allocatedBytes <= budget);
+  }
+}
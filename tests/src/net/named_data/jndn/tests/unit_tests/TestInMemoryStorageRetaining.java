@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.in_memory_storage.InMemoryStorageRetaining;
+import net.named_data.jndn.util.Blob;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class TestInMemoryStorageRetaining {
+  @Test
+  public void
+  testFindAndRemove() throws EncodingException
+  {
+    InMemoryStorageRetaining storage = new InMemoryStorageRetaining();
+    storage.insert(new Data(new Name("/a/b/1")));
+    storage.insert(new Data(new Name("/a/b/2")));
+    storage.insert(new Data(new Name("/a/c")));
+    storage.insert(new Data(new Name("/b")));
+    assertEquals(4, storage.size());
+
+    // Inserting the same packet replaces it.
+    storage.insert(new Data(new Name("/b")));
+    assertEquals(4, storage.size());
+
+    assertEquals(new Name("/a/b/1"),
+      storage.find(new Interest(new Name("/a/b"))).getName());
+    assertEquals(new Name("/a/c"),
+      storage.find(new Interest(new Name("/a/c"))).getName());
+    assertNull(storage.find(new Interest(new Name("/a/bb"))));
+    assertNull(storage.find(new Interest(new Name("/c"))));
+
+    storage.remove(new Name("/a/b"));
+    assertEquals(2, storage.size());
+    assertNull(storage.find(new Interest(new Name("/a/b"))));
+    assertNotNull(storage.find(new Interest(new Name("/a"))));
+    assertEquals(2, storage.getCache_().size());
+  }
+
+  @Test
+  public void
+  testCapacity() throws EncodingException
+  {
+    InMemoryStorageRetaining storage = new InMemoryStorageRetaining(2);
+    storage.insert(new Data(new Name("/a/1")));
+    storage.insert(new Data(new Name("/a/2")));
+    // Replacing /a/1 makes /a/2 the oldest.
+    storage.insert(new Data(new Name("/a/1")));
+    storage.insert(new Data(new Name("/a/3")));
+
+    assertEquals(2, storage.size());
+    assertNull(storage.find(new Interest(new Name("/a/2"))));
+    assertNotNull(storage.find(new Interest(new Name("/a/1"))));
+    assertNotNull(storage.find(new Interest(new Name("/a/3"))));
+
+    storage.remove(new Name("/a/1"));
+    storage.insert(new Data(new Name("/a/4")));
+    assertEquals(2, storage.size());
+    assertNotNull(storage.find(new Interest(new Name("/a/3"))));
+  }
+
+  @Test
+  public void
+  testConcurrentInsert() throws InterruptedException
+  {
+    final InMemoryStorageRetaining storage = new InMemoryStorageRetaining();
+    final int nThreads = 4;
+    final int nPerThread = 500;
+    final AtomicBoolean gotError = new AtomicBoolean(false);
+
+    Thread[] threads = new Thread[nThreads];
+    for (int i = 0; i < nThreads; ++i) {
+      final int threadIndex = i;
+      threads[i] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int j = 0; j < nPerThread; ++j) {
+              Data data = new Data
+                (new Name("/thread" + threadIndex).appendSegment(j));
+              data.setContent(new Blob("content"));
+              storage.insert(data);
+              if (storage.find(new Interest(data.getName())) == null)
+                gotError.set(true);
+            }
+          } catch (Throwable ex) {
+            gotError.set(true);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (int i = 0; i < nThreads; ++i)
+      threads[i].join();
+
+    assertFalse(gotError.get());
+    assertEquals(nThreads * nPerThread, storage.size());
+  }
+}
@@ -24,6 +24,7 @@ package net.named_data.jndn.tests.unit_tests;
 import java.io.IOException;
 import java.util.HashSet;
 import net.named_data.jndn.Name;
+import net.named_data.jndn.sync.PSyncProducerBase;
 import net.named_data.jndn.sync.detail.InvertibleBloomLookupTable;
 import net.named_data.jndn.util.Blob;
 import net.named_data.jndn.util.Common;
@@ -228,6 +229,63 @@ public class TestInvertibleBloomLookupTable {
     assertTrue(!receivedIblt.listEntries(positive, negative));
   }
 
+  @Test
+  public void
+  testEncodingCacheAndCompressionLevel() throws IOException
+  {
+    int size = 100;
+    InvertibleBloomLookupTable iblt = new InvertibleBloomLookupTable(size);
+    for (int i = 0; i < 20; ++i) {
+      String prefix = new Name("/test/memphis" + i).appendNumber(1).toUri();
+      iblt.insert(Common.murmurHash3(11, new Blob(prefix).getImmutableArray()));
+    }
+
+    // The encoding is cached until the table changes.
+    Blob encoding = iblt.encode();
+    assertTrue(encoding == iblt.encode());
+    long hash = Common.murmurHash3
+      (11, new Blob(new Name("/test/ucla").toUri()).getImmutableArray());
+    iblt.insert(hash);
+    Blob newEncoding = iblt.encode();
+    assertTrue(!newEncoding.equals(encoding));
+    iblt.erase(hash);
+    assertTrue(iblt.encode().equals(encoding));
+
+    // A different compression level decodes to the same table.
+    iblt.setCompressionLevel(1);
+    Blob fastEncoding = iblt.encode();
+    assertTrue(fastEncoding != encoding);
+    InvertibleBloomLookupTable received = new InvertibleBloomLookupTable(size);
+    received.initialize(fastEncoding);
+    assertTrue(iblt.equals(received));
+    assertTrue(received.encode().equals(encoding));
+  }
+
+  @Test
+  public void
+  testNameHash()
+  {
+    Name name = new Name("/test/memphis/a b").appendSequenceNumber(1);
+    PSyncProducerBase producer =
+      new PSyncProducerBase(10, new Name("/sync"), 1000) {};
+
+    assertTrue(producer.getUseUriHash());
+    assertEquals
+      (Common.murmurHash3(InvertibleBloomLookupTable.N_HASHCHECK,
+                          new Blob(name.toUri()).getImmutableArray()),
+       producer.getNameHash(name));
+
+    producer.setUseUriHash(false);
+    assertEquals
+      (Common.murmurHash3(InvertibleBloomLookupTable.N_HASHCHECK,
+                          name.wireEncode().getImmutableArray()),
+       producer.getNameHash(name));
+    assertEquals
+      (Common.murmurHash3(InvertibleBloomLookupTable.N_HASHCHECK,
+                          name.wireEncode().buf()),
+       producer.getNameHash(name));
+  }
+
   // This is to force an import of net.named_data.jndn.util.
   private static Common dummyCommon_ = new Common();
 }
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.util.HashMap;
+import java.util.Random;
+import net.named_data.jndn.sync.detail.LongHashMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class TestLongHashMap {
+  @Test
+  public void
+  testPutGetRemove()
+  {
+    LongHashMap<String> map = new LongHashMap<String>();
+
+    assertNull(map.put(1, "a"));
+    assertNull(map.put(0x100000000L, "b"));
+    assertEquals("a", map.put(1, "c"));
+    assertEquals(2, map.size());
+    assertEquals("c", map.get(1));
+    assertEquals("b", map.get(0x100000000L));
+    assertNull(map.get(2));
+    assertTrue(map.containsKey(1));
+    assertFalse(map.containsKey(2));
+
+    assertEquals("c", map.remove(1));
+    assertNull(map.remove(1));
+    assertEquals(1, map.size());
+    assertEquals(1, map.values().size());
+
+    map.clear();
+    assertEquals(0, map.size());
+    assertNull(map.get(0x100000000L));
+  }
+
+  @Test
+  public void
+  testCompareWithHashMap()
+  {
+    // Use a small key range so that there are many collisions and removals.
+    Random random = new Random(1);
+    LongHashMap<Long> map = new LongHashMap<Long>();
+    HashMap<Long, Long> expected = new HashMap<Long, Long>();
+
+    for (int i = 0; i < 20000; ++i) {
+      long key = random.nextInt(2000);
+      if (random.nextInt(3) == 0)
+        assertEquals(expected.remove(key), map.remove(key));
+      else {
+        Long value = random.nextLong();
+        assertEquals(expected.put(key, value), map.put(key, value));
+      }
+
+      assertEquals(expected.size(), map.size());
+    }
+
+    for (long key = 0; key < 2000; ++key)
+      assertEquals(expected.get(key), map.get(key));
+  }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Face;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.util.Blob;
+import net.named_data.jndn.util.MemoryContentCache;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMemoryContentCache {
+  /**
+   * SendFace extends Face to save each sent packet instead of sending it.
+   */
+  private static class SendFace extends Face {
+    public SendFace()
+    {
+      super("localhost");
+    }
+
+    public void
+    send(ByteBuffer encoding) throws IOException
+    {
+      sent_.add(new Blob(encoding, true));
+    }
+
+    public final ArrayList<Blob> sent_ = new ArrayList<Blob>();
+  }
+
+  private SendFace face_;
+  private MemoryContentCache cache_;
+
+  @Before
+  public void
+  setUp()
+  {
+    face_ = new SendFace();
+    cache_ = new MemoryContentCache(face_);
+  }
+
+  private static Data
+  makeData(String uri, int contentSize)
+  {
+    Data data = new Data(new Name(uri));
+    data.setContent(new Blob(new byte[contentSize]));
+    return data;
+  }
+
+  /**
+   * Call cache_.onInterest and return the name of the sent Data packet.
+   * @return The Data name, or null if no packet was sent.
+   */
+  private Name
+  answer(Interest interest) throws EncodingException
+  {
+    face_.sent_.clear();
+    cache_.onInterest(new Name("/"), interest, face_, 0, null);
+    if (face_.sent_.size() == 0)
+      return null;
+
+    assertEquals(1, face_.sent_.size());
+    Data data = new Data();
+    data.wireDecode(face_.sent_.get(0));
+    return data.getName();
+  }
+
+  @Test
+  public void
+  testMatch() throws EncodingException
+  {
+    cache_.add(makeData("/a/b/2", 10));
+    cache_.add(makeData("/a/b/1", 10));
+    cache_.add(makeData("/a/b/3/x", 10));
+    cache_.add(makeData("/a/c", 10));
+
+    assertEquals(new Name("/a/b/2"), answer(new Interest(new Name("/a/b/2"))));
+    assertEquals(new Name("/a/b/1"), answer(new Interest(new Name("/a/b"))));
+    assertNull(answer(new Interest(new Name("/a/d"))));
+    assertNull(answer(new Interest(new Name("/a/b/1/x"))));
+
+    Interest interest = new Interest(new Name("/a/b"));
+    interest.setChildSelector(1);
+    assertEquals(new Name("/a/b/3/x"), answer(interest));
+
+    // The MaxSuffixComponents excludes /a/b/3/x.
+    interest.setMaxSuffixComponents(2);
+    assertEquals(new Name("/a/b/2"), answer(interest));
+
+    interest = new Interest(new Name("/a/b"));
+    interest.getExclude().appendComponent(new Name.Component("1"));
+    assertEquals(new Name("/a/b/2"), answer(interest));
+
+    // Adding the same name replaces the entry.
+    cache_.add(makeData("/a/c", 20));
+    assertEquals(4, cache_.size());
+  }
+
+  @Test
+  public void
+  testMustBeFresh() throws EncodingException
+  {
+    cache_.setMinimumCacheLifetime(100000);
+    Data data = makeData("/a/1", 10);
+    data.getMetaInfo().setFreshnessPeriod(0);
+    cache_.add(data);
+    cache_.add(makeData("/a/2", 10));
+
+    Interest interest = new Interest(new Name("/a"));
+    assertEquals(new Name("/a/1"), answer(interest));
+    interest.setMustBeFresh(true);
+    assertEquals(new Name("/a/2"), answer(interest));
+  }
+
+  @Test
+  public void
+  testLruEviction() throws EncodingException
+  {
+    for (int i = 0; i < 3; ++i)
+      cache_.add(makeData("/a/" + i, 100));
+    int entrySize = (int)cache_.getByteSize() / 3;
+    cache_.setMaxByteSize(3 * entrySize);
+
+    // Access /a/0 so that /a/1 is the least recently used.
+    answer(new Interest(new Name("/a/0")));
+    cache_.add(makeData("/a/3", 100));
+    assertEquals(3, cache_.size());
+    assertNull(answer(new Interest(new Name("/a/1"))));
+    assertEquals(new Name("/a/0"), answer(new Interest(new Name("/a/0"))));
+
+    // Reducing the max byte size evicts now.
+    cache_.setMaxByteSize(entrySize);
+    assertEquals(1, cache_.size());
+    assertEquals(new Name("/a/0"), answer(new Interest(new Name("/a/0"))));
+  }
+
+  @Test
+  public void
+  testLfuEviction() throws EncodingException
+  {
+    cache_.setEvictionPolicy(new MemoryContentCache.LfuEvictionPolicy());
+    for (int i = 0; i < 3; ++i)
+      cache_.add(makeData("/a/" + i, 100));
+    cache_.setMaxByteSize(cache_.getByteSize());
+
+    answer(new Interest(new Name("/a/0")));
+    answer(new Interest(new Name("/a/0")));
+    answer(new Interest(new Name("/a/1")));
+    answer(new Interest(new Name("/a/2")));
+    answer(new Interest(new Name("/a/2")));
+
+    cache_.add(makeData("/a/3", 100));
+    assertNull(answer(new Interest(new Name("/a/1"))));
+    assertEquals(3, cache_.size());
+  }
+
+  @Test
+  public void
+  testFreshnessEviction() throws EncodingException
+  {
+    cache_.setEvictionPolicy(new MemoryContentCache.FreshnessEvictionPolicy());
+    cache_.setMinimumCacheLifetime(100000);
+    cache_.add(makeData("/a/0", 100));
+    Data staleData = makeData("/a/1", 100);
+    staleData.getMetaInfo().setFreshnessPeriod(0);
+    cache_.add(staleData);
+    cache_.setMaxByteSize(cache_.getByteSize());
+
+    // /a/0 is least recently used, but /a/1 is not fresh.
+    cache_.add(makeData("/a/2", 100));
+    assertNull(answer(new Interest(new Name("/a/1"))));
+    assertEquals(new Name("/a/0"), answer(new Interest(new Name("/a/0"))));
+  }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.util.ArrayList;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Face;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.OnData;
+import net.named_data.jndn.OnInterestCallback;
+import net.named_data.jndn.OnNetworkNack;
+import net.named_data.jndn.OnRegisterFailed;
+import net.named_data.jndn.OnRegisterSuccess;
+import net.named_data.jndn.OnTimeout;
+import net.named_data.jndn.RegistrationOptions;
+import net.named_data.jndn.encoding.WireFormat;
+import net.named_data.jndn.security.KeyChain;
+import net.named_data.jndn.sync.PSyncConsumer;
+import net.named_data.jndn.sync.PSyncMissingDataInfo;
+import net.named_data.jndn.sync.PSyncPartialProducer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPSyncPartialProducer {
+  /**
+   * LoopbackFace passes each expressed Interest to the registered
+   * OnInterestCallback and gives each Data from putData to the matching
+   * pending Interests, so that a producer and consumer on the same Face talk
+   * to each other synchronously. Pending Interests never time out.
+   */
+  static class LoopbackFace extends Face {
+    public LoopbackFace()
+    {
+      super("localhost");
+    }
+
+    public long
+    expressInterest
+      (Interest interest, OnData onData, OnTimeout onTimeout,
+       OnNetworkNack onNetworkNack, WireFormat wireFormat)
+    {
+      pendingInterests_.add(new Interest(interest));
+      pendingOnData_.add(onData);
+      if (onInterest_ != null && registeredPrefix_.match(interest.getName()))
+        onInterest_.onInterest(registeredPrefix_, interest, this, 0, null);
+
+      return 0;
+    }
+
+    public long
+    registerPrefix
+      (Name prefix, OnInterestCallback onInterest,
+       OnRegisterFailed onRegisterFailed, OnRegisterSuccess onRegisterSuccess,
+       RegistrationOptions flags, WireFormat wireFormat)
+    {
+      registeredPrefix_ = new Name(prefix);
+      onInterest_ = onInterest;
+      return 0;
+    }
+
+    public void
+    putData(Data data, WireFormat wireFormat)
+    {
+      for (int i = 0; i < pendingInterests_.size(); ++i) {
+        Interest interest = pendingInterests_.get(i);
+        if (interest.matchesData(data)) {
+          OnData onData = pendingOnData_.get(i);
+          pendingInterests_.remove(i);
+          pendingOnData_.remove(i);
+          onData.onData(interest, data);
+          return;
+        }
+      }
+    }
+
+    public void
+    callLater(double delayMilliseconds, Runnable callback)
+    {
+      // Don't time out pending entries during the test.
+    }
+
+    private Name registeredPrefix_;
+    private OnInterestCallback onInterest_;
+    private final ArrayList<Interest> pendingInterests_ =
+      new ArrayList<Interest>();
+    private final ArrayList<OnData> pendingOnData_ = new ArrayList<OnData>();
+  }
+
+  @Before
+  public void
+  setUp() throws Exception
+  {
+    face_ = new LoopbackFace();
+    KeyChain keyChain = new KeyChain("pib-memory:", "tpm-memory:");
+    keyChain.createIdentityV2(new Name("/producer"));
+
+    producer_ = new PSyncPartialProducer
+      (40, face_, syncPrefix_, new Name(), keyChain);
+    for (int i = 0; i < 3; ++i) {
+      producer_.addUserNode(new Name("/user" + i));
+      producer_.publishName(new Name("/user" + i));
+    }
+
+    helloNames_.clear();
+    updates_.clear();
+    consumer_ = new PSyncConsumer
+      (syncPrefix_, face_,
+       new PSyncConsumer.OnReceiveHelloData() {
+         public void onReceiveHelloData(ArrayList<Name> names) {
+           helloNames_.addAll(names);
+         }
+       },
+       new PSyncConsumer.OnUpdate() {
+         public void onUpdate(ArrayList<PSyncMissingDataInfo> updates) {
+           updates_.addAll(updates);
+         }
+       },
+       10, 0.001);
+  }
+
+  @Test
+  public void
+  testAddUserNode()
+  {
+    consumer_.sendHelloInterest();
+    assertEquals(3, helloNames_.size());
+    assertTrue(helloNames_.contains(new Name("/user1").appendNumber(1)));
+
+    // Subscribe to a prefix which the producer doesn't have yet.
+    Name newPrefix = new Name("/user3");
+    consumer_.addSubscription(newPrefix);
+    consumer_.sendSyncInterest();
+    assertEquals(0, updates_.size());
+
+    assertTrue(producer_.addUserNode(newPrefix));
+    producer_.publishName(newPrefix);
+    assertEquals(1, updates_.size());
+    assertEquals(newPrefix, updates_.get(0).prefix_);
+    assertEquals(1, updates_.get(0).lowSequenceNo_);
+    assertEquals(1, updates_.get(0).highSequenceNo_);
+  }
+
+  @Test
+  public void
+  testSubscribedUpdate()
+  {
+    consumer_.sendHelloInterest();
+    Name prefix = new Name("/user1");
+    consumer_.addSubscription(prefix, producer_.getSequenceNo(prefix));
+    // The producer has nothing new, so it keeps the sync Interest pending.
+    consumer_.sendSyncInterest();
+    assertEquals(0, updates_.size());
+
+    producer_.publishName(prefix);
+    assertEquals(1, updates_.size());
+    assertEquals(prefix, updates_.get(0).prefix_);
+    assertEquals(2, updates_.get(0).lowSequenceNo_);
+    assertEquals(2, updates_.get(0).highSequenceNo_);
+    assertEquals(2, consumer_.getSequenceNo(prefix));
+
+    // The consumer sent a new sync Interest for the next update.
+    producer_.publishName(prefix, 5);
+    assertEquals(2, updates_.size());
+    assertEquals(3, updates_.get(1).lowSequenceNo_);
+    assertEquals(5, updates_.get(1).highSequenceNo_);
+  }
+
+  @Test
+  public void
+  testUnsubscribedPrefix()
+  {
+    consumer_.sendHelloInterest();
+    Name subscribed = new Name("/user1");
+    Name unsubscribed = new Name("/user2");
+    consumer_.addSubscription(subscribed, producer_.getSequenceNo(subscribed));
+    consumer_.sendSyncInterest();
+
+    producer_.publishName(unsubscribed);
+    assertEquals(0, updates_.size());
+
+    producer_.publishName(subscribed);
+    assertEquals(1, updates_.size());
+    assertEquals(subscribed, updates_.get(0).prefix_);
+    assertEquals(-1, consumer_.getSequenceNo(unsubscribed));
+  }
+
+  private final Name syncPrefix_ = new Name("/sync");
+  private LoopbackFace face_;
+  private PSyncPartialProducer producer_;
+  private PSyncConsumer consumer_;
+  private final ArrayList<Name> helloNames_ = new ArrayList<Name>();
+  private final ArrayList<PSyncMissingDataInfo> updates_ =
+    new ArrayList<PSyncMissingDataInfo>();
+}
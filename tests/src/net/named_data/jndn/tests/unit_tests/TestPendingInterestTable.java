@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.util.ArrayList;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.NetworkNack;
+import net.named_data.jndn.OnNetworkNack;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.impl.PendingInterestTable;
+import net.named_data.jndn.util.Blob;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class TestPendingInterestTable {
+  private static final OnNetworkNack dummyOnNetworkNack_ = new OnNetworkNack() {
+    public void onNetworkNack(Interest interest, NetworkNack networkNack) {}
+  };
+
+  private static Interest
+  makeInterest(String uri, boolean canBePrefix)
+  {
+    Interest interest = new Interest(new Name(uri));
+    interest.setCanBePrefix(canBePrefix);
+    interest.setNonce(new Blob(new byte[] { 1, 2, 3, 4 }));
+    return interest;
+  }
+
+  @Test
+  public void
+  testExtractForData()
+  {
+    PendingInterestTable table = new PendingInterestTable();
+    PendingInterestTable.Entry prefixEntry = table.add
+      (1, makeInterest("/a/b", true), null, null, null);
+    PendingInterestTable.Entry exactEntry = table.add
+      (2, makeInterest("/a/b/c", false), null, null, null);
+    PendingInterestTable.Entry otherEntry = table.add
+      (3, makeInterest("/a/x", true), null, null, null);
+    PendingInterestTable.Entry exactNoPrefixEntry = table.add
+      (4, makeInterest("/a", false), null, null, null);
+    assertEquals(4, table.size());
+
+    Data data = new Data(new Name("/a/b/c"));
+    ArrayList<PendingInterestTable.Entry> entries =
+      new ArrayList<PendingInterestTable.Entry>();
+    table.extractEntriesForExpressedInterest(data, entries);
+
+    assertEquals(2, entries.size());
+    assertTrue(entries.contains(prefixEntry));
+    assertTrue(entries.contains(exactEntry));
+    assertTrue(prefixEntry.getIsRemoved());
+    assertTrue(exactEntry.getIsRemoved());
+    assertFalse(otherEntry.getIsRemoved());
+    assertFalse(exactNoPrefixEntry.getIsRemoved());
+    assertEquals(2, table.size());
+
+    // The extracted entries should not match again.
+    entries.clear();
+    table.extractEntriesForExpressedInterest(data, entries);
+    assertEquals(0, entries.size());
+  }
+
+  @Test
+  public void
+  testExtractForDataWithImplicitDigest() throws EncodingException
+  {
+    Data data = new Data(new Name("/a/b"));
+    data.setContent(new Blob("content"));
+    Name fullName = data.getFullName();
+
+    PendingInterestTable table = new PendingInterestTable();
+    PendingInterestTable.Entry digestEntry = table.add
+      (1, makeInterest(fullName.toUri(), false), null, null, null);
+    Name otherDigestName = new Name("/a/b").appendImplicitSha256Digest
+      (new Blob(new byte[32]));
+    PendingInterestTable.Entry otherDigestEntry = table.add
+      (2, makeInterest(otherDigestName.toUri(), false), null, null, null);
+
+    ArrayList<PendingInterestTable.Entry> entries =
+      new ArrayList<PendingInterestTable.Entry>();
+    table.extractEntriesForExpressedInterest(data, entries);
+
+    assertEquals(1, entries.size());
+    assertSame(digestEntry, entries.get(0));
+    assertFalse(otherDigestEntry.getIsRemoved());
+  }
+
+  @Test
+  public void
+  testExtractForNack()
+  {
+    PendingInterestTable table = new PendingInterestTable();
+    Interest interest = makeInterest("/a/b", true);
+    PendingInterestTable.Entry nackEntry = table.add
+      (1, interest, null, null, dummyOnNetworkNack_);
+    PendingInterestTable.Entry noCallbackEntry = table.add
+      (2, makeInterest("/a/b", true), null, null, null);
+    Interest otherNonce = makeInterest("/a/b", true);
+    otherNonce.setNonce(new Blob(new byte[] { 5, 6, 7, 8 }));
+    PendingInterestTable.Entry otherNonceEntry = table.add
+      (3, otherNonce, null, null, dummyOnNetworkNack_);
+
+    ArrayList<PendingInterestTable.Entry> entries =
+      new ArrayList<PendingInterestTable.Entry>();
+    table.extractEntriesForNackInterest(makeInterest("/a/b", true), entries);
+
+    assertEquals(1, entries.size());
+    assertSame(nackEntry, entries.get(0));
+    assertFalse(noCallbackEntry.getIsRemoved());
+    assertFalse(otherNonceEntry.getIsRemoved());
+
+    entries.clear();
+    table.extractEntriesForNackInterest(makeInterest("/no/match", true), entries);
+    assertEquals(0, entries.size());
+  }
+
+  @Test
+  public void
+  testRemove()
+  {
+    PendingInterestTable table = new PendingInterestTable();
+    PendingInterestTable.Entry entry1 = table.add
+      (1, makeInterest("/a/b", true), null, null, null);
+    PendingInterestTable.Entry entry2 = table.add
+      (2, makeInterest("/a/b", true), null, null, null);
+
+    table.removePendingInterest(1);
+    assertTrue(entry1.getIsRemoved());
+    assertFalse(entry2.getIsRemoved());
+    assertEquals(1, table.size());
+
+    assertTrue(table.removeEntry(entry2));
+    assertFalse(table.removeEntry(entry2));
+    assertEquals(0, table.size());
+
+    // Removing before adding should prevent the add.
+    table.removePendingInterest(3);
+    assertNull(table.add(3, makeInterest("/a/b", true), null, null, null));
+    // The remove request is used only once.
+    assertTrue(table.add(3, makeInterest("/a/b", true), null, null, null) != null);
+  }
+}
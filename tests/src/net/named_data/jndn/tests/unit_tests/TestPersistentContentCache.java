@@ -0,0 +1,315 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.util.Blob;
+import net.named_data.jndn.util.Common;
+import net.named_data.jndn.util.PersistentContentCache;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPersistentContentCache {
+  private File directory_;
+
+  @Before
+  public void
+  setUp() throws IOException
+  {
+    directory_ = File.createTempFile("jndn-test", ".cache");
+    directory_.delete();
+  }
+
+  @After
+  public void
+  tearDown()
+  {
+    File[] files = directory_.listFiles();
+    if (files != null) {
+      for (int i = 0; i < files.length; ++i)
+        files[i].delete();
+    }
+    directory_.delete();
+  }
+
+  private static Data
+  makeData(Name name, int contentSize)
+  {
+    Data data = new Data(name);
+    data.setContent(new Blob(new byte[contentSize]));
+    return data;
+  }
+
+  private static Name
+  findName(PersistentContentCache cache, Interest interest)
+    throws EncodingException
+  {
+    ByteBuffer encoding = cache.find(interest);
+    if (encoding == null)
+      return null;
+
+    Data data = new Data();
+    data.wireDecode(encoding);
+    return data.getName();
+  }
+
+  @Test
+  public void
+  testFindAndRestore() throws IOException, EncodingException
+  {
+    // Use a small segment size so that the packets span several segments.
+    int segmentSize = Common.MAX_NDN_PACKET_SIZE;
+    PersistentContentCache cache = new PersistentContentCache
+      (null, directory_.getPath(), segmentSize);
+    Name prefix = new Name("/test/content");
+    for (int i = 0; i < 10; ++i)
+      cache.add(makeData(new Name(prefix).appendSegment(i), 3000));
+    assertEquals(10, cache.size());
+    assertTrue(new File(directory_, "segment-000002.dat").exists());
+
+    assertEquals(new Name(prefix).appendSegment(4),
+      findName(cache, new Interest(new Name(prefix).appendSegment(4))));
+    assertEquals(new Name(prefix).appendSegment(0),
+      findName(cache, new Interest(prefix)));
+    Interest interest = new Interest(prefix);
+    interest.setChildSelector(1);
+    assertEquals(new Name(prefix).appendSegment(9), findName(cache, interest));
+    assertNull(findName(cache, new Interest(new Name("/test/other"))));
+    cache.close();
+
+    // Simulate a crash while writing an index record.
+    RandomAccessFile indexFile =
+      new RandomAccessFile(new File(directory_, "index.dat"), "rw");
+    indexFile.setLength(indexFile.length() - 3);
+    indexFile.close();
+
+    cache = new PersistentContentCache(null, directory_.getPath(), segmentSize);
+    assertEquals(9, cache.size());
+    assertEquals(new Name(prefix).appendSegment(8), findName(cache, interest));
+
+    // Adding after the restore continues in the last segment.
+    cache.add(makeData(new Name(prefix).appendSegment(9), 3000));
+    assertEquals(new Name(prefix).appendSegment(9), findName(cache, interest));
+    assertEquals(new Name(prefix).appendSegment(5),
+      findName(cache, new Interest(new Name(prefix).appendSegment(5))));
+    cache.close();
+  }
+
+  @Test
+  public void
+  testMustBeFresh() throws IOException, EncodingException
+  {
+    PersistentContentCache cache = new PersistentContentCache
+      (null, directory_.getPath());
+    Data staleData = makeData(new Name("/a/1"), 10);
+    staleData.getMetaInfo().setFreshnessPeriod(0);
+    cache.add(staleData);
+    cache.add(makeData(new Name("/a/2"), 10));
+
+    Interest interest = new Interest(new Name("/a"));
+    assertEquals(new Name("/a/1"), findName(cache, interest));
+    interest.setMustBeFresh(true);
+    assertEquals(new Name("/a/2"), findName(cache, interest));
+    cache.close();
+  }
+
+  @Test
+  public void
+  testExactMatch() throws IOException, EncodingException
+  {
+    PersistentContentCache cache = new PersistentContentCache
+      (null, directory_.getPath());
+    Data staleData = makeData(new Name("/a/stale"), 10);
+    staleData.getMetaInfo().setFreshnessPeriod(0);
+    cache.add(staleData);
+    cache.add(makeData(new Name("/a"), 10));
+    cache.add(makeData(new Name("/a/b"), 10));
+
+    Interest interest = new Interest(new Name("/a"));
+    interest.setCanBePrefix(false);
+    assertEquals(new Name("/a"), findName(cache, interest));
+    interest = new Interest(new Name("/a/c"));
+    interest.setCanBePrefix(false);
+    assertNull(findName(cache, interest));
+
+    interest = new Interest(new Name("/a/stale"));
+    interest.setCanBePrefix(false);
+    assertEquals(new Name("/a/stale"), findName(cache, interest));
+    interest.setMustBeFresh(true);
+    assertNull(findName(cache, interest));
+    cache.close();
+  }
+
+  @Test
+  public void
+  testRestoreIncompletePacket() throws IOException, EncodingException
+  {
+    PersistentContentCache cache = new PersistentContentCache
+      (null, directory_.getPath());
+    Name prefix = new Name("/test/content");
+    int offset = 0;
+    for (int i = 0; i < 3; ++i) {
+      Data data = makeData(new Name(prefix).appendSegment(i), 100);
+      if (i < 2)
+        offset += data.wireEncode().size();
+      cache.add(data);
+    }
+    cache.close();
+
+    // Simulate a crash where the index record was written but not the last
+    // Data packet.
+    RandomAccessFile segmentFile =
+      new RandomAccessFile(new File(directory_, "segment-000000.dat"), "rw");
+    segmentFile.seek(offset);
+    segmentFile.write(new byte[200]);
+    segmentFile.close();
+
+    cache = new PersistentContentCache(null, directory_.getPath());
+    assertEquals(2, cache.size());
+    Interest interest = new Interest(prefix);
+    interest.setChildSelector(1);
+    assertEquals(new Name(prefix).appendSegment(1), findName(cache, interest));
+
+    // Adding after the restore overwrites the incomplete packet.
+    cache.add(makeData(new Name(prefix).appendSegment(2), 100));
+    assertEquals(new Name(prefix).appendSegment(2), findName(cache, interest));
+    cache.close();
+
+    cache = new PersistentContentCache(null, directory_.getPath());
+    assertEquals(3, cache.size());
+    assertEquals(new Name(prefix).appendSegment(2), findName(cache, interest));
+    cache.close();
+  }
+
+  @Test
+  public void
+  testSortedIndexAndRestore() throws IOException, EncodingException
+  {
+    PersistentContentCache cache = new PersistentContentCache
+      (null, directory_.getPath());
+    // Add enough packets to merge into the sorted index file, with some left
+    // in the recent index.
+    int nPackets = PersistentContentCache.MAX_RECENT_INDEX_SIZE + 100;
+    for (int i = 0; i < nPackets; ++i)
+      cache.add(makeData(new Name("/a").appendSegment(i), 10));
+    assertTrue(new File(directory_, "sorted-index.dat").exists());
+    assertEquals(nPackets, cache.size());
+
+    // Replace a packet in the sorted index and remove one from each index.
+    Data newData = makeData(new Name("/a").appendSegment(5), 20);
+    cache.add(newData);
+    assertTrue(cache.remove(new Name("/a").appendSegment(6)));
+    assertTrue(cache.remove(new Name("/a").appendSegment(nPackets - 1)));
+    assertFalse(cache.remove(new Name("/a").appendSegment(nPackets - 1)));
+    assertEquals(nPackets - 2, cache.size());
+
+    for (int iRestore = 0; iRestore < 2; ++iRestore) {
+      assertEquals(newData.wireEncode().buf(), cache.find
+        (new Interest(new Name("/a").appendSegment(5))));
+      assertNull(findName
+        (cache, new Interest(new Name("/a").appendSegment(6))));
+      assertEquals(new Name("/a").appendSegment(7),
+        findName(cache, new Interest(new Name("/a").appendSegment(7))));
+      Interest interest = new Interest(new Name("/a").appendSegment(6));
+      interest.setCanBePrefix(false);
+      assertNull(findName(cache, interest));
+      interest = new Interest(new Name("/a").appendSegment(nPackets - 10));
+      interest.setCanBePrefix(false);
+      assertEquals(interest.getName(), findName(cache, interest));
+
+      assertEquals(new Name("/a").appendSegment(0),
+        findName(cache, new Interest(new Name("/a"))));
+      interest = new Interest(new Name("/a"));
+      interest.setChildSelector(1);
+      assertEquals(new Name("/a").appendSegment(nPackets - 2),
+        findName(cache, interest));
+      assertNull(findName(cache, new Interest(new Name("/b"))));
+
+      // Restore from the sorted index file and the index file.
+      cache.close();
+      cache = new PersistentContentCache(null, directory_.getPath());
+      assertEquals(nPackets - 2, cache.size());
+    }
+    cache.close();
+  }
+
+  @Test
+  public void
+  testEviction() throws IOException, EncodingException
+  {
+    // Each segment has two packets, and there are at most three segments.
+    int segmentSize = Common.MAX_NDN_PACKET_SIZE;
+    PersistentContentCache cache = new PersistentContentCache
+      (null, directory_.getPath(), segmentSize, 3L * segmentSize);
+    Name prefix = new Name("/test/content");
+    for (int i = 0; i < 10; ++i)
+      cache.add(makeData(new Name(prefix).appendSegment(i), 3000));
+
+    // The first two segments were evicted.
+    assertEquals(6, cache.size());
+    assertFalse(new File(directory_, "segment-000001.dat").exists());
+    assertTrue(new File(directory_, "segment-000002.dat").exists());
+    assertNull(findName
+      (cache, new Interest(new Name(prefix).appendSegment(3))));
+    assertEquals(new Name(prefix).appendSegment(4),
+      findName(cache, new Interest(prefix)));
+
+    // Adding packet 4 again evicts the segment with the old packets 4 and 5.
+    cache.add(makeData(new Name(prefix).appendSegment(4), 3000));
+    cache.add(makeData(new Name(prefix).appendSegment(10), 3000));
+    assertEquals(6, cache.size());
+    assertEquals(new Name(prefix).appendSegment(4),
+      findName(cache, new Interest(new Name(prefix).appendSegment(4))));
+    assertNull(findName
+      (cache, new Interest(new Name(prefix).appendSegment(5))));
+    assertEquals(new Name(prefix).appendSegment(6),
+      findName(cache, new Interest(new Name(prefix).appendSegment(6))));
+    cache.close();
+
+    cache = new PersistentContentCache
+      (null, directory_.getPath(), segmentSize, 3L * segmentSize);
+    assertEquals(6, cache.size());
+    assertNull(findName
+      (cache, new Interest(new Name(prefix).appendSegment(5))));
+    cache.close();
+
+    // Restoring with a smaller maximum size evicts more segments.
+    cache = new PersistentContentCache
+      (null, directory_.getPath(), segmentSize, 2L * segmentSize);
+    assertEquals(4, cache.size());
+    assertNull(findName
+      (cache, new Interest(new Name(prefix).appendSegment(7))));
+    assertEquals(new Name(prefix).appendSegment(8),
+      findName(cache, new Interest(new Name(prefix).appendSegment(8))));
+    cache.close();
+  }
+}
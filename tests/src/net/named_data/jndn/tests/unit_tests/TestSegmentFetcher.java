@@ -1,12 +1,16 @@
 package net.named_data.jndn.tests.unit_tests;
 
 
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import net.named_data.jndn.*;
 import net.named_data.jndn.security.v2.ValidationPolicyAcceptAll;
 import net.named_data.jndn.security.v2.Validator;
 import net.named_data.jndn.util.Blob;
+import net.named_data.jndn.util.SegmentFetchManager;
 import net.named_data.jndn.util.SegmentFetcher;
 import src.net.named_data.jndn.tests.integration_tests.ValidatorFixture;
 import static org.junit.Assert.*;
@@ -102,4 +106,309 @@ public class TestSegmentFetcher {
 
         SegmentFetcher.fetch(face_, baseInterest, new Validator(new ValidationPolicyAcceptAll()), onComplete, onError);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void fetchStream() {
+        final int maxReorderBufferSize = 3;
+        final ArrayList<Interest> pendingInterests = new ArrayList<>();
+        final ArrayList<OnData> pendingOnData = new ArrayList<>();
+        final ArrayList<Long> delivered = new ArrayList<>();
+        final long[] lastProgress = new long[] { -1, -1, -1 };
+        final long[] completedBytes = new long[] { -1 };
+        final boolean[] exceededReorderBuffer = new boolean[] { false };
+
+        // Save the Interests to answer them out of order.
+        ValidatorFixture.TestFace face = new ValidatorFixture.TestFace();
+        face.processInterest_ = new ValidatorFixture.TestFace.ProcessInterest() {
+            public void processInterest
+                    (Interest interest, OnData onData, OnTimeout onTimeout,
+                     OnNetworkNack onNetworkNack) {
+                Name.Component last = interest.getName().get(-1);
+                try {
+                    if (!interest.getCanBePrefix() &&
+                            last.toSegment() >= delivered.size() + maxReorderBufferSize)
+                        exceededReorderBuffer[0] = true;
+                } catch (Exception ex) {
+                    fail("Unexpected exception " + ex);
+                }
+                pendingInterests.add(interest);
+                pendingOnData.add(onData);
+            }
+        };
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        SegmentFetcher.Options options = new SegmentFetcher.Options();
+        options.maxReorderBufferSize = maxReorderBufferSize;
+        options.initCwnd = 10;
+        SegmentFetcher.fetchStream
+                (face, new Interest(name_), options, SegmentFetcher.DontVerifySegment,
+                 new SegmentFetcher.OnSegmentContent() {
+                     public void onSegmentContent(long segmentNumber, Blob content) {
+                         delivered.add(segmentNumber);
+                         output.write(content.getImmutableArray(), 0, content.size());
+                     }
+                 },
+                 new SegmentFetcher.OnProgress() {
+                     public void onProgress(long nBytesDelivered, long nSegmentsDelivered, long nSegments) {
+                         lastProgress[0] = nBytesDelivered;
+                         lastProgress[1] = nSegmentsDelivered;
+                         lastProgress[2] = nSegments;
+                     }
+                 },
+                 new SegmentFetcher.OnStreamComplete() {
+                     public void onStreamComplete(long nBytes) {
+                         completedBytes[0] = nBytes;
+                     }
+                 },
+                 new SegmentFetcher.OnError() {
+                     public void onError(SegmentFetcher.ErrorCode errorCode, String message) {
+                         fail("onError: " + message);
+                     }
+                 });
+
+        ArrayList<Data> data = cacheMap_.get("key");
+        while (pendingInterests.size() > 0) {
+            // Answer the newest Interest first.
+            Interest interest = pendingInterests.remove(pendingInterests.size() - 1);
+            OnData onData = pendingOnData.remove(pendingOnData.size() - 1);
+            for (Data d : data) {
+                if (interest.matchesName(d.getName())) {
+                    onData.onData(interest, d);
+                    break;
+                }
+            }
+        }
+
+        assertFalse(exceededReorderBuffer[0]);
+        assertEquals(nSegments_, delivered.size());
+        for (int i = 0; i < nSegments_; ++i)
+            assertEquals(i, (long)delivered.get(i));
+        assertEquals(200 * nSegments_, output.size());
+        assertEquals(200 * nSegments_, completedBytes[0]);
+        assertEquals(200 * nSegments_, lastProgress[0]);
+        assertEquals(nSegments_, lastProgress[1]);
+        assertEquals(nSegments_, lastProgress[2]);
+    }
+
+    @Test
+    public void fetchStreamToChannel() {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final long[] completedBytes = new long[] { -1 };
+
+        // Answer each Interest immediately.
+        ValidatorFixture.TestFace face = new ValidatorFixture.TestFace();
+        face.processInterest_ = new ValidatorFixture.TestFace.ProcessInterest() {
+            public void processInterest
+                    (Interest interest, OnData onData, OnTimeout onTimeout,
+                     OnNetworkNack onNetworkNack) {
+                for (Data d : cacheMap_.get("key")) {
+                    if (interest.matchesName(d.getName())) {
+                        onData.onData(interest, d);
+                        break;
+                    }
+                }
+            }
+        };
+
+        SegmentFetcher.fetchStream
+                (face, new Interest(name_), new SegmentFetcher.Options(),
+                 SegmentFetcher.DontVerifySegment, Channels.newChannel(output), null,
+                 new SegmentFetcher.OnStreamComplete() {
+                     public void onStreamComplete(long nBytes) {
+                         completedBytes[0] = nBytes;
+                     }
+                 },
+                 new SegmentFetcher.OnError() {
+                     public void onError(SegmentFetcher.ErrorCode errorCode, String message) {
+                         fail("onError: " + message);
+                     }
+                 });
+
+        assertEquals(200 * nSegments_, completedBytes[0]);
+        assertEquals(200 * nSegments_, output.size());
+    }
+
+    @Test
+    public void fetchManySharingWindow() {
+        final int nObjects = 3;
+        final int maxInterestsInFlight = 4;
+        final ArrayList<Interest> pendingInterests = new ArrayList<>();
+        final ArrayList<OnData> pendingOnData = new ArrayList<>();
+        final int[] maxPending = new int[] { 0 };
+        final ArrayList<String> sentObjects = new ArrayList<>();
+
+        // Save the Interests to check how many are in flight.
+        ValidatorFixture.TestFace face = new ValidatorFixture.TestFace();
+        face.processInterest_ = new ValidatorFixture.TestFace.ProcessInterest() {
+            public void processInterest
+                    (Interest interest, OnData onData, OnTimeout onTimeout,
+                     OnNetworkNack onNetworkNack) {
+                pendingInterests.add(interest);
+                pendingOnData.add(onData);
+                maxPending[0] = Math.max(maxPending[0], pendingInterests.size());
+                sentObjects.add(interest.getName().get(1).toEscapedString());
+            }
+        };
+
+        Name producerPrefix = new Name("/producer");
+        ArrayList<Data> data = new ArrayList<>();
+        MetaInfo metaInfo = new MetaInfo();
+        metaInfo.setFinalBlockId(Name.Component.fromSegment(nSegments_ - 1));
+        for (int i = 0; i < nObjects; ++i) {
+            Name objectName = new Name(producerPrefix).append("object" + i).appendVersion(0);
+            for (int j = 0; j < nSegments_; ++j) {
+                Data d = new Data(new Name(objectName).appendSegment(j));
+                d.setMetaInfo(metaInfo);
+                d.setContent(new Blob(new byte[100 + i]));
+                data.add(d);
+            }
+        }
+
+        final long[] completedBytes = new long[nObjects];
+        SegmentFetchManager manager = new SegmentFetchManager(face, maxInterestsInFlight);
+        SegmentFetcher.Options options = new SegmentFetcher.Options();
+        options.initCwnd = 10;
+        for (int i = 0; i < nObjects; ++i) {
+            final int index = i;
+            manager.fetch
+                    (producerPrefix, new Interest(new Name(producerPrefix).append("object" + i)),
+                     options, SegmentFetcher.DontVerifySegment,
+                     new SegmentFetcher.OnComplete() {
+                         public void onComplete(Blob content) {
+                             completedBytes[index] = content.size();
+                         }
+                     },
+                     new SegmentFetcher.OnError() {
+                         public void onError(SegmentFetcher.ErrorCode errorCode, String message) {
+                             fail("onError: " + message);
+                         }
+                     });
+        }
+
+        while (pendingInterests.size() > 0) {
+            // Answer the oldest Interest first.
+            Interest interest = pendingInterests.remove(0);
+            OnData onData = pendingOnData.remove(0);
+            for (Data d : data) {
+                if (interest.matchesName(d.getName())) {
+                    onData.onData(interest, d);
+                    break;
+                }
+            }
+        }
+
+        assertTrue(maxPending[0] <= maxInterestsInFlight);
+        for (int i = 0; i < nObjects; ++i)
+            assertEquals((100 + i) * nSegments_, completedBytes[i]);
+        // The objects share the window round-robin.
+        assertRoundRobin(sentObjects, nObjects, nSegments_);
+
+        SegmentFetchManager.Statistics statistics = manager.getStatistics();
+        assertEquals(nObjects, statistics.getNFetchesCompleted());
+        assertEquals(0, statistics.getNFetchesFailed());
+        assertEquals(0, statistics.getNFetchesActive());
+        assertEquals(0, statistics.getNInterestsInFlight());
+        assertEquals(nObjects * nSegments_, statistics.getNSegmentsReceived());
+        assertEquals(0, statistics.getNRetransmissions());
+        // The group is removed when its last fetch completes.
+        assertNull(manager.getCongestionControl(producerPrefix));
+    }
+
+    @Test
+    public void fetchManyProducersRoundRobin() {
+        final int nProducers = 3;
+        final int maxInterestsInFlight = 2;
+        final ArrayList<Interest> pendingInterests = new ArrayList<>();
+        final ArrayList<OnData> pendingOnData = new ArrayList<>();
+        final ArrayList<String> sentProducers = new ArrayList<>();
+
+        ValidatorFixture.TestFace face = new ValidatorFixture.TestFace();
+        face.processInterest_ = new ValidatorFixture.TestFace.ProcessInterest() {
+            public void processInterest
+                    (Interest interest, OnData onData, OnTimeout onTimeout,
+                     OnNetworkNack onNetworkNack) {
+                pendingInterests.add(interest);
+                pendingOnData.add(onData);
+                sentProducers.add(interest.getName().get(0).toEscapedString());
+            }
+        };
+
+        ArrayList<Data> data = new ArrayList<>();
+        MetaInfo metaInfo = new MetaInfo();
+        metaInfo.setFinalBlockId(Name.Component.fromSegment(nSegments_ - 1));
+        for (int i = 0; i < nProducers; ++i) {
+            Name objectName = new Name("/producer" + i).append("object").appendVersion(0);
+            for (int j = 0; j < nSegments_; ++j) {
+                Data d = new Data(new Name(objectName).appendSegment(j));
+                d.setMetaInfo(metaInfo);
+                d.setContent(new Blob(new byte[100]));
+                data.add(d);
+            }
+        }
+
+        final int[] nCompleted = new int[] { 0 };
+        SegmentFetchManager manager = new SegmentFetchManager(face, maxInterestsInFlight);
+        SegmentFetcher.Options options = new SegmentFetcher.Options();
+        options.initCwnd = 10;
+        for (int i = 0; i < nProducers; ++i) {
+            Name producerPrefix = new Name("/producer" + i);
+            manager.fetch
+                    (producerPrefix, new Interest(new Name(producerPrefix).append("object")),
+                     options, SegmentFetcher.DontVerifySegment,
+                     new SegmentFetcher.OnComplete() {
+                         public void onComplete(Blob content) {
+                             ++nCompleted[0];
+                         }
+                     },
+                     new SegmentFetcher.OnError() {
+                         public void onError(SegmentFetcher.ErrorCode errorCode, String message) {
+                             fail("onError: " + message);
+                         }
+                     });
+        }
+
+        while (pendingInterests.size() > 0) {
+            Interest interest = pendingInterests.remove(0);
+            OnData onData = pendingOnData.remove(0);
+            for (Data d : data) {
+                if (interest.matchesName(d.getName())) {
+                    onData.onData(interest, d);
+                    break;
+                }
+            }
+        }
+
+        assertEquals(nProducers, nCompleted[0]);
+        // The producers share the global limit round-robin.
+        assertRoundRobin(sentProducers, nProducers, nSegments_);
+        for (int i = 0; i < nProducers; ++i)
+            assertNull(manager.getCongestionControl(new Name("/producer" + i)));
+    }
+
+    /**
+     * Check that, at each point in the sequence of sent Interests, the number
+     * sent for each key differs by at most two from the others, until a key
+     * has sent all of its nPerKey Interests. (The reply to the first Interest
+     * can let a fetcher send its next Interest before the others have a turn.)
+     */
+    private static void assertRoundRobin
+            (ArrayList<String> sentKeys, int nKeys, int nPerKey) {
+        HashMap<String, Integer> counts = new HashMap<>();
+        for (String key : sentKeys) {
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+
+            // A key which hasn't sent yet has a count of zero.
+            int min = counts.size() < nKeys ? 0 : Integer.MAX_VALUE;
+            int max = 0;
+            for (int value : counts.values()) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max >= nPerKey) {
+                break;
+            }
+            assertTrue("Not round-robin: " + sentKeys, max - min <= 2);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Face;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.OnData;
+import net.named_data.jndn.OnTimeout;
+import net.named_data.jndn.SelectorEventLoop;
+import net.named_data.jndn.encoding.ElementListener;
+import net.named_data.jndn.encoding.ElementReader;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.transport.TcpTransport;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSelectorEventLoop {
+  private ServerSocketChannel server_;
+  private Thread serverThread_;
+  private final ArrayList<SocketChannel> accepted_ =
+    new ArrayList<SocketChannel>();
+  private SelectorEventLoop loop_;
+
+  /**
+   * Start a thread which accepts connections and, for each Interest received
+   * on a connection, replies with a Data packet of the same name unless the
+   * name starts with /no-reply.
+   */
+  @Before
+  public void
+  setUp() throws IOException
+  {
+    server_ = ServerSocketChannel.open();
+    server_.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+    loop_ = new SelectorEventLoop();
+
+    serverThread_ = new Thread(new Runnable() {
+      public void run() {
+        try {
+          while (true) {
+            final SocketChannel channel = server_.accept();
+            synchronized (accepted_) {
+              accepted_.add(channel);
+            }
+            Thread reader = new Thread(new Runnable() {
+              public void run() { echoData(channel); }
+            });
+            reader.setDaemon(true);
+            reader.start();
+          }
+        } catch (IOException ex) {
+          // The server is closed.
+        }
+      }
+    });
+    serverThread_.setDaemon(true);
+    serverThread_.start();
+  }
+
+  @After
+  public void
+  tearDown() throws IOException
+  {
+    loop_.close();
+    server_.close();
+    synchronized (accepted_) {
+      for (int i = 0; i < accepted_.size(); ++i)
+        accepted_.get(i).close();
+    }
+  }
+
+  private static void
+  echoData(final SocketChannel channel)
+  {
+    ElementReader reader = new ElementReader(new ElementListener() {
+      public void onReceivedElement(ByteBuffer element)
+        throws EncodingException {
+        Interest interest = new Interest();
+        interest.wireDecode(element);
+        if (new Name("/no-reply").match(interest.getName()))
+          return;
+
+        ByteBuffer encoding = new Data(interest.getName()).wireEncode().buf();
+        try {
+          while (encoding.hasRemaining())
+            channel.write(encoding);
+        } catch (IOException ex) {
+          // The connection is closed.
+        }
+      }
+    });
+
+    ByteBuffer buffer = ByteBuffer.allocate(8800);
+    try {
+      while (channel.read(buffer) >= 0) {
+        buffer.flip();
+        reader.onReceivedData(buffer);
+        buffer.clear();
+      }
+    } catch (Exception ex) {
+      // The connection is closed.
+    }
+  }
+
+  private Face
+  makeFace()
+  {
+    return new Face(new TcpTransport(), new TcpTransport.ConnectionInfo
+      ("127.0.0.1", server_.socket().getLocalPort()));
+  }
+
+  @Test
+  public void
+  testManyFaces() throws IOException
+  {
+    final int nFaces = 50;
+    final int[] nData = new int[] { 0 };
+    ArrayList<Face> faces = new ArrayList<Face>();
+    for (int i = 0; i < nFaces; ++i) {
+      Face face = makeFace();
+      faces.add(face);
+      loop_.addFace(face);
+      face.expressInterest(new Name("/test").appendSegment(i), new OnData() {
+        public void onData(Interest interest, Data data) { ++nData[0]; }
+      });
+    }
+    assertEquals(nFaces, loop_.size());
+
+    long endTime = System.currentTimeMillis() + 10000;
+    int nIterations = 0;
+    while (nData[0] < nFaces && System.currentTimeMillis() < endTime) {
+      loop_.processEvents(1000);
+      ++nIterations;
+    }
+
+    assertEquals(nFaces, nData[0]);
+    // Each iteration waits on the selector instead of polling.
+    assertTrue("Too many iterations: " + nIterations,
+               nIterations <= nFaces + 5);
+
+    for (int i = 0; i < nFaces; ++i) {
+      assertTrue(loop_.removeFace(faces.get(i)));
+      faces.get(i).shutdown();
+    }
+    assertEquals(0, loop_.size());
+  }
+
+  @Test
+  public void
+  testTimeoutDeadline() throws IOException
+  {
+    Face face = makeFace();
+    loop_.addFace(face);
+
+    final boolean[] isTimedOut = new boolean[] { false };
+    Interest interest = new Interest(new Name("/no-reply/a"));
+    interest.setInterestLifetimeMilliseconds(200);
+    face.expressInterest(interest, new OnData() {
+      public void onData(Interest interest, Data data) {}
+    }, new OnTimeout() {
+      public void onTimeout(Interest interest) { isTimedOut[0] = true; }
+    });
+
+    // Wait without a maximum, so only the interest timeout deadline wakes up
+    // the loop.
+    long startTime = System.currentTimeMillis();
+    int nIterations = 0;
+    while (!isTimedOut[0] && nIterations < 10) {
+      loop_.processEvents(-1);
+      ++nIterations;
+    }
+    long elapsed = System.currentTimeMillis() - startTime;
+
+    assertTrue(isTimedOut[0]);
+    assertTrue("Timed out too early: " + elapsed, elapsed >= 150);
+    assertTrue("Too many iterations: " + nIterations, nIterations <= 3);
+    face.shutdown();
+  }
+
+  @Test
+  public void
+  testWakeupFromOtherThread() throws Exception
+  {
+    final Face face = makeFace();
+    loop_.addFace(face);
+    final int[] nData = new int[] { 0 };
+
+    // The loop has no deadline, so it waits until the other thread expresses
+    // an interest which connects the face and sends the interest.
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        try {
+          Thread.sleep(100);
+          face.expressInterest(new Name("/test/wakeup"), new OnData() {
+            public void onData(Interest interest, Data data) { ++nData[0]; }
+          });
+        } catch (Exception ex) {}
+      }
+    });
+    thread.start();
+
+    long endTime = System.currentTimeMillis() + 10000;
+    while (nData[0] == 0 && System.currentTimeMillis() < endTime)
+      loop_.processEvents(-1);
+    thread.join();
+
+    assertEquals(1, nData[0]);
+    face.shutdown();
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.encoding.ElementListener;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.encoding.tlv.Tlv;
+import net.named_data.jndn.encoding.tlv.TlvEncoder;
+import net.named_data.jndn.impl.ShardedElementDispatcher;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class TestShardedElementDispatcher {
+  private static ByteBuffer
+  encodeLpPacket(ByteBuffer fragment)
+  {
+    TlvEncoder encoder = new TlvEncoder(256);
+    int saveLength = encoder.getLength();
+    encoder.writeBlobTlv(Tlv.LpPacket_Fragment, fragment);
+    encoder.writeNonNegativeIntegerTlv(Tlv.LpPacket_IncomingFaceId, 10);
+    encoder.writeTypeAndLength
+      (Tlv.LpPacket_LpPacket, encoder.getLength() - saveLength);
+    return encoder.getOutput();
+  }
+
+  @Test
+  public void
+  testPrefixHash()
+  {
+    ByteBuffer interest =
+      new Interest(new Name("/a/b/c")).wireEncode().buf();
+    ByteBuffer data = new Data(new Name("/a/b/d/e")).wireEncode().buf();
+    ByteBuffer otherData = new Data(new Name("/a/x/c")).wireEncode().buf();
+
+    assertEquals
+      (ShardedElementDispatcher.getPrefixHash(interest, 2),
+       ShardedElementDispatcher.getPrefixHash(data, 2));
+    assertFalse
+      (ShardedElementDispatcher.getPrefixHash(interest, 3) ==
+       ShardedElementDispatcher.getPrefixHash(data, 3));
+    assertFalse
+      (ShardedElementDispatcher.getPrefixHash(data, 2) ==
+       ShardedElementDispatcher.getPrefixHash(otherData, 2));
+
+    // The hash of an LpPacket is the hash of its fragment.
+    assertEquals
+      (ShardedElementDispatcher.getPrefixHash(data, 2),
+       ShardedElementDispatcher.getPrefixHash(encodeLpPacket(data), 2));
+
+    // A truncated element doesn't throw an exception.
+    ByteBuffer truncated = data.duplicate();
+    truncated.limit(5);
+    ShardedElementDispatcher.getPrefixHash(truncated.slice(), 2);
+  }
+
+  @Test
+  public void
+  testOrderPerPrefix() throws InterruptedException
+  {
+    final int nPrefixes = 8;
+    final int nPerPrefix = 200;
+    final CountDownLatch done = new CountDownLatch(nPrefixes * nPerPrefix);
+    final HashMap<Name, ArrayList<Long>> received =
+      new HashMap<Name, ArrayList<Long>>();
+    final HashMap<Name, Thread> threads = new HashMap<Name, Thread>();
+    final boolean[] sameThread = new boolean[] { true };
+
+    ShardedElementDispatcher dispatcher = new ShardedElementDispatcher
+      (new ElementListener() {
+        public void onReceivedElement(ByteBuffer element)
+          throws EncodingException {
+          Data data = new Data();
+          data.wireDecode(element);
+          Name prefix = data.getName().getPrefix(1);
+          synchronized (received) {
+            if (!received.containsKey(prefix)) {
+              received.put(prefix, new ArrayList<Long>());
+              threads.put(prefix, Thread.currentThread());
+            }
+            else if (threads.get(prefix) != Thread.currentThread())
+              sameThread[0] = false;
+
+            try {
+              received.get(prefix).add(data.getName().get(1).toSegment());
+            } catch (EncodingException ex) {}
+          }
+          done.countDown();
+        }
+      }, 4, 1, 16);
+
+    for (int i = 0; i < nPerPrefix; ++i) {
+      for (int j = 0; j < nPrefixes; ++j)
+        dispatcher.dispatch(new Data
+          (new Name("/prefix" + j).appendSegment(i)).wireEncode().buf());
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    dispatcher.shutdown();
+
+    assertTrue("Packets with the same prefix used different threads",
+               sameThread[0]);
+    assertEquals(nPrefixes, received.size());
+    for (ArrayList<Long> segments : received.values()) {
+      assertEquals(nPerPrefix, segments.size());
+      for (int i = 0; i < nPerPrefix; ++i)
+        assertEquals(i, (long)segments.get(i));
+    }
+  }
+
+  @Test
+  public void
+  testShutdown() throws InterruptedException
+  {
+    final int[] nReceived = new int[] { 0 };
+    final CountDownLatch first = new CountDownLatch(1);
+    ShardedElementDispatcher dispatcher = new ShardedElementDispatcher
+      (new ElementListener() {
+        public void onReceivedElement(ByteBuffer element) {
+          synchronized (nReceived) {
+            ++nReceived[0];
+          }
+          first.countDown();
+        }
+      }, 2, 1, 10);
+
+    ByteBuffer data = new Data(new Name("/a/b")).wireEncode().buf();
+    dispatcher.dispatch(data);
+    assertTrue(first.await(10, TimeUnit.SECONDS));
+
+    dispatcher.shutdown();
+    // Elements dispatched after shutdown are not processed.
+    for (int i = 0; i < 5; ++i)
+      dispatcher.dispatch(data);
+    Thread.sleep(100);
+    synchronized (nReceived) {
+      assertEquals(1, nReceived[0]);
+    }
+  }
+}
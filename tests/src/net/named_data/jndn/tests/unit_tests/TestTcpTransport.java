@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import net.named_data.jndn.encoding.ElementListener;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.transport.TcpTransport;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTcpTransport {
+  private static final ElementListener dummyElementListener_ =
+    new ElementListener() {
+      public void onReceivedElement(ByteBuffer element) {}
+    };
+
+  private ServerSocketChannel server_;
+  private SocketChannel accepted_;
+  private TcpTransport transport_;
+
+  @Before
+  public void
+  setUp() throws IOException
+  {
+    server_ = ServerSocketChannel.open();
+    server_.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+  }
+
+  @After
+  public void
+  tearDown() throws IOException
+  {
+    if (transport_ != null)
+      transport_.close();
+    if (accepted_ != null)
+      accepted_.close();
+    server_.close();
+  }
+
+  private void
+  connect(int sendFlushMaxBytes, double sendFlushMaxDelayMilliseconds)
+    throws IOException
+  {
+    TcpTransport.ConnectionInfo connectionInfo = new TcpTransport.ConnectionInfo
+      ("127.0.0.1", server_.socket().getLocalPort());
+    connectionInfo.setSendFlushPolicy
+      (sendFlushMaxBytes, sendFlushMaxDelayMilliseconds);
+
+    transport_ = new TcpTransport();
+    transport_.connect(connectionInfo, dummyElementListener_, null);
+    accepted_ = server_.accept();
+    accepted_.configureBlocking(false);
+  }
+
+  private static ByteBuffer
+  makePacket(int value, int length)
+  {
+    ByteBuffer packet = ByteBuffer.allocate(length);
+    for (int i = 0; i < length; ++i)
+      packet.put((byte)value);
+    packet.flip();
+    return packet;
+  }
+
+  /**
+   * Read from accepted_ until nBytes are received or the timeout.
+   */
+  private ByteBuffer
+  receive(int nBytes, long timeoutMilliseconds)
+    throws IOException, InterruptedException
+  {
+    ByteBuffer result = ByteBuffer.allocate(nBytes + 1);
+    long endTime = System.currentTimeMillis() + timeoutMilliseconds;
+    while (result.position() < nBytes && System.currentTimeMillis() < endTime) {
+      if (accepted_.read(result) <= 0)
+        Thread.sleep(5);
+    }
+    result.flip();
+    return result;
+  }
+
+  @Test
+  public void
+  testFlushOnMaxBytes()
+    throws IOException, EncodingException, InterruptedException
+  {
+    connect(100, 100000);
+
+    ByteBuffer packet = makePacket(1, 30);
+    for (int i = 0; i < 3; ++i) {
+      transport_.send(packet);
+      assertEquals("send changed the position", 0, packet.position());
+    }
+    // The 90 bytes are below the maximum, so nothing is written.
+    transport_.processEvents();
+    assertEquals(0, receive(1, 100).remaining());
+
+    transport_.send(makePacket(2, 30));
+    ByteBuffer received = receive(120, 5000);
+    assertEquals(120, received.remaining());
+    for (int i = 0; i < 90; ++i)
+      assertEquals(1, received.get(i));
+    for (int i = 90; i < 120; ++i)
+      assertEquals(2, received.get(i));
+  }
+
+  @Test
+  public void
+  testFlushOnProcessEvents()
+    throws IOException, EncodingException, InterruptedException
+  {
+    connect(1000, 0);
+
+    for (int i = 0; i < 10; ++i)
+      transport_.send(makePacket(i, 10));
+    assertEquals(0, receive(1, 100).remaining());
+
+    transport_.processEvents();
+    ByteBuffer received = receive(100, 5000);
+    assertEquals(100, received.remaining());
+    for (int i = 0; i < 100; ++i)
+      assertEquals(i / 10, received.get(i));
+  }
+
+  @Test
+  public void
+  testCloseFlushes() throws IOException, InterruptedException
+  {
+    connect(1000, 100000);
+
+    transport_.send(makePacket(7, 50));
+    transport_.close();
+    transport_ = null;
+
+    ByteBuffer received = receive(50, 5000);
+    assertEquals(50, received.remaining());
+  }
+
+  @Test
+  public void
+  testUnbatched() throws IOException, InterruptedException
+  {
+    connect(0, 0);
+    assertTrue(new TcpTransport.ConnectionInfo("localhost")
+      .getSendFlushMaxBytes() == 0);
+
+    transport_.send(makePacket(3, 20));
+    assertEquals(20, receive(20, 5000).remaining());
+  }
+}
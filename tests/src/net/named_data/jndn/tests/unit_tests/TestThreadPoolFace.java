@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.OnData;
+import net.named_data.jndn.OnTimeout;
+import net.named_data.jndn.ThreadPoolFace;
+import net.named_data.jndn.transport.TcpTransport;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestThreadPoolFace {
+  private ServerSocketChannel server_;
+  private SocketChannel accepted_;
+  private ScheduledThreadPoolExecutor threadPool_;
+  private ThreadPoolFace face_;
+
+  @Before
+  public void
+  setUp() throws IOException
+  {
+    server_ = ServerSocketChannel.open();
+    server_.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+
+    threadPool_ = new ScheduledThreadPoolExecutor(1);
+    // Remove a cancelled timeout from the queue so that the test can see it.
+    threadPool_.setRemoveOnCancelPolicy(true);
+    face_ = new ThreadPoolFace
+      (threadPool_, new TcpTransport(), new TcpTransport.ConnectionInfo
+       ("127.0.0.1", server_.socket().getLocalPort()));
+  }
+
+  @After
+  public void
+  tearDown() throws IOException, InterruptedException
+  {
+    // Let a task which is sending the interest finish before the shutdown.
+    threadPool_.shutdownNow();
+    threadPool_.awaitTermination(5, TimeUnit.SECONDS);
+    face_.shutdown();
+    if (accepted_ != null)
+      accepted_.close();
+    server_.close();
+  }
+
+  /**
+   * Wait until the number of interest timeouts scheduled in the thread pool is
+   * nTimeouts. This only counts tasks with a long delay, not the tasks which
+   * ThreadPoolFace submits to run right away.
+   * @param nTimeouts The expected number of scheduled timeouts.
+   * @return True if there are nTimeouts, false if it timed out.
+   */
+  private boolean
+  waitForTimeouts(int nTimeouts) throws InterruptedException
+  {
+    long endTime = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < endTime) {
+      int count = 0;
+      for (Runnable task : threadPool_.getQueue()) {
+        if (((Delayed)task).getDelay(TimeUnit.MILLISECONDS) > 1000)
+          ++count;
+      }
+      if (count == nTimeouts)
+        return true;
+      Thread.sleep(10);
+    }
+    return false;
+  }
+
+  private long
+  expressInterest(final boolean[] isCalled) throws IOException
+  {
+    Interest interest = new Interest(new Name("/test/a"));
+    interest.setInterestLifetimeMilliseconds(60000);
+    return face_.expressInterest(interest, new OnData() {
+      public void onData(Interest interest, Data data) { isCalled[0] = true; }
+    }, new OnTimeout() {
+      public void onTimeout(Interest interest) { isCalled[1] = true; }
+    });
+  }
+
+  @Test
+  public void
+  testRemovePendingInterestCancelsTimeout() throws Exception
+  {
+    boolean[] isCalled = new boolean[] { false, false };
+    long pendingInterestId = expressInterest(isCalled);
+    assertTrue("The interest timeout was not scheduled", waitForTimeouts(1));
+
+    face_.removePendingInterest(pendingInterestId);
+    assertTrue("The interest timeout was not cancelled", waitForTimeouts(0));
+    assertFalse(isCalled[0]);
+    assertFalse(isCalled[1]);
+  }
+
+  @Test
+  public void
+  testDataCancelsTimeout() throws Exception
+  {
+    boolean[] isCalled = new boolean[] { false, false };
+    expressInterest(isCalled);
+    assertTrue("The interest timeout was not scheduled", waitForTimeouts(1));
+
+    accepted_ = server_.accept();
+    ByteBuffer encoding = new Data(new Name("/test/a")).wireEncode().buf();
+    while (encoding.hasRemaining())
+      accepted_.write(encoding);
+
+    long endTime = System.currentTimeMillis() + 5000;
+    while (!isCalled[0] && System.currentTimeMillis() < endTime) {
+      face_.processEvents();
+      Thread.sleep(10);
+    }
+
+    assertTrue("onData was not called", isCalled[0]);
+    assertTrue("The interest timeout was not cancelled", waitForTimeouts(0));
+    assertFalse(isCalled[1]);
+  }
+}
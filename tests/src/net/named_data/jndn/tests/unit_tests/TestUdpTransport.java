@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.encoding.ElementListener;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.transport.UdpTransport;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestUdpTransport {
+  private DatagramChannel peer_;
+  private UdpTransport transport_;
+  private final ArrayList<Name> received_ = new ArrayList<Name>();
+
+  @Before
+  public void
+  setUp() throws IOException
+  {
+    peer_ = DatagramChannel.open();
+    peer_.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+    peer_.configureBlocking(false);
+
+    UdpTransport.ConnectionInfo connectionInfo = new UdpTransport.ConnectionInfo
+      ("127.0.0.1", peer_.socket().getLocalPort());
+    connectionInfo.setBatchSize(4).setRingSize(3);
+
+    transport_ = new UdpTransport();
+    transport_.connect(connectionInfo, new ElementListener() {
+      public void onReceivedElement(ByteBuffer element)
+        throws EncodingException {
+        Data data = new Data();
+        data.wireDecode(element);
+        received_.add(data.getName());
+      }
+    }, null);
+  }
+
+  @After
+  public void
+  tearDown() throws IOException
+  {
+    transport_.close();
+    peer_.close();
+  }
+
+  private static ByteBuffer
+  makeDatagram(int i)
+  {
+    return new Data(new Name("/test").appendSegment(i)).wireEncode().buf();
+  }
+
+  /**
+   * Receive a datagram at the peer, waiting up to timeoutMilliseconds.
+   * @return The sender address, or null if nothing was received.
+   */
+  private SocketAddress
+  peerReceive(ByteBuffer buffer, long timeoutMilliseconds)
+    throws IOException, InterruptedException
+  {
+    long endTime = System.currentTimeMillis() + timeoutMilliseconds;
+    while (true) {
+      buffer.clear();
+      SocketAddress sender = peer_.receive(buffer);
+      if (sender != null || System.currentTimeMillis() >= endTime)
+        return sender;
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  public void
+  testBatchedSend() throws IOException, EncodingException, InterruptedException
+  {
+    ByteBuffer buffer = ByteBuffer.allocate(1000);
+
+    transport_.send(makeDatagram(0));
+    transport_.send(makeDatagram(1));
+    transport_.send(makeDatagram(2));
+    // Fewer than the batch size are queued.
+    assertNull(peerReceive(buffer, 100));
+    // The socket can take them, so processEvents is due without waiting for
+    // the channel to be writable.
+    assertTrue(transport_.getNextProcessEventsTime() >= 0);
+    assertFalse(transport_.getIsWritePending());
+
+    // The ring of 3 is full, so this writes the queued datagrams first.
+    transport_.send(makeDatagram(3));
+    for (int i = 0; i < 3; ++i) {
+      assertEquals(true, peerReceive(buffer, 5000) != null);
+      buffer.flip();
+      assertEquals(makeDatagram(i), buffer);
+    }
+    assertNull(peerReceive(buffer, 100));
+
+    transport_.processEvents();
+    assertEquals(true, peerReceive(buffer, 5000) != null);
+    buffer.flip();
+    assertEquals(makeDatagram(3), buffer);
+    assertEquals(-1, transport_.getNextProcessEventsTime(), 0);
+    assertFalse(transport_.getIsWritePending());
+  }
+
+  @Test
+  public void
+  testBatchedReceive()
+    throws IOException, EncodingException, InterruptedException
+  {
+    // Send a datagram to get the transport's address.
+    transport_.send(makeDatagram(0));
+    transport_.flush();
+    SocketAddress transportAddress =
+      peerReceive(ByteBuffer.allocate(1000), 5000);
+
+    for (int i = 0; i < 10; ++i)
+      peer_.send(makeDatagram(i), transportAddress);
+    // Let the datagrams arrive.
+    Thread.sleep(100);
+
+    // Each call reads at most the batch size of 4, using the ring of 3.
+    transport_.processEvents();
+    assertEquals(4, received_.size());
+    transport_.processEvents();
+    assertEquals(8, received_.size());
+    transport_.processEvents();
+    assertEquals(10, received_.size());
+    for (int i = 0; i < 10; ++i)
+      assertEquals(new Name("/test").appendSegment(i), received_.get(i));
+  }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2019 Regents of the University of California.
+ * @author: Jeff Thompson <jefft0@remap.ucla.edu>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ * A copy of the GNU Lesser General Public License is in the file COPYING.
+ */
+
+package net.named_data.jndn.tests.unit_tests;
+
+import java.io.File;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import net.named_data.jndn.Data;
+import net.named_data.jndn.Interest;
+import net.named_data.jndn.Name;
+import net.named_data.jndn.encoding.ElementListener;
+import net.named_data.jndn.encoding.EncodingException;
+import net.named_data.jndn.transport.UnixTransport;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestUnixTransport {
+  private File socketFile_;
+  private ServerSocketChannel server_;
+  private SocketChannel accepted_;
+  private UnixTransport transport_;
+  private final ArrayList<Name> received_ = new ArrayList<Name>();
+
+  @Before
+  public void
+  setUp() throws Exception
+  {
+    Assume.assumeTrue(UnixTransport.isSupported());
+
+    socketFile_ = File.createTempFile("jndn-test", ".sock");
+    socketFile_.delete();
+
+    // The Unix domain socket API is Java 16 or later, so use reflection.
+    SocketAddress address = (SocketAddress)Class.forName
+      ("java.net.UnixDomainSocketAddress").getMethod("of", String.class)
+      .invoke(null, socketFile_.getAbsolutePath());
+    server_ = (ServerSocketChannel)ServerSocketChannel.class.getMethod
+      ("open", ProtocolFamily.class).invoke
+      (null, StandardProtocolFamily.valueOf("UNIX"));
+    server_.bind(address);
+
+    transport_ = new UnixTransport();
+    transport_.connect
+      (new UnixTransport.ConnectionInfo(socketFile_.getAbsolutePath()),
+       new ElementListener() {
+         public void onReceivedElement(ByteBuffer element)
+           throws EncodingException {
+           Interest interest = new Interest();
+           interest.wireDecode(element);
+           received_.add(interest.getName());
+         }
+       }, null);
+    accepted_ = server_.accept();
+  }
+
+  @After
+  public void
+  tearDown() throws Exception
+  {
+    if (transport_ != null)
+      transport_.close();
+    if (accepted_ != null)
+      accepted_.close();
+    if (server_ != null)
+      server_.close();
+    if (socketFile_ != null)
+      socketFile_.delete();
+  }
+
+  @Test
+  public void
+  testIsLocal()
+  {
+    assertTrue(transport_.isLocal(new UnixTransport.ConnectionInfo()));
+  }
+
+  @Test
+  public void
+  testSendAndReceive() throws Exception
+  {
+    ByteBuffer encoding = new Data(new Name("/a/b")).wireEncode().buf();
+    transport_.send(encoding);
+
+    ByteBuffer buffer = ByteBuffer.allocate(encoding.remaining());
+    while (buffer.hasRemaining())
+      accepted_.read(buffer);
+    buffer.flip();
+    assertEquals(encoding, buffer);
+
+    // Write two Interests, the second split across writes.
+    ByteBuffer interest1 = new Interest(new Name("/x/1")).wireEncode().buf();
+    ByteBuffer interest2 = new Interest(new Name("/x/2")).wireEncode().buf();
+    accepted_.write(interest1);
+    ByteBuffer firstPart = interest2.duplicate();
+    firstPart.limit(3);
+    accepted_.write(firstPart);
+
+    long endTime = System.currentTimeMillis() + 5000;
+    while (received_.size() < 1 && System.currentTimeMillis() < endTime)
+      transport_.processEvents();
+    interest2.position(3);
+    accepted_.write(interest2);
+    while (received_.size() < 2 && System.currentTimeMillis() < endTime)
+      transport_.processEvents();
+
+    assertEquals(2, received_.size());
+    assertEquals(new Name("/x/1"), received_.get(0));
+    assertEquals(new Name("/x/2"), received_.get(1));
+  }
+}